@@ -0,0 +1,34 @@
+package org.fcrepo.dto.factories.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar. Accepts the usual JMH command line
+ * options, but always attaches the GC profiler so every run reports the
+ * allocation rate next to the throughput
+ * 
+ * @author fasseg
+ * 
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		final List<String> argList = Arrays.asList(args);
+		if (argList.contains("-h") || argList.contains("-l") || argList.contains("-lp")
+				|| argList.contains("-lprof")) {
+			Main.main(args);
+			return;
+		}
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
@@ -0,0 +1,87 @@
+package org.fcrepo.dto.factories.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.fcrepo.dto.factories.content.ContentGenerator;
+import org.fcrepo.dto.factories.content.ContentSource;
+import org.fcrepo.dto.factories.content.ContentSources;
+import org.fcrepo.dto.factories.content.ContentWriter;
+import org.fcrepo.dto.factories.content.ContentWriters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the generation of random content, both into memory and into
+ * files written by the {@link ContentWriter}s
+ * 
+ * @author fasseg
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentGenerationBenchmark {
+
+	@Param({ "1024", "65536", "1048576", "16777216" })
+	public int size;
+
+	@Param({ "random", "compressible:0.5" })
+	public String source;
+
+	@Param({ "stream", "channel" })
+	public String writer;
+
+	private ContentSource contentSource;
+
+	private ContentWriter contentWriter;
+
+	private byte[] buffer;
+
+	private File directory;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		contentSource = ContentSources.forSpec(source);
+		contentWriter = ContentWriters.forName(writer, ContentWriters.DEFAULT_BUFFER_SIZE, false);
+		buffer = new byte[size];
+		directory = File.createTempFile("content-benchmark-", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Benchmark
+	public byte[] generateIntoMemory() {
+		contentSource.open(ContentSources.nextSeed()).nextBytes(buffer, 0, buffer.length);
+		return buffer;
+	}
+
+	@Benchmark
+	public long generateIntoFile() throws IOException {
+		final ContentGenerator generator = contentSource.open(ContentSources.nextSeed());
+		final File file = new File(directory, "content");
+		contentWriter.write(file, generator, size);
+		return file.length();
+	}
+}
@@ -0,0 +1,88 @@
+package org.fcrepo.dto.factories.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.fcrepo.dto.factories.FedoraObjects;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+import com.github.cwilper.fcrepo.dto.foxml.FOXMLWriter;
+
+/**
+ * Benchmarks the serialization of {@link FedoraObject}s to FOXML by the
+ * {@link FOXMLWriter} for every {@link ControlGroup}. The output is discarded
+ * so only the serialization is measured
+ * 
+ * @author fasseg
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FOXMLWriterBenchmark {
+
+	@Param({ "INLINE_XML", "MANAGED", "EXTERNAL", "REDIRECT" })
+	public String controlGroup;
+
+	@Param({ "10" })
+	public int numVersions;
+
+	@Param({ "65536", "1048576" })
+	public long size;
+
+	private File directory;
+
+	private FedoraObject object;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		directory = File.createTempFile("foxml-benchmark-", "");
+		directory.delete();
+		directory.mkdir();
+		final ControlGroup group = ControlGroup.valueOf(controlGroup);
+		if (group == ControlGroup.INLINE_XML) {
+			final File xml = new File(directory, "content.xml");
+			final StringBuilder content = new StringBuilder("<root>");
+			while (content.length() < size) {
+				content.append("<element attribute=\"value\">some text content</element>");
+			}
+			content.append("</root>");
+			FileUtils.writeStringToFile(xml, content.toString(), "UTF-8");
+			object = FedoraObjects.generateFedoraObjectFromURI(xml.toURI(), group);
+		} else {
+			object = FedoraObjects.generateFedoraObjectFromRandomData(numVersions, size, directory, group,
+					new GenerationOptions().synthetic(true));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Benchmark
+	public void writeFOXML() throws IOException {
+		new FOXMLWriter().writeObject(object, new NullOutputStream());
+	}
+}
@@ -0,0 +1,51 @@
+package org.fcrepo.dto.factories.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.fcrepo.dto.factories.FedoraObjects;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+
+/**
+ * Benchmarks the construction of {@link FedoraObject}s with many
+ * datastream versions. The content is synthetic, so only the object
+ * construction is measured and not the file system
+ * 
+ * @author fasseg
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FedoraObjectsBenchmark {
+
+	@Param({ "1", "10", "100", "1000" })
+	public int numVersions;
+
+	private final GenerationOptions options = new GenerationOptions().synthetic(true);
+
+	private final File directory = new File(System.getProperty("java.io.tmpdir"));
+
+	@Benchmark
+	public FedoraObject generateFedoraObject() throws IOException {
+		return FedoraObjects.generateFedoraObjectFromRandomData(numVersions, 65536, directory, ControlGroup.MANAGED,
+				options);
+	}
+}
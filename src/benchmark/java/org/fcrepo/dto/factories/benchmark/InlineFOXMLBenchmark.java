@@ -0,0 +1,70 @@
+package org.fcrepo.dto.factories.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.fcrepo.dto.factories.FedoraObjects;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.fcrepo.dto.factories.content.SyntheticContentResolver;
+import org.fcrepo.dto.factories.foxml.StreamingFOXMLWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+
+/**
+ * Benchmarks the inline base64 path, which regenerates synthetic content and
+ * embeds it into the FOXML while writing. The output is discarded so only
+ * content generation and encoding are measured
+ * 
+ * @author fasseg
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InlineFOXMLBenchmark {
+
+	@Param({ "1", "10" })
+	public int numVersions;
+
+	@Param({ "65536", "1048576" })
+	public long size;
+
+	private FedoraObject object;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		object = FedoraObjects.generateFedoraObjectFromRandomData(numVersions, size,
+				new File(System.getProperty("java.io.tmpdir")), ControlGroup.MANAGED,
+				new GenerationOptions().synthetic(true));
+	}
+
+	@Benchmark
+	public void writeInlineFOXML() throws IOException {
+		final StreamingFOXMLWriter writer = new StreamingFOXMLWriter();
+		writer.setContentResolver(new SyntheticContentResolver());
+		writer.setManagedDatastreamsToEmbed(object.datastreams().keySet());
+		try {
+			writer.writeObject(object, new NullOutputStream());
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,356 @@
+package org.fcrepo.dto.factories;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.fcrepo.dto.factories.workload.Distributions;
+import org.fcrepo.dto.factories.workload.WorkloadProfile;
+
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+
+/**
+ * A lazily generated corpus of random {@link FedoraObject}s. A corpus only
+ * describes the objects, which are generated one by one while iterating over
+ * {@link #objects()} or {@link #files()}, so the memory used does not depend
+ * on the number of objects. Every object is generated from it's index in the
+ * corpus via {@link GenerationOptions#random(long)}, so with a seed the same
+ * index always yields the same object.
+ * <p>
+ * A corpus can be split into disjoint slices holding every n-th object, which
+ * can be iterated by different threads or machines in parallel. Slices can be
+ * split further, and together always make up the corpus they were split from.
+ * Corpora are immutable, the iterators they hand out are not thread safe.
+ *
+ * @author fasseg
+ *
+ */
+public final class Corpus {
+
+	private final long size;
+
+	private final long first;
+
+	private final long stride;
+
+	private WorkloadProfile profile = new WorkloadProfile();
+
+	private ControlGroup controlGroup = ControlGroup.MANAGED;
+
+	private boolean inline;
+
+	private File directory = new File(System.getProperty("java.io.tmpdir"));
+
+	private GenerationOptions options = new GenerationOptions();
+
+	/**
+	 * create a new {@link Corpus}
+	 *
+	 * @param size
+	 *            the number of objects in the corpus
+	 */
+	public Corpus(final long size) {
+		this(size, 0, 1);
+	}
+
+	private Corpus(final long size, final long first, final long stride) {
+		if (size < 0) {
+			throw new IllegalArgumentException("corpus size must not be negative");
+		}
+		this.size = size;
+		this.first = first;
+		this.stride = stride;
+	}
+
+	private Corpus copy(final long newFirst, final long newStride) {
+		final Corpus copy = new Corpus(size, newFirst, newStride);
+		copy.profile = profile;
+		copy.controlGroup = controlGroup;
+		copy.inline = inline;
+		copy.directory = directory;
+		copy.options = options;
+		return copy;
+	}
+
+	/**
+	 * create a copy of this {@link Corpus} whose objects have a given number
+	 * of datastream versions
+	 *
+	 * @param numVersions
+	 *            the number of versions of each object's datastream
+	 * @return a new {@link Corpus}
+	 */
+	public Corpus versions(final int numVersions) {
+		if (numVersions < 1) {
+			throw new IllegalArgumentException("number of versions must be at least 1");
+		}
+		final Corpus copy = copy(first, stride);
+		copy.profile = profile.versions(Distributions.fixed(numVersions));
+		return copy;
+	}
+
+	/**
+	 * create a copy of this {@link Corpus} whose objects have content of a
+	 * given size
+	 *
+	 * @param contentSize
+	 *            the size of every datastream version's content in bytes
+	 * @return a new {@link Corpus}
+	 */
+	public Corpus contentSize(final long contentSize) {
+		final Corpus copy = copy(first, stride);
+		copy.profile = profile.sizes(Distributions.fixed(contentSize));
+		return copy;
+	}
+
+	/**
+	 * create a copy of this {@link Corpus} whose objects are shaped by a
+	 * {@link WorkloadProfile}, drawing the number of datastreams and versions
+	 * and the content sizes of every object from the profile's distributions
+	 *
+	 * @param profile
+	 *            the {@link WorkloadProfile} of the objects
+	 * @return a new {@link Corpus}
+	 */
+	public Corpus profile(final WorkloadProfile profile) {
+		if (profile == null) {
+			throw new IllegalArgumentException("profile must not be null");
+		}
+		final Corpus copy = copy(first, stride);
+		copy.profile = profile;
+		return copy;
+	}
+
+	/**
+	 * create a copy of this {@link Corpus} whose objects store their content
+	 * in a given {@link ControlGroup}
+	 *
+	 * @param controlGroup
+	 *            the {@link ControlGroup} of the datastreams
+	 * @return a new {@link Corpus}
+	 */
+	public Corpus controlGroup(final ControlGroup controlGroup) {
+		final Corpus copy = copy(first, stride);
+		copy.controlGroup = controlGroup;
+		return copy;
+	}
+
+	/**
+	 * create a copy of this {@link Corpus} whose FOXML files embed the
+	 * content of managed datastreams as base64 encoded binary content
+	 *
+	 * @param inline
+	 *            true if {@link #files()} should embed the content
+	 * @return a new {@link Corpus}
+	 */
+	public Corpus inline(final boolean inline) {
+		final Corpus copy = copy(first, stride);
+		copy.inline = inline;
+		return copy;
+	}
+
+	/**
+	 * create a copy of this {@link Corpus} writing content and FOXML files
+	 * into a given directory
+	 *
+	 * @param directory
+	 *            the directory for content and FOXML files
+	 * @return a new {@link Corpus}
+	 */
+	public Corpus directory(final File directory) {
+		final Corpus copy = copy(first, stride);
+		copy.directory = directory;
+		return copy;
+	}
+
+	/**
+	 * create a copy of this {@link Corpus} generating objects as described by
+	 * {@link GenerationOptions}
+	 *
+	 * @param options
+	 *            the {@link GenerationOptions} to use
+	 * @return a new {@link Corpus}
+	 */
+	public Corpus options(final GenerationOptions options) {
+		final Corpus copy = copy(first, stride);
+		copy.options = options;
+		return copy;
+	}
+
+	/**
+	 * get a slice of this {@link Corpus} holding every object whose position
+	 * in this corpus modulo <code>count</code> equals <code>index</code>
+	 *
+	 * @param index
+	 *            the index of the slice, starting at 0
+	 * @param count
+	 *            the number of slices
+	 * @return a new {@link Corpus} holding the slice
+	 */
+	public Corpus slice(final int index, final int count) {
+		if (count < 1 || index < 0 || index >= count) {
+			throw new IllegalArgumentException("invalid slice " + index + "/" + count);
+		}
+		return copy(first + index * stride, stride * count);
+	}
+
+	/**
+	 * split this {@link Corpus} into disjoint slices of equal size, e.g. one
+	 * for every thread generating it
+	 *
+	 * @param count
+	 *            the number of slices
+	 * @return a {@link List} of all slices, which together make up this
+	 *         corpus
+	 */
+	public List<Corpus> split(final int count) {
+		final List<Corpus> slices = new ArrayList<Corpus>(count);
+		for (int i = 0; i < count; i++) {
+			slices.add(slice(i, count));
+		}
+		return slices;
+	}
+
+	/**
+	 * get the number of objects in this {@link Corpus}
+	 *
+	 * @return the number of objects
+	 */
+	public long size() {
+		return (size <= first) ? 0 : (size - first - 1) / stride + 1;
+	}
+
+	/**
+	 * iterate over the indices of the objects in this {@link Corpus}
+	 *
+	 * @return an {@link Iterator} over the object indices in ascending order
+	 */
+	public Iterator<Long> indices() {
+		return new Iterator<Long>() {
+			private long next = first;
+
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			public Long next() {
+				if (next >= size) {
+					throw new NoSuchElementException();
+				}
+				final long current = next;
+				next += stride;
+				return current;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * generate the object with a given index. Unless the
+	 * {@link GenerationOptions} ask for synthetic content, it's content is
+	 * written to the corpus' directory
+	 *
+	 * @param index
+	 *            the index of the object in the whole corpus
+	 * @return a new {@link FedoraObject}
+	 * @throws IOException
+	 *             if the content could not be written
+	 */
+	public FedoraObject object(final long index) throws IOException {
+		// embedded content is generated while writing the FOXML
+		final GenerationOptions objectOptions = inline ? options.copy().synthetic(true) : options;
+		return FedoraObjects.generateFedoraObjectFromRandomData(profile, directory, controlGroup, objectOptions,
+				objectOptions.random(index));
+	}
+
+	/**
+	 * generate the object with a given index and write it to a FOXML file in
+	 * the corpus' directory
+	 *
+	 * @param index
+	 *            the index of the object in the whole corpus
+	 * @return the FOXML {@link File}
+	 * @throws IOException
+	 *             if the content or the FOXML could not be written
+	 */
+	public File file(final long index) throws IOException {
+		final FedoraObject fo = FedoraObjects.digestContent(object(index), options.digest());
+		return inline ? FOXMLs.writeInlineFOXML(fo, directory, options) : FOXMLs.writeFOXML(fo, directory,
+				options);
+	}
+
+	/**
+	 * get the objects of this {@link Corpus}, generated on demand. An
+	 * {@link IOException} while generating an object is rethrown as an
+	 * {@link IllegalStateException} by the iterator
+	 *
+	 * @return an {@link Iterable} over the objects
+	 */
+	public Iterable<FedoraObject> objects() {
+		return new Iterable<FedoraObject>() {
+			public Iterator<FedoraObject> iterator() {
+				return new Generator<FedoraObject>() {
+					@Override
+					protected FedoraObject generate(final long index) throws IOException {
+						return object(index);
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * get the FOXML files of this {@link Corpus}, generated and written on
+	 * demand. An {@link IOException} while writing a file is rethrown as an
+	 * {@link IllegalStateException} by the iterator
+	 *
+	 * @return an {@link Iterable} over the FOXML files
+	 */
+	public Iterable<File> files() {
+		return new Iterable<File>() {
+			public Iterator<File> iterator() {
+				return new Generator<File>() {
+					@Override
+					protected File generate(final long index) throws IOException {
+						return file(index);
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "corpus of " + size() + " objects (" + first + " + " + stride + "n < " + size + ")";
+	}
+
+	private abstract class Generator<T> implements Iterator<T> {
+		private final Iterator<Long> indices = indices();
+
+		protected abstract T generate(long index) throws IOException;
+
+		public boolean hasNext() {
+			return indices.hasNext();
+		}
+
+		public T next() {
+			final long index = indices.next();
+			try {
+				return generate(index);
+			} catch (IOException e) {
+				throw new IllegalStateException("unable to generate object " + index, e);
+			}
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
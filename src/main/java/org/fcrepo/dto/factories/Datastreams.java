@@ -1,19 +1,23 @@
 package org.fcrepo.dto.factories;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Random;
-import java.util.UUID;
+import java.util.concurrent.Callable;
 
-import org.apache.commons.io.IOUtils;
+import org.fcrepo.dto.factories.content.ContentDigests;
+import org.fcrepo.dto.factories.content.ContentGenerator;
+import org.fcrepo.dto.factories.content.ContentSource;
+import org.fcrepo.dto.factories.content.ContentSources;
+import org.fcrepo.dto.factories.content.ContentWriter;
+import org.fcrepo.dto.factories.content.SyntheticContent;
+import org.fcrepo.dto.factories.content.XMLContent;
 
+import com.github.cwilper.fcrepo.dto.core.ContentDigest;
 import com.github.cwilper.fcrepo.dto.core.ControlGroup;
 import com.github.cwilper.fcrepo.dto.core.Datastream;
 import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
@@ -27,8 +31,6 @@ import com.github.cwilper.fcrepo.dto.core.InlineXML;
  */
 public abstract class Datastreams {
 
-	private final static Random random = new Random();
-
 	private Datastreams() {
 		// you no construct me from derived class.
 	}
@@ -48,29 +50,250 @@ public abstract class Datastreams {
 	public final static DatastreamVersion generateDatastreamVersionFromRandomData(final long size,
 			final File targetDirectory)
 			throws IOException {
-		final File versionFile = new File(targetDirectory,UUID.randomUUID().toString());
-		final FileOutputStream versionOut = new FileOutputStream(versionFile);
-		final byte[] buffer = (size < 4096) ? new byte[(int) size] : new byte[4096];
-		long sumBytes = size;
-		try {
-			while (sumBytes > 0) {
-				random.nextBytes(buffer);
-				if (sumBytes >= 4096) {
-					versionOut.write(buffer, 0, 4096);
-					sumBytes -= 4096;
-				} else {
-					versionOut.write(buffer, 0, (int) sumBytes);
-					sumBytes = 0;
-				}
-			}
-		} finally {
-			IOUtils.closeQuietly(versionOut);
+		return generateDatastreamVersionFromRandomData(size, targetDirectory, ContentSources.random());
+	}
+
+	/**
+	 * create a new {@link DatastreamVersion} with content generated by a
+	 * {@link ContentSource}. The content will be created as a file on the
+	 * filesystem for later access.
+	 * 
+	 * @param size
+	 *            the size of the {@link DatastreamVersion}'s content
+	 * @param targetDirectory
+	 *            the directory to write the content file to
+	 * @param source
+	 *            the {@link ContentSource} generating the content
+	 * @return a new {@link DatastreamVersion}
+	 * @throws IOException
+	 *             the content could not be written to the filesystem
+	 */
+	public final static DatastreamVersion generateDatastreamVersionFromRandomData(final long size,
+			final File targetDirectory, final ContentSource source) throws IOException {
+		return generateDatastreamVersionFromRandomData(size, targetDirectory, new GenerationOptions().source(source));
+	}
+
+	/**
+	 * create a new {@link DatastreamVersion} with generated content as
+	 * described by {@link GenerationOptions}. Depending on the options the
+	 * content is either written to a file using the options'
+	 * {@link ContentWriter} or referenced by a synthetic {@link URI}
+	 * 
+	 * @param size
+	 *            the size of the {@link DatastreamVersion}'s content
+	 * @param targetDirectory
+	 *            the directory to write the content file to
+	 * @param options
+	 *            the {@link GenerationOptions} to use
+	 * @return a new {@link DatastreamVersion}
+	 * @throws IOException
+	 *             the content could not be written to the filesystem
+	 */
+	public final static DatastreamVersion generateDatastreamVersionFromRandomData(final long size,
+			final File targetDirectory, final GenerationOptions options) throws IOException {
+		return generateDatastreamVersionFromRandomData(size, targetDirectory, options, ObjectRandom.unseeded());
+	}
+
+	/**
+	 * create a new {@link DatastreamVersion} with generated content as
+	 * described by {@link GenerationOptions}, drawing it's identifiers, date
+	 * and content seed from an {@link ObjectRandom}. The content file is named
+	 * after the version's ID, so a seeded {@link ObjectRandom} always yields
+	 * the same version, no matter whether it's content is written right away
+	 * or materialized later on
+	 * 
+	 * @param size
+	 *            the size of the {@link DatastreamVersion}'s content
+	 * @param targetDirectory
+	 *            the directory to write the content file to
+	 * @param options
+	 *            the {@link GenerationOptions} to use
+	 * @param random
+	 *            the {@link ObjectRandom} of the object the version belongs
+	 *            to
+	 * @return a new {@link DatastreamVersion}
+	 * @throws IOException
+	 *             the content could not be written to the filesystem
+	 */
+	public final static DatastreamVersion generateDatastreamVersionFromRandomData(final long size,
+			final File targetDirectory, final GenerationOptions options, final ObjectRandom random)
+			throws IOException {
+		final DatastreamVersion version = generateDatastreamVersionFromSyntheticData(size, options.source(), random);
+		if (options.synthetic()) {
+			return version;
 		}
-		return new DatastreamVersion("ds-" + UUID.randomUUID(), new Date())
+		final URI uri = version.contentLocation();
+		final File versionFile = options.layout().file(targetDirectory, version.id());
+		final ContentGenerator generator = options.source().open(SyntheticContent.getSeed(uri));
+		final ContentDigest digest = writeContent(versionFile, generator, size, options.digest(), options);
+		if (digest != null) {
+			version.contentDigest(digest);
+		}
+		return version.size(null).contentLocation(versionFile.toURI());
+	}
+
+	/**
+	 * create a new {@link DatastreamVersion} referencing synthetic content.
+	 * No file is written, instead the content location is a synthetic
+	 * {@link URI} encoding the seed and size of the content, which gets
+	 * regenerated whenever it is read
+	 * 
+	 * @param size
+	 *            the size of the {@link DatastreamVersion}'s content
+	 * @param source
+	 *            the {@link ContentSource} generating the content
+	 * @return a new {@link DatastreamVersion}
+	 * @see SyntheticContent
+	 */
+	public final static DatastreamVersion generateDatastreamVersionFromSyntheticData(final long size,
+			final ContentSource source) {
+		return generateDatastreamVersionFromSyntheticData(size, source, ObjectRandom.unseeded());
+	}
+
+	/**
+	 * create a new {@link DatastreamVersion} referencing synthetic content,
+	 * drawing it's identifiers, date and content seed from an
+	 * {@link ObjectRandom}
+	 * 
+	 * @param size
+	 *            the size of the {@link DatastreamVersion}'s content
+	 * @param source
+	 *            the {@link ContentSource} generating the content
+	 * @param random
+	 *            the {@link ObjectRandom} of the object the version belongs
+	 *            to
+	 * @return a new {@link DatastreamVersion}
+	 * @see SyntheticContent
+	 */
+	public final static DatastreamVersion generateDatastreamVersionFromSyntheticData(final long size,
+			final ContentSource source, final ObjectRandom random) {
+		return new DatastreamVersion("ds-" + random.nextId(), random.nextDate())
 				.mimeType("application/octet-stream")
 				.formatURI(URI.create("info:fedora/fedora-system:def/foxml#"))
-				.label("testobject-" + UUID.randomUUID())
-				.contentLocation(versionFile.toURI());
+				.label("testobject-" + random.nextId())
+				.size(size)
+				.contentLocation(SyntheticContent.createURI(random.nextSeed(), size, source));
+	}
+
+	/**
+	 * write the content of a {@link DatastreamVersion} referencing synthetic
+	 * content to a file and let the version reference the file instead.
+	 * Versions not referencing synthetic content are left untouched. This
+	 * allows building objects with synthetic content first and materializing
+	 * their content separately, e.g. on a different thread.
+	 * 
+	 * @param version
+	 *            the {@link DatastreamVersion} to materialize
+	 * @param targetDirectory
+	 *            the directory to write the content file to
+	 * @param writer
+	 *            the {@link ContentWriter} used for writing the content
+	 * @return the {@link DatastreamVersion}
+	 * @throws IOException
+	 *             the content could not be written to the filesystem
+	 */
+	public final static DatastreamVersion materializeContent(final DatastreamVersion version,
+			final File targetDirectory, final ContentWriter writer) throws IOException {
+		return materializeContent(version, targetDirectory, writer, null);
+	}
+
+	/**
+	 * write the content of a {@link DatastreamVersion} referencing synthetic
+	 * content to a file and let the version reference the file instead,
+	 * computing the content's digest while it is written
+	 * 
+	 * @param version
+	 *            the {@link DatastreamVersion} to materialize
+	 * @param targetDirectory
+	 *            the directory to write the content file to
+	 * @param writer
+	 *            the {@link ContentWriter} used for writing the content
+	 * @param digestType
+	 *            the FOXML name of the digest type, or null if no digest
+	 *            should be computed
+	 * @return the {@link DatastreamVersion}
+	 * @throws IOException
+	 *             the content could not be written to the filesystem
+	 */
+	public final static DatastreamVersion materializeContent(final DatastreamVersion version,
+			final File targetDirectory, final ContentWriter writer, final String digestType) throws IOException {
+		return materializeContent(version, targetDirectory, new GenerationOptions().writer(writer).digest(digestType));
+	}
+
+	/**
+	 * write the content of a {@link DatastreamVersion} referencing synthetic
+	 * content to a file and let the version reference the file instead, as
+	 * configured by the {@link GenerationOptions}. The file is placed by the
+	 * options' {@link org.fcrepo.dto.factories.layout.DirectoryLayout},
+	 * written by it's {@link ContentWriter}, digested while it is written
+	 * unless the version has a digest already, and reported to the options'
+	 * {@link org.fcrepo.dto.factories.durability.Durability}
+	 * 
+	 * @param version
+	 *            the {@link DatastreamVersion} to materialize
+	 * @param targetDirectory
+	 *            the target directory of the content file
+	 * @param options
+	 *            the {@link GenerationOptions} to use
+	 * @return the {@link DatastreamVersion}
+	 * @throws IOException
+	 *             the content could not be written to the filesystem
+	 */
+	public final static DatastreamVersion materializeContent(final DatastreamVersion version,
+			final File targetDirectory, final GenerationOptions options) throws IOException {
+		final URI uri = version.contentLocation();
+		if (!SyntheticContent.isSynthetic(uri)) {
+			return version;
+		}
+		final File versionFile = options.layout().file(targetDirectory, version.id());
+		final ContentGenerator generator = SyntheticContent.getSource(uri).open(SyntheticContent.getSeed(uri));
+		final ContentDigest digest = writeContent(versionFile, generator, SyntheticContent.getSize(uri),
+				(version.contentDigest() == null) ? options.digest() : null, options);
+		if (digest != null) {
+			version.contentDigest(digest);
+		}
+		return version.size(null).contentLocation(versionFile.toURI());
+	}
+
+	private static ContentDigest writeContent(final File file, final ContentGenerator generator, final long size,
+			final String digestType, final GenerationOptions options) throws IOException {
+		final ContentWriter writer = options.writer();
+		final ContentDigest result;
+		if (digestType == null) {
+			writer.write(file, generator, size);
+			result = null;
+		} else if (writer.isSparse()) {
+			// sparse files hold zero bytes, not the generated content
+			writer.write(file, generator, size);
+			result = ContentDigests.zeroDigest(digestType, size);
+		} else {
+			final MessageDigest digest = ContentDigests.createDigest(digestType);
+			writer.write(file, ContentDigests.digesting(generator, digest), size);
+			result = ContentDigests.toContentDigest(digestType, digest);
+		}
+		options.durability().written(file);
+		return result;
+	}
+
+	/**
+	 * compute the digest of a {@link DatastreamVersion}'s content unless it
+	 * already has one. Synthetic content is regenerated for computing the
+	 * digest, any other content is read once from it's location
+	 * 
+	 * @param version
+	 *            the {@link DatastreamVersion} to compute the digest for
+	 * @param digestType
+	 *            the FOXML name of the digest type
+	 * @return the {@link DatastreamVersion}
+	 * @throws IOException
+	 *             if the content could not be read
+	 */
+	public final static DatastreamVersion digestContent(final DatastreamVersion version, final String digestType)
+			throws IOException {
+		if (version.contentDigest() == null && version.contentLocation() != null) {
+			version.contentDigest(ContentDigests.digest(version.contentLocation(), digestType));
+		}
+		return version;
 	}
 
 	/**
@@ -102,12 +325,32 @@ public abstract class Datastreams {
 	 */
 	public final static Datastream generateDatastreamFromURI(final URI uri, ControlGroup controlGroup)
 			throws IOException {
-		final Datastream datastream = new Datastream("datastream-" + UUID.randomUUID());
+		return generateDatastreamFromURI(uri, controlGroup, new GenerationOptions());
+	}
+
+	/**
+	 * create a new {@link Datastream} of a given {@link ControlGroup} from the
+	 * contents of a given {@link URI}
+	 * 
+	 * @param uri
+	 *            the {@link URI} pointing to the contents
+	 * @param controlGroup
+	 *            the {@link ControlGroup} to use for storing the contents
+	 * @param options
+	 *            the {@link GenerationOptions} controlling how the content is
+	 *            fetched
+	 * @return a new {@link Datastream}
+	 * @throws IOException
+	 *             if the contents could not be fetched from the {@link URI}
+	 */
+	public final static Datastream generateDatastreamFromURI(final URI uri, ControlGroup controlGroup,
+			final GenerationOptions options) throws IOException {
+		final Datastream datastream = new Datastream("datastream-" + options.identifiers().nextId());
 		if (controlGroup == null) {
 			controlGroup = ControlGroup.MANAGED;
 		}
 		datastream.controlGroup(controlGroup);
-		datastream.versions().add(generateDatastreamVersionFromURI(uri, controlGroup));
+		datastream.versions().add(generateDatastreamVersionFromURI(uri, controlGroup, options));
 		return datastream;
 
 	}
@@ -127,11 +370,52 @@ public abstract class Datastreams {
 	 */
 	public final static Datastream generateDatastreamFromURIs(final List<URI> uris, final ControlGroup controlGroup)
 			throws IOException {
-		final Datastream datastream = new Datastream("datastream-" + UUID.randomUUID());
+		return generateDatastreamFromURIs(uris, controlGroup, new GenerationOptions());
+	}
+
+	/**
+	 * create a new {@link Datastream} from a {@link List} of {@link URI}s of a
+	 * given {@link ControlGroup}. With a {@link GenerationOptions#fetcher()}
+	 * the versions are fetched concurrently
+	 * 
+	 * @param uris
+	 *            the {@link List} of {@link URI}s pointing to the
+	 *            {@link Datastream}'s content
+	 * @param controlGroup
+	 *            the {@link ControlGroup} to use for storing the contents
+	 * @param options
+	 *            the {@link GenerationOptions} controlling how the content is
+	 *            fetched
+	 * @return a new {@link Datastream}
+	 * @throws IOException
+	 *             if the contents could not be fetched from the {@link URI}s
+	 */
+	public final static Datastream generateDatastreamFromURIs(final List<URI> uris, final ControlGroup controlGroup,
+			final GenerationOptions options) throws IOException {
+		final Datastream datastream = new Datastream("datastream-" + options.identifiers().nextId());
+		if (options.fetcher() != null) {
+			// fetch all versions concurrently, but draw their ids and created
+			// dates up front, so they are distinct and follow the order of
+			// the URIs no matter which fetch finishes first
+			final List<Callable<DatastreamVersion>> tasks = new ArrayList<Callable<DatastreamVersion>>(uris.size());
+			final long created = System.currentTimeMillis();
+			for (int i = 0; i < uris.size(); i++) {
+				final URI uri = uris.get(i);
+				final String id = "datastream-" + options.identifiers().nextId();
+				final Date date = new Date(created + i);
+				tasks.add(new Callable<DatastreamVersion>() {
+					public DatastreamVersion call() throws IOException {
+						return generateDatastreamVersionFromURI(uri, controlGroup, options, id, date);
+					}
+				});
+			}
+			datastream.versions().addAll(options.fetcher().invokeAll(tasks));
+			return datastream;
+		}
 		for (URI uri : uris) {
 			boolean success = false;
 			while (!success) {
-				success = datastream.versions().add(generateDatastreamVersionFromURI(uri, controlGroup));
+				success = datastream.versions().add(generateDatastreamVersionFromURI(uri, controlGroup, options));
 			}
 		}
 		return datastream;
@@ -152,9 +436,43 @@ public abstract class Datastreams {
 	 */
 	public final static List<Datastream> generateDatastreamsFromURIs(final List<URI> uris,
 			final ControlGroup controlGroup) throws IOException {
+		return generateDatastreamsFromURIs(uris, controlGroup, new GenerationOptions());
+	}
+
+	/**
+	 * create a new {@link List} of {@link Datastream}s each holding one of the
+	 * {@link URI}'s content repspectively. With a
+	 * {@link GenerationOptions#fetcher()} the datastreams are fetched
+	 * concurrently
+	 * 
+	 * @param uris
+	 *            the {@link List} of {@link URI}s to use for the
+	 *            {@link Datastream}s' contents
+	 * @param controlGroup
+	 *            the {@link ControlGroup} to use for storing the contents
+	 * @param options
+	 *            the {@link GenerationOptions} controlling how the content is
+	 *            fetched
+	 * @return a {@link List} of new {@link Datastream}s
+	 * @throws IOException
+	 *             if the contents could not be fetched from the {@link URI}s
+	 */
+	public final static List<Datastream> generateDatastreamsFromURIs(final List<URI> uris,
+			final ControlGroup controlGroup, final GenerationOptions options) throws IOException {
+		if (options.fetcher() != null) {
+			final List<Callable<Datastream>> tasks = new ArrayList<Callable<Datastream>>(uris.size());
+			for (final URI uri : uris) {
+				tasks.add(new Callable<Datastream>() {
+					public Datastream call() throws IOException {
+						return generateDatastreamFromURI(uri, controlGroup, options);
+					}
+				});
+			}
+			return options.fetcher().invokeAll(tasks);
+		}
 		final List<Datastream> streams = new ArrayList<Datastream>();
 		for (URI uri : uris) {
-			streams.add(generateDatastreamFromURI(uri, controlGroup));
+			streams.add(generateDatastreamFromURI(uri, controlGroup, options));
 		}
 		return streams;
 	}
@@ -173,23 +491,62 @@ public abstract class Datastreams {
 	 */
 	public final static DatastreamVersion generateDatastreamVersionFromURI(final URI uri, ControlGroup controlGroup)
 			throws IOException {
+		return generateDatastreamVersionFromURI(uri, controlGroup, new GenerationOptions());
+	}
+
+	/**
+	 * create a new {@link DatastreamVersion} from the contents of an
+	 * {@link URI} with a given {@link ControlGroup}. Inline XML content is
+	 * either read into memory in a single pass, or only referenced and
+	 * streamed into the FOXML later on if
+	 * {@link GenerationOptions#streamInlineXML()} is set. In both cases
+	 * content larger than {@link GenerationOptions#inlineXMLLimit()} is
+	 * rejected. If a {@link GenerationOptions#cache()} is set, content and
+	 * digests are fetched through it, so content reused by many versions is
+	 * read only once. If a {@link GenerationOptions#fetcher()} is set, remote
+	 * content is fetched with it's timeouts and retries.
+	 * 
+	 * @param uri
+	 *            the {@link URI} pointing to the contents
+	 * @param controlGroup
+	 *            the {@link ControlGroup} to use for storing the contents
+	 * @param options
+	 *            the {@link GenerationOptions} controlling how the content is
+	 *            fetched
+	 * @return a new {@link DatastreamVersion}
+	 * @throws IOException
+	 *             if the contents could not be fetched from the {@link URI},
+	 *             exceed the size limit or are not well-formed
+	 */
+	public final static DatastreamVersion generateDatastreamVersionFromURI(final URI uri, ControlGroup controlGroup,
+			final GenerationOptions options) throws IOException {
+		return generateDatastreamVersionFromURI(uri, controlGroup, options,
+				"datastream-" + options.identifiers().nextId(), new Date());
+	}
+
+	private static DatastreamVersion generateDatastreamVersionFromURI(final URI uri, ControlGroup controlGroup,
+			final GenerationOptions options, final String id, final Date created) throws IOException {
 		if (controlGroup == null) {
 			controlGroup = ControlGroup.MANAGED;
 		}
-		final DatastreamVersion version = new DatastreamVersion("datastream-" + UUID.randomUUID(), new Date());
+		final DatastreamVersion version = new DatastreamVersion(id, created);
 		version.mimeType("application/octet-stream");
 		version.formatURI(URI.create("info:fedora/fedora-system:def/foxml#"))
 				.contentLocation(uri);
 		if (controlGroup == ControlGroup.INLINE_XML) {
-			final ByteArrayOutputStream out = new ByteArrayOutputStream();
-			final InputStream in = null;
-			try {
-				IOUtils.copy(uri.toURL().openStream(), out);
-				final InlineXML xml = new InlineXML(out.toByteArray());
-				version.inlineXML(xml);
-			} finally {
-				IOUtils.closeQuietly(in);
+			if (options.streamInlineXML()) {
+				// fail early for files, anything else is checked while
+				// streaming
+				XMLContent.checkSize(uri, options.inlineXMLLimit());
+			} else {
+				version.inlineXML(new InlineXML(XMLContent.read(uri, options.inlineXMLLimit(),
+						options.validateInlineXML(), options.cache(), options.fetcher())));
 			}
+		} else if (options.cache() != null && options.digest() != null) {
+			version.contentDigest(options.cache().digest(uri, options.digest()));
+		} else if (options.fetcher() != null && options.digest() != null) {
+			// digest while the versions are fetched concurrently
+			version.contentDigest(ContentDigests.digest(uri, options.digest(), options.fetcher()));
 		}
 		return version;
 	}
@@ -3,9 +3,16 @@ package org.fcrepo.dto.factories;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.util.Collections;
 
 import org.apache.commons.io.IOUtils;
+import org.fcrepo.dto.factories.content.ContentSource;
+import org.fcrepo.dto.factories.content.ContentSources;
+import org.fcrepo.dto.factories.content.SyntheticContentResolver;
+import org.fcrepo.dto.factories.foxml.StreamingFOXMLWriter;
+import org.fcrepo.dto.factories.foxml.TemplateFOXMLWriter;
 
 import com.github.cwilper.fcrepo.dto.core.ControlGroup;
 import com.github.cwilper.fcrepo.dto.core.FedoraObject;
@@ -40,10 +47,58 @@ public abstract class FOXMLs {
 	 */
 	public final static File generateFOXMLFromRandomData(final int numVersions, final long size,
 			final File targetDirectory, final ControlGroup controlGroup) throws IOException {
-		final FOXMLWriter writer = new FOXMLWriter();
-		final File out = File.createTempFile("testfoxml-", ".xml", targetDirectory);
-		writer.writeObject(FedoraObjects.generateFedoraObjectFromRandomData(numVersions, size, targetDirectory, controlGroup), new FileOutputStream(out));
-		return out;
+		return generateFOXMLFromRandomData(numVersions, size, targetDirectory, controlGroup, ContentSources.random());
+	}
+
+	/**
+	 * create a new FOXML file with content generated by a
+	 * {@link ContentSource}
+	 * 
+	 * @param numVersions
+	 *            the number of versions the contents should have
+	 * @param size
+	 *            the size of the contents
+	 * @param targetDirectory
+	 *            the directory for writing the FOXML and the referenced
+	 *            content
+	 * @param controlGroup
+	 *            the {@link ControlGroup} to use for storing the content
+	 * @param source
+	 *            the {@link ContentSource} generating the content
+	 * @return a new {@link File} referencing the newly created FOXML
+	 * @throws IOException
+	 */
+	public final static File generateFOXMLFromRandomData(final int numVersions, final long size,
+			final File targetDirectory, final ControlGroup controlGroup, final ContentSource source)
+			throws IOException {
+		return generateFOXMLFromRandomData(numVersions, size, targetDirectory, controlGroup,
+				new GenerationOptions().source(source));
+	}
+
+	/**
+	 * create a new FOXML file with content generated as described by
+	 * {@link GenerationOptions}
+	 * 
+	 * @param numVersions
+	 *            the number of versions the contents should have
+	 * @param size
+	 *            the size of the contents
+	 * @param targetDirectory
+	 *            the directory for writing the FOXML and the referenced
+	 *            content
+	 * @param controlGroup
+	 *            the {@link ControlGroup} to use for storing the content
+	 * @param options
+	 *            the {@link GenerationOptions} to use
+	 * @return a new {@link File} referencing the newly created FOXML
+	 * @throws IOException
+	 */
+	public final static File generateFOXMLFromRandomData(final int numVersions, final long size,
+			final File targetDirectory, final ControlGroup controlGroup, final GenerationOptions options)
+			throws IOException {
+		final FedoraObject fo = FedoraObjects.generateFedoraObjectFromRandomData(numVersions, size, targetDirectory,
+				controlGroup, options);
+		return writeFOXML(FedoraObjects.digestContent(fo, options.digest()), targetDirectory, options);
 	}
 
 	/**
@@ -61,12 +116,206 @@ public abstract class FOXMLs {
 	 */
 	public final static File generateInlineFOXMLFromRandomData(final int numVersions, final int size,
 			final File targetDirectory) throws IOException {
+		return generateInlineFOXMLFromRandomData(numVersions, size, targetDirectory, ContentSources.random());
+	}
+
+	/**
+	 * create a new FOXML file with inlined content generated by a
+	 * {@link ContentSource}. The content is streamed into the FOXML, so there
+	 * is no limit on its size.
+	 * 
+	 * @param numVersions
+	 *            the number of versions the content should have
+	 * @param size
+	 *            the size the content should have
+	 * @param targetDirectory
+	 *            the directory for writing the FOXML
+	 * @param source
+	 *            the {@link ContentSource} generating the content
+	 * @return a new {@link File} referencing the FOXML
+	 * @throws IOException
+	 */
+	public final static File generateInlineFOXMLFromRandomData(final int numVersions, final long size,
+			final File targetDirectory, final ContentSource source) throws IOException {
+		return generateInlineFOXMLFromRandomData(numVersions, size, targetDirectory,
+				new GenerationOptions().source(source));
+	}
+
+	/**
+	 * create a new FOXML file with inlined content generated as described by
+	 * {@link GenerationOptions}. The content is never written to an
+	 * intermediate file but base64 encoded from the {@link ContentSource}
+	 * straight into the FOXML in fixed-size chunks, so the heap used does not
+	 * depend on the size of the content.
+	 * 
+	 * @param numVersions
+	 *            the number of versions the content should have
+	 * @param size
+	 *            the size the content should have
+	 * @param targetDirectory
+	 *            the directory for writing the FOXML
+	 * @param options
+	 *            the {@link GenerationOptions} to use
+	 * @return a new {@link File} referencing the FOXML
+	 * @throws IOException
+	 */
+	public final static File generateInlineFOXMLFromRandomData(final int numVersions, final long size,
+			final File targetDirectory, final GenerationOptions options) throws IOException {
+		final FedoraObject fo = FedoraObjects.generateFedoraObjectFromRandomData(numVersions, size, targetDirectory,
+				ControlGroup.MANAGED, options.copy().synthetic(true));
+		return writeInlineFOXML(FedoraObjects.digestContent(fo, options.digest()), targetDirectory, options);
+	}
+
+	/**
+	 * write an existing {@link FedoraObject} to a new FOXML file
+	 * 
+	 * @param fo
+	 *            the {@link FedoraObject} to write
+	 * @param targetDirectory
+	 *            the directory for writing the FOXML
+	 * @return a new {@link File} referencing the FOXML
+	 * @throws IOException
+	 */
+	public final static File writeFOXML(final FedoraObject fo, final File targetDirectory) throws IOException {
 		final FOXMLWriter writer = new FOXMLWriter();
-		final File out = File.createTempFile("testfoxml-", ".xml", targetDirectory);
-		final FedoraObject fo = FedoraObjects.generateFedoraObjectFromRandomData(1, size, targetDirectory, ControlGroup.MANAGED);
+		final File outFile = File.createTempFile("testfoxml-", ".xml", targetDirectory);
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(outFile);
+			writer.writeObject(fo, out);
+			// a failing close must not go unnoticed
+			out.close();
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		return outFile;
+	}
+
+	/**
+	 * write an existing {@link FedoraObject} to a new FOXML file, embedding
+	 * the content of all managed {@link com.github.cwilper.fcrepo.dto.core.Datastream}s
+	 * as base64 encoded binary content. Synthetic content is regenerated while
+	 * writing.
+	 * 
+	 * @param fo
+	 *            the {@link FedoraObject} to write
+	 * @param targetDirectory
+	 *            the directory for writing the FOXML
+	 * @return a new {@link File} referencing the FOXML
+	 * @throws IOException
+	 */
+	public final static File writeInlineFOXML(final FedoraObject fo, final File targetDirectory) throws IOException {
+		return writeInlineFOXML(fo, targetDirectory, new GenerationOptions());
+	}
+
+	/**
+	 * write an existing {@link FedoraObject} to a new FOXML file using a
+	 * {@link StreamingFOXMLWriter}, so inline XML content which is only
+	 * referenced is streamed into the FOXML as configured by the
+	 * {@link GenerationOptions}. If the options have a seed or a layout which
+	 * is not flat, the file is named after the object's PID, so a regenerated
+	 * object replaces it's earlier FOXML
+	 * 
+	 * @param fo
+	 *            the {@link FedoraObject} to write
+	 * @param targetDirectory
+	 *            the directory for writing the FOXML
+	 * @param options
+	 *            the {@link GenerationOptions} limiting and validating
+	 *            streamed inline XML content
+	 * @return a new {@link File} referencing the FOXML
+	 * @throws IOException
+	 */
+	public final static File writeFOXML(final FedoraObject fo, final File targetDirectory,
+			final GenerationOptions options) throws IOException {
+		return write(fo, createFile(fo, targetDirectory, options), createWriter(options), options);
+	}
+
+	/**
+	 * write an existing {@link FedoraObject} to a new FOXML file, embedding
+	 * the content of all managed {@link com.github.cwilper.fcrepo.dto.core.Datastream}s
+	 * as base64 encoded binary content. Referenced inline XML content is
+	 * streamed into the FOXML as configured by the {@link GenerationOptions}
+	 * 
+	 * @param fo
+	 *            the {@link FedoraObject} to write
+	 * @param targetDirectory
+	 *            the directory for writing the FOXML
+	 * @param options
+	 *            the {@link GenerationOptions} limiting and validating
+	 *            streamed inline XML content
+	 * @return a new {@link File} referencing the FOXML
+	 * @throws IOException
+	 */
+	public final static File writeInlineFOXML(final FedoraObject fo, final File targetDirectory,
+			final GenerationOptions options) throws IOException {
+		final StreamingFOXMLWriter writer = createWriter(options);
 		writer.setManagedDatastreamsToEmbed(fo.datastreams().keySet());
-		writer.writeObject(fo, new FileOutputStream(out));
-		return out;
+		return write(fo, createFile(fo, targetDirectory, options), writer, options);
+	}
+
+	/**
+	 * create a new {@link StreamingFOXMLWriter} resolving synthetic content
+	 * and handling streamed inline XML content as configured by the
+	 * {@link GenerationOptions}. If {@link GenerationOptions#templates()} is
+	 * set, the writer is the calling thread's own {@link TemplateFOXMLWriter}
+	 * 
+	 * @param options
+	 *            the {@link GenerationOptions} limiting and validating
+	 *            streamed inline XML content
+	 * @return a {@link StreamingFOXMLWriter}
+	 */
+	public final static StreamingFOXMLWriter createWriter(final GenerationOptions options) {
+		final StreamingFOXMLWriter writer;
+		if (options.templates()) {
+			writer = TemplateFOXMLWriter.forCurrentThread();
+			writer.setManagedDatastreamsToEmbed(Collections.<String> emptySet());
+		} else {
+			writer = new StreamingFOXMLWriter();
+			writer.setContentResolver(new SyntheticContentResolver());
+		}
+		writer.setInlineXMLLimit(options.inlineXMLLimit());
+		writer.setValidateInlineXML(options.validateInlineXML());
+		return writer;
+	}
+
+	private static File createFile(final FedoraObject fo, final File targetDirectory, final GenerationOptions options)
+			throws IOException {
+		final String suffix = (options.compression() == null) ? ".xml" : ".xml"
+				+ options.compression().getSuffix();
+		if (options.seed() != null || !options.layout().isFlat()) {
+			// reproducible objects overwrite their previous incarnation, and
+			// unique names need no probing for a free temporary file
+			return options.layout().file(targetDirectory, fo.pid().replace(':', '_') + suffix);
+		}
+		return File.createTempFile("testfoxml-", suffix, targetDirectory);
+	}
+
+	private static File write(final FedoraObject fo, final File outFile, final StreamingFOXMLWriter writer,
+			final GenerationOptions options) throws IOException {
+		OutputStream out = null;
+		boolean written = false;
+		try {
+			out = new FileOutputStream(outFile);
+			if (options.compression() != null) {
+				out = options.compression().wrap(out);
+			}
+			writer.writeObject(fo, out);
+			// closing finishes the compression, which may fail
+			out.close();
+			written = true;
+		} finally {
+			IOUtils.closeQuietly(out);
+			if (!written) {
+				// never leave a truncated FOXML file behind
+				outFile.delete();
+			}
+			writer.close();
+		}
+		// the FOXML is the last file written for an object
+		options.durability().written(outFile);
+		options.durability().completed();
+		return outFile;
 	}
 
 	/**
@@ -102,6 +351,7 @@ public abstract class FOXMLs {
 		try {
 			out = new FileOutputStream(outFile);
 			writer.writeObject(FedoraObjects.generateFedoraObjectFromURI(uri, ControlGroup.MANAGED), out);
+			out.close();
 		} finally {
 			IOUtils.closeQuietly(out);
 		}
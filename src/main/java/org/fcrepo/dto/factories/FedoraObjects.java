@@ -4,10 +4,15 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Date;
-import java.util.UUID;
+
+import org.fcrepo.dto.factories.content.ContentSource;
+import org.fcrepo.dto.factories.content.ContentSources;
+import org.fcrepo.dto.factories.workload.Distributions;
+import org.fcrepo.dto.factories.workload.WorkloadProfile;
 
 import com.github.cwilper.fcrepo.dto.core.ControlGroup;
 import com.github.cwilper.fcrepo.dto.core.Datastream;
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
 import com.github.cwilper.fcrepo.dto.core.FedoraObject;
 import com.github.cwilper.fcrepo.dto.core.State;
 
@@ -53,22 +58,223 @@ public abstract class FedoraObjects {
 	 */
 	public final static FedoraObject generateFedoraObjectFromRandomData(final int numVersions, final long size,
 			final File targetDirectory, final ControlGroup controlGroup) throws IOException {
-		final Datastream datastream = new Datastream("random datastream " + UUID.randomUUID())
-				.controlGroup(controlGroup);
-		for (int i = 0; i < numVersions; i++) {
-			boolean success = false;
-			while (!success) {
-				success = datastream.versions().add(Datastreams.generateDatastreamVersionFromRandomData(size, targetDirectory));
+		return generateFedoraObjectFromRandomData(numVersions, size, targetDirectory, controlGroup,
+				ContentSources.random());
+	}
+
+	/**
+	 * create a new {@link FedoraObject} with content generated by a
+	 * {@link ContentSource}
+	 * 
+	 * @param numVersions
+	 *            the number of versions the object's content should have
+	 * @param size
+	 *            the size of the object's content
+	 * @param targetDirectory
+	 *            the directory for writing the content as file on the file
+	 *            system
+	 * @param controlGroup
+	 *            the {@link ControlGroup} to use for storing the content
+	 * @param source
+	 *            the {@link ContentSource} generating the content
+	 * @return a new {@link FedoraObject}
+	 * @throws IOException
+	 *             if the content could not be written to the file system
+	 */
+	public final static FedoraObject generateFedoraObjectFromRandomData(final int numVersions, final long size,
+			final File targetDirectory, final ControlGroup controlGroup, final ContentSource source)
+			throws IOException {
+		return generateFedoraObjectFromRandomData(numVersions, size, targetDirectory, controlGroup,
+				new GenerationOptions().source(source));
+	}
+
+	/**
+	 * create a new {@link FedoraObject} with content generated as described
+	 * by {@link GenerationOptions}
+	 * 
+	 * @param numVersions
+	 *            the number of versions the object's content should have
+	 * @param size
+	 *            the size of the object's content
+	 * @param targetDirectory
+	 *            the directory for writing the content as file on the file
+	 *            system
+	 * @param controlGroup
+	 *            the {@link ControlGroup} to use for storing the content
+	 * @param options
+	 *            the {@link GenerationOptions} to use
+	 * @return a new {@link FedoraObject}
+	 * @throws IOException
+	 *             if the content could not be written to the file system
+	 */
+	public final static FedoraObject generateFedoraObjectFromRandomData(final int numVersions, final long size,
+			final File targetDirectory, final ControlGroup controlGroup, final GenerationOptions options)
+			throws IOException {
+		return generateFedoraObjectFromRandomData(numVersions, size, targetDirectory, controlGroup, options,
+				ObjectRandom.unseeded());
+	}
+
+	/**
+	 * create a new {@link FedoraObject} with content generated as described
+	 * by {@link GenerationOptions}, drawing all identifiers, labels, dates and
+	 * content seeds from an {@link ObjectRandom}. Given a seeded
+	 * {@link ObjectRandom} the object is fully reproducible
+	 * 
+	 * @param numVersions
+	 *            the number of versions the object's content should have
+	 * @param size
+	 *            the size of the object's content
+	 * @param targetDirectory
+	 *            the directory for writing the content as file on the file
+	 *            system
+	 * @param controlGroup
+	 *            the {@link ControlGroup} to use for storing the content
+	 * @param options
+	 *            the {@link GenerationOptions} to use
+	 * @param random
+	 *            the {@link ObjectRandom} of the object
+	 * @return a new {@link FedoraObject}
+	 * @throws IOException
+	 *             if the content could not be written to the file system
+	 * @see GenerationOptions#random(long)
+	 */
+	public final static FedoraObject generateFedoraObjectFromRandomData(final int numVersions, final long size,
+			final File targetDirectory, final ControlGroup controlGroup, final GenerationOptions options,
+			final ObjectRandom random) throws IOException {
+		return generateFedoraObjectFromRandomData(new WorkloadProfile().versions(Distributions.fixed(numVersions))
+				.sizes(Distributions.fixed(size)), targetDirectory, controlGroup, options, random);
+	}
+
+	/**
+	 * create a new {@link FedoraObject} shaped by a {@link WorkloadProfile},
+	 * with content generated as described by {@link GenerationOptions}. The
+	 * number of datastreams, the number of versions of every datastream and
+	 * the size of every version are sampled from the profile's
+	 * distributions, using uniform numbers of the {@link ObjectRandom}
+	 * 
+	 * @param profile
+	 *            the {@link WorkloadProfile} describing the object
+	 * @param targetDirectory
+	 *            the directory for writing the content as file on the file
+	 *            system
+	 * @param controlGroup
+	 *            the {@link ControlGroup} to use for storing the content
+	 * @param options
+	 *            the {@link GenerationOptions} to use
+	 * @param random
+	 *            the {@link ObjectRandom} of the object
+	 * @return a new {@link FedoraObject}
+	 * @throws IOException
+	 *             if the content could not be written to the file system
+	 */
+	public final static FedoraObject generateFedoraObjectFromRandomData(final WorkloadProfile profile,
+			final File targetDirectory, final ControlGroup controlGroup, final GenerationOptions options,
+			final ObjectRandom random) throws IOException {
+		final long numDatastreams = Math.max(1, profile.datastreams().sample(random.nextDouble()));
+		final Datastream[] datastreams = new Datastream[(int) Math.min(numDatastreams, Integer.MAX_VALUE)];
+		for (int d = 0; d < datastreams.length; d++) {
+			datastreams[d] = new Datastream("random datastream " + random.nextId()).controlGroup(controlGroup);
+			final long numVersions = Math.max(1, profile.versions().sample(random.nextDouble()));
+			for (long i = 0; i < numVersions; i++) {
+				// every version gets a later date than the previous one, so
+				// none is rejected by the datastream's versions set
+				datastreams[d].versions().add(Datastreams.generateDatastreamVersionFromRandomData(
+						profile.sizes().sample(random.nextDouble()), targetDirectory, options, random));
 			}
 		}
 		final FedoraObject fo = new FedoraObject()
-				.pid("random:" + UUID.randomUUID())
+				.pid(random.nextPID())
 				.ownerId("testOwner")
-				.label("random test object " + UUID.randomUUID())
+				.label("random test object " + random.nextId())
 				.state(State.ACTIVE)
-				.createdDate(new Date());
+				.createdDate(random.nextDate());
 		fo.lastModifiedDate(fo.createdDate());
-		fo.datastreams().put(datastream.id(), datastream);
+		for (Datastream datastream : datastreams) {
+			fo.datastreams().put(datastream.id(), datastream);
+		}
+		return fo;
+	}
+
+	/**
+	 * get the total size of the content of all {@link DatastreamVersion}s of
+	 * a {@link FedoraObject}, as given by the versions or, for content
+	 * written to files, by the length of the files
+	 * 
+	 * @param fo
+	 *            the {@link FedoraObject}
+	 * @return the size of the content in bytes
+	 */
+	public final static long contentSize(final FedoraObject fo) {
+		long size = 0;
+		for (Datastream ds : fo.datastreams().values()) {
+			for (DatastreamVersion version : ds.versions()) {
+				final URI uri = version.contentLocation();
+				if (version.size() != null && version.size() >= 0) {
+					size += version.size();
+				} else if (uri != null && "file".equals(uri.getScheme())) {
+					size += new File(uri).length();
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * write the synthetic content of all {@link DatastreamVersion}s of a
+	 * {@link FedoraObject} to files in a directory
+	 * 
+	 * @param fo
+	 *            the {@link FedoraObject} whose content should be written
+	 * @param targetDirectory
+	 *            the directory for writing the content files
+	 * @param options
+	 *            the {@link GenerationOptions} holding the
+	 *            {@link org.fcrepo.dto.factories.content.ContentWriter},
+	 *            digest type, directory layout and durability to use
+	 * @return the {@link FedoraObject}
+	 * @throws IOException
+	 *             if the content could not be written to the file system
+	 * @see Datastreams#materializeContent(DatastreamVersion, File,
+	 *      GenerationOptions)
+	 */
+	public final static FedoraObject materializeContent(final FedoraObject fo, final File targetDirectory,
+			final GenerationOptions options) throws IOException {
+		for (Datastream ds : fo.datastreams().values()) {
+			for (DatastreamVersion version : ds.versions()) {
+				Datastreams.materializeContent(version, targetDirectory, options);
+			}
+		}
+		return fo;
+	}
+
+	/**
+	 * compute the digests of the content of all {@link DatastreamVersion}s of
+	 * a {@link FedoraObject} which do not have a digest yet. The content of
+	 * inline XML datastreams is not digested
+	 * 
+	 * @param fo
+	 *            the {@link FedoraObject} whose content should be digested
+	 * @param digestType
+	 *            the FOXML name of the digest type, or null to compute no
+	 *            digests at all
+	 * @return the {@link FedoraObject}
+	 * @throws IOException
+	 *             if the content could not be read
+	 * @see Datastreams#digestContent(DatastreamVersion, String)
+	 */
+	public final static FedoraObject digestContent(final FedoraObject fo, final String digestType)
+			throws IOException {
+		if (digestType == null) {
+			return fo;
+		}
+		for (Datastream ds : fo.datastreams().values()) {
+			if (ds.controlGroup() == ControlGroup.INLINE_XML) {
+				continue;
+			}
+			for (DatastreamVersion version : ds.versions()) {
+				Datastreams.digestContent(version, digestType);
+			}
+		}
 		return fo;
 	}
 
@@ -104,14 +310,33 @@ public abstract class FedoraObjects {
 	 */
 	public final static FedoraObject generateFedoraObjectFromURI(final URI uri, final ControlGroup controlGroup)
 			throws IOException {
+		return generateFedoraObjectFromURI(uri, controlGroup, new GenerationOptions());
+	}
+
+	/**
+	 * create a new FedoraObject with the contents of a {@link URI}
+	 * 
+	 * @param uri
+	 *            the {@link URI} pointing to the content
+	 * @param controlGroup
+	 *            the {@link ControlGroup} to use for storing the content
+	 * @param options
+	 *            the {@link GenerationOptions} controlling how the content is
+	 *            fetched
+	 * @return a new {@link FedoraObject}
+	 * @throws IOException
+	 *             if the contents could not be fetched from the {@link URI}
+	 */
+	public final static FedoraObject generateFedoraObjectFromURI(final URI uri, final ControlGroup controlGroup,
+			final GenerationOptions options) throws IOException {
 		final FedoraObject fo = new FedoraObject()
-				.pid("random:" + UUID.randomUUID())
+				.pid(options.identifiers().nextPID())
 				.ownerId("testOwner")
-				.label("random test object " + UUID.randomUUID())
+				.label("random test object " + options.identifiers().nextId())
 				.state(State.ACTIVE)
 				.createdDate(new Date());
 		fo.lastModifiedDate(fo.createdDate());
-		final Datastream ds = Datastreams.generateDatastreamFromURI(uri, controlGroup);
+		final Datastream ds = Datastreams.generateDatastreamFromURI(uri, controlGroup, options);
 		fo.datastreams().put(ds.id(), ds);
 		return fo;
 	}
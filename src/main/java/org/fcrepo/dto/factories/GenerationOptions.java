@@ -0,0 +1,482 @@
+package org.fcrepo.dto.factories;
+
+import org.fcrepo.dto.factories.compress.Compression;
+import org.fcrepo.dto.factories.content.ContentCache;
+import org.fcrepo.dto.factories.content.ContentDigests;
+import org.fcrepo.dto.factories.content.ContentFetcher;
+import org.fcrepo.dto.factories.content.ContentSource;
+import org.fcrepo.dto.factories.content.ContentSources;
+import org.fcrepo.dto.factories.content.ContentWriter;
+import org.fcrepo.dto.factories.content.ContentWriters;
+import org.fcrepo.dto.factories.content.XMLContent;
+import org.fcrepo.dto.factories.durability.Durability;
+import org.fcrepo.dto.factories.ids.IdentifierService;
+import org.fcrepo.dto.factories.ids.IdentifierServices;
+import org.fcrepo.dto.factories.layout.DirectoryLayout;
+import org.fcrepo.dto.factories.layout.DirectoryLayouts;
+
+/**
+ * Options controlling how the factories generate random objects and their
+ * content. The setters follow the fluent style of the fcrepo DTOs, so options
+ * can be created like
+ * <code>new GenerationOptions().source(ContentSources.zero()).synthetic(true)</code>.
+ * Options are meant to be configured once and then shared between the
+ * threads generating objects.
+ * 
+ * @author fasseg
+ * 
+ */
+public class GenerationOptions {
+
+	private ContentSource source = ContentSources.random();
+
+	private boolean synthetic;
+
+	private ContentWriter writer = ContentWriters.stream();
+
+	private String digest;
+
+	private long inlineXMLLimit = XMLContent.DEFAULT_LIMIT;
+
+	private boolean validateInlineXML;
+
+	private boolean streamInlineXML;
+
+	private boolean templates;
+
+	private Compression compression;
+
+	private ContentCache cache;
+
+	private ContentFetcher fetcher;
+
+	private Long seed;
+
+	private IdentifierService identifiers = IdentifierServices.uuid();
+
+	private DirectoryLayout layout = DirectoryLayouts.flat();
+
+	private Durability durability = Durability.none();
+
+	/**
+	 * create a copy of these {@link GenerationOptions}
+	 * 
+	 * @return a new {@link GenerationOptions} instance with the same settings
+	 */
+	public GenerationOptions copy() {
+		return new GenerationOptions()
+				.source(source)
+				.synthetic(synthetic)
+				.writer(writer)
+				.digest(digest)
+				.inlineXMLLimit(inlineXMLLimit)
+				.validateInlineXML(validateInlineXML)
+				.streamInlineXML(streamInlineXML)
+				.templates(templates)
+				.compression(compression)
+				.cache(cache)
+				.fetcher(fetcher)
+				.seed(seed)
+				.identifiers(identifiers)
+				.layout(layout)
+				.durability(durability);
+	}
+
+	/**
+	 * get the {@link ContentSource} used for generating content
+	 * 
+	 * @return the {@link ContentSource}
+	 */
+	public ContentSource source() {
+		return source;
+	}
+
+	/**
+	 * set the {@link ContentSource} used for generating content
+	 * 
+	 * @param source
+	 *            the {@link ContentSource} to use
+	 * @return this {@link GenerationOptions} instance
+	 */
+	public GenerationOptions source(final ContentSource source) {
+		if (source == null) {
+			throw new IllegalArgumentException("source must not be null");
+		}
+		this.source = source;
+		return this;
+	}
+
+	/**
+	 * check whether synthetic content {@link java.net.URI}s are generated
+	 * instead of content files
+	 * 
+	 * @return true if the content is synthetic
+	 */
+	public boolean synthetic() {
+		return synthetic;
+	}
+
+	/**
+	 * set whether synthetic content {@link java.net.URI}s should be generated
+	 * instead of content files. Synthetic content is never written to disk
+	 * but regenerated whenever it is read
+	 * 
+	 * @param synthetic
+	 *            true if synthetic content should be generated
+	 * @return this {@link GenerationOptions} instance
+	 * @see org.fcrepo.dto.factories.content.SyntheticContent
+	 */
+	public GenerationOptions synthetic(final boolean synthetic) {
+		this.synthetic = synthetic;
+		return this;
+	}
+
+	/**
+	 * get the {@link ContentWriter} used for writing content files
+	 * 
+	 * @return the {@link ContentWriter}
+	 */
+	public ContentWriter writer() {
+		return writer;
+	}
+
+	/**
+	 * set the {@link ContentWriter} used for writing content files
+	 * 
+	 * @param writer
+	 *            the {@link ContentWriter} to use
+	 * @return this {@link GenerationOptions} instance
+	 */
+	public GenerationOptions writer(final ContentWriter writer) {
+		if (writer == null) {
+			throw new IllegalArgumentException("writer must not be null");
+		}
+		this.writer = writer;
+		return this;
+	}
+
+	/**
+	 * get the type of the {@link com.github.cwilper.fcrepo.dto.core.ContentDigest}s
+	 * computed for the content
+	 * 
+	 * @return the FOXML name of the digest type, or null if no digests are
+	 *         computed
+	 */
+	public String digest() {
+		return digest;
+	}
+
+	/**
+	 * set the type of the {@link com.github.cwilper.fcrepo.dto.core.ContentDigest}s
+	 * computed for the content. Digests of content written to files are
+	 * computed while the content is generated, so the content is never read
+	 * again
+	 * 
+	 * @param digest
+	 *            the FOXML name of the digest type, e.g. <code>MD5</code>,
+	 *            <code>SHA-1</code> or <code>SHA-256</code>, or null to
+	 *            compute no digests
+	 * @return this {@link GenerationOptions} instance
+	 * @see ContentDigests#forName(String)
+	 */
+	public GenerationOptions digest(final String digest) {
+		this.digest = ContentDigests.forName(digest);
+		return this;
+	}
+
+	/**
+	 * get the maximum size in bytes of XML content read into inline XML
+	 * datastreams
+	 * 
+	 * @return the maximum size in bytes
+	 */
+	public long inlineXMLLimit() {
+		return inlineXMLLimit;
+	}
+
+	/**
+	 * set the maximum size in bytes of XML content read into inline XML
+	 * datastreams. Larger content is rejected with an
+	 * {@link java.io.IOException} as soon as the limit is exceeded, so it is
+	 * never buffered completely
+	 * 
+	 * @param inlineXMLLimit
+	 *            the maximum size in bytes
+	 * @return this {@link GenerationOptions} instance
+	 */
+	public GenerationOptions inlineXMLLimit(final long inlineXMLLimit) {
+		if (inlineXMLLimit < 1) {
+			throw new IllegalArgumentException("inline XML limit must be at least 1 byte");
+		}
+		this.inlineXMLLimit = inlineXMLLimit;
+		return this;
+	}
+
+	/**
+	 * check whether XML content of inline XML datastreams is checked for
+	 * well-formedness
+	 * 
+	 * @return true if the XML content is validated
+	 */
+	public boolean validateInlineXML() {
+		return validateInlineXML;
+	}
+
+	/**
+	 * set whether XML content of inline XML datastreams should be checked for
+	 * well-formedness. The check is done while the content is copied, so it
+	 * does not cost an additional read
+	 * 
+	 * @param validateInlineXML
+	 *            true if the XML content should be validated
+	 * @return this {@link GenerationOptions} instance
+	 */
+	public GenerationOptions validateInlineXML(final boolean validateInlineXML) {
+		this.validateInlineXML = validateInlineXML;
+		return this;
+	}
+
+	/**
+	 * check whether XML content of inline XML datastreams is streamed into the
+	 * FOXML instead of being read into memory
+	 * 
+	 * @return true if the XML content is streamed
+	 */
+	public boolean streamInlineXML() {
+		return streamInlineXML;
+	}
+
+	/**
+	 * set whether XML content of inline XML datastreams should be streamed
+	 * into the FOXML instead of being read into memory when the
+	 * {@link com.github.cwilper.fcrepo.dto.core.DatastreamVersion} is created.
+	 * Streamed versions only keep the content location, and have to be written
+	 * by a {@link org.fcrepo.dto.factories.foxml.StreamingFOXMLWriter}
+	 * 
+	 * @param streamInlineXML
+	 *            true if the XML content should be streamed
+	 * @return this {@link GenerationOptions} instance
+	 */
+	public GenerationOptions streamInlineXML(final boolean streamInlineXML) {
+		this.streamInlineXML = streamInlineXML;
+		return this;
+	}
+
+	/**
+	 * check whether FOXML is rendered from precompiled templates
+	 * 
+	 * @return true if FOXML is rendered from templates
+	 */
+	public boolean templates() {
+		return templates;
+	}
+
+	/**
+	 * set whether FOXML should be rendered from precompiled templates by a
+	 * {@link org.fcrepo.dto.factories.foxml.TemplateFOXMLWriter} instead of
+	 * being serialized through an XML stream writer. The output is the same,
+	 * but objects are written a lot faster, which matters most for corpora of
+	 * small objects
+	 * 
+	 * @param templates
+	 *            true if FOXML should be rendered from templates
+	 * @return this {@link GenerationOptions} instance
+	 */
+	public GenerationOptions templates(final boolean templates) {
+		this.templates = templates;
+		return this;
+	}
+
+	/**
+	 * get the {@link Compression} of written FOXML files
+	 * 
+	 * @return the {@link Compression} or null if FOXML is not compressed
+	 */
+	public Compression compression() {
+		return compression;
+	}
+
+	/**
+	 * set the {@link Compression} of written FOXML files. Compressed files
+	 * get the suffix of the compression appended to their name. The
+	 * compression is shared by all copies of these options, so it counts the
+	 * bytes of all files
+	 * 
+	 * @param compression
+	 *            the {@link Compression} to use, or null to write plain FOXML
+	 * @return this {@link GenerationOptions} instance
+	 */
+	public GenerationOptions compression(final Compression compression) {
+		this.compression = compression;
+		return this;
+	}
+
+	/**
+	 * get the {@link ContentCache} content fetched from {@link java.net.URI}s
+	 * is read through
+	 * 
+	 * @return the {@link ContentCache} or null if content is not cached
+	 */
+	public ContentCache cache() {
+		return cache;
+	}
+
+	/**
+	 * set the {@link ContentCache} content fetched from
+	 * {@link java.net.URI}s should be read through. The cache is shared by all
+	 * copies of these options, so content reused by many objects is fetched
+	 * and digested only once
+	 * 
+	 * @param cache
+	 *            the {@link ContentCache} to use, or null to disable caching
+	 * @return this {@link GenerationOptions} instance
+	 */
+	public GenerationOptions cache(final ContentCache cache) {
+		this.cache = cache;
+		return this;
+	}
+
+	/**
+	 * get the {@link ContentFetcher} remote content is fetched with
+	 * 
+	 * @return the {@link ContentFetcher} or null if {@link java.net.URI}s are
+	 *         opened directly
+	 */
+	public ContentFetcher fetcher() {
+		return fetcher;
+	}
+
+	/**
+	 * set the {@link ContentFetcher} remote content is fetched with. With a
+	 * fetcher the versions of datastreams created from many
+	 * {@link java.net.URI}s are fetched concurrently on it's threads, and
+	 * failed requests are retried. The fetcher is shared by all copies of
+	 * these options
+	 * 
+	 * @param fetcher
+	 *            the {@link ContentFetcher} to use, or null to open
+	 *            {@link java.net.URI}s directly one at a time
+	 * @return this {@link GenerationOptions} instance
+	 */
+	public GenerationOptions fetcher(final ContentFetcher fetcher) {
+		this.fetcher = fetcher;
+		return this;
+	}
+
+	/**
+	 * get the seed of the corpus generated with these options
+	 * 
+	 * @return the seed, or null if objects are not reproducible
+	 */
+	public Long seed() {
+		return seed;
+	}
+
+	/**
+	 * set the seed of the corpus generated with these options. With a seed
+	 * every object is derived from the seed and it's index in the corpus
+	 * only, so any object can be regenerated bit for bit and disjoint slices
+	 * of one corpus can be generated independently
+	 * 
+	 * @param seed
+	 *            the seed, or null to generate objects which are not
+	 *            reproducible
+	 * @return this {@link GenerationOptions} instance
+	 * @see #random(long)
+	 */
+	public GenerationOptions seed(final Long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * get the {@link IdentifierService} for PIDs, labels and IDs of generated
+	 * objects
+	 * 
+	 * @return the {@link IdentifierService}
+	 */
+	public IdentifierService identifiers() {
+		return identifiers;
+	}
+
+	/**
+	 * set the {@link IdentifierService} for PIDs, labels and IDs of generated
+	 * objects. The service is shared by copies of these options, so
+	 * identifiers stay unique across all threads using them
+	 * 
+	 * @param identifiers
+	 *            the {@link IdentifierService} to use
+	 * @return this {@link GenerationOptions} instance
+	 */
+	public GenerationOptions identifiers(final IdentifierService identifiers) {
+		this.identifiers = identifiers;
+		return this;
+	}
+
+	/**
+	 * get the {@link DirectoryLayout} placing generated files below the target
+	 * directory
+	 * 
+	 * @return the {@link DirectoryLayout}
+	 */
+	public DirectoryLayout layout() {
+		return layout;
+	}
+
+	/**
+	 * set the {@link DirectoryLayout} placing generated files below the target
+	 * directory. Unless the layout is flat, FOXML files are always named after
+	 * the PID of their object instead of getting a unique temporary name
+	 * 
+	 * @param layout
+	 *            the {@link DirectoryLayout} to use
+	 * @return this {@link GenerationOptions} instance
+	 */
+	public GenerationOptions layout(final DirectoryLayout layout) {
+		if (layout == null) {
+			throw new IllegalArgumentException("layout must not be null");
+		}
+		this.layout = layout;
+		return this;
+	}
+
+	/**
+	 * get the {@link Durability} deciding when written files are synced to
+	 * the disk
+	 * 
+	 * @return the {@link Durability}
+	 */
+	public Durability durability() {
+		return durability;
+	}
+
+	/**
+	 * set the {@link Durability} deciding when written files are synced to
+	 * the disk. The durability is shared by copies of these options, so a
+	 * group commit covers the files of all threads
+	 * 
+	 * @param durability
+	 *            the {@link Durability} to use
+	 * @return this {@link GenerationOptions} instance
+	 */
+	public GenerationOptions durability(final Durability durability) {
+		if (durability == null) {
+			throw new IllegalArgumentException("durability must not be null");
+		}
+		this.durability = durability;
+		return this;
+	}
+
+	/**
+	 * create the {@link ObjectRandom} for the object with a given index in the
+	 * corpus
+	 * 
+	 * @param index
+	 *            the index of the object in the corpus
+	 * @return a seeded {@link ObjectRandom} if a seed is set, or an unseeded
+	 *         one otherwise
+	 */
+	public ObjectRandom random(final long index) {
+		return (seed == null) ? ObjectRandom.unseeded(identifiers) : ObjectRandom.seeded(seed, index, identifiers);
+	}
+}
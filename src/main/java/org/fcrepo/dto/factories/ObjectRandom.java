@@ -0,0 +1,184 @@
+package org.fcrepo.dto.factories;
+
+import java.util.Date;
+import java.util.UUID;
+
+import org.fcrepo.dto.factories.content.ContentSources;
+import org.fcrepo.dto.factories.content.SplitMix64;
+import org.fcrepo.dto.factories.ids.IdentifierService;
+import org.fcrepo.dto.factories.ids.IdentifierServices;
+
+/**
+ * The source of all identifiers, labels, dates and content seeds of a single
+ * generated {@link com.github.cwilper.fcrepo.dto.core.FedoraObject}. An
+ * unseeded instance draws identifiers from an {@link IdentifierService} and
+ * dates and seeds from the clock and {@link ContentSources#nextSeed()}. A
+ * seeded instance derives them from a global seed and the index of the object
+ * in the corpus only, so the same seed and index always yield the same object,
+ * no matter which thread, process or machine generates it, and objects can be
+ * generated in any order or regenerated one by one. The PID of a seeded object
+ * is taken from {@link IdentifierService#pid(long)} if the service supports
+ * it, all other identifiers are seeded {@link UUID}s.
+ * <p>
+ * Uniform numbers for sampling the shape of an object from a
+ * {@link org.fcrepo.dto.factories.workload.WorkloadProfile} come from a stream
+ * of their own, so sampling does not shift the identifiers, dates and content
+ * seeds drawn for an object, and objects of a fixed shape are the same with or
+ * without a profile.
+ * <p>
+ * Dates handed out by one instance are strictly increasing by one
+ * millisecond, so the versions of a datastream never share a created date.
+ * Instances are not thread safe, every object gets it's own one.
+ *
+ * @author fasseg
+ *
+ */
+public final class ObjectRandom {
+
+	/**
+	 * the created date of the object with index 0 in a seeded corpus,
+	 * 2012-01-01T00:00:00Z. Every following index is one second later
+	 */
+	public static final long SEEDED_EPOCH = 1325376000000L;
+
+	private static final long WORKLOAD_STREAM = 0x5851f42d4c957f2dL;
+
+	private final SplitMix64 random;
+
+	private final IdentifierService identifiers;
+
+	private final SplitMix64 workload;
+
+	private final long index;
+
+	private long time;
+
+	private ObjectRandom(final SplitMix64 random, final SplitMix64 workload, final IdentifierService identifiers,
+			final long index, final long time) {
+		this.random = random;
+		this.workload = workload;
+		this.identifiers = identifiers;
+		this.index = index;
+		this.time = time;
+	}
+
+	/**
+	 * create a new {@link ObjectRandom} for an object which does not have to
+	 * be reproducible, using random {@link UUID}s as identifiers
+	 *
+	 * @return a new unseeded {@link ObjectRandom}
+	 */
+	public static ObjectRandom unseeded() {
+		return unseeded(IdentifierServices.uuid());
+	}
+
+	/**
+	 * create a new {@link ObjectRandom} for an object which does not have to
+	 * be reproducible
+	 *
+	 * @param identifiers
+	 *            the {@link IdentifierService} to draw identifiers from
+	 * @return a new unseeded {@link ObjectRandom}
+	 */
+	public static ObjectRandom unseeded(final IdentifierService identifiers) {
+		return new ObjectRandom(null, null, identifiers, -1, System.currentTimeMillis());
+	}
+
+	/**
+	 * create a new {@link ObjectRandom} for the object with a given index in
+	 * the corpus defined by a seed
+	 *
+	 * @param seed
+	 *            the seed of the corpus
+	 * @param index
+	 *            the index of the object in the corpus
+	 * @return a new seeded {@link ObjectRandom}
+	 */
+	public static ObjectRandom seeded(final long seed, final long index) {
+		return seeded(seed, index, IdentifierServices.uuid());
+	}
+
+	/**
+	 * create a new {@link ObjectRandom} for the object with a given index in
+	 * the corpus defined by a seed
+	 *
+	 * @param seed
+	 *            the seed of the corpus
+	 * @param index
+	 *            the index of the object in the corpus
+	 * @param identifiers
+	 *            the {@link IdentifierService} defining the PID of the object
+	 * @return a new seeded {@link ObjectRandom}
+	 */
+	public static ObjectRandom seeded(final long seed, final long index, final IdentifierService identifiers) {
+		// mixing twice gives unrelated streams for neighbouring indices
+		final long base = SplitMix64.mix(SplitMix64.mix(index) ^ seed);
+		return new ObjectRandom(new SplitMix64(base), new SplitMix64(SplitMix64.mix(base ^ WORKLOAD_STREAM)),
+				identifiers, index, SEEDED_EPOCH + index * 1000L);
+	}
+
+	/**
+	 * check whether this {@link ObjectRandom} is reproducible
+	 *
+	 * @return true if this instance is seeded
+	 */
+	public boolean isSeeded() {
+		return random != null;
+	}
+
+	/**
+	 * get the next PID
+	 *
+	 * @return a new PID, including the namespace
+	 */
+	public String nextPID() {
+		if (random == null) {
+			return identifiers.nextPID();
+		}
+		final String pid = identifiers.pid(index);
+		return (pid == null) ? identifiers.namespace() + ":" + nextUUID() : pid;
+	}
+
+	/**
+	 * get the next identifier for labels, datastreams and datastream versions
+	 *
+	 * @return a new identifier
+	 */
+	public String nextId() {
+		return (random == null) ? identifiers.nextId() : nextUUID().toString();
+	}
+
+	private UUID nextUUID() {
+		final long msb = (random.nextLong() & ~0xf000L) | 0x4000L;
+		final long lsb = (random.nextLong() & ~(0xcL << 60)) | (0x8L << 60);
+		return new UUID(msb, lsb);
+	}
+
+	/**
+	 * get the next seed for a {@link org.fcrepo.dto.factories.content.ContentSource}
+	 *
+	 * @return a new seed
+	 */
+	public long nextSeed() {
+		return (random == null) ? ContentSources.nextSeed() : random.nextLong();
+	}
+
+	/**
+	 * get the next uniformly distributed number for sampling the shape of
+	 * the object
+	 *
+	 * @return a number in [0, 1)
+	 */
+	public double nextDouble() {
+		return (workload == null) ? (ContentSources.nextSeed() >>> 11) * 0x1.0p-53 : workload.nextDouble();
+	}
+
+	/**
+	 * get the next date, one millisecond after the previous one
+	 *
+	 * @return a new {@link Date}
+	 */
+	public Date nextDate() {
+		return new Date(time++);
+	}
+}
@@ -0,0 +1,62 @@
+package org.fcrepo.dto.factories.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Writes entries sequentially into a single archive. Implementations are
+ * not thread safe.
+ * 
+ * @author fasseg
+ * 
+ */
+public abstract class ArchiveWriter implements Closeable {
+
+	/**
+	 * append an entry to the archive
+	 * 
+	 * @param name
+	 *            the path of the entry inside the archive
+	 * @param size
+	 *            the exact number of bytes the entry holds
+	 * @param modified
+	 *            the modification time of the entry in milliseconds since
+	 *            the epoch, which is fixed so archives can be reproduced
+	 * @param content
+	 *            the {@link InputStream} providing the entry's content
+	 * @throws IOException
+	 *             if the entry could not be written, or the stream did not
+	 *             provide exactly <code>size</code> bytes
+	 */
+	public abstract void putEntry(String name, long size, long modified, InputStream content) throws IOException;
+
+	/**
+	 * check whether more entries still fit into the archive without exceeding
+	 * the limits of it's format
+	 * 
+	 * @param entries
+	 *            the number of entries to add
+	 * @param bytes
+	 *            the total size of the entries' content
+	 * @return true if the entries can be added to this archive
+	 */
+	public boolean fits(final int entries, final long bytes) {
+		return true;
+	}
+
+	/**
+	 * get the number of bytes written to the archive so far
+	 * 
+	 * @return the number of bytes
+	 */
+	public abstract long getBytesWritten();
+
+	/**
+	 * finish the archive and close the underlying stream
+	 * 
+	 * @throws IOException
+	 *             if the archive could not be finished
+	 */
+	public abstract void close() throws IOException;
+}
@@ -0,0 +1,252 @@
+package org.fcrepo.dto.factories.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Abstract factory class for creating {@link ArchiveWriter}s
+ * 
+ * @author fasseg
+ */
+public abstract class ArchiveWriters {
+
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private static final int ENTRY_OVERHEAD = 256;
+
+	private static final int END_OVERHEAD = 1024;
+
+	private static final int MAX_NAME_LENGTH = 256;
+
+	private ArchiveWriters() {
+		// you no construct me from derived class.
+	}
+
+	/**
+	 * create an {@link ArchiveWriter} writing a POSIX tar archive. Entries
+	 * larger than 8 GiB get their size encoded in the binary GNU format, and
+	 * names longer than 100 bytes are split into the ustar prefix and name
+	 * 
+	 * @param out
+	 *            the {@link OutputStream} to write the archive to
+	 * @return a new {@link ArchiveWriter} for tar archives
+	 */
+	public final static ArchiveWriter tar(final OutputStream out) {
+		return new TarWriter(out);
+	}
+
+	/**
+	 * create an {@link ArchiveWriter} writing a zip archive. The entries are
+	 * stored without compression. Zip archives written by the java 6 class
+	 * library have no ZIP64 extensions, so they are limited to 65535 entries
+	 * and 4 GiB, which {@link ArchiveWriter#fits(int, long)} reports
+	 * 
+	 * @param out
+	 *            the {@link OutputStream} to write the archive to
+	 * @return a new {@link ArchiveWriter} for zip archives
+	 */
+	public final static ArchiveWriter zip(final OutputStream out) {
+		return new ZipWriter(out);
+	}
+
+	/**
+	 * create an {@link ArchiveWriter} by the name of it's format, which is
+	 * either <code>tar</code> or <code>zip</code>
+	 * 
+	 * @param format
+	 *            the archive format
+	 * @param out
+	 *            the {@link OutputStream} to write the archive to
+	 * @return a new {@link ArchiveWriter}
+	 */
+	public final static ArchiveWriter forFormat(final String format, final OutputStream out) {
+		if (format.equals("tar")) {
+			return tar(out);
+		} else if (format.equals("zip")) {
+			return zip(out);
+		}
+		throw new IllegalArgumentException("unknown archive format '" + format + "'");
+	}
+
+	private static long copy(final InputStream in, final OutputStream out, final byte[] buffer, final long size)
+			throws IOException {
+		long copied = 0;
+		int read;
+		while (copied < size && (read = in.read(buffer, 0, (int) Math.min(buffer.length, size - copied))) != -1) {
+			out.write(buffer, 0, read);
+			copied += read;
+		}
+		if (copied != size || in.read() != -1) {
+			throw new IOException("entry content does not match the announced size of " + size + " bytes");
+		}
+		return copied;
+	}
+
+	private static final class TarWriter extends ArchiveWriter {
+		private static final int BLOCK_SIZE = 512;
+		private static final long MAX_OCTAL_SIZE = 077777777777L;
+		private static final int NAME_LENGTH = 100;
+		private static final int PREFIX_LENGTH = 155;
+
+		private final CountingOutputStream out;
+		private final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+		private TarWriter(final OutputStream out) {
+			this.out = new CountingOutputStream(out);
+		}
+
+		@Override
+		public void putEntry(final String name, final long size, final long modified, final InputStream content)
+				throws IOException {
+			out.write(createHeader(name, size, modified));
+			copy(content, out, buffer, size);
+			final int padding = (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+			out.write(new byte[padding]);
+		}
+
+		@Override
+		public long getBytesWritten() {
+			return out.getByteCount();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				// two empty blocks mark the end of the archive
+				out.write(new byte[2 * BLOCK_SIZE]);
+				out.flush();
+			} finally {
+				out.close();
+			}
+		}
+
+		private static byte[] createHeader(final String name, final long size, final long modified)
+				throws IOException {
+			final byte[] nameBytes = name.getBytes("UTF-8");
+			final byte[] header = new byte[BLOCK_SIZE];
+			if (nameBytes.length <= NAME_LENGTH) {
+				System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+			} else {
+				// split the name at a slash into the ustar prefix and name
+				int split = -1;
+				for (int i = Math.min(nameBytes.length - 1, PREFIX_LENGTH); i > 0; i--) {
+					if (nameBytes[i] == '/' && nameBytes.length - i - 1 <= NAME_LENGTH) {
+						split = i;
+						break;
+					}
+				}
+				if (split < 0 || split == nameBytes.length - 1) {
+					throw new IOException("entry name is too long for a tar archive: " + name);
+				}
+				System.arraycopy(nameBytes, split + 1, header, 0, nameBytes.length - split - 1);
+				System.arraycopy(nameBytes, 0, header, 345, split);
+			}
+			writeOctal(0644, header, 100, 8);
+			writeOctal(0, header, 108, 8);
+			writeOctal(0, header, 116, 8);
+			if (size <= MAX_OCTAL_SIZE) {
+				writeOctal(size, header, 124, 12);
+			} else {
+				// GNU base-256 encoding for entries of 8 GiB and more
+				header[124] = (byte) 0x80;
+				for (int i = 0; i < 8; i++) {
+					header[135 - i] = (byte) (size >>> (i * 8));
+				}
+			}
+			writeOctal(Math.max(0, modified / 1000), header, 136, 12);
+			header[156] = '0';
+			System.arraycopy(ascii("ustar"), 0, header, 257, 5);
+			header[263] = '0';
+			header[264] = '0';
+			// the checksum is computed with the checksum field set to spaces
+			for (int i = 148; i < 156; i++) {
+				header[i] = ' ';
+			}
+			long checksum = 0;
+			for (byte b : header) {
+				checksum += b & 0xff;
+			}
+			writeOctal(checksum, header, 148, 7);
+			header[155] = ' ';
+			return header;
+		}
+
+		private static void writeOctal(final long value, final byte[] header, final int offset, final int length) {
+			final String octal = Long.toOctalString(value);
+			final int digits = length - 1;
+			for (int i = 0; i < digits; i++) {
+				final int pos = octal.length() - digits + i;
+				header[offset + i] = (byte) (pos < 0 ? '0' : octal.charAt(pos));
+			}
+			header[offset + digits] = 0;
+		}
+
+		private static byte[] ascii(final String value) {
+			try {
+				return value.getBytes("US-ASCII");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private static final class ZipWriter extends ArchiveWriter {
+		private static final int MAX_ENTRIES = 0xffff;
+		private static final long MAX_SIZE = 0xffffffffL;
+
+		private final CountingOutputStream counter;
+		private final ZipOutputStream out;
+		private final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		private int entries;
+		// the space the headers and central directory of the entries take
+		private long directory;
+
+		private ZipWriter(final OutputStream out) {
+			this.counter = new CountingOutputStream(out);
+			this.out = new ZipOutputStream(counter);
+			this.out.setLevel(Deflater.NO_COMPRESSION);
+		}
+
+		@Override
+		public void putEntry(final String name, final long size, final long modified, final InputStream content)
+				throws IOException {
+			if (!fits(1, size)) {
+				throw new IOException("entry " + name + " of " + size + " bytes does not fit into a zip archive");
+			}
+			final ZipEntry entry = new ZipEntry(name);
+			entry.setTime(modified);
+			out.putNextEntry(entry);
+			copy(content, out, buffer, size);
+			out.closeEntry();
+			entries++;
+			directory += ENTRY_OVERHEAD + 2 * name.length();
+		}
+
+		@Override
+		public boolean fits(final int numEntries, final long bytes) {
+			// deflating without compression adds a few bytes per block, and
+			// every entry needs headers in front of it's data and in the
+			// central directory
+			final long needed = bytes + bytes / 8192 + numEntries * (ENTRY_OVERHEAD + 2 * MAX_NAME_LENGTH);
+			return entries + numEntries <= MAX_ENTRIES
+					&& counter.getByteCount() + directory + needed + END_OVERHEAD <= MAX_SIZE;
+		}
+
+		@Override
+		public long getBytesWritten() {
+			return counter.getByteCount();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package org.fcrepo.dto.factories.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.fcrepo.dto.factories.FOXMLs;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.fcrepo.dto.factories.content.SyntheticContent;
+import org.fcrepo.dto.factories.foxml.StreamingFOXMLWriter;
+import org.fcrepo.dto.factories.metrics.GenerationMetrics;
+
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.Datastream;
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+
+/**
+ * Writes {@link FedoraObject}s and their content into a series of rolling
+ * archives instead of single files. Synthetic and file content referenced by
+ * an object is copied into the archive as
+ * <code>content/&lt;version id&gt;</code>
+ * and the object's content location is rewritten to that relative path,
+ * followed by the FOXML as <code>foxml/&lt;pid&gt;.xml</code>. All entries of
+ * an object end up in the same archive. Once an archive exceeds the maximum
+ * size, or the next object would exceed the limits of the archive format, the
+ * next object starts a new one, so a corpus consists of a few large files
+ * written purely sequentially.
+ * <p>
+ * Objects can be added from many threads. The FOXML is serialized by the
+ * calling thread, only the writing of the entries is serialized.
+ * 
+ * @author fasseg
+ * 
+ */
+public class FOXMLArchive implements Closeable {
+
+	private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+
+	private static final int FOXML_MEMORY_THRESHOLD = 1024 * 1024;
+
+	private final File targetDirectory;
+
+	private final String format;
+
+	private final long maxSize;
+
+	// an empty archive, telling whether an object fits into a new one
+	private final ArchiveWriter limits;
+
+	private GenerationMetrics metrics;
+
+	private GenerationOptions options = new GenerationOptions();
+
+	private ArchiveWriter writer;
+
+	private File currentFile;
+
+	private int numArchives;
+
+	/**
+	 * create a new {@link FOXMLArchive}
+	 * 
+	 * @param targetDirectory
+	 *            the directory for writing the archives
+	 * @param format
+	 *            the format of the archives, either <code>tar</code> or
+	 *            <code>zip</code>
+	 * @param maxSize
+	 *            the size in bytes after which a new archive is started
+	 */
+	public FOXMLArchive(final File targetDirectory, final String format, final long maxSize) {
+		if (!format.equals("tar") && !format.equals("zip")) {
+			throw new IllegalArgumentException("unknown archive format '" + format + "'");
+		}
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maximum archive size must be positive");
+		}
+		this.targetDirectory = targetDirectory;
+		this.format = format;
+		this.maxSize = maxSize;
+		this.limits = ArchiveWriters.forFormat(format, new NullOutputStream());
+	}
+
+	/**
+	 * record the bytes of content and FOXML written in
+	 * {@link GenerationMetrics}
+	 * 
+	 * @param metrics
+	 *            the {@link GenerationMetrics} to record to
+	 * @return this {@link FOXMLArchive}
+	 */
+	public FOXMLArchive metrics(final GenerationMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	/**
+	 * set the {@link GenerationOptions} limiting and validating inline XML
+	 * content which is streamed into the FOXML, and syncing finished archives
+	 * as configured by their {@link org.fcrepo.dto.factories.durability.Durability}
+	 * 
+	 * @param options
+	 *            the {@link GenerationOptions} to use
+	 * @return this {@link FOXMLArchive}
+	 */
+	public FOXMLArchive options(final GenerationOptions options) {
+		this.options = options;
+		return this;
+	}
+
+	/**
+	 * add a {@link FedoraObject} and it's content to the archive
+	 * 
+	 * @param fo
+	 *            the {@link FedoraObject} to add, it's content locations get
+	 *            rewritten to point into the archive
+	 * @param inline
+	 *            whether the content of managed datastreams should be
+	 *            embedded base64 encoded in the FOXML instead of being added
+	 *            as separate entries
+	 * @return the archive the object has been written to
+	 * @throws IOException
+	 *             if the object could not be written
+	 */
+	public File add(final FedoraObject fo, final boolean inline) throws IOException {
+		final List<ContentEntry> contents = new ArrayList<ContentEntry>();
+		for (Datastream ds : fo.datastreams().values()) {
+			if (ds.controlGroup() == ControlGroup.INLINE_XML
+					|| (inline && ds.controlGroup() == ControlGroup.MANAGED)) {
+				continue;
+			}
+			for (DatastreamVersion dsv : ds.versions()) {
+				final URI uri = dsv.contentLocation();
+				if (uri != null && (SyntheticContent.isSynthetic(uri) || "file".equals(uri.getScheme()))) {
+					// version IDs are unique, and reproducible for seeded
+					// objects
+					final String name = "content/" + dsv.id();
+					contents.add(new ContentEntry(name, uri));
+					dsv.contentLocation(URI.create(name));
+				}
+			}
+		}
+		final DeferredFileOutputStream foxml = new DeferredFileOutputStream(FOXML_MEMORY_THRESHOLD, "foxml-",
+				".xml", null);
+		try {
+			// the FOXMLWriter can not handle relative content locations
+			final StreamingFOXMLWriter foxmlWriter = FOXMLs.createWriter(options);
+			if (inline) {
+				foxmlWriter.setManagedDatastreamsToEmbed(fo.datastreams().keySet());
+			}
+			try {
+				foxmlWriter.writeObject(fo, foxml);
+			} finally {
+				foxmlWriter.close();
+			}
+			foxml.close();
+			// entries carry the object's creation date, so archives of a
+			// seeded corpus are reproducible
+			final long modified = (fo.createdDate() == null) ? 0 : fo.createdDate().getTime();
+			return write(fo.pid().replace(':', '_'), modified, contents, foxml);
+		} finally {
+			IOUtils.closeQuietly(foxml);
+			if (foxml.getFile() != null) {
+				foxml.getFile().delete();
+			}
+		}
+	}
+
+	/**
+	 * get the number of archives started so far
+	 * 
+	 * @return the number of archives
+	 */
+	public synchronized int getNumArchives() {
+		return numArchives;
+	}
+
+	/**
+	 * finish the current archive
+	 * 
+	 * @throws IOException
+	 *             if the archive could not be finished
+	 */
+	public synchronized void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+			// a finished archive is synced as a whole, with the content
+			// files written for it
+			options.durability().written(currentFile);
+			options.durability().flush();
+		}
+	}
+
+	private synchronized File write(final String id, final long modified, final List<ContentEntry> contents,
+			final DeferredFileOutputStream foxml) throws IOException {
+		final long[] sizes = new long[contents.size()];
+		long total = foxml.getByteCount();
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = contents.get(i).getSize();
+			total += sizes[i];
+		}
+		// an archive is also rolled before it's format's limits are reached,
+		// since a zip archive would be corrupted by too many or too large
+		// entries
+		if (!limits.fits(sizes.length + 1, total)) {
+			throw new IOException("object " + id + " with " + total + " bytes does not fit into a " + format
+					+ " archive");
+		}
+		if (writer != null && (writer.getBytesWritten() >= maxSize || !writer.fits(sizes.length + 1, total))) {
+			close();
+		}
+		if (writer == null) {
+			currentFile = new File(targetDirectory, String.format("foxml-%05d.%s", numArchives++, format));
+			writer = ArchiveWriters.forFormat(format, new BufferedOutputStream(new FileOutputStream(currentFile),
+					OUTPUT_BUFFER_SIZE));
+		}
+		for (int i = 0; i < sizes.length; i++) {
+			final ContentEntry entry = contents.get(i);
+			final long size = sizes[i];
+			final InputStream in = entry.open();
+			try {
+				writer.putEntry(entry.name, size, modified, in);
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+			if (metrics != null) {
+				metrics.contentWritten(size);
+			}
+		}
+		final InputStream in = foxml.isInMemory() ? new ByteArrayInputStream(foxml.getData())
+				: new FileInputStream(foxml.getFile());
+		try {
+			writer.putEntry("foxml/" + id + ".xml", foxml.getByteCount(), modified, in);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		if (metrics != null) {
+			metrics.foxmlWritten(foxml.getByteCount());
+		}
+		return currentFile;
+	}
+
+	private static final class ContentEntry {
+		private final String name;
+		private final URI uri;
+
+		private ContentEntry(final String name, final URI uri) {
+			this.name = name;
+			this.uri = uri;
+		}
+
+		private long getSize() throws IOException {
+			if (SyntheticContent.isSynthetic(uri)) {
+				return SyntheticContent.getSize(uri);
+			}
+			return new File(uri).length();
+		}
+
+		private InputStream open() throws IOException {
+			if (SyntheticContent.isSynthetic(uri)) {
+				return SyntheticContent.openStream(uri);
+			}
+			return new FileInputStream(new File(uri));
+		}
+	}
+}
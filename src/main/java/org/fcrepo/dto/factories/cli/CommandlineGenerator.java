@@ -7,17 +7,49 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.io.IOUtils;
+import org.fcrepo.dto.factories.Corpus;
 import org.fcrepo.dto.factories.FOXMLs;
+import org.fcrepo.dto.factories.FedoraObjects;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.fcrepo.dto.factories.archive.FOXMLArchive;
+import org.fcrepo.dto.factories.compress.Compression;
+import org.fcrepo.dto.factories.content.ContentCache;
+import org.fcrepo.dto.factories.content.ContentFetcher;
+import org.fcrepo.dto.factories.content.ContentSources;
+import org.fcrepo.dto.factories.content.ContentWriters;
+import org.fcrepo.dto.factories.content.SyntheticContent;
+import org.fcrepo.dto.factories.content.XMLContent;
+import org.fcrepo.dto.factories.durability.Durability;
+import org.fcrepo.dto.factories.http.HttpRequests;
+import org.fcrepo.dto.factories.ids.IdentifierService;
+import org.fcrepo.dto.factories.ids.IdentifierServices;
+import org.fcrepo.dto.factories.ingest.FOXMLIngester;
+import org.fcrepo.dto.factories.journal.GenerationJournal;
+import org.fcrepo.dto.factories.layout.DirectoryLayout;
+import org.fcrepo.dto.factories.layout.DirectoryLayouts;
+import org.fcrepo.dto.factories.metrics.GenerationMetrics;
+import org.fcrepo.dto.factories.metrics.LatencyHistogram;
+import org.fcrepo.dto.factories.workload.Distributions;
+import org.fcrepo.dto.factories.workload.WorkloadProfile;
 
 import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
 
 /**
  * A command line utility for creating FOXML files for testing purposes. If run
@@ -32,15 +64,85 @@ import com.github.cwilper.fcrepo.dto.core.ControlGroup;
 public final class CommandlineGenerator extends Questionary {
 	public static final String PROPERTY_INLINE_BASE64 = "generator.inline.base64";
 	public static final String PROPERTY_NUM_FOXML = "generator.num.files";
+	public static final String PROPERTY_SEED = "generator.seed";
+	public static final String PROPERTY_SHARD = "generator.shard";
+	public static final String PROPERTY_IDENTIFIERS = "generator.identifiers";
+	public static final String PROPERTY_PID_NAMESPACE = "generator.pid.namespace";
+	public static final String PROPERTY_PID_BLOCK_SIZE = "generator.pid.block.size";
 	public static final String PROPERTY_TARGET_DIRECTORY = "generator.target.directory";
 	public static final String PROPERTY_DATASTREAMS_RANDOM = "generator.datastreams.random";
 	public static final String PROPERTY_CONTROLGROUP = "generator.controlgroup";
 	public static final String PROPERTY_DATASTREAM_RANDOM_SIZE = "generator.datastream.random.size";
+	public static final String PROPERTY_WORKLOAD_DATASTREAMS = "generator.workload.datastreams";
+	public static final String PROPERTY_WORKLOAD_VERSIONS = "generator.workload.versions";
+	public static final String PROPERTY_WORKLOAD_SIZES = "generator.workload.sizes";
 	public static final String PROPERTY_INPUT_DIRECTORY = "generator.input.directory";
 	public static final String PROPERTY_INPUT_FILETYPES = "generator.input.filetypes";
+	public static final String PROPERTY_INPUT_SCAN_THREADS = "generator.input.scan.threads";
+	public static final String PROPERTY_INPUT_URLS = "generator.input.urls";
+	public static final String PROPERTY_FETCH_THREADS = "generator.fetch.threads";
+	public static final String PROPERTY_FETCH_TIMEOUT = "generator.fetch.timeout";
+	public static final String PROPERTY_FETCH_RETRIES = "generator.fetch.retries";
+	public static final String PROPERTY_FETCH_BACKOFF = "generator.fetch.backoff";
+	public static final String PROPERTY_THREADS = "generator.threads";
+	public static final String PROPERTY_CONTENT_SOURCE = "generator.content.source";
+	public static final String PROPERTY_CONTENT_SYNTHETIC = "generator.content.synthetic";
+	public static final String PROPERTY_CONTENT_WRITER = "generator.content.writer";
+	public static final String PROPERTY_CONTENT_BUFFER_SIZE = "generator.content.buffer.size";
+	public static final String PROPERTY_CONTENT_PREALLOCATE = "generator.content.preallocate";
+	public static final String PROPERTY_CONTENT_DIGEST = "generator.content.digest";
+	public static final String PROPERTY_CONTENT_CACHE_SIZE = "generator.content.cache.size";
+	public static final String PROPERTY_CONTENT_CACHE_STORAGE = "generator.content.cache.storage";
+	public static final String PROPERTY_INLINE_XML_LIMIT = "generator.inline.xml.limit";
+	public static final String PROPERTY_INLINE_XML_STREAM = "generator.inline.xml.stream";
+	public static final String PROPERTY_INLINE_XML_VALIDATE = "generator.inline.xml.validate";
+	public static final String PROPERTY_FOXML_TEMPLATES = "generator.foxml.templates";
+	public static final String PROPERTY_PIPELINE = "generator.pipeline";
+	public static final String PROPERTY_PIPELINE_QUEUE_SIZE = "generator.pipeline.queue.size";
+	public static final String PROPERTY_PIPELINE_THREADS_BUILD = "generator.pipeline.threads.build";
+	public static final String PROPERTY_PIPELINE_THREADS_CONTENT = "generator.pipeline.threads.content";
+	public static final String PROPERTY_PIPELINE_THREADS_SERIALIZE = "generator.pipeline.threads.serialize";
+	public static final String PROPERTY_METRICS_INTERVAL = "generator.metrics.interval";
+	public static final String PROPERTY_METRICS_SUMMARY = "generator.metrics.summary";
+	public static final String PROPERTY_OUTPUT = "generator.output";
+	public static final String PROPERTY_OUTPUT_ARCHIVE_SIZE = "generator.output.archive.size";
+	public static final String PROPERTY_OUTPUT_COMPRESSION = "generator.output.compression";
+	public static final String PROPERTY_OUTPUT_COMPRESSION_BLOCK_SIZE = "generator.output.compression.block.size";
+	public static final String PROPERTY_OUTPUT_LAYOUT = "generator.output.layout";
+	public static final String PROPERTY_OUTPUT_LAYOUT_LEVELS = "generator.output.layout.levels";
+	public static final String PROPERTY_OUTPUT_DURABILITY = "generator.output.durability";
+	public static final String PROPERTY_OUTPUT_DURABILITY_BATCH_SIZE = "generator.output.durability.batch.size";
+	public static final String PROPERTY_OUTPUT_DURABILITY_INTERVAL = "generator.output.durability.interval";
+	public static final String PROPERTY_INGEST_URL = "generator.ingest.url";
+	public static final String PROPERTY_INGEST_USER = "generator.ingest.user";
+	public static final String PROPERTY_INGEST_PASSWORD = "generator.ingest.password";
+	public static final String PROPERTY_INGEST_THREADS = "generator.ingest.threads";
+	public static final String PROPERTY_INGEST_QUEUE_SIZE = "generator.ingest.queue.size";
+	public static final String PROPERTY_INGEST_TIMEOUT = "generator.ingest.timeout";
+	public static final String PROPERTY_INGEST_RETRIES = "generator.ingest.retries";
+	public static final String PROPERTY_JOURNAL = "generator.journal";
+	public static final String PROPERTY_JOURNAL_BATCH_SIZE = "generator.journal.batch.size";
 
 	private Properties properties = new Properties();
 
+	private ContentCache contentCache;
+
+	private ContentFetcher contentFetcher;
+
+	private FOXMLIngester ingester;
+
+	private GenerationJournal journal;
+
+	private Compression compression;
+
+	private boolean compressionCreated;
+
+	private IdentifierService identifiers;
+
+	private DirectoryLayout layout;
+
+	private Durability durability;
+
 	private CommandlineGenerator(BufferedReader reader, PrintStream out) {
 		super(reader, out);
 	}
@@ -138,67 +240,615 @@ public final class CommandlineGenerator extends Questionary {
 		}
 	}
 
+	private void questionThreads() throws Exception {
+		final int cpus = Runtime.getRuntime().availableProcessors();
+		Integer threads = poseQuestion(Integer.class, cpus, "How many threads should be used for generation [default="
+				+ cpus + "] ? ");
+		properties.setProperty(PROPERTY_THREADS, String.valueOf(threads));
+	}
+
 	private void startFOXMLCreation() throws IOException {
-		properties.store(new FileOutputStream("generator.properties"), "created by generator");
+		FileOutputStream propertiesOut = null;
+		try {
+			propertiesOut = new FileOutputStream("generator.properties");
+			properties.store(propertiesOut, "created by generator");
+			propertiesOut.close();
+		} finally {
+			IOUtils.closeQuietly(propertiesOut);
+		}
 		properties.store(System.out, "none");
 		final boolean randomDatastreams = Boolean.parseBoolean(properties.getProperty(PROPERTY_DATASTREAMS_RANDOM));
 		final File targetDirectory = new File(properties.getProperty(PROPERTY_TARGET_DIRECTORY));
 		if (!targetDirectory.exists()) {
 			targetDirectory.mkdir();
 		}
-		final List<File> foxmls;
+		final long start = System.nanoTime();
+		final GenerationMetrics metrics = new GenerationMetrics();
+		final int interval = getIntProperty(PROPERTY_METRICS_INTERVAL, 10);
+		if (interval > 0) {
+			metrics.startReporting(System.out, interval);
+		}
+		if (randomDatastreams && getShard() != Shard.ALL) {
+			System.out.println("generating shard " + getShard() + " of a corpus of "
+					+ properties.getProperty(PROPERTY_NUM_FOXML) + " objects with seed " + getSeed());
+		}
+		final ParallelGenerator generator = new ParallelGenerator(getNumThreads()).metrics(metrics);
+		final FOXMLArchive archive = createArchive(targetDirectory, metrics);
+		ingester = createIngester(metrics);
+		journal = createJournal(targetDirectory, randomDatastreams);
+		boolean succeeded = false;
+		try {
+			final long count;
+			if (randomDatastreams && Boolean.parseBoolean(properties.getProperty(PROPERTY_PIPELINE))) {
+				count = createFOXMLFromRandomDataPipelined(targetDirectory, archive, metrics);
+			} else if (randomDatastreams) {
+				count = createFOXMLFromRandomData(targetDirectory, archive, generator, metrics);
+			} else if (properties.getProperty(PROPERTY_INPUT_URLS, "").trim().length() > 0) {
+				count = createFOXMLFromInputURLs(targetDirectory, archive, metrics);
+			} else {
+				count = createFOXMLFromInputFiles(targetDirectory, archive, generator, metrics);
+			}
+			if (ingester != null) {
+				ingester.close();
+				System.out.println("ingested " + count + " objects: " + ingester);
+			} else {
+				System.out.println("generated " + count + " FOXML files");
+			}
+			if (journal != null && journal.getResumed() > 0) {
+				System.out.println(journal.getResumed() + " objects had been generated by earlier runs");
+			}
+			if (archive != null) {
+				archive.close();
+				System.out.println("wrote " + archive.getNumArchives() + " archives");
+			}
+			// the last group commit, before the journal records it
+			getDurability().close();
+			succeeded = true;
+		} finally {
+			IOUtils.closeQuietly(archive);
+			IOUtils.closeQuietly(ingester);
+			IOUtils.closeQuietly(durability);
+			// records of the objects completed so far survive any failure
+			IOUtils.closeQuietly(journal);
+			metrics.stop();
+			if (contentCache != null) {
+				System.out.println("content cache: " + contentCache.getHits() + " hits, " + contentCache.getMisses()
+						+ " misses, " + contentCache.getEvictions() + " evictions");
+			}
+			if (contentFetcher != null) {
+				System.out.println("content fetcher: " + contentFetcher);
+				contentFetcher.shutdown();
+			}
+			if (durability != null && durability.getLevel() != Durability.Level.NONE) {
+				System.out.println("durability " + durability);
+			}
+			if (compression != null) {
+				final double seconds = (System.nanoTime() - start) / 1000000000d;
+				System.out.println(String.format("compression %s, %.1f MB/s overall", compression,
+						compression.getInputBytes() / 1000000d / seconds));
+			}
+			final String summary = properties.getProperty(PROPERTY_METRICS_SUMMARY, "generator-summary.json");
+			if (summary.trim().length() > 0) {
+				try {
+					metrics.writeSummary(new File(summary.trim()));
+					System.out.println("wrote metrics summary to " + summary.trim());
+				} catch (IOException e) {
+					if (succeeded) {
+						throw e;
+					}
+					// the failure of the run itself is the one to report
+					System.err.println("unable to write metrics summary to " + summary.trim() + ": "
+							+ e.getMessage());
+				}
+			}
+		}
+	}
+
+	private int getNumThreads() {
+		return getIntProperty(PROPERTY_THREADS, Runtime.getRuntime().availableProcessors());
+	}
+
+	private int getIntProperty(final String name, final int defaultValue) {
+		final String value = properties.getProperty(name);
+		if (value == null || value.trim().length() == 0) {
+			return defaultValue;
+		}
+		return Integer.parseInt(value.trim());
+	}
+
+	private GenerationOptions createGenerationOptions() {
+		final GenerationOptions options = new GenerationOptions()
+				.source(ContentSources.forSpec(properties.getProperty(PROPERTY_CONTENT_SOURCE)))
+				.synthetic(Boolean.parseBoolean(properties.getProperty(PROPERTY_CONTENT_SYNTHETIC)))
+				.writer(ContentWriters.forName(properties.getProperty(PROPERTY_CONTENT_WRITER),
+						getIntProperty(PROPERTY_CONTENT_BUFFER_SIZE, ContentWriters.DEFAULT_BUFFER_SIZE),
+						Boolean.parseBoolean(properties.getProperty(PROPERTY_CONTENT_PREALLOCATE))))
+				.digest(properties.getProperty(PROPERTY_CONTENT_DIGEST))
+				.inlineXMLLimit(Long.parseLong(properties.getProperty(PROPERTY_INLINE_XML_LIMIT,
+						String.valueOf(XMLContent.DEFAULT_LIMIT)).trim()))
+				.streamInlineXML(Boolean.parseBoolean(properties.getProperty(PROPERTY_INLINE_XML_STREAM)))
+				.validateInlineXML(Boolean.parseBoolean(properties.getProperty(PROPERTY_INLINE_XML_VALIDATE)))
+				.templates(Boolean.parseBoolean(properties.getProperty(PROPERTY_FOXML_TEMPLATES)))
+				.cache(getContentCache())
+				.fetcher(getContentFetcher())
+				.compression(getCompression())
+				.seed(getSeed())
+				.identifiers(getIdentifiers())
+				.layout(getLayout())
+				.durability(getDurability());
+		if (options.synthetic()) {
+			SyntheticContent.registerURLStreamHandler();
+		}
+		return options;
+	}
+
+	private synchronized DirectoryLayout getLayout() {
+		// all options have to share one layout, which remembers the
+		// directories it has created
+		if (layout == null) {
+			layout = DirectoryLayouts.forName(properties.getProperty(PROPERTY_OUTPUT_LAYOUT),
+					getIntProperty(PROPERTY_OUTPUT_LAYOUT_LEVELS, DirectoryLayouts.DEFAULT_LEVELS));
+		}
+		return layout;
+	}
+
+	private synchronized Durability getDurability() {
+		// all options have to share one durability, so a group commit covers
+		// the files of all threads
+		if (durability == null) {
+			durability = Durability.forName(properties.getProperty(PROPERTY_OUTPUT_DURABILITY),
+					getIntProperty(PROPERTY_OUTPUT_DURABILITY_BATCH_SIZE, Durability.DEFAULT_BATCH_SIZE),
+					getIntProperty(PROPERTY_OUTPUT_DURABILITY_INTERVAL, (int) Durability.DEFAULT_INTERVAL));
+		}
+		return durability;
+	}
+
+	private Long getSeed() {
+		final String seed = properties.getProperty(PROPERTY_SEED, "").trim();
+		if (seed.length() == 0) {
+			if (getShard() != Shard.ALL) {
+				throw new IllegalArgumentException("generating shard " + getShard() + " requires a seed");
+			}
+			return null;
+		}
+		return Long.decode(seed);
+	}
+
+	private Shard getShard() {
+		return Shard.parse(properties.getProperty(PROPERTY_SHARD));
+	}
+
+	private synchronized IdentifierService getIdentifiers() {
+		// all options have to share one service to keep identifiers unique
+		if (identifiers == null) {
+			identifiers = IdentifierServices.forName(properties.getProperty(PROPERTY_IDENTIFIERS),
+					properties.getProperty(PROPERTY_PID_NAMESPACE),
+					getIntProperty(PROPERTY_PID_BLOCK_SIZE, IdentifierServices.DEFAULT_BLOCK_SIZE));
+		}
+		return identifiers;
+	}
+
+	private synchronized Compression getCompression() {
+		// all options share one compression, which counts the bytes of the
+		// whole run
+		if (!compressionCreated) {
+			compression = Compression.forName(properties.getProperty(PROPERTY_OUTPUT_COMPRESSION),
+					getIntProperty(PROPERTY_OUTPUT_COMPRESSION_BLOCK_SIZE, Compression.DEFAULT_BLOCK_SIZE));
+			compressionCreated = true;
+		}
+		return compression;
+	}
+
+	private synchronized ContentCache getContentCache() {
+		final int size = getIntProperty(PROPERTY_CONTENT_CACHE_SIZE, 0);
+		if (contentCache == null && size > 0) {
+			final String storage = properties.getProperty(PROPERTY_CONTENT_CACHE_STORAGE, "heap").trim();
+			contentCache = new ContentCache(size * 1000L * 1000L, ContentCache.Storage.valueOf(storage
+					.toUpperCase(Locale.ENGLISH)), getContentFetcher());
+		}
+		return contentCache;
+	}
+
+	private synchronized ContentFetcher getContentFetcher() {
+		final int threads = getIntProperty(PROPERTY_FETCH_THREADS, 0);
+		if (contentFetcher == null && threads > 0) {
+			HttpRequests.poolConnections(threads);
+			contentFetcher = new ContentFetcher(threads, getIntProperty(PROPERTY_FETCH_TIMEOUT,
+					ContentFetcher.DEFAULT_TIMEOUT), getIntProperty(PROPERTY_FETCH_RETRIES,
+					ContentFetcher.DEFAULT_RETRIES), getIntProperty(PROPERTY_FETCH_BACKOFF,
+					(int) ContentFetcher.DEFAULT_BACKOFF));
+		}
+		return contentFetcher;
+	}
+
+	private FOXMLArchive createArchive(final File targetDirectory, final GenerationMetrics metrics) {
+		final String output = properties.getProperty(PROPERTY_OUTPUT, "files").trim();
+		if (output.length() == 0 || output.equals("files") || output.equals("ingest")) {
+			return null;
+		}
+		final long maxSize = getIntProperty(PROPERTY_OUTPUT_ARCHIVE_SIZE, 1024) * 1000L * 1000L;
+		return new FOXMLArchive(targetDirectory, output, maxSize).metrics(metrics).options(createGenerationOptions());
+	}
+
+	private FOXMLIngester createIngester(final GenerationMetrics metrics) {
+		if (!properties.getProperty(PROPERTY_OUTPUT, "files").trim().equals("ingest")) {
+			return null;
+		}
+		final String url = properties.getProperty(PROPERTY_INGEST_URL, "").trim();
+		if (url.length() == 0) {
+			throw new IllegalArgumentException(PROPERTY_INGEST_URL + " is required for ingesting objects");
+		}
+		final int threads = getIntProperty(PROPERTY_INGEST_THREADS, 8);
+		HttpRequests.poolConnections(threads);
+		final FOXMLIngester created = new FOXMLIngester(URI.create(url), threads, getIntProperty(
+				PROPERTY_INGEST_QUEUE_SIZE, threads))
+				.metrics(metrics)
+				.options(createGenerationOptions())
+				.timeout(getIntProperty(PROPERTY_INGEST_TIMEOUT, FOXMLIngester.DEFAULT_TIMEOUT))
+				.retries(getIntProperty(PROPERTY_INGEST_RETRIES, FOXMLIngester.DEFAULT_RETRIES));
+		final String user = properties.getProperty(PROPERTY_INGEST_USER, "").trim();
+		if (user.length() > 0) {
+			created.credentials(user, properties.getProperty(PROPERTY_INGEST_PASSWORD, ""));
+		}
+		return created;
+	}
+
+	private GenerationJournal createJournal(final File targetDirectory, final boolean randomDatastreams)
+			throws IOException {
+		final String name = properties.getProperty(PROPERTY_JOURNAL, "").trim();
+		if (name.length() == 0) {
+			return null;
+		}
+		final String output = properties.getProperty(PROPERTY_OUTPUT, "files").trim();
+		if (output.length() > 0 && !output.equals("files")) {
+			throw new IllegalArgumentException("the journal requires " + PROPERTY_OUTPUT + "=files");
+		}
+		// a journal can only be continued by the same run
+		final String identifiers = "identifiers=" + getIdentifiers().getName() + ":"
+				+ getIdentifiers().namespace();
+		final String run;
 		if (randomDatastreams) {
-			foxmls = createFOXMLFromRandomData(targetDirectory);
+			run = "random seed=" + getSeed() + " shard=" + getShard() + " " + identifiers + " size="
+					+ properties.getProperty(PROPERTY_DATASTREAM_RANDOM_SIZE, "").trim() + " datastreams="
+					+ properties.getProperty(PROPERTY_WORKLOAD_DATASTREAMS, "").trim() + " versions="
+					+ properties.getProperty(PROPERTY_WORKLOAD_VERSIONS, "").trim() + " sizes="
+					+ properties.getProperty(PROPERTY_WORKLOAD_SIZES, "").trim();
+		} else if (properties.getProperty(PROPERTY_INPUT_URLS, "").trim().length() > 0) {
+			run = "urls " + properties.getProperty(PROPERTY_INPUT_URLS).trim() + " " + identifiers;
 		} else {
-			foxmls = createFOXMLFromInputFiles(targetDirectory);
+			run = "directory " + properties.getProperty(PROPERTY_INPUT_DIRECTORY).trim() + " " + identifiers;
 		}
-		System.out.println("generated " + foxmls.size() + " FOXML files");
+		final File file = new File(name).isAbsolute() ? new File(name) : new File(targetDirectory, name);
+		final GenerationJournal opened = new GenerationJournal(file, run, getIntProperty(
+				PROPERTY_JOURNAL_BATCH_SIZE, GenerationJournal.DEFAULT_BATCH_SIZE)).durability(getDurability());
+		if (opened.getResumed() > 0 && getIdentifiers().getName().equals("sequential")
+				&& !(randomDatastreams && getSeed() != null)) {
+			// the sequence starts over at 1 and would overwrite the files of
+			// the objects recorded
+			opened.close();
+			throw new IllegalArgumentException("a run with sequential identifiers can only be resumed if "
+					+ PROPERTY_DATASTREAMS_RANDOM + " and " + PROPERTY_SEED + " are set");
+		}
+		if (opened.getResumed() > 0) {
+			final int deleted = opened.cleanup(targetDirectory, getLayout());
+			System.out.println("resuming after " + opened.getResumed() + " objects recorded in " + file
+					+ ", removed " + deleted + " partial files");
+		}
+		return opened;
 	}
 
-	private List<File> createFOXMLFromInputFiles(File targetDirectory) throws IOException {
-		final List<File> foxmls = new ArrayList<File>();
+	/**
+	 * skip the work items whose objects have been recorded in the journal
+	 */
+	private <T> Iterator<T> skipCompleted(final Iterator<T> items) {
+		if (journal == null || journal.getResumed() == 0) {
+			return items;
+		}
+		return new Iterator<T>() {
+			private T next;
+
+			public boolean hasNext() {
+				while (next == null && items.hasNext()) {
+					final T item = items.next();
+					if (!journal.isCompleted(String.valueOf(item))) {
+						next = item;
+					}
+				}
+				return next != null;
+			}
+
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				final T item = next;
+				next = null;
+				return item;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private long createFOXMLFromInputFiles(final File targetDirectory, final FOXMLArchive archive,
+			final ParallelGenerator generator, final GenerationMetrics metrics) throws IOException {
 		final File inputDirectiory = new File(properties.getProperty(PROPERTY_INPUT_DIRECTORY));
-		final String types = properties.getProperty(PROPERTY_INPUT_FILETYPES);
+		final String types = properties.getProperty(PROPERTY_INPUT_FILETYPES, "*");
 		final Set<String> fileTypes = new HashSet<String>();
 		if (types.length() > 0 && !types.equals("*")) {
 			fileTypes.addAll(Arrays.asList(types.split(",")));
 		}
-		for (File content : getFileList(inputDirectiory, types)) {
-			foxmls.add(FOXMLs.generateFOXMLFromURI(content.toURI(), targetDirectory));
+		final DirectoryScanner contents = new DirectoryScanner(inputDirectiory, fileTypes,
+				getIntProperty(PROPERTY_INPUT_SCAN_THREADS, 4), 1024);
+		try {
+			return generator.run(createInputTasks(new Iterator<URI>() {
+				public boolean hasNext() {
+					return contents.hasNext();
+				}
+
+				public URI next() {
+					return contents.next().toURI();
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			}, targetDirectory, archive, metrics, createGenerationOptions(), getControlGroup()));
+		} finally {
+			contents.close();
+			if (contents.getSkippedDirectories() > 0) {
+				System.err.println("skipped " + contents.getSkippedDirectories() + " unreadable directories");
+			}
 		}
-		return foxmls;
 	}
 
-	private List<File> getFileList(File dir, String types) {
-		List<File> fileList = new ArrayList<File>();
-		for (String s : dir.list()) {
-			File f = new File(dir, s);
-			if (f.isFile()) {
-				fileList.add(f);
-			} else if (f.isDirectory()) {
-				fileList.addAll(getFileList(f, types));
+	private long createFOXMLFromInputURLs(final File targetDirectory, final FOXMLArchive archive,
+			final GenerationMetrics metrics) throws IOException {
+		final List<URI> uris = new ArrayList<URI>();
+		final FileInputStream in = new FileInputStream(properties.getProperty(PROPERTY_INPUT_URLS).trim());
+		try {
+			for (String line : IOUtils.readLines(in, "UTF-8")) {
+				final String uri = line.trim();
+				if (uri.length() > 0 && !uri.startsWith("#")) {
+					uris.add(URI.create(uri));
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		// fetching is bound by latency rather than by the processors, so
+		// every fetch thread generates objects
+		final GenerationOptions options = createGenerationOptions();
+		final int threads = (options.fetcher() == null) ? getNumThreads() : options.fetcher().getThreads();
+		final ParallelGenerator generator = new ParallelGenerator(threads).metrics(metrics);
+		return generator.run(createInputTasks(uris.iterator(), targetDirectory, archive, metrics, options,
+				getControlGroup()));
+	}
+
+	private ControlGroup getControlGroup() {
+		return ControlGroup.valueOf(properties.getProperty(PROPERTY_CONTROLGROUP, ControlGroup.MANAGED.name()));
+	}
+
+	private Iterator<Callable<File>> createInputTasks(final Iterator<URI> inputs, final File targetDirectory,
+			final FOXMLArchive archive, final GenerationMetrics metrics, final GenerationOptions options,
+			final ControlGroup controlGroup) {
+		final Iterator<URI> contents = skipCompleted(inputs);
+		final LatencyHistogram buildLatency = metrics.stage("build");
+		final LatencyHistogram serializeLatency = metrics.stage("serialize");
+		return new Iterator<Callable<File>>() {
+			public boolean hasNext() {
+				return contents.hasNext();
 			}
+
+			public Callable<File> next() {
+				final URI content = contents.next();
+				return new Callable<File>() {
+					public File call() throws IOException {
+						long start = System.nanoTime();
+						final FedoraObject fo = FedoraObjects.generateFedoraObjectFromURI(content, controlGroup,
+								options);
+						FedoraObjects.digestContent(fo, options.digest());
+						buildLatency.recordSince(start);
+						start = System.nanoTime();
+						if (ingester != null) {
+							ingester.ingest(fo);
+							return null;
+						}
+						if (archive != null) {
+							final File file = archive.add(fo, false);
+							serializeLatency.recordSince(start);
+							return file;
+						}
+						final File foxml = FOXMLs.writeFOXML(fo, targetDirectory, options);
+						serializeLatency.recordSince(start);
+						if (journal != null) {
+							journal.record(content.toString(), fo, foxml);
+						}
+						// the input files are only referenced, so no content
+						// has been written
+						metrics.foxmlWritten(foxml.length());
+						return foxml;
+					}
+				};
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private Corpus createCorpus(final File targetDirectory, final ControlGroup controlGroup, final long fileSize,
+			final GenerationOptions buildOptions) throws IOException {
+		final Shard shard = getShard();
+		return new Corpus(Long.parseLong(properties.getProperty(PROPERTY_NUM_FOXML)))
+				.profile(createWorkloadProfile(fileSize))
+				.controlGroup(controlGroup)
+				.directory(targetDirectory)
+				.options(buildOptions)
+				.slice(shard.getIndex(), shard.getCount());
+	}
+
+	private WorkloadProfile createWorkloadProfile(final long fileSize) throws IOException {
+		// without a workload every object has a single version of the
+		// random datastream size
+		WorkloadProfile profile = new WorkloadProfile().sizes(Distributions.fixed(fileSize));
+		final String datastreams = properties.getProperty(PROPERTY_WORKLOAD_DATASTREAMS, "").trim();
+		if (datastreams.length() > 0) {
+			profile = profile.datastreams(Distributions.forSpec(datastreams));
 		}
-		return fileList;
+		final String versions = properties.getProperty(PROPERTY_WORKLOAD_VERSIONS, "").trim();
+		if (versions.length() > 0) {
+			profile = profile.versions(Distributions.forSpec(versions));
+		}
+		final String sizes = properties.getProperty(PROPERTY_WORKLOAD_SIZES, "").trim();
+		if (sizes.length() > 0) {
+			profile = profile.sizes(Distributions.forSpec(sizes));
+		}
+		if (datastreams.length() > 0 || versions.length() > 0 || sizes.length() > 0) {
+			System.out.println("workload: " + profile);
+		}
+		return profile;
 	}
 
-	private List<File> createFOXMLFromRandomData(final File targetDirectory) throws IOException {
-		final List<File> foxmls = new ArrayList<File>();
-		final int numFoxml = Integer.parseInt(properties.getProperty(PROPERTY_NUM_FOXML));
+	private long createFOXMLFromRandomData(final File targetDirectory, final FOXMLArchive archive,
+			final ParallelGenerator generator, final GenerationMetrics metrics) throws IOException {
 		final ControlGroup controlGroup = ControlGroup.valueOf(properties.getProperty(PROPERTY_CONTROLGROUP));
-		final boolean inlineXMl = Boolean.parseBoolean(properties.getProperty(PROPERTY_INLINE_BASE64));
+		final boolean inline = controlGroup == ControlGroup.MANAGED
+				&& Boolean.parseBoolean(properties.getProperty(PROPERTY_INLINE_BASE64));
 		final long fileSize = Long.parseLong(properties.getProperty(PROPERTY_DATASTREAM_RANDOM_SIZE)) * 1000;
-		for (int i = 0; i < numFoxml; i++) {
-			if (controlGroup == ControlGroup.MANAGED && inlineXMl) {
-				if (fileSize > Integer.MAX_VALUE) {
-					throw new IOException("filesize too large, for fitting a Base64 String in memory");
-				}
-				foxmls.add(FOXMLs.generateInlineFOXMLFromRandomData(1, (int) fileSize, targetDirectory));
-			} else {
-				foxmls.add(FOXMLs.generateFOXMLFromRandomData(1, fileSize, targetDirectory, controlGroup));
+		final GenerationOptions options = createGenerationOptions();
+		// inline, archived and ingested content is generated while writing the
+		// FOXML, so the object references synthetic content
+		final GenerationOptions buildOptions = (inline || archive != null || ingester != null) ? options.copy()
+				.synthetic(true) : options;
+		// synthetic content which is not embedded is never written
+		final boolean contentWritten = !options.synthetic() || inline;
+		final LatencyHistogram buildLatency = metrics.stage("build");
+		final LatencyHistogram serializeLatency = metrics.stage("serialize");
+		final Corpus corpus = createCorpus(targetDirectory, controlGroup, fileSize, buildOptions);
+		final Iterator<Long> indices = skipCompleted(corpus.indices());
+		return generator.run(new Iterator<Callable<File>>() {
+			public boolean hasNext() {
+				return indices.hasNext();
+			}
+
+			public Callable<File> next() {
+				final long index = indices.next();
+				return new Callable<File>() {
+					public File call() throws IOException {
+						long start = System.nanoTime();
+						final FedoraObject fo = FedoraObjects.digestContent(corpus.object(index), options.digest());
+						buildLatency.recordSince(start);
+						start = System.nanoTime();
+						final long contentSize = contentWritten ? FedoraObjects.contentSize(fo) : 0;
+						if (ingester != null) {
+							ingester.ingest(fo);
+							metrics.contentWritten(FedoraObjects.contentSize(fo));
+							return null;
+						}
+						if (archive != null) {
+							final File file = archive.add(fo, inline);
+							serializeLatency.recordSince(start);
+							if (inline) {
+								metrics.contentWritten(contentSize);
+							}
+							return file;
+						}
+						final File foxml = inline ? FOXMLs.writeInlineFOXML(fo, targetDirectory, options) : FOXMLs
+								.writeFOXML(fo, targetDirectory, options);
+						serializeLatency.recordSince(start);
+						if (journal != null) {
+							journal.record(String.valueOf(index), fo, foxml);
+						}
+						metrics.contentWritten(contentSize);
+						metrics.foxmlWritten(foxml.length());
+						return foxml;
+					}
+				};
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
 			}
+		});
+	}
+
+	private long createFOXMLFromRandomDataPipelined(final File targetDirectory, final FOXMLArchive archive,
+			final GenerationMetrics metrics) throws IOException {
+		final ControlGroup controlGroup = ControlGroup.valueOf(properties.getProperty(PROPERTY_CONTROLGROUP));
+		final boolean inline = controlGroup == ControlGroup.MANAGED
+				&& Boolean.parseBoolean(properties.getProperty(PROPERTY_INLINE_BASE64));
+		final long fileSize = Long.parseLong(properties.getProperty(PROPERTY_DATASTREAM_RANDOM_SIZE)) * 1000;
+		final GenerationOptions options = createGenerationOptions();
+		// objects are built with synthetic content, which is then written to
+		// files by the content stage, unless it stays synthetic anyway or is
+		// written to an archive
+		final Corpus corpus = createCorpus(targetDirectory, controlGroup, fileSize, options.copy().synthetic(true));
+		// the serialize stage records the objects by the index they were
+		// built from
+		final Map<FedoraObject, Long> indices = Collections.synchronizedMap(new IdentityHashMap<FedoraObject, Long>());
+		final int numThreads = getNumThreads();
+		final GenerationPipeline pipeline = new GenerationPipeline(getIntProperty(PROPERTY_PIPELINE_QUEUE_SIZE, 64))
+				.metrics(metrics);
+		pipeline.stage("build", getIntProperty(PROPERTY_PIPELINE_THREADS_BUILD, 1),
+				new GenerationPipeline.Stage<Long, FedoraObject>() {
+					public FedoraObject process(final Long index) throws IOException {
+						final FedoraObject fo = corpus.object(index);
+						if (journal != null) {
+							indices.put(fo, index);
+						}
+						return fo;
+					}
+				});
+		if (!inline && !options.synthetic() && archive == null && ingester == null) {
+			pipeline.stage("content", getIntProperty(PROPERTY_PIPELINE_THREADS_CONTENT, numThreads),
+					new GenerationPipeline.Stage<FedoraObject, FedoraObject>() {
+						public FedoraObject process(final FedoraObject fo) throws IOException {
+							// the sizes of synthetic content are known without
+							// looking at the files
+							final long contentSize = FedoraObjects.contentSize(fo);
+							FedoraObjects.materializeContent(fo, targetDirectory, options);
+							metrics.contentWritten(contentSize);
+							return fo;
+						}
+					});
 		}
-		return foxmls;
+		pipeline.stage("serialize", getIntProperty(PROPERTY_PIPELINE_THREADS_SERIALIZE, numThreads),
+				new GenerationPipeline.Stage<FedoraObject, File>() {
+					public File process(final FedoraObject fo) throws IOException {
+						// content written by the content stage has been
+						// digested already
+						FedoraObjects.digestContent(fo, options.digest());
+						if (ingester != null) {
+							ingester.ingest(fo);
+							metrics.contentWritten(FedoraObjects.contentSize(fo));
+							return null;
+						}
+						if (archive != null) {
+							final File file = archive.add(fo, inline);
+							if (inline) {
+								metrics.contentWritten(FedoraObjects.contentSize(fo));
+							}
+							return file;
+						}
+						final File foxml;
+						if (inline) {
+							foxml = FOXMLs.writeInlineFOXML(fo, targetDirectory, options);
+							metrics.contentWritten(FedoraObjects.contentSize(fo));
+						} else {
+							foxml = FOXMLs.writeFOXML(fo, targetDirectory, options);
+						}
+						if (journal != null) {
+							journal.record(String.valueOf(indices.remove(fo)), fo, foxml);
+						}
+						metrics.foxmlWritten(foxml.length());
+						return foxml;
+					}
+				});
+		return pipeline.run(skipCompleted(corpus.indices()));
 	}
 
 	/**
@@ -206,15 +856,30 @@ public final class CommandlineGenerator extends Questionary {
 	 * will default to interactive mode, fetching the relevant information from
 	 * the user. If used with "-p <properties-file>" it reads the relevant
 	 * information from the given properties file. The properties get written
-	 * out to "generator.properties" on every run.
+	 * out to "generator.properties" on every run. "--seed <seed>" and
+	 * "--shard <i/n>" override the seed and shard of random generation, so
+	 * every machine of a cluster can generate it's slice of the same corpus
+	 * from one shared properties file.
 	 * 
 	 * @param args
 	 */
 	public static void main(String[] args) {
-		if (args.length > 0 && args[0].toLowerCase().equals("-p")) {
-			File propFile = new File(args[1]);
+		final Properties overrides = new Properties();
+		final List<String> arguments = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--seed") && i + 1 < args.length) {
+				overrides.setProperty(PROPERTY_SEED, args[++i]);
+			} else if (args[i].equals("--shard") && i + 1 < args.length) {
+				overrides.setProperty(PROPERTY_SHARD, args[++i]);
+			} else {
+				arguments.add(args[i]);
+			}
+		}
+		if (arguments.size() > 1 && arguments.get(0).toLowerCase().equals("-p")) {
+			File propFile = new File(arguments.get(1));
 			try {
 				CommandlineGenerator generator = new CommandlineGenerator(propFile);
+				generator.properties.putAll(overrides);
 				generator.startFOXMLCreation();
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -224,9 +889,11 @@ public final class CommandlineGenerator extends Questionary {
 			try {
 				reader = new BufferedReader(new InputStreamReader(System.in));
 				CommandlineGenerator generator = new CommandlineGenerator(reader, System.out);
+				generator.properties.putAll(overrides);
 				generator.questionInputFiles();
 				generator.questionTargetDirectory();
 				generator.questionControlGroup();
+				generator.questionThreads();
 				generator.startFOXMLCreation();
 			} catch (Exception e) {
 				e.printStackTrace();
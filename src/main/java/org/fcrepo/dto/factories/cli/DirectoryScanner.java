@@ -0,0 +1,194 @@
+package org.fcrepo.dto.factories.cli;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walks a directory tree on a number of threads and returns the files found
+ * through an {@link Iterator} while the walk is still in progress. Files are
+ * handed over through a bounded queue, so the walk pauses when the consumer
+ * falls behind and memory use does not depend on the size of the tree.
+ * Directories are processed depth first, which keeps the number of
+ * directories waiting to be listed small. Files can be filtered by their
+ * extension during the walk. Directories which can not be listed are skipped
+ * and counted.
+ * 
+ * @author fasseg
+ * 
+ */
+public class DirectoryScanner implements Iterator<File>, Closeable {
+
+	private static final File END = new File("");
+
+	private final Set<String> extensions = new HashSet<String>();
+
+	private final BlockingDeque<File> directories = new LinkedBlockingDeque<File>();
+
+	private final BlockingQueue<File> files;
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private final AtomicLong skipped = new AtomicLong();
+
+	private final ExecutorService pool;
+
+	private File next;
+
+	/**
+	 * create a new {@link DirectoryScanner} and start walking the tree
+	 * 
+	 * @param root
+	 *            the directory to walk
+	 * @param extensions
+	 *            the file extensions to accept, e.g. <code>jpg</code> or
+	 *            <code>.jp2</code>. An empty collection or <code>*</code>
+	 *            accepts all files
+	 * @param numThreads
+	 *            the number of threads listing directories
+	 * @param queueSize
+	 *            the number of files found ahead of the consumer
+	 */
+	public DirectoryScanner(final File root, final Collection<String> extensions, final int numThreads,
+			final int queueSize) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("number of threads must be at least 1");
+		}
+		for (String extension : extensions) {
+			String ext = extension.trim().toLowerCase(Locale.ENGLISH);
+			if (ext.startsWith("*")) {
+				ext = ext.substring(1);
+			}
+			if (ext.startsWith(".")) {
+				ext = ext.substring(1);
+			}
+			if (ext.length() > 0) {
+				this.extensions.add(ext);
+			}
+		}
+		this.files = new ArrayBlockingQueue<File>(queueSize);
+		this.pending.incrementAndGet();
+		this.directories.add(root);
+		this.pool = Executors.newFixedThreadPool(numThreads, new ScannerThreadFactory());
+		for (int i = 0; i < numThreads; i++) {
+			pool.execute(new Walker());
+		}
+		pool.shutdown();
+	}
+
+	public boolean hasNext() {
+		if (next == null) {
+			try {
+				next = files.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				next = END;
+			}
+			if (next == END) {
+				// let other consumers see the end as well
+				files.offer(END);
+			}
+		}
+		return next != END;
+	}
+
+	public File next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final File file = next;
+		next = null;
+		return file;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * get the number of directories which could not be listed
+	 * 
+	 * @return the number of skipped directories
+	 */
+	public long getSkippedDirectories() {
+		return skipped.get();
+	}
+
+	/**
+	 * stop walking the tree
+	 */
+	public void close() {
+		pool.shutdownNow();
+	}
+
+	private boolean accept(final String name) {
+		if (extensions.isEmpty()) {
+			return true;
+		}
+		final int dot = name.lastIndexOf('.');
+		return dot >= 0 && extensions.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+	}
+
+	private final class Walker implements Runnable {
+		public void run() {
+			try {
+				while (pending.get() > 0) {
+					final File dir = directories.pollFirst(100, TimeUnit.MILLISECONDS);
+					if (dir == null) {
+						continue;
+					}
+					try {
+						list(dir);
+					} finally {
+						if (pending.decrementAndGet() == 0) {
+							files.put(END);
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void list(final File dir) throws InterruptedException {
+			final File[] children = dir.listFiles();
+			if (children == null) {
+				skipped.incrementAndGet();
+				return;
+			}
+			for (File child : children) {
+				if (child.isDirectory()) {
+					pending.incrementAndGet();
+					directories.addFirst(child);
+				} else if (accept(child.getName()) && child.isFile()) {
+					files.put(child);
+				}
+			}
+		}
+	}
+
+	private static final class ScannerThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "scanner-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package org.fcrepo.dto.factories.cli;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.fcrepo.dto.factories.metrics.GenerationMetrics;
+import org.fcrepo.dto.factories.metrics.LatencyHistogram;
+
+/**
+ * A pipeline of generation stages connected by bounded queues. Every stage
+ * runs on it's own set of threads, so CPU bound stages like object
+ * construction and I/O bound stages like content materialization overlap.
+ * Since the queues are bounded, a slow stage blocks the stages before it
+ * instead of letting unprocessed items pile up on the heap. The first failing
+ * item aborts the whole pipeline and it's exception or error is rethrown from
+ * {@link #run(Iterator)}.
+ *
+ * @author fasseg
+ *
+ */
+public class GenerationPipeline {
+
+	private static final Object END = new Object();
+
+	private final int queueSize;
+
+	private final List<StageDefinition> stages = new ArrayList<StageDefinition>();
+
+	private final AtomicLong completed = new AtomicLong();
+
+	private GenerationMetrics metrics;
+
+	/**
+	 * A single stage of a {@link GenerationPipeline}, transforming an item
+	 * received from the previous stage into an item for the next one
+	 *
+	 * @param <I>
+	 *            the type of items received
+	 * @param <O>
+	 *            the type of items produced
+	 */
+	public interface Stage<I, O> {
+		/**
+		 * process a single item
+		 *
+		 * @param item
+		 *            the item to process
+		 * @return the item passed on to the next stage
+		 * @throws Exception
+		 *             if the item could not be processed
+		 */
+		O process(I item) throws Exception;
+	}
+
+	/**
+	 * create a new {@link GenerationPipeline}
+	 *
+	 * @param queueSize
+	 *            the capacity of the queue in front of every stage
+	 */
+	public GenerationPipeline(final int queueSize) {
+		if (queueSize < 1) {
+			throw new IllegalArgumentException("queue size must be at least 1");
+		}
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * record the latency of every stage and the number of completed and
+	 * failed items in {@link GenerationMetrics}
+	 * 
+	 * @param metrics
+	 *            the {@link GenerationMetrics} to record to
+	 * @return this {@link GenerationPipeline}
+	 */
+	public GenerationPipeline metrics(final GenerationMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	/**
+	 * append a {@link Stage} to this pipeline
+	 *
+	 * @param name
+	 *            the name of the stage, used for naming it's threads
+	 * @param numThreads
+	 *            the number of threads processing items in this stage
+	 * @param stage
+	 *            the {@link Stage} to append
+	 * @return this {@link GenerationPipeline}
+	 */
+	public GenerationPipeline stage(final String name, final int numThreads, final Stage<?, ?> stage) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("number of threads must be at least 1");
+		}
+		stages.add(new StageDefinition(name, numThreads, stage));
+		return this;
+	}
+
+	/**
+	 * feed all items returned by an {@link Iterator} through the pipeline and
+	 * wait until the last stage has processed them
+	 *
+	 * @param source
+	 *            the items to feed into the first stage
+	 * @return the number of items which passed all stages successfully
+	 * @throws IOException
+	 *             if a stage failed to process an item
+	 */
+	public long run(final Iterator<?> source) throws IOException {
+		if (stages.isEmpty()) {
+			throw new IllegalStateException("pipeline has no stages");
+		}
+		completed.set(0);
+		int numThreads = 0;
+		for (StageDefinition def : stages) {
+			def.input = new ArrayBlockingQueue<Object>(queueSize);
+			def.running = new AtomicInteger(def.numThreads);
+			def.latency = (metrics == null) ? null : metrics.stage(def.name);
+			numThreads += def.numThreads;
+		}
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final ExecutorService pool = Executors.newFixedThreadPool(numThreads, new StageThreadFactory());
+		try {
+			for (int i = 0; i < stages.size(); i++) {
+				final StageDefinition def = stages.get(i);
+				final StageDefinition next = (i + 1 < stages.size()) ? stages.get(i + 1) : null;
+				for (int t = 0; t < def.numThreads; t++) {
+					pool.execute(new StageWorker(def, next, failure, pool));
+				}
+			}
+			pool.shutdown();
+			final StageDefinition first = stages.get(0);
+			while (failure.get() == null && source.hasNext()) {
+				put(first.input, source.next(), failure);
+			}
+			for (int t = 0; t < first.numThreads && failure.get() == null; t++) {
+				put(first.input, END, failure);
+			}
+			while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+				// keep waiting until the last stage finished
+			}
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+		}
+		final Throwable e = failure.get();
+		if (e instanceof IOException) {
+			throw (IOException) e;
+		} else if (e instanceof Error) {
+			throw (Error) e;
+		} else if (e != null) {
+			throw new IOException("generation failed after " + completed.get() + " objects", e);
+		}
+		return completed.get();
+	}
+
+	/**
+	 * get the number of items which passed all stages so far
+	 *
+	 * @return the number of completed items
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	private static void put(final BlockingQueue<Object> queue, final Object item,
+			final AtomicReference<Throwable> failure) throws InterruptedException {
+		while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+			if (failure.get() != null) {
+				return;
+			}
+		}
+	}
+
+	private static final class StageDefinition {
+		private final String name;
+		private final int numThreads;
+		private final Stage<?, ?> stage;
+		private BlockingQueue<Object> input;
+		private AtomicInteger running;
+
+		private LatencyHistogram latency;
+
+		private StageDefinition(final String name, final int numThreads, final Stage<?, ?> stage) {
+			this.name = name;
+			this.numThreads = numThreads;
+			this.stage = stage;
+		}
+	}
+
+	private final class StageWorker implements Runnable {
+		private final StageDefinition def;
+		private final StageDefinition next;
+		private final AtomicReference<Throwable> failure;
+		private final ExecutorService pool;
+
+		private StageWorker(final StageDefinition def, final StageDefinition next,
+				final AtomicReference<Throwable> failure, final ExecutorService pool) {
+			this.def = def;
+			this.next = next;
+			this.failure = failure;
+			this.pool = pool;
+		}
+
+		@SuppressWarnings("unchecked")
+		public void run() {
+			Thread.currentThread().setName("pipeline-" + def.name + "-" + Thread.currentThread().getId());
+			final Stage<Object, Object> stage = (Stage<Object, Object>) def.stage;
+			try {
+				Object item;
+				while ((item = def.input.take()) != END) {
+					final Object result = process(stage, item);
+					if (next == null) {
+						completed.incrementAndGet();
+						if (metrics != null) {
+							metrics.objectCompleted();
+						}
+					} else {
+						put(next.input, result, failure);
+					}
+				}
+				if (def.running.decrementAndGet() == 0 && next != null) {
+					// the last worker of a stage signals the end to the next
+					for (int t = 0; t < next.numThreads; t++) {
+						put(next.input, END, failure);
+					}
+				}
+			} catch (InterruptedException e) {
+				failure.compareAndSet(null, e);
+				pool.shutdownNow();
+			} catch (Throwable e) {
+				// a worker dying without a trace would leave the next stage
+				// waiting for it's end forever
+				if (failure.compareAndSet(null, e)) {
+					// wake up all workers blocked on a queue
+					pool.shutdownNow();
+				}
+			}
+		}
+
+		private Object process(final Stage<Object, Object> stage, final Object item) throws Exception {
+			if (def.latency == null) {
+				return stage.process(item);
+			}
+			final long start = System.nanoTime();
+			try {
+				return stage.process(item);
+			} catch (Exception e) {
+				metrics.objectFailed();
+				throw e;
+			} catch (Error e) {
+				metrics.objectFailed();
+				throw e;
+			} finally {
+				def.latency.recordSince(start);
+			}
+		}
+	}
+
+	private static final class StageThreadFactory implements ThreadFactory {
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r);
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package org.fcrepo.dto.factories.cli;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.fcrepo.dto.factories.metrics.GenerationMetrics;
+
+/**
+ * A worker pool spreading generation tasks across a fixed number of threads.
+ * Tasks are pulled lazily from an {@link Iterator} so that arbitrarily large
+ * corpora can be generated without queueing every task up front. The first
+ * failing task stops all workers from picking up new work and its exception is
+ * rethrown from {@link #run(Iterator)}.
+ *
+ * @author fasseg
+ *
+ */
+public class ParallelGenerator {
+
+	private final int numThreads;
+
+	private final AtomicLong completed = new AtomicLong();
+
+	private GenerationMetrics metrics;
+
+	/**
+	 * create a new {@link ParallelGenerator}
+	 *
+	 * @param numThreads
+	 *            the number of worker threads to use
+	 */
+	public ParallelGenerator(final int numThreads) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("number of threads must be at least 1");
+		}
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * record the number of completed and failed tasks in
+	 * {@link GenerationMetrics}
+	 * 
+	 * @param metrics
+	 *            the {@link GenerationMetrics} to record to
+	 * @return this {@link ParallelGenerator}
+	 */
+	public ParallelGenerator metrics(final GenerationMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	/**
+	 * run all tasks returned by an {@link Iterator} on the worker pool and
+	 * wait for their completion
+	 *
+	 * @param tasks
+	 *            the tasks to run, the {@link Iterator} is only ever accessed
+	 *            by one worker at a time
+	 * @return the number of tasks completed successfully
+	 * @throws IOException
+	 *             if one of the tasks failed, in which case no further tasks
+	 *             are started. An {@link Error} of a task is rethrown as it is
+	 */
+	public long run(final Iterator<? extends Callable<?>> tasks) throws IOException {
+		completed.set(0);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final ExecutorService pool = Executors.newFixedThreadPool(numThreads, new WorkerThreadFactory());
+		try {
+			for (int i = 0; i < numThreads; i++) {
+				pool.execute(new Worker(tasks, failure));
+			}
+			pool.shutdown();
+			while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+				// keep waiting until the last worker finished
+			}
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+		}
+		final Throwable e = failure.get();
+		if (e instanceof IOException) {
+			throw (IOException) e;
+		} else if (e instanceof Error) {
+			throw (Error) e;
+		} else if (e != null) {
+			throw new IOException("generation failed after " + completed.get() + " objects", e);
+		}
+		return completed.get();
+	}
+
+	/**
+	 * get the number of tasks completed successfully so far
+	 *
+	 * @return the number of completed tasks
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * get the number of worker threads used by this {@link ParallelGenerator}
+	 *
+	 * @return the number of threads
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	private final class Worker implements Runnable {
+		private final Iterator<? extends Callable<?>> tasks;
+		private final AtomicReference<Throwable> failure;
+
+		private Worker(final Iterator<? extends Callable<?>> tasks, final AtomicReference<Throwable> failure) {
+			this.tasks = tasks;
+			this.failure = failure;
+		}
+
+		public void run() {
+			try {
+				Callable<?> task;
+				while ((task = next()) != null) {
+					task.call();
+					completed.incrementAndGet();
+					if (metrics != null) {
+						metrics.objectCompleted();
+					}
+				}
+			} catch (Throwable e) {
+				// an error must not end a worker silently, or the run would
+				// succeed with objects missing
+				if (metrics != null) {
+					metrics.objectFailed();
+				}
+				failure.compareAndSet(null, e);
+			}
+		}
+
+		private Callable<?> next() {
+			synchronized (tasks) {
+				if (failure.get() != null || Thread.currentThread().isInterrupted() || !tasks.hasNext()) {
+					return null;
+				}
+				return tasks.next();
+			}
+		}
+	}
+
+	private static final class WorkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "generator-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
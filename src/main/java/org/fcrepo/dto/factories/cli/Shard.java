@@ -0,0 +1,88 @@
+package org.fcrepo.dto.factories.cli;
+
+/**
+ * A disjoint slice of a corpus of objects, identified by <code>i/n</code>.
+ * Shard <code>i</code> of <code>n</code> holds every object whose index modulo
+ * <code>n</code> equals <code>i</code>, so the <code>n</code> shards of a
+ * corpus can be generated on different machines without any coordination and
+ * together make up the whole corpus. Striping the indices keeps the shards
+ * equally sized for any corpus size. The objects of a shard are those of
+ * {@link org.fcrepo.dto.factories.Corpus#slice(int, int)}.
+ *
+ * @author fasseg
+ *
+ */
+public final class Shard {
+
+	/**
+	 * the shard holding the whole corpus
+	 */
+	public static final Shard ALL = new Shard(0, 1);
+
+	private final int index;
+
+	private final int count;
+
+	/**
+	 * create a new {@link Shard}
+	 *
+	 * @param index
+	 *            the index of the shard, starting at 0
+	 * @param count
+	 *            the number of shards the corpus is split into
+	 */
+	public Shard(final int index, final int count) {
+		if (count < 1 || index < 0 || index >= count) {
+			throw new IllegalArgumentException("invalid shard " + index + "/" + count);
+		}
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * parse a {@link Shard} specification of the form <code>i/n</code>
+	 *
+	 * @param spec
+	 *            the specification to parse, null or empty for the whole
+	 *            corpus
+	 * @return the {@link Shard} described by the specification
+	 */
+	public static Shard parse(final String spec) {
+		if (spec == null || spec.trim().length() == 0) {
+			return ALL;
+		}
+		final int slash = spec.indexOf('/');
+		if (slash < 0) {
+			throw new IllegalArgumentException("shard '" + spec + "' is not of the form i/n");
+		}
+		try {
+			return new Shard(Integer.parseInt(spec.substring(0, slash).trim()), Integer.parseInt(spec.substring(
+					slash + 1).trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("shard '" + spec + "' is not of the form i/n");
+		}
+	}
+
+	/**
+	 * get the index of this shard
+	 *
+	 * @return the index, starting at 0
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * get the number of shards the corpus is split into
+	 *
+	 * @return the number of shards
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return index + "/" + count;
+	}
+}
@@ -0,0 +1,205 @@
+package org.fcrepo.dto.factories.compress;
+
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compression of generated FOXML files. Files are gzip compressed by
+ * {@link ParallelGZIPOutputStream}s sharing one pool of daemon threads, so
+ * large documents like FOXML with inlined base64 content are compressed on
+ * all cores, while the many small documents of a corpus are compressed by the
+ * threads writing them. The Java runtime only offers the deflate codec, the
+ * faster trade-off is gzip at level 1.
+ * <p>
+ * A {@link Compression} counts the bytes going in and out of all streams it
+ * created and the time spent compressing, so the ratio and speed of a codec
+ * can be compared for a corpus. Instances are thread safe.
+ *
+ * @author fasseg
+ *
+ */
+public final class Compression {
+
+	/**
+	 * the default size of the blocks compressed in parallel
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static ExecutorService executor;
+
+	private final String name;
+
+	private final int level;
+
+	private final int blockSize;
+
+	private final AtomicLong inputBytes = new AtomicLong();
+
+	private final AtomicLong outputBytes = new AtomicLong();
+
+	private final AtomicLong nanos = new AtomicLong();
+
+	private final AtomicLong files = new AtomicLong();
+
+	/**
+	 * create a new gzip {@link Compression}
+	 *
+	 * @param name
+	 *            the name of the compression
+	 * @param level
+	 *            the compression level from 1 (fastest) to 9 (best)
+	 * @param blockSize
+	 *            the size of the blocks compressed in parallel
+	 */
+	public Compression(final String name, final int level, final int blockSize) {
+		if (level < 1 || level > 9) {
+			throw new IllegalArgumentException("compression level must be between 1 and 9");
+		}
+		if (blockSize < 1024) {
+			throw new IllegalArgumentException("block size must be at least 1024 bytes");
+		}
+		this.name = name;
+		this.level = level;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * create the {@link Compression} with a given name
+	 *
+	 * @param name
+	 *            "gzip" for level 6, "gzip-fast" for level 1 or "gzip-best"
+	 *            for level 9. Null, empty or "none" disable compression
+	 * @param blockSize
+	 *            the size of the blocks compressed in parallel
+	 * @return a new {@link Compression}, or null if compression is disabled
+	 */
+	public static Compression forName(final String name, final int blockSize) {
+		if (name == null || name.trim().length() == 0 || name.trim().equals("none")) {
+			return null;
+		} else if (name.trim().equals("gzip")) {
+			return new Compression("gzip", 6, blockSize);
+		} else if (name.trim().equals("gzip-fast")) {
+			return new Compression("gzip-fast", 1, blockSize);
+		} else if (name.trim().equals("gzip-best")) {
+			return new Compression("gzip-best", 9, blockSize);
+		}
+		throw new IllegalArgumentException("unknown compression '" + name + "'");
+	}
+
+	/**
+	 * wrap an {@link OutputStream} so that everything written to it is
+	 * compressed. Closing the returned stream closes the wrapped one
+	 *
+	 * @param out
+	 *            the {@link OutputStream} to write the compressed data to
+	 * @return a new compressing {@link OutputStream}
+	 */
+	public OutputStream wrap(final OutputStream out) {
+		files.incrementAndGet();
+		return new ParallelGZIPOutputStream(out, level, blockSize, getExecutor(), THREADS, this);
+	}
+
+	/**
+	 * get the suffix of compressed file names
+	 *
+	 * @return the suffix, including the dot
+	 */
+	public String getSuffix() {
+		return ".gz";
+	}
+
+	/**
+	 * get the name of this {@link Compression}
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * get the number of uncompressed bytes written so far
+	 *
+	 * @return the number of bytes
+	 */
+	public long getInputBytes() {
+		return inputBytes.get();
+	}
+
+	/**
+	 * get the number of compressed bytes written so far
+	 *
+	 * @return the number of bytes
+	 */
+	public long getOutputBytes() {
+		return outputBytes.get();
+	}
+
+	/**
+	 * get the ratio of uncompressed to compressed bytes
+	 *
+	 * @return the compression ratio, or 0 if nothing has been written
+	 */
+	public double getRatio() {
+		final long out = outputBytes.get();
+		return (out == 0) ? 0 : (double) inputBytes.get() / out;
+	}
+
+	/**
+	 * get the speed of a single thread compressing, in uncompressed megabytes
+	 * per second. Compressing on n threads in parallel is up to n times as
+	 * fast
+	 *
+	 * @return the speed in MB/s, or 0 if nothing has been compressed
+	 */
+	public double getMegabytesPerSecond() {
+		final long time = nanos.get();
+		return (time == 0) ? 0 : (inputBytes.get() / 1000000d) / (time / 1000000000d);
+	}
+
+	/**
+	 * get the number of compressed streams created
+	 *
+	 * @return the number of streams
+	 */
+	public long getFiles() {
+		return files.get();
+	}
+
+	void record(final long input, final long output) {
+		inputBytes.addAndGet(input);
+		outputBytes.addAndGet(output);
+	}
+
+	void recordTime(final long time) {
+		nanos.addAndGet(time);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %.2f MB -> %.2f MB in %d files, ratio %.2f, %.1f MB/s per thread", name,
+				getInputBytes() / 1000000d, getOutputBytes() / 1000000d, getFiles(), getRatio(),
+				getMegabytesPerSecond());
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(final Runnable r) {
+					final Thread t = new Thread(r, "compressor-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+}
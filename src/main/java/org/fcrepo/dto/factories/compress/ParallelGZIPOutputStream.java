@@ -0,0 +1,196 @@
+package org.fcrepo.dto.factories.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An {@link OutputStream} writing gzip compressed data, compressing blocks of
+ * a fixed size in parallel on an {@link ExecutorService}. Every block becomes
+ * a complete gzip member of it's own, and concatenated members form a valid
+ * gzip file (RFC 1952), which gzip, pigz and {@link java.util.zip.GZIPInputStream}
+ * decompress as a whole. Since blocks do not share a dictionary, the result is
+ * slightly larger than a single member, which is negligible for blocks of a
+ * few hundred kilobytes.
+ * <p>
+ * At most two blocks per thread are in flight, so the memory used is bounded.
+ * Data smaller than one block is compressed on the calling thread, so small
+ * files never wait for the executor.
+ *
+ * @author fasseg
+ *
+ */
+public class ParallelGZIPOutputStream extends FilterOutputStream {
+
+	private final ExecutorService executor;
+
+	private final int level;
+
+	private final int maxPending;
+
+	private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+	private final Compression stats;
+
+	private byte[] block;
+
+	private int pos;
+
+	private long inputBytes;
+
+	private long outputBytes;
+
+	private boolean closed;
+
+	/**
+	 * create a new {@link ParallelGZIPOutputStream}
+	 *
+	 * @param out
+	 *            the {@link OutputStream} to write the compressed data to
+	 * @param level
+	 *            the compression level from 1 (fastest) to 9 (best)
+	 * @param blockSize
+	 *            the size of the blocks compressed in parallel
+	 * @param executor
+	 *            the {@link ExecutorService} compressing the blocks
+	 * @param threads
+	 *            the number of threads of the executor
+	 * @param stats
+	 *            the {@link Compression} to report the number of bytes and
+	 *            the time spent to, or null
+	 */
+	public ParallelGZIPOutputStream(final OutputStream out, final int level, final int blockSize,
+			final ExecutorService executor, final int threads, final Compression stats) {
+		super(out);
+		if (level < 1 || level > 9) {
+			throw new IllegalArgumentException("compression level must be between 1 and 9");
+		}
+		this.executor = executor;
+		this.level = level;
+		this.maxPending = Math.max(1, 2 * threads);
+		this.stats = stats;
+		this.block = new byte[blockSize];
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		if (pos == block.length) {
+			submit();
+		}
+		block[pos++] = (byte) b;
+	}
+
+	@Override
+	public void write(final byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (pos == block.length) {
+				submit();
+			}
+			final int n = Math.min(len, block.length - pos);
+			System.arraycopy(b, off, block, pos, n);
+			pos += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		// a block is only compressed when it is full, so that flushing does
+		// not degrade the compression ratio
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (pending.isEmpty()) {
+				// small data does not need the executor
+				if (pos > 0 || inputBytes == 0) {
+					writeMember(new Compressor(block, pos).call());
+				}
+			} else {
+				if (pos > 0) {
+					submit();
+				}
+				while (!pending.isEmpty()) {
+					writeMember(await(pending.removeFirst()));
+				}
+			}
+			out.flush();
+		} finally {
+			for (Future<byte[]> future : pending) {
+				future.cancel(true);
+			}
+			if (stats != null) {
+				stats.record(inputBytes, outputBytes);
+			}
+			out.close();
+		}
+	}
+
+	private void submit() throws IOException {
+		while (pending.size() >= maxPending) {
+			writeMember(await(pending.removeFirst()));
+		}
+		pending.add(executor.submit(new Compressor(block, pos)));
+		block = new byte[block.length];
+		pos = 0;
+	}
+
+	private void writeMember(final byte[] member) throws IOException {
+		out.write(member);
+		outputBytes += member.length;
+	}
+
+	private byte[] await(final Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while compressing");
+		} catch (ExecutionException e) {
+			throw new IOException("unable to compress block", e.getCause());
+		}
+	}
+
+	private final class Compressor implements Callable<byte[]> {
+		private final byte[] data;
+
+		private final int len;
+
+		private Compressor(final byte[] data, final int len) {
+			this.data = data;
+			this.len = len;
+			inputBytes += len;
+		}
+
+		public byte[] call() throws IOException {
+			final long start = System.nanoTime();
+			final ByteArrayOutputStream member = new ByteArrayOutputStream(len / 2 + 64);
+			final GZIPOutputStream gzip = new GZIPOutputStream(member, 64 * 1024) {
+				{
+					def.setLevel(level);
+				}
+			};
+			gzip.write(data, 0, len);
+			gzip.close();
+			if (stats != null) {
+				stats.recordTime(System.nanoTime() - start);
+			}
+			return member.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,474 @@
+package org.fcrepo.dto.factories.content;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+
+import com.github.cwilper.fcrepo.dto.core.ContentDigest;
+
+/**
+ * A size bounded cache for content fetched from {@link URI}s and the metadata
+ * derived from it, so content reused by many objects or versions is fetched
+ * only once. Entries are evicted in least recently used order as soon as the
+ * cached bytes exceed the budget. Content of local files is validated against
+ * the file's modification time and length on every access, so a changed file
+ * is never served from the cache.
+ * <p>
+ * The content itself can be held on the heap, in direct buffers outside of the
+ * heap, or memory mapped from the file it was read from. Content of a single
+ * {@link URI} larger than a quarter of the budget and synthetic content, which
+ * is cheaper to regenerate, is never cached; only it's metadata is. Concurrent
+ * misses on the same {@link URI} may fetch the content more than once, the
+ * last one fetched wins.
+ *
+ * @author fasseg
+ *
+ */
+public class ContentCache {
+
+	/**
+	 * where cached content is stored
+	 */
+	public enum Storage {
+		/** byte arrays on the heap */
+		HEAP,
+		/** direct buffers outside of the heap */
+		DIRECT,
+		/**
+		 * memory mapped files, content of other {@link URI}s is stored in
+		 * direct buffers
+		 */
+		MAPPED;
+	}
+
+	private static final int ENTRY_OVERHEAD = 256;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final long maxBytes;
+
+	private final long maxEntryBytes;
+
+	private final Storage storage;
+
+	private final ContentFetcher fetcher;
+
+	private final LinkedHashMap<URI, Entry> entries = new LinkedHashMap<URI, Entry>(16, 0.75f, true);
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	private long bytes;
+
+	/**
+	 * create a new {@link ContentCache} holding content on the heap
+	 *
+	 * @param maxBytes
+	 *            the maximum number of bytes cached
+	 */
+	public ContentCache(final long maxBytes) {
+		this(maxBytes, Storage.HEAP);
+	}
+
+	/**
+	 * create a new {@link ContentCache}
+	 *
+	 * @param maxBytes
+	 *            the maximum number of bytes cached
+	 * @param storage
+	 *            where the cached content is stored
+	 */
+	public ContentCache(final long maxBytes, final Storage storage) {
+		this(maxBytes, storage, null);
+	}
+
+	/**
+	 * create a new {@link ContentCache} fetching missing content through a
+	 * {@link ContentFetcher}
+	 *
+	 * @param maxBytes
+	 *            the maximum number of bytes cached
+	 * @param storage
+	 *            where the cached content is stored
+	 * @param fetcher
+	 *            the {@link ContentFetcher} to fetch content with, or null to
+	 *            open {@link URI}s directly
+	 */
+	public ContentCache(final long maxBytes, final Storage storage, final ContentFetcher fetcher) {
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("cache size must be positive");
+		}
+		this.maxBytes = maxBytes;
+		this.maxEntryBytes = Math.min(maxBytes / 4, Integer.MAX_VALUE);
+		this.storage = storage;
+		this.fetcher = fetcher;
+	}
+
+	/**
+	 * get the cache {@link Entry} of a {@link URI}, creating it if the
+	 * {@link URI} is not cached yet or the cached entry is outdated. The
+	 * content is not fetched by this method
+	 *
+	 * @param uri
+	 *            the {@link URI} to look up
+	 * @return the {@link Entry} holding the metadata of the content
+	 * @throws IOException
+	 *             if the metadata could not be determined
+	 */
+	public Entry get(final URI uri) throws IOException {
+		final long lastModified;
+		final long length;
+		if ("file".equals(uri.getScheme())) {
+			final File file = new File(uri);
+			lastModified = file.lastModified();
+			length = file.isFile() ? file.length() : -1;
+		} else if (SyntheticContent.isSynthetic(uri)) {
+			lastModified = 0;
+			length = SyntheticContent.getSize(uri);
+		} else {
+			lastModified = 0;
+			length = -1;
+		}
+		synchronized (this) {
+			final Entry entry = entries.get(uri);
+			if (entry != null && entry.lastModified == lastModified
+					&& (length < 0 || entry.length < 0 || entry.length == length)) {
+				hits.incrementAndGet();
+				return entry;
+			}
+			misses.incrementAndGet();
+			if (entry != null) {
+				remove(uri);
+			}
+			final Entry created = new Entry(uri, lastModified, length);
+			entries.put(uri, created);
+			charge(ENTRY_OVERHEAD);
+			return created;
+		}
+	}
+
+	/**
+	 * open the content of a {@link URI}. The content is served from the cache
+	 * if present, otherwise it is fetched and cached on the way if it fits
+	 *
+	 * @param uri
+	 *            the {@link URI} of the content
+	 * @return a new {@link InputStream} which has to be closed by the caller
+	 * @throws IOException
+	 *             if the content could not be fetched
+	 */
+	public InputStream open(final URI uri) throws IOException {
+		return open(get(uri));
+	}
+
+	private InputStream open(final Entry entry) throws IOException {
+		final URI uri = entry.uri;
+		final ByteBuffer content = entry.content();
+		if (content != null) {
+			return new ByteBufferInputStream(content);
+		}
+		if (SyntheticContent.isSynthetic(uri) || entry.length > maxEntryBytes) {
+			return openSource(uri);
+		}
+		if (storage == Storage.MAPPED && "file".equals(uri.getScheme()) && entry.length >= 0) {
+			final FileInputStream in = new FileInputStream(new File(uri));
+			try {
+				final FileChannel channel = in.getChannel();
+				store(entry, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+			return new ByteBufferInputStream(entry.content());
+		}
+		final InputStream in = openSource(uri);
+		boolean passedOn = false;
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(entry.length < 0 ? BUFFER_SIZE
+					: (int) entry.length);
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				if (out.size() > maxEntryBytes) {
+					// too large for the cache, hand out what has been read so
+					// far followed by the rest of the stream
+					passedOn = true;
+					return new SequenceInputStream(new ByteArrayInputStream(out.toByteArray()), in);
+				}
+			}
+			final ByteBuffer stored;
+			if (storage == Storage.HEAP) {
+				stored = ByteBuffer.wrap(out.toByteArray());
+			} else {
+				stored = ByteBuffer.allocateDirect(out.size());
+				stored.put(out.toByteArray()).flip();
+			}
+			store(entry, stored);
+			return new ByteBufferInputStream(entry.content());
+		} finally {
+			if (!passedOn) {
+				IOUtils.closeQuietly(in);
+			}
+		}
+	}
+
+	/**
+	 * get the {@link ContentDigest} of the content of a {@link URI}, which is
+	 * computed only once per type for every cached {@link URI}
+	 *
+	 * @param uri
+	 *            the {@link URI} of the content
+	 * @param type
+	 *            the FOXML name of the digest type
+	 * @return the {@link ContentDigest} of the content
+	 * @throws IOException
+	 *             if the content could not be fetched
+	 */
+	public ContentDigest digest(final URI uri, final String type) throws IOException {
+		final Entry entry = get(uri);
+		synchronized (entry) {
+			final ContentDigest cached = entry.digests.get(type);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		final ContentDigest computed;
+		if (SyntheticContent.isSynthetic(uri) || entry.length > maxEntryBytes) {
+			computed = ContentDigests.digest(uri, type, fetcher);
+		} else {
+			final MessageDigest md = ContentDigests.createDigest(type);
+			final InputStream in = open(entry);
+			try {
+				final byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					md.update(buffer, 0, read);
+				}
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+			computed = ContentDigests.toContentDigest(type, md);
+		}
+		synchronized (entry) {
+			entry.digests.put(type, computed);
+		}
+		return computed;
+	}
+
+	/**
+	 * get the number of lookups answered from the cache
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * get the number of lookups which had to create a new entry
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * get the number of entries evicted to stay within the budget
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * get the number of bytes currently cached, including a fixed overhead
+	 * per entry
+	 *
+	 * @return the number of bytes cached
+	 */
+	public synchronized long getSize() {
+		return bytes;
+	}
+
+	/**
+	 * get the number of entries currently cached
+	 *
+	 * @return the number of entries
+	 */
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	private InputStream openSource(final URI uri) throws IOException {
+		if (fetcher != null) {
+			return fetcher.open(uri);
+		}
+		if (SyntheticContent.isSynthetic(uri)) {
+			return SyntheticContent.openStream(uri);
+		}
+		return "file".equals(uri.getScheme()) ? new FileInputStream(new File(uri)) : uri.toURL().openStream();
+	}
+
+	private synchronized void store(final Entry entry, final ByteBuffer content) {
+		if (entries.get(entry.uri) != entry) {
+			// the entry has been evicted or replaced in the meantime
+			entry.content = content;
+			return;
+		}
+		if (entry.content != null) {
+			bytes -= entry.content.capacity();
+		}
+		entry.content = content;
+		if (entry.length < 0) {
+			entry.length = content.capacity();
+		}
+		charge(content.capacity());
+	}
+
+	private void charge(final long n) {
+		bytes += n;
+		final Iterator<Map.Entry<URI, Entry>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			final Entry eldest = it.next().getValue();
+			it.remove();
+			bytes -= eldest.size();
+			evictions.incrementAndGet();
+		}
+	}
+
+	private void remove(final URI uri) {
+		final Entry entry = entries.remove(uri);
+		if (entry != null) {
+			bytes -= entry.size();
+		}
+	}
+
+	/**
+	 * A cached {@link URI} holding it's content, if cached, and the metadata
+	 * derived from it
+	 */
+	public static final class Entry {
+		private final URI uri;
+		private final long lastModified;
+		private final Map<String, ContentDigest> digests = new HashMap<String, ContentDigest>();
+		private volatile long length;
+		private volatile ByteBuffer content;
+
+		private Entry(final URI uri, final long lastModified, final long length) {
+			this.uri = uri;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+
+		/**
+		 * get the {@link URI} of the cached content
+		 *
+		 * @return the {@link URI}
+		 */
+		public URI getURI() {
+			return uri;
+		}
+
+		/**
+		 * get the modification time of the content when it was cached
+		 *
+		 * @return the modification time in milliseconds, or 0 if not known
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * get the length of the content
+		 *
+		 * @return the length of the content in bytes, or -1 if not known yet
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * get the mime type of the content guessed from the name of the
+		 * {@link URI}
+		 *
+		 * @return the mime type, defaulting to
+		 *         <code>application/octet-stream</code>
+		 */
+		public String getMimeType() {
+			final String path = uri.getPath();
+			final String mimeType = (path == null) ? null : URLConnection.guessContentTypeFromName(path);
+			return (mimeType == null) ? "application/octet-stream" : mimeType;
+		}
+
+		/**
+		 * check whether the content itself is cached
+		 *
+		 * @return true if the content is cached
+		 */
+		public boolean isContentCached() {
+			return content != null;
+		}
+
+		private ByteBuffer content() {
+			final ByteBuffer c = content;
+			return (c == null) ? null : c.asReadOnlyBuffer();
+		}
+
+		private long size() {
+			final ByteBuffer c = content;
+			return ENTRY_OVERHEAD + ((c == null) ? 0 : c.capacity());
+		}
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			final int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
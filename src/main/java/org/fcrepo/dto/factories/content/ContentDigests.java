@@ -0,0 +1,226 @@
+package org.fcrepo.dto.factories.content;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+
+import com.github.cwilper.fcrepo.dto.core.ContentDigest;
+
+/**
+ * Abstract factory class for computing {@link ContentDigest}s of content.
+ * Generated content is digested while it is being generated by wrapping the
+ * {@link ContentGenerator}, so the content never has to be read a second
+ * time. Digest types are named like in FOXML, e.g. <code>MD5</code>,
+ * <code>SHA-1</code> or <code>SHA-256</code>.
+ * 
+ * @author fasseg
+ */
+public abstract class ContentDigests {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final int MAX_ZERO_DIGESTS = 1024;
+
+	private static final ConcurrentMap<String, ContentDigest> ZERO_DIGESTS = new ConcurrentHashMap<String, ContentDigest>();
+
+	private ContentDigests() {
+		// you no construct me from derived class.
+	}
+
+	/**
+	 * parse the name of a digest type as used in the generator properties.
+	 * Names are case insensitive and the dash may be omitted, so
+	 * <code>sha256</code> yields <code>SHA-256</code>
+	 * 
+	 * @param name
+	 *            the name of the digest type
+	 * @return the FOXML name of the digest type, or null if the name is empty
+	 *         or <code>none</code>
+	 */
+	public final static String forName(final String name) {
+		if (name == null || name.trim().length() == 0 || name.trim().equalsIgnoreCase("none")) {
+			return null;
+		}
+		String type = name.trim().toUpperCase(Locale.ENGLISH);
+		if (type.startsWith("SHA") && type.length() > 3 && type.charAt(3) != '-') {
+			type = "SHA-" + type.substring(3);
+		}
+		createDigest(type);
+		return type;
+	}
+
+	/**
+	 * create a {@link MessageDigest} for a digest type
+	 * 
+	 * @param type
+	 *            the FOXML name of the digest type
+	 * @return a new {@link MessageDigest}
+	 */
+	public final static MessageDigest createDigest(final String type) {
+		try {
+			return MessageDigest.getInstance(type);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("unknown digest type '" + type + "'", e);
+		}
+	}
+
+	/**
+	 * wrap a {@link ContentGenerator} so that all bytes it generates are
+	 * passed to a {@link MessageDigest} as well
+	 * 
+	 * @param generator
+	 *            the {@link ContentGenerator} to wrap
+	 * @param digest
+	 *            the {@link MessageDigest} to update
+	 * @return a new {@link ContentGenerator} updating the digest
+	 */
+	public final static ContentGenerator digesting(final ContentGenerator generator, final MessageDigest digest) {
+		return new DigestingGenerator(generator, digest);
+	}
+
+	/**
+	 * create a {@link ContentDigest} from a {@link MessageDigest} which has
+	 * been updated with the whole content. The {@link MessageDigest} is reset
+	 * 
+	 * @param type
+	 *            the FOXML name of the digest type
+	 * @param digest
+	 *            the {@link MessageDigest} holding the digest
+	 * @return a new {@link ContentDigest}
+	 */
+	public final static ContentDigest toContentDigest(final String type, final MessageDigest digest) {
+		return new ContentDigest().type(type).hexValue(new String(Hex.encodeHex(digest.digest())));
+	}
+
+	/**
+	 * compute the {@link ContentDigest} of the content behind a {@link URI}.
+	 * Synthetic content is regenerated, so computing it's digest does not
+	 * touch the disk at all
+	 * 
+	 * @param uri
+	 *            the {@link URI} of the content
+	 * @param type
+	 *            the FOXML name of the digest type
+	 * @return a new {@link ContentDigest}
+	 * @throws IOException
+	 *             if the content could not be read
+	 */
+	public final static ContentDigest digest(final URI uri, final String type) throws IOException {
+		return digest(uri, type, null);
+	}
+
+	/**
+	 * compute the {@link ContentDigest} of the content behind a {@link URI},
+	 * fetching remote content through a {@link ContentFetcher}
+	 * 
+	 * @param uri
+	 *            the {@link URI} of the content
+	 * @param type
+	 *            the FOXML name of the digest type
+	 * @param fetcher
+	 *            the {@link ContentFetcher} to fetch the content with, or null
+	 *            to open the {@link URI} directly
+	 * @return a new {@link ContentDigest}
+	 * @throws IOException
+	 *             if the content could not be read
+	 */
+	public final static ContentDigest digest(final URI uri, final String type, final ContentFetcher fetcher)
+			throws IOException {
+		final MessageDigest digest = createDigest(type);
+		if (SyntheticContent.isSynthetic(uri)) {
+			final ContentGenerator generator = digesting(
+					SyntheticContent.getSource(uri).open(SyntheticContent.getSeed(uri)), digest);
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			long remaining = SyntheticContent.getSize(uri);
+			while (remaining > 0) {
+				final int len = (int) Math.min(remaining, buffer.length);
+				generator.nextBytes(buffer, 0, len);
+				remaining -= len;
+			}
+			return toContentDigest(type, digest);
+		}
+		final InputStream in;
+		if (fetcher != null) {
+			in = fetcher.open(uri);
+		} else {
+			in = "file".equals(uri.getScheme()) ? new FileInputStream(new File(uri)) : uri.toURL().openStream();
+		}
+		try {
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return toContentDigest(type, digest);
+	}
+
+	/**
+	 * compute the {@link ContentDigest} of content consisting of zero bytes
+	 * only, like the content of sparse files. Digests are cached by type and
+	 * size, so a corpus of equally sized files digests it's content once
+	 * 
+	 * @param type
+	 *            the FOXML name of the digest type
+	 * @param size
+	 *            the number of zero bytes
+	 * @return the {@link ContentDigest}
+	 */
+	public final static ContentDigest zeroDigest(final String type, final long size) {
+		final String key = type + ":" + size;
+		final ContentDigest cached = ZERO_DIGESTS.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		final MessageDigest digest = createDigest(type);
+		final byte[] zeros = new byte[(int) Math.min(size, BUFFER_SIZE)];
+		long remaining = size;
+		while (remaining > 0) {
+			final int len = (int) Math.min(remaining, zeros.length);
+			digest.update(zeros, 0, len);
+			remaining -= len;
+		}
+		final ContentDigest computed = toContentDigest(type, digest);
+		if (ZERO_DIGESTS.size() < MAX_ZERO_DIGESTS) {
+			ZERO_DIGESTS.put(key, computed);
+		}
+		return computed;
+	}
+
+	private static final class DigestingGenerator extends ContentGenerator {
+		private final ContentGenerator generator;
+		private final MessageDigest digest;
+
+		private DigestingGenerator(final ContentGenerator generator, final MessageDigest digest) {
+			this.generator = generator;
+			this.digest = digest;
+		}
+
+		@Override
+		public void nextBytes(final byte[] buffer, final int offset, final int len) {
+			generator.nextBytes(buffer, offset, len);
+			digest.update(buffer, offset, len);
+		}
+
+		@Override
+		public void nextBytes(final ByteBuffer buffer) {
+			final ByteBuffer generated = buffer.duplicate();
+			generator.nextBytes(buffer);
+			generated.limit(buffer.position());
+			digest.update(generated);
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package org.fcrepo.dto.factories.content;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fcrepo.dto.factories.http.HttpRequests;
+
+/**
+ * Fetches content from {@link URI}s with timeouts and retries, and runs
+ * fetches concurrently on a pool of it's own. Requests to http(s)
+ * {@link URI}s which fail to connect, time out or are answered with a status
+ * of 408, 429 or 5xx are retried with exponentially growing delays, honouring
+ * a <code>Retry-After</code> header. Once the content is being streamed a
+ * failure is not retried anymore, since the caller may have consumed parts of
+ * it. Connections are reused through the keep-alive cache of the Java
+ * runtime, which only holds <code>http.maxConnections</code> idle connections
+ * per host, so that system property should be at least the number of
+ * threads.
+ * <p>
+ * Local files and synthetic content are opened directly, so a fetcher can be
+ * used for any {@link URI}. Instances are thread safe.
+ *
+ * @author fasseg
+ *
+ */
+public class ContentFetcher {
+
+	/**
+	 * the default connect and read timeout in milliseconds
+	 */
+	public static final int DEFAULT_TIMEOUT = 30000;
+
+	/**
+	 * the default number of retries of a failed request
+	 */
+	public static final int DEFAULT_RETRIES = 3;
+
+	/**
+	 * the default delay before the first retry in milliseconds
+	 */
+	public static final long DEFAULT_BACKOFF = 500;
+
+	private final int threads;
+
+	private final int timeout;
+
+	private final int retries;
+
+	private final long backoff;
+
+	private final ThreadLocal<Boolean> worker = new ThreadLocal<Boolean>();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong retried = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	private ExecutorService executor;
+
+	/**
+	 * create a new {@link ContentFetcher} with the default timeout and retries
+	 *
+	 * @param threads
+	 *            the number of URIs fetched concurrently
+	 */
+	public ContentFetcher(final int threads) {
+		this(threads, DEFAULT_TIMEOUT, DEFAULT_RETRIES, DEFAULT_BACKOFF);
+	}
+
+	/**
+	 * create a new {@link ContentFetcher}
+	 *
+	 * @param threads
+	 *            the number of URIs fetched concurrently
+	 * @param timeout
+	 *            the connect and read timeout in milliseconds
+	 * @param retries
+	 *            the number of times a failed request is retried
+	 * @param backoff
+	 *            the delay before the first retry in milliseconds, which
+	 *            doubles with every further retry
+	 */
+	public ContentFetcher(final int threads, final int timeout, final int retries, final long backoff) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("number of fetch threads must be positive");
+		}
+		if (timeout < 0 || retries < 0 || backoff < 0) {
+			throw new IllegalArgumentException("timeout, retries and backoff must not be negative");
+		}
+		this.threads = threads;
+		this.timeout = timeout;
+		this.retries = retries;
+		this.backoff = backoff;
+	}
+
+	/**
+	 * open the content of a {@link URI}, retrying failed http(s) requests
+	 *
+	 * @param uri
+	 *            the {@link URI} of the content
+	 * @return a new {@link InputStream} which has to be closed by the caller
+	 * @throws IOException
+	 *             if the content could not be opened after all retries
+	 */
+	public InputStream open(final URI uri) throws IOException {
+		if (SyntheticContent.isSynthetic(uri)) {
+			return SyntheticContent.openStream(uri);
+		}
+		if ("file".equals(uri.getScheme())) {
+			return new FileInputStream(new File(uri));
+		}
+		requests.incrementAndGet();
+		if (!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme())) {
+			final URLConnection connection = uri.toURL().openConnection();
+			connection.setConnectTimeout(timeout);
+			connection.setReadTimeout(timeout);
+			return connection.getInputStream();
+		}
+		for (int attempt = 0;; attempt++) {
+			final HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+			connection.setConnectTimeout(timeout);
+			connection.setReadTimeout(timeout);
+			IOException failure;
+			long delay = -1;
+			try {
+				final int status = connection.getResponseCode();
+				if (status >= 200 && status < 300) {
+					return connection.getInputStream();
+				}
+				failure = new IOException("HTTP status " + status + " fetching " + uri);
+				if (HttpRequests.isRetryable(status)) {
+					delay = HttpRequests.getRetryAfter(connection);
+				} else {
+					attempt = retries;
+				}
+				// reading the error body lets the connection be reused
+				HttpRequests.discard(connection.getErrorStream());
+			} catch (IOException e) {
+				failure = e;
+				connection.disconnect();
+			}
+			if (attempt >= retries) {
+				failures.incrementAndGet();
+				throw failure;
+			}
+			retried.incrementAndGet();
+			HttpRequests.sleep(HttpRequests.getDelay(backoff, attempt, delay));
+		}
+	}
+
+	/**
+	 * run tasks fetching content on the threads of this {@link ContentFetcher}
+	 * and wait for all of them. Tasks submitted from a thread of this fetcher
+	 * are run on the calling thread, so nested calls can not exhaust the pool
+	 *
+	 * @param tasks
+	 *            the tasks to run
+	 * @return the results of the tasks in the order of the tasks
+	 * @throws IOException
+	 *             the first exception thrown by a task, in the order of the
+	 *             tasks. Remaining tasks are cancelled
+	 */
+	public <T> List<T> invokeAll(final List<? extends Callable<T>> tasks) throws IOException {
+		final List<T> results = new ArrayList<T>(tasks.size());
+		if (worker.get() != null || tasks.size() < 2) {
+			for (Callable<T> task : tasks) {
+				results.add(call(task));
+			}
+			return results;
+		}
+		final List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		try {
+			for (Callable<T> task : tasks) {
+				futures.add(getExecutor().submit(task));
+			}
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while fetching content");
+		} catch (ExecutionException e) {
+			throw toIOException(e.getCause());
+		} finally {
+			for (Future<T> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * get the number of threads fetching content concurrently
+	 *
+	 * @return the number of threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * get the number of remote {@link URI}s opened, not counting retries
+	 *
+	 * @return the number of requests
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * get the number of retried requests
+	 *
+	 * @return the number of retries
+	 */
+	public long getRetries() {
+		return retried.get();
+	}
+
+	/**
+	 * get the number of requests which failed after all retries
+	 *
+	 * @return the number of failures
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * stop the threads of this {@link ContentFetcher}. Content can still be
+	 * opened, and the threads are started again by the next
+	 * {@link #invokeAll(List)}
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getRequests() + " requests, " + getRetries() + " retries, " + getFailures() + " failures";
+	}
+
+	private <T> T call(final Callable<T> task) throws IOException {
+		try {
+			return task.call();
+		} catch (Exception e) {
+			throw toIOException(e);
+		}
+	}
+
+	private static IOException toIOException(final Throwable cause) {
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new IOException("unable to fetch content", cause);
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(final Runnable r) {
+					final Thread t = new Thread(new Runnable() {
+						public void run() {
+							worker.set(Boolean.TRUE);
+							r.run();
+						}
+					}, "fetcher-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+}
@@ -0,0 +1,53 @@
+package org.fcrepo.dto.factories.content;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A stateful stream of generated content bytes as returned by
+ * {@link ContentSource#open(long)}. Generators are not thread safe, but they
+ * are cheap to create, so every piece of content gets its own one. The bytes
+ * produced only depend on the seed the generator was opened with and not on
+ * the sizes of the chunks they are requested in.
+ * 
+ * @author fasseg
+ * 
+ */
+public abstract class ContentGenerator {
+
+	private byte[] scratch;
+
+	/**
+	 * fill a part of a byte array with the next generated bytes
+	 * 
+	 * @param buffer
+	 *            the array to fill
+	 * @param offset
+	 *            the offset at which to start
+	 * @param len
+	 *            the number of bytes to generate
+	 */
+	public abstract void nextBytes(byte[] buffer, int offset, int len);
+
+	/**
+	 * fill the remaining space of a {@link ByteBuffer} with the next
+	 * generated bytes. After the call the buffer's position equals its limit
+	 * 
+	 * @param buffer
+	 *            the {@link ByteBuffer} to fill
+	 */
+	public void nextBytes(final ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			nextBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+			return;
+		}
+		if (scratch == null) {
+			scratch = new byte[8192];
+		}
+		while (buffer.hasRemaining()) {
+			final int len = Math.min(scratch.length, buffer.remaining());
+			nextBytes(scratch, 0, len);
+			buffer.put(scratch, 0, len);
+		}
+	}
+}
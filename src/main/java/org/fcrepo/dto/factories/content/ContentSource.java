@@ -0,0 +1,36 @@
+package org.fcrepo.dto.factories.content;
+
+/**
+ * A description of how generated datastream content should look. Content
+ * sources are immutable and can be shared between threads, the actual bytes
+ * are produced by the {@link ContentGenerator}s they open. Instances are
+ * created using the factory methods in {@link ContentSources}.
+ * 
+ * @author fasseg
+ * 
+ */
+public abstract class ContentSource {
+
+	/**
+	 * open a new {@link ContentGenerator} producing this source's content. Two
+	 * generators opened with the same seed produce the same bytes
+	 * 
+	 * @param seed
+	 *            the seed for the generated content
+	 * @return a new {@link ContentGenerator}
+	 */
+	public abstract ContentGenerator open(long seed);
+
+	/**
+	 * get the specification of this {@link ContentSource} which can be parsed
+	 * back via {@link ContentSources#forSpec(String)}
+	 * 
+	 * @return the specification string
+	 */
+	public abstract String toSpec();
+
+	@Override
+	public String toString() {
+		return toSpec();
+	}
+}
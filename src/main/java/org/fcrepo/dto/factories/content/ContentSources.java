@@ -0,0 +1,323 @@
+package org.fcrepo.dto.factories.content;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Abstract factory class for creating {@link ContentSource}s
+ *
+ * @author fasseg
+ */
+public abstract class ContentSources {
+
+	private static final AtomicLong seedUniquifier = new AtomicLong(System.nanoTime());
+
+	private static final ThreadLocal<SplitMix64> seeds = new ThreadLocal<SplitMix64>() {
+		@Override
+		protected SplitMix64 initialValue() {
+			return new SplitMix64(SplitMix64.mix(seedUniquifier.addAndGet(0x9e3779b97f4a7c15L))
+					^ System.nanoTime() ^ Thread.currentThread().getId());
+		}
+	};
+
+	private static final ContentSource RANDOM = new RandomSource();
+
+	private static final ContentSource ZERO = new ZeroSource();
+
+	private ContentSources() {
+		// you no construct me from derived class.
+	}
+
+	/**
+	 * get a new seed from the calling thread's own generator. Since every
+	 * thread has it's own generator, there is no contention between threads
+	 *
+	 * @return a new seed
+	 */
+	public final static long nextSeed() {
+		return seeds.get().nextLong();
+	}
+
+	/**
+	 * get a {@link ContentSource} producing uniformly distributed pseudo random
+	 * bytes
+	 *
+	 * @return a {@link ContentSource} for random content
+	 */
+	public final static ContentSource random() {
+		return RANDOM;
+	}
+
+	/**
+	 * get a {@link ContentSource} producing zero bytes only
+	 *
+	 * @return a {@link ContentSource} for zero filled content
+	 */
+	public final static ContentSource zero() {
+		return ZERO;
+	}
+
+	/**
+	 * create a {@link ContentSource} repeating a given byte pattern
+	 *
+	 * @param pattern
+	 *            the pattern to repeat
+	 * @return a new {@link ContentSource} for repeating content
+	 */
+	public final static ContentSource pattern(final String pattern) {
+		if (pattern == null || pattern.length() == 0) {
+			throw new IllegalArgumentException("pattern must not be empty");
+		}
+		return new PatternSource(pattern);
+	}
+
+	/**
+	 * create a {@link ContentSource} producing content of a given entropy. The
+	 * content is made of 64 byte blocks, each of which is either random or a
+	 * repetition of the previous block, so the size of the content after
+	 * compression is roughly <code>entropy * size</code>
+	 *
+	 * @param entropy
+	 *            the fraction of random blocks, between 0 and 1
+	 * @return a new {@link ContentSource} for compressible content
+	 */
+	public final static ContentSource compressible(final double entropy) {
+		if (entropy < 0d || entropy > 1d) {
+			throw new IllegalArgumentException("entropy must be between 0 and 1");
+		}
+		return new CompressibleSource(entropy);
+	}
+
+	/**
+	 * parse a {@link ContentSource} specification as returned by
+	 * {@link ContentSource#toSpec()}. Valid specifications are
+	 * <code>random</code>, <code>zero</code>, <code>pattern:&lt;text&gt;</code>
+	 * and <code>compressible:&lt;entropy&gt;</code>
+	 *
+	 * @param spec
+	 *            the specification to parse
+	 * @return the {@link ContentSource} described by the specification
+	 */
+	public final static ContentSource forSpec(final String spec) {
+		if (spec == null || spec.trim().length() == 0 || spec.trim().equals("random")) {
+			return random();
+		}
+		final int colon = spec.indexOf(':');
+		final String name = (colon < 0) ? spec.trim() : spec.substring(0, colon).trim();
+		final String arg = (colon < 0) ? null : spec.substring(colon + 1);
+		if (name.equals("zero")) {
+			return zero();
+		} else if (name.equals("pattern") && arg != null) {
+			return pattern(arg);
+		} else if (name.equals("compressible") && arg != null) {
+			return compressible(Double.parseDouble(arg.trim()));
+		}
+		throw new IllegalArgumentException("unknown content source '" + spec + "'");
+	}
+
+	private static final class RandomSource extends ContentSource {
+		@Override
+		public ContentGenerator open(final long seed) {
+			return new RandomGenerator(seed);
+		}
+
+		@Override
+		public String toSpec() {
+			return "random";
+		}
+	}
+
+	private static final class RandomGenerator extends ContentGenerator {
+		private final SplitMix64 random;
+		private long word;
+		private int available;
+
+		private RandomGenerator(final long seed) {
+			this.random = new SplitMix64(seed);
+		}
+
+		@Override
+		public void nextBytes(final byte[] buffer, final int offset, final int len) {
+			final int end = offset + len;
+			int i = offset;
+			while (available > 0 && i < end) {
+				buffer[i++] = (byte) word;
+				word >>>= 8;
+				available--;
+			}
+			while (end - i >= 8) {
+				final long r = random.nextLong();
+				buffer[i] = (byte) r;
+				buffer[i + 1] = (byte) (r >>> 8);
+				buffer[i + 2] = (byte) (r >>> 16);
+				buffer[i + 3] = (byte) (r >>> 24);
+				buffer[i + 4] = (byte) (r >>> 32);
+				buffer[i + 5] = (byte) (r >>> 40);
+				buffer[i + 6] = (byte) (r >>> 48);
+				buffer[i + 7] = (byte) (r >>> 56);
+				i += 8;
+			}
+			if (i < end) {
+				word = random.nextLong();
+				available = 8;
+				while (i < end) {
+					buffer[i++] = (byte) word;
+					word >>>= 8;
+					available--;
+				}
+			}
+		}
+
+		@Override
+		public void nextBytes(final ByteBuffer buffer) {
+			if (buffer.hasArray()) {
+				super.nextBytes(buffer);
+				return;
+			}
+			// write whole words directly into the buffer, the byte order
+			// matches the one used for arrays
+			final ByteOrder order = buffer.order();
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			while (available > 0 && buffer.hasRemaining()) {
+				buffer.put((byte) word);
+				word >>>= 8;
+				available--;
+			}
+			while (buffer.remaining() >= 8) {
+				buffer.putLong(random.nextLong());
+			}
+			if (buffer.hasRemaining()) {
+				word = random.nextLong();
+				available = 8;
+				while (buffer.hasRemaining()) {
+					buffer.put((byte) word);
+					word >>>= 8;
+					available--;
+				}
+			}
+			buffer.order(order);
+		}
+	}
+
+	private static final class ZeroSource extends ContentSource {
+		@Override
+		public ContentGenerator open(final long seed) {
+			return new ContentGenerator() {
+				@Override
+				public void nextBytes(final byte[] buffer, final int offset, final int len) {
+					Arrays.fill(buffer, offset, offset + len, (byte) 0);
+				}
+
+				@Override
+				public void nextBytes(final ByteBuffer buffer) {
+					if (buffer.hasArray()) {
+						super.nextBytes(buffer);
+						return;
+					}
+					while (buffer.remaining() >= 8) {
+						buffer.putLong(0L);
+					}
+					while (buffer.hasRemaining()) {
+						buffer.put((byte) 0);
+					}
+				}
+			};
+		}
+
+		@Override
+		public String toSpec() {
+			return "zero";
+		}
+	}
+
+	private static final class PatternSource extends ContentSource {
+		private final String pattern;
+		private final byte[] bytes;
+
+		private PatternSource(final String pattern) {
+			this.pattern = pattern;
+			try {
+				this.bytes = pattern.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public ContentGenerator open(final long seed) {
+			return new ContentGenerator() {
+				private int pos;
+
+				@Override
+				public void nextBytes(final byte[] buffer, final int offset, final int len) {
+					int i = offset;
+					final int end = offset + len;
+					while (i < end) {
+						final int n = Math.min(bytes.length - pos, end - i);
+						System.arraycopy(bytes, pos, buffer, i, n);
+						i += n;
+						pos = (pos + n) % bytes.length;
+					}
+				}
+			};
+		}
+
+		@Override
+		public String toSpec() {
+			return "pattern:" + pattern;
+		}
+	}
+
+	private static final class CompressibleSource extends ContentSource {
+		private static final int BLOCK_SIZE = 64;
+		private final double entropy;
+
+		private CompressibleSource(final double entropy) {
+			this.entropy = entropy;
+		}
+
+		@Override
+		public ContentGenerator open(final long seed) {
+			return new ContentGenerator() {
+				private final SplitMix64 random = new SplitMix64(seed);
+				private final byte[] block = new byte[BLOCK_SIZE];
+				private int pos = BLOCK_SIZE;
+
+				@Override
+				public void nextBytes(final byte[] buffer, final int offset, final int len) {
+					int i = offset;
+					final int end = offset + len;
+					while (i < end) {
+						if (pos == BLOCK_SIZE) {
+							nextBlock();
+						}
+						final int n = Math.min(BLOCK_SIZE - pos, end - i);
+						System.arraycopy(block, pos, buffer, i, n);
+						i += n;
+						pos += n;
+					}
+				}
+
+				private void nextBlock() {
+					if (random.nextDouble() < entropy) {
+						for (int i = 0; i < BLOCK_SIZE; i += 8) {
+							final long r = random.nextLong();
+							for (int j = 0; j < 8; j++) {
+								block[i + j] = (byte) (r >>> (j * 8));
+							}
+						}
+					}
+					pos = 0;
+				}
+			};
+		}
+
+		@Override
+		public String toSpec() {
+			return "compressible:" + entropy;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package org.fcrepo.dto.factories.content;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A strategy for writing generated content to a file. Content writers are
+ * shared between threads and must therefore be thread safe. Instances are
+ * created using the factory methods in {@link ContentWriters}.
+ * 
+ * @author fasseg
+ * 
+ */
+public abstract class ContentWriter {
+
+	/**
+	 * write generated content to a file
+	 * 
+	 * @param file
+	 *            the {@link File} to write to
+	 * @param generator
+	 *            the {@link ContentGenerator} producing the content
+	 * @param size
+	 *            the number of bytes to write
+	 * @throws IOException
+	 *             if the content could not be written
+	 */
+	public abstract void write(File file, ContentGenerator generator, long size) throws IOException;
+
+	/**
+	 * check whether this writer only sets the length of the files it writes,
+	 * leaving content which reads as zero bytes no matter what the
+	 * {@link ContentGenerator} would have produced
+	 * 
+	 * @return true if the generated content is not written
+	 */
+	public boolean isSparse() {
+		return false;
+	}
+}
@@ -0,0 +1,284 @@
+package org.fcrepo.dto.factories.content;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Abstract factory class for creating {@link ContentWriter}s
+ * 
+ * @author fasseg
+ */
+public abstract class ContentWriters {
+
+	/** the default buffer size used by the {@link ContentWriter}s */
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	/** the default size of the windows mapped by the mapped writer */
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private static final ContentWriter STREAM = new StreamWriter(DEFAULT_BUFFER_SIZE);
+
+	private static final ContentWriter SPARSE = new SparseWriter();
+
+	private ContentWriters() {
+		// you no construct me from derived class.
+	}
+
+	/**
+	 * get a {@link ContentWriter} writing through a plain
+	 * {@link FileOutputStream} using the default buffer size
+	 * 
+	 * @return a {@link ContentWriter} using streams
+	 */
+	public final static ContentWriter stream() {
+		return STREAM;
+	}
+
+	/**
+	 * create a {@link ContentWriter} writing through a plain
+	 * {@link FileOutputStream}
+	 * 
+	 * @param bufferSize
+	 *            the size of the heap buffer used for writing
+	 * @return a new {@link ContentWriter} using streams
+	 */
+	public final static ContentWriter stream(final int bufferSize) {
+		checkBufferSize(bufferSize);
+		return new StreamWriter(bufferSize);
+	}
+
+	/**
+	 * create a {@link ContentWriter} writing through a {@link FileChannel}.
+	 * The content is generated into a set of direct {@link ByteBuffer}s which
+	 * are written with a single gathering write, so large files need only a
+	 * fraction of the system calls of the stream based writer. The buffers are
+	 * allocated once per thread and reused.
+	 * 
+	 * @param bufferSize
+	 *            the size of a single direct buffer
+	 * @param numBuffers
+	 *            the number of buffers written by one gathering write
+	 * @param preallocate
+	 *            whether the file should be extended to it's final size
+	 *            before the content is written
+	 * @return a new {@link ContentWriter} using channels
+	 */
+	public final static ContentWriter channel(final int bufferSize, final int numBuffers, final boolean preallocate) {
+		checkBufferSize(bufferSize);
+		if (numBuffers < 1) {
+			throw new IllegalArgumentException("number of buffers must be at least 1");
+		}
+		return new ChannelWriter(bufferSize, numBuffers, preallocate);
+	}
+
+	/**
+	 * get a {@link ContentWriter} creating sparse files. Only the length of a
+	 * file is set, which takes the same time for any size on file systems
+	 * supporting sparse files, so datastreams of many gigabytes are created
+	 * at the speed of the file system's metadata. The content of the files
+	 * reads as zero bytes, whatever the {@link ContentSource} would have
+	 * generated, so this writer is meant for tests which only depend on the
+	 * size of the content
+	 * 
+	 * @return a {@link ContentWriter} creating sparse files
+	 */
+	public final static ContentWriter sparse() {
+		return SPARSE;
+	}
+
+	/**
+	 * create a {@link ContentWriter} generating content directly into memory
+	 * mapped windows of the file. The file is extended to it's final size and
+	 * mapped one window at a time, so the content is written at the speed of
+	 * the page cache without being copied from the heap. Windows are unmapped
+	 * by the garbage collector, so large windows keep the number of mappings
+	 * low for files of many gigabytes
+	 * 
+	 * @param windowSize
+	 *            the size of a single mapped window
+	 * @return a new {@link ContentWriter} using memory mapped files
+	 */
+	public final static ContentWriter mapped(final int windowSize) {
+		checkBufferSize(windowSize);
+		return new MappedWriter(windowSize);
+	}
+
+	/**
+	 * create a {@link ContentWriter} by it's name as used in the generator
+	 * properties, which is one of <code>stream</code>, <code>channel</code>,
+	 * <code>sparse</code> or <code>mapped</code>. The mapped writer uses the
+	 * buffer size as window size, but at least {@link #DEFAULT_WINDOW_SIZE}
+	 * 
+	 * @param name
+	 *            the name of the {@link ContentWriter}
+	 * @param bufferSize
+	 *            the size of the buffers used for writing
+	 * @param preallocate
+	 *            whether files should be preallocated, only used by the
+	 *            <code>channel</code> writer
+	 * @return a new {@link ContentWriter}
+	 */
+	public final static ContentWriter forName(final String name, final int bufferSize, final boolean preallocate) {
+		if (name == null || name.trim().length() == 0 || name.trim().equals("stream")) {
+			return stream(bufferSize);
+		} else if (name.trim().equals("channel")) {
+			return channel(bufferSize, 4, preallocate);
+		} else if (name.trim().equals("sparse")) {
+			return sparse();
+		} else if (name.trim().equals("mapped")) {
+			return mapped(Math.max(bufferSize, DEFAULT_WINDOW_SIZE));
+		}
+		throw new IllegalArgumentException("unknown content writer '" + name + "'");
+	}
+
+	private static void checkBufferSize(final int bufferSize) {
+		if (bufferSize < 8) {
+			throw new IllegalArgumentException("buffer size must be at least 8 bytes");
+		}
+	}
+
+	private static final class StreamWriter extends ContentWriter {
+		private final int bufferSize;
+
+		private StreamWriter(final int bufferSize) {
+			this.bufferSize = bufferSize;
+		}
+
+		@Override
+		public void write(final File file, final ContentGenerator generator, final long size) throws IOException {
+			final FileOutputStream out = new FileOutputStream(file);
+			final byte[] buffer = new byte[(int) Math.min(size, bufferSize)];
+			long remaining = size;
+			try {
+				while (remaining > 0) {
+					final int len = (int) Math.min(remaining, buffer.length);
+					generator.nextBytes(buffer, 0, len);
+					out.write(buffer, 0, len);
+					remaining -= len;
+				}
+				// a failing close must not go unnoticed
+				out.close();
+			} finally {
+				IOUtils.closeQuietly(out);
+			}
+		}
+	}
+
+	private static final class ChannelWriter extends ContentWriter {
+		private final int bufferSize;
+		private final int numBuffers;
+		private final boolean preallocate;
+		private final ThreadLocal<ByteBuffer[]> buffers = new ThreadLocal<ByteBuffer[]>() {
+			@Override
+			protected ByteBuffer[] initialValue() {
+				final ByteBuffer[] buffers = new ByteBuffer[numBuffers];
+				for (int i = 0; i < numBuffers; i++) {
+					buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+				}
+				return buffers;
+			}
+		};
+
+		private ChannelWriter(final int bufferSize, final int numBuffers, final boolean preallocate) {
+			this.bufferSize = bufferSize;
+			this.numBuffers = numBuffers;
+			this.preallocate = preallocate;
+		}
+
+		@Override
+		public void write(final File file, final ContentGenerator generator, final long size) throws IOException {
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				final FileChannel channel = raf.getChannel();
+				if (preallocate) {
+					raf.setLength(size);
+				}
+				final ByteBuffer[] buffers = this.buffers.get();
+				long remaining = size;
+				while (remaining > 0) {
+					int used = 0;
+					while (used < numBuffers && remaining > 0) {
+						final ByteBuffer buffer = buffers[used++];
+						buffer.clear();
+						buffer.limit((int) Math.min(remaining, bufferSize));
+						generator.nextBytes(buffer);
+						buffer.flip();
+						remaining -= buffer.limit();
+					}
+					writeFully(channel, buffers, used);
+				}
+				// cut off what is left of a longer file being overwritten
+				raf.setLength(size);
+				raf.close();
+			} finally {
+				IOUtils.closeQuietly(raf);
+			}
+		}
+
+		private void writeFully(final FileChannel channel, final ByteBuffer[] buffers, final int used)
+				throws IOException {
+			int first = 0;
+			while (first < used) {
+				channel.write(buffers, first, used - first);
+				while (first < used && !buffers[first].hasRemaining()) {
+					first++;
+				}
+			}
+		}
+	}
+
+	private static final class SparseWriter extends ContentWriter {
+		@Override
+		public void write(final File file, final ContentGenerator generator, final long size) throws IOException {
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				// truncating first drops the bytes of an earlier run, and
+				// extending the file leaves a hole without allocating blocks
+				raf.setLength(0);
+				raf.setLength(size);
+				raf.close();
+			} finally {
+				IOUtils.closeQuietly(raf);
+			}
+		}
+
+		@Override
+		public boolean isSparse() {
+			return true;
+		}
+	}
+
+	private static final class MappedWriter extends ContentWriter {
+		private final int windowSize;
+
+		private MappedWriter(final int windowSize) {
+			this.windowSize = windowSize;
+		}
+
+		@Override
+		public void write(final File file, final ContentGenerator generator, final long size) throws IOException {
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(size);
+				final FileChannel channel = raf.getChannel();
+				long position = 0;
+				while (position < size) {
+					final long len = Math.min(size - position, windowSize);
+					final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, position, len);
+					generator.nextBytes(window);
+					position += len;
+				}
+				raf.close();
+			} finally {
+				IOUtils.closeQuietly(raf);
+			}
+		}
+	}
+}
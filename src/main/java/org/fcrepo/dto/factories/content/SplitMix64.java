@@ -0,0 +1,73 @@
+package org.fcrepo.dto.factories.content;
+
+/**
+ * A small and fast pseudo random number generator based on Sebastiano Vigna's
+ * SplitMix64 algorithm. Instances are not thread safe and are meant to be
+ * confined to a single thread. In contrast to {@link java.util.Random} there is
+ * no CAS on the seed, and the output for a given seed is fully deterministic.
+ * 
+ * @author fasseg
+ * 
+ */
+public final class SplitMix64 {
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private long state;
+
+	/**
+	 * create a new {@link SplitMix64} generator
+	 * 
+	 * @param seed
+	 *            the seed for the generator
+	 */
+	public SplitMix64(final long seed) {
+		this.state = seed;
+	}
+
+	/**
+	 * get the next pseudo random long value
+	 * 
+	 * @return a pseudo random long
+	 */
+	public long nextLong() {
+		return mix(state += GOLDEN_GAMMA);
+	}
+
+	/**
+	 * get the next pseudo random int value in the range [0, bound)
+	 * 
+	 * @param bound
+	 *            the upper bound (exclusive), must be positive
+	 * @return a pseudo random int
+	 */
+	public int nextInt(final int bound) {
+		if (bound <= 0) {
+			throw new IllegalArgumentException("bound must be positive");
+		}
+		return (int) (((nextLong() >>> 33) * bound) >>> 31);
+	}
+
+	/**
+	 * get the next pseudo random double value in the range [0, 1)
+	 * 
+	 * @return a pseudo random double
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * scramble a value using the SplitMix64 finalizer. This is useful for
+	 * deriving independent seeds from a counter or an index
+	 * 
+	 * @param z
+	 *            the value to scramble
+	 * @return the scrambled value
+	 */
+	public static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
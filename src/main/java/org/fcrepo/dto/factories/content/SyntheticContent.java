@@ -0,0 +1,162 @@
+package org.fcrepo.dto.factories.content;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Abstract factory class for synthetic content {@link URI}s. A synthetic
+ * {@link URI} of the form <code>synthetic://&lt;seed&gt;/&lt;size&gt;</code>
+ * describes content which is never written to disk, but regenerated from the
+ * seed whenever it is read. Content sources other than
+ * {@link ContentSources#random()} are appended as the query part, e.g.
+ * <code>synthetic://1f/1000?compressible:0.5</code>
+ * 
+ * @author fasseg
+ */
+public abstract class SyntheticContent {
+
+	/** the scheme of synthetic content {@link URI}s */
+	public static final String SCHEME = "synthetic";
+
+	private static final String HANDLER_PACKAGES = "java.protocol.handler.pkgs";
+
+	private static final String HANDLER_PACKAGE = "org.fcrepo.dto.factories.content";
+
+	private SyntheticContent() {
+		// you no construct me from derived class.
+	}
+
+	/**
+	 * create a new synthetic {@link URI} describing generated content
+	 * 
+	 * @param seed
+	 *            the seed used for generating the content
+	 * @param size
+	 *            the size of the content
+	 * @param source
+	 *            the {@link ContentSource} generating the content
+	 * @return a new synthetic {@link URI}
+	 */
+	public final static URI createURI(final long seed, final long size, final ContentSource source) {
+		if (size < 0) {
+			throw new IllegalArgumentException("size must not be negative");
+		}
+		final String spec = source.toSpec();
+		try {
+			return new URI(SCHEME, Long.toHexString(seed), "/" + size, spec.equals("random") ? null : spec, null);
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("unable to create synthetic URI for source " + spec, e);
+		}
+	}
+
+	/**
+	 * check whether a {@link URI} describes synthetic content
+	 * 
+	 * @param uri
+	 *            the {@link URI} to check
+	 * @return true if the {@link URI} is a synthetic one
+	 */
+	public final static boolean isSynthetic(final URI uri) {
+		return uri != null && SCHEME.equals(uri.getScheme());
+	}
+
+	/**
+	 * get the seed encoded in a synthetic {@link URI}
+	 * 
+	 * @param uri
+	 *            the synthetic {@link URI}
+	 * @return the seed
+	 * @throws IOException
+	 *             if the {@link URI} is not a valid synthetic {@link URI}
+	 */
+	public final static long getSeed(final URI uri) throws IOException {
+		checkSynthetic(uri);
+		final String hex = uri.getAuthority();
+		if (hex == null || hex.length() == 0 || hex.length() > 16) {
+			throw new IOException("invalid seed in synthetic URI " + uri);
+		}
+		try {
+			// parse in two halves since Long.parseLong does not accept
+			// unsigned values
+			final int split = Math.max(0, hex.length() - 8);
+			final long high = (split == 0) ? 0 : Long.parseLong(hex.substring(0, split), 16);
+			final long low = Long.parseLong(hex.substring(split), 16);
+			return (high << 32) | low;
+		} catch (NumberFormatException e) {
+			throw new IOException("invalid seed in synthetic URI " + uri);
+		}
+	}
+
+	/**
+	 * get the size encoded in a synthetic {@link URI}
+	 * 
+	 * @param uri
+	 *            the synthetic {@link URI}
+	 * @return the size of the content
+	 * @throws IOException
+	 *             if the {@link URI} is not a valid synthetic {@link URI}
+	 */
+	public final static long getSize(final URI uri) throws IOException {
+		checkSynthetic(uri);
+		final String path = uri.getPath();
+		try {
+			return Long.parseLong(path.substring(1));
+		} catch (RuntimeException e) {
+			throw new IOException("invalid size in synthetic URI " + uri);
+		}
+	}
+
+	/**
+	 * get the {@link ContentSource} encoded in a synthetic {@link URI}
+	 * 
+	 * @param uri
+	 *            the synthetic {@link URI}
+	 * @return the {@link ContentSource} generating the content
+	 * @throws IOException
+	 *             if the {@link URI} is not a valid synthetic {@link URI}
+	 */
+	public final static ContentSource getSource(final URI uri) throws IOException {
+		checkSynthetic(uri);
+		try {
+			return ContentSources.forSpec(uri.getQuery());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("invalid content source in synthetic URI " + uri);
+		}
+	}
+
+	/**
+	 * open an {@link InputStream} regenerating the content described by a
+	 * synthetic {@link URI}
+	 * 
+	 * @param uri
+	 *            the synthetic {@link URI}
+	 * @return a new {@link InputStream} producing the content
+	 * @throws IOException
+	 *             if the {@link URI} is not a valid synthetic {@link URI}
+	 */
+	public final static InputStream openStream(final URI uri) throws IOException {
+		return new SyntheticInputStream(getSource(uri).open(getSeed(uri)), getSize(uri));
+	}
+
+	/**
+	 * register the URL stream handler for the synthetic scheme, so that
+	 * {@link java.net.URL#openStream()} works on synthetic URLs. This
+	 * method is idempotent.
+	 */
+	public final static synchronized void registerURLStreamHandler() {
+		final String packages = System.getProperty(HANDLER_PACKAGES);
+		if (packages == null || packages.length() == 0) {
+			System.setProperty(HANDLER_PACKAGES, HANDLER_PACKAGE);
+		} else if (!("|" + packages + "|").contains("|" + HANDLER_PACKAGE + "|")) {
+			System.setProperty(HANDLER_PACKAGES, packages + "|" + HANDLER_PACKAGE);
+		}
+	}
+
+	private static void checkSynthetic(final URI uri) throws IOException {
+		if (!isSynthetic(uri)) {
+			throw new IOException(uri + " is not a synthetic URI");
+		}
+	}
+}
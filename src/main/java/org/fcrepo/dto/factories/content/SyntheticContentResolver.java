@@ -0,0 +1,57 @@
+package org.fcrepo.dto.factories.content;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+import org.apache.commons.io.IOUtils;
+
+import com.github.cwilper.fcrepo.dto.core.io.ContentResolver;
+import com.github.cwilper.fcrepo.dto.core.io.DefaultContentResolver;
+
+/**
+ * A {@link ContentResolver} regenerating the content of synthetic
+ * {@link URI}s on demand. All other {@link URI}s are passed on to a
+ * {@link DefaultContentResolver} which is only created when needed.
+ * 
+ * @author fasseg
+ * 
+ */
+public class SyntheticContentResolver implements ContentResolver {
+
+	private ContentResolver delegate;
+
+	public InputStream resolveContent(final URI baseURI, final URI ref) throws IOException {
+		if (SyntheticContent.isSynthetic(ref)) {
+			return SyntheticContent.openStream(ref);
+		}
+		return getDelegate().resolveContent(baseURI, ref);
+	}
+
+	public void resolveContent(final URI baseURI, final URI ref, final OutputStream out) throws IOException {
+		if (!SyntheticContent.isSynthetic(ref)) {
+			getDelegate().resolveContent(baseURI, ref, out);
+			return;
+		}
+		final InputStream in = SyntheticContent.openStream(ref);
+		try {
+			IOUtils.copy(in, out);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	public void close() {
+		if (delegate != null) {
+			delegate.close();
+		}
+	}
+
+	private ContentResolver getDelegate() {
+		if (delegate == null) {
+			delegate = new DefaultContentResolver();
+		}
+		return delegate;
+	}
+}
@@ -0,0 +1,78 @@
+package org.fcrepo.dto.factories.content;
+
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} producing a fixed number of bytes from a
+ * {@link ContentGenerator}. The content is generated on demand, so streams of
+ * any size only use a constant amount of memory.
+ * 
+ * @author fasseg
+ * 
+ */
+public class SyntheticInputStream extends InputStream {
+
+	private final ContentGenerator generator;
+
+	private final byte[] single = new byte[1];
+
+	private byte[] skipBuffer;
+
+	private long remaining;
+
+	/**
+	 * create a new {@link SyntheticInputStream}
+	 * 
+	 * @param generator
+	 *            the {@link ContentGenerator} producing the bytes
+	 * @param size
+	 *            the number of bytes this stream will produce
+	 */
+	public SyntheticInputStream(final ContentGenerator generator, final long size) {
+		this.generator = generator;
+		this.remaining = size;
+	}
+
+	@Override
+	public int read() {
+		if (remaining <= 0) {
+			return -1;
+		}
+		generator.nextBytes(single, 0, 1);
+		remaining--;
+		return single[0] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) {
+		if (len == 0) {
+			return 0;
+		}
+		if (remaining <= 0) {
+			return -1;
+		}
+		final int n = (int) Math.min(len, remaining);
+		generator.nextBytes(b, off, n);
+		remaining -= n;
+		return n;
+	}
+
+	@Override
+	public long skip(final long n) {
+		// the generated bytes depend on the sequence of all preceding bytes,
+		// so skipped content has to be generated as well
+		if (skipBuffer == null) {
+			skipBuffer = new byte[8192];
+		}
+		long skipped = 0;
+		while (skipped < n && remaining > 0) {
+			skipped += read(skipBuffer, 0, (int) Math.min(skipBuffer.length, n - skipped));
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(0, remaining));
+	}
+}
@@ -0,0 +1,407 @@
+package org.fcrepo.dto.factories.content;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * Abstract factory class for reading XML content destined for inline XML
+ * datastreams. The content is copied in a single pass which enforces a size
+ * limit and optionally checks the well-formedness of the document, so neither
+ * oversized nor broken documents are buffered on the heap before they are
+ * rejected.
+ *
+ * @author fasseg
+ *
+ */
+public abstract class XMLContent {
+
+	/**
+	 * the default limit for the size of inline XML content, 16 MiB
+	 */
+	public static final long DEFAULT_LIMIT = 16L * 1024L * 1024L;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final int PROLOG_LOOKAHEAD = 8 * 1024;
+
+	private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']*)[\"']");
+
+	private static final Pattern UTF8_COMPATIBLE = Pattern.compile("(?i)utf-?8|us-ascii|ascii");
+
+	private static final XMLInputFactory factory = createInputFactory();
+
+	private XMLContent() {
+		// you no construct me from derived class.
+	}
+
+	/**
+	 * open a stream to the XML content of an {@link URI}. Synthetic content is
+	 * regenerated, every other {@link URI} is opened as {@link java.net.URL}
+	 *
+	 * @param uri
+	 *            the {@link URI} of the content
+	 * @return a new {@link InputStream} which has to be closed by the caller
+	 * @throws IOException
+	 *             if the content could not be opened
+	 */
+	public final static InputStream open(final URI uri) throws IOException {
+		return SyntheticContent.isSynthetic(uri) ? SyntheticContent.openStream(uri) : uri.toURL().openStream();
+	}
+
+	/**
+	 * check the size of the content of an {@link URI} against a limit without
+	 * reading it. Only the size of local files is known in advance, content of
+	 * other {@link URI}s is checked while it is copied
+	 *
+	 * @param uri
+	 *            the {@link URI} of the content
+	 * @param limit
+	 *            the maximum number of bytes allowed
+	 * @return the size of the content or -1 if it is not known in advance
+	 * @throws IOException
+	 *             if the content is known to exceed the limit
+	 */
+	public final static long checkSize(final URI uri, final long limit) throws IOException {
+		if (!"file".equals(uri.getScheme())) {
+			return -1;
+		}
+		final File file = new File(uri);
+		if (!file.isFile()) {
+			return -1;
+		}
+		if (file.length() > limit) {
+			throw new IOException("XML content of " + uri + " has " + file.length() + " bytes and exceeds the limit of "
+					+ limit + " bytes");
+		}
+		return file.length();
+	}
+
+	/**
+	 * read the XML content of an {@link URI} into a byte array. The stream
+	 * opened is always closed, and the content is copied only once into a
+	 * buffer of the exact size if the size is known in advance
+	 *
+	 * @param uri
+	 *            the {@link URI} of the content
+	 * @param limit
+	 *            the maximum number of bytes allowed
+	 * @param validate
+	 *            whether to check the well-formedness of the content while
+	 *            reading it
+	 * @return the content
+	 * @throws IOException
+	 *             if the content could not be read, exceeds the limit or is
+	 *             not well-formed
+	 */
+	public final static byte[] read(final URI uri, final long limit, final boolean validate) throws IOException {
+		return read(uri, limit, validate, null);
+	}
+
+	/**
+	 * read the XML content of an {@link URI} into a byte array, fetching it
+	 * through a {@link ContentCache}
+	 *
+	 * @param uri
+	 *            the {@link URI} of the content
+	 * @param limit
+	 *            the maximum number of bytes allowed
+	 * @param validate
+	 *            whether to check the well-formedness of the content while
+	 *            reading it
+	 * @param cache
+	 *            the {@link ContentCache} to fetch the content through, or
+	 *            null to fetch it directly
+	 * @return the content
+	 * @throws IOException
+	 *             if the content could not be read, exceeds the limit or is
+	 *             not well-formed
+	 */
+	public final static byte[] read(final URI uri, final long limit, final boolean validate, final ContentCache cache)
+			throws IOException {
+		return read(uri, limit, validate, cache, null);
+	}
+
+	/**
+	 * read the XML content of an {@link URI} into a byte array, fetching it
+	 * through a {@link ContentCache} or a {@link ContentFetcher}
+	 *
+	 * @param uri
+	 *            the {@link URI} of the content
+	 * @param limit
+	 *            the maximum number of bytes allowed
+	 * @param validate
+	 *            whether to check the well-formedness of the content while
+	 *            reading it
+	 * @param cache
+	 *            the {@link ContentCache} to fetch the content through, or
+	 *            null
+	 * @param fetcher
+	 *            the {@link ContentFetcher} to fetch uncached content with, or
+	 *            null to fetch it directly
+	 * @return the content
+	 * @throws IOException
+	 *             if the content could not be read, exceeds the limit or is
+	 *             not well-formed
+	 */
+	public final static byte[] read(final URI uri, final long limit, final boolean validate,
+			final ContentCache cache, final ContentFetcher fetcher) throws IOException {
+		final long size = checkSize(uri, limit);
+		final InputStream in;
+		if (cache != null) {
+			in = cache.open(uri);
+		} else {
+			in = (fetcher == null) ? open(uri) : fetcher.open(uri);
+		}
+		try {
+			final ExposedByteArrayOutputStream out = new ExposedByteArrayOutputStream(size < 0 ? BUFFER_SIZE
+					: (int) size);
+			copy(in, out, limit, validate, uri);
+			return out.toByteArray();
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * copy XML content from an {@link InputStream} to an {@link OutputStream}
+	 * in a single pass. If the content is validated the parser pulls the bytes
+	 * through to the {@link OutputStream} while it checks the document, so
+	 * there is no second read
+	 *
+	 * @param in
+	 *            the {@link InputStream} to read the content from, which is
+	 *            not closed by this method
+	 * @param out
+	 *            the {@link OutputStream} to write the content to
+	 * @param limit
+	 *            the maximum number of bytes allowed
+	 * @param validate
+	 *            whether to check the well-formedness of the content while
+	 *            copying it
+	 * @param uri
+	 *            the {@link URI} of the content, used for error messages only
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 *             if the content could not be copied, exceeds the limit or is
+	 *             not well-formed
+	 */
+	public final static long copy(final InputStream in, final OutputStream out, final long limit,
+			final boolean validate, final URI uri) throws IOException {
+		final LimitedInputStream limited = new LimitedInputStream(in, limit, uri);
+		if (validate) {
+			final InputStream tee = new TeeInputStream(limited, out, false);
+			XMLStreamReader reader = null;
+			try {
+				synchronized (factory) {
+					// the parser closes it's input at the end of the document
+					reader = factory.createXMLStreamReader(new CloseShieldInputStream(tee));
+				}
+				while (reader.hasNext()) {
+					reader.next();
+				}
+			} catch (XMLStreamException e) {
+				throw new IOException("XML content of " + uri + " is not well-formed: " + e.getMessage(), e);
+			} finally {
+				if (reader != null) {
+					try {
+						reader.close();
+					} catch (XMLStreamException e) {
+						// nothing to do here
+					}
+				}
+			}
+			// pass on trailing whitespace the parser did not consume
+			IOUtils.copy(tee, NullOutputStream.NULL_OUTPUT_STREAM);
+		} else {
+			IOUtils.copyLarge(limited, out);
+		}
+		return limited.count;
+	}
+
+	/**
+	 * skip a byte order mark and the XML declaration at the beginning of a
+	 * stream, since neither is allowed when the content is embedded into
+	 * another document. The content is copied byte for byte into the UTF-8
+	 * encoded FOXML, so content in any other encoding or with a document type
+	 * declaration, which is not allowed inside an element either, is rejected.
+	 * Comments and processing instructions in the prolog are kept
+	 *
+	 * @param in
+	 *            the {@link InputStream} to read from
+	 * @param uri
+	 *            the {@link URI} of the content, used for error messages only
+	 * @return an {@link InputStream} positioned after the XML declaration
+	 * @throws IOException
+	 *             if the stream could not be read or the content can not be
+	 *             embedded as it is
+	 */
+	public final static InputStream skipDeclaration(final InputStream in, final URI uri) throws IOException {
+		final BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+		buffered.mark(PROLOG_LOOKAHEAD);
+		final byte[] head = new byte[PROLOG_LOOKAHEAD];
+		int len = 0;
+		int n;
+		while (len < head.length && (n = buffered.read(head, len, head.length - len)) != -1) {
+			len += n;
+		}
+		buffered.reset();
+		int start = 0;
+		if (len >= 3 && (head[0] & 0xff) == 0xef && (head[1] & 0xff) == 0xbb && (head[2] & 0xff) == 0xbf) {
+			start = 3;
+		} else if (len >= 2 && (head[0] == 0 || head[1] == 0 || (head[0] & 0xff) >= 0xfe)) {
+			// a UTF-16 or UTF-32 byte order mark or encoding
+			throw new IOException("XML content of " + uri + " is not UTF-8 encoded and can not be embedded");
+		}
+		if (startsWith(head, start, len, "<?xml") && len > start + 5 && isWhitespace(head[start + 5])) {
+			final int end = indexOf(head, start, len, "?>");
+			if (end < 0) {
+				throw new IOException("XML declaration of " + uri + " is malformed");
+			}
+			final Matcher encoding = ENCODING.matcher(new String(head, start, end - start, "ISO-8859-1"));
+			if (encoding.find() && !UTF8_COMPATIBLE.matcher(encoding.group(1)).matches()) {
+				throw new IOException("XML content of " + uri + " is encoded in " + encoding.group(1)
+						+ " and can not be embedded into UTF-8 FOXML");
+			}
+			start = end + 2;
+		}
+		// comments and processing instructions may precede the root element
+		int pos = start;
+		while (true) {
+			while (pos < len && isWhitespace(head[pos])) {
+				pos++;
+			}
+			int end = -1;
+			if (startsWith(head, pos, len, "<!--")) {
+				end = indexOf(head, pos, len, "-->");
+				end = (end < 0) ? -1 : end + 3;
+			} else if (startsWith(head, pos, len, "<?")) {
+				end = indexOf(head, pos, len, "?>");
+				end = (end < 0) ? -1 : end + 2;
+			} else if (startsWith(head, pos, len, "<!DOCTYPE")) {
+				throw new IOException("XML content of " + uri
+						+ " has a document type declaration and can not be embedded");
+			} else if (pos < len || len < head.length) {
+				// the root element or the end of the content
+				break;
+			}
+			if (end < 0) {
+				throw new IOException("the prolog of the XML content of " + uri + " exceeds " + PROLOG_LOOKAHEAD
+						+ " bytes and can not be checked");
+			}
+			pos = end;
+		}
+		IOUtils.skipFully(buffered, start);
+		return buffered;
+	}
+
+	private static boolean isWhitespace(final byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	private static int indexOf(final byte[] buffer, final int offset, final int len, final String needle) {
+		for (int i = offset; i <= len - needle.length(); i++) {
+			if (startsWith(buffer, i, len, needle)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(final byte[] buffer, final int offset, final int len, final String prefix) {
+		if (len - offset < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (buffer[offset + i] != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		final XMLInputFactory f = XMLInputFactory.newInstance();
+		// never resolve anything over the network while checking a document
+		f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return f;
+	}
+
+	private static final class LimitedInputStream extends FilterInputStream {
+		private final long limit;
+		private final URI uri;
+		private long count;
+
+		private LimitedInputStream(final InputStream in, final long limit, final URI uri) {
+			super(in);
+			this.limit = limit;
+			this.uri = uri;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b != -1) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int n = super.read(b, off, len);
+			if (n > 0) {
+				count(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			final long skipped = super.skip(n);
+			count(skipped);
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void count(final long n) throws IOException {
+			count += n;
+			if (count > limit) {
+				throw new IOException("XML content of " + uri + " exceeds the limit of " + limit + " bytes");
+			}
+		}
+	}
+
+	private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+		private ExposedByteArrayOutputStream(final int size) {
+			super(size);
+		}
+
+		@Override
+		public synchronized byte[] toByteArray() {
+			// hand out the buffer itself if it has been sized exactly
+			return (count == buf.length) ? buf : super.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package org.fcrepo.dto.factories.content.synthetic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+
+import org.fcrepo.dto.factories.content.SyntheticContent;
+
+/**
+ * The {@link URLStreamHandler} for synthetic content {@link URL}s. It is
+ * picked up by the JDK once
+ * {@link SyntheticContent#registerURLStreamHandler()} has been called.
+ * 
+ * @author fasseg
+ * 
+ */
+public class Handler extends URLStreamHandler {
+
+	@Override
+	protected URLConnection openConnection(final URL u) throws IOException {
+		return new URLConnection(u) {
+			@Override
+			public void connect() {
+				connected = true;
+			}
+
+			@Override
+			public InputStream getInputStream() throws IOException {
+				try {
+					return SyntheticContent.openStream(url.toURI());
+				} catch (URISyntaxException e) {
+					throw new IOException("invalid synthetic URL " + url, e);
+				}
+			}
+
+			@Override
+			public String getContentType() {
+				return "application/octet-stream";
+			}
+
+			@Override
+			public int getContentLength() {
+				try {
+					final long length = SyntheticContent.getSize(url.toURI());
+					return (length > Integer.MAX_VALUE) ? -1 : (int) length;
+				} catch (Exception e) {
+					return -1;
+				}
+			}
+		};
+	}
+}
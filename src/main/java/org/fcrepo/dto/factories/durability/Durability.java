@@ -0,0 +1,338 @@
+package org.fcrepo.dto.factories.durability;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The policy deciding when generated files are forced from the page cache to
+ * the disk. Writers report every file they have written and closed by
+ * {@link #written(File)}, and every completed object by {@link #completed()}.
+ * There are three levels:
+ * <ul>
+ * <li><b>none</b>: files are never synced, so a crash may lose any file
+ * written in the last seconds, but nothing waits for the disk</li>
+ * <li><b>object</b>: every file is synced as soon as it has been written, so
+ * a completed object is on disk. Every file costs a full round trip to the
+ * disk</li>
+ * <li><b>group</b>: written files are collected and synced together once a
+ * batch of objects has been completed or a time interval has passed since
+ * the last commit, which is checked whenever an object completes. A crash
+ * loses at most the files of the last batch, and the disk sees a few large
+ * flushes instead of many small ones. The batch is synced by the thread
+ * completing it, while the other threads keep writing. {@link #flush()}
+ * waits for batches still being synced by other threads, so once it returns
+ * every file reported before is on disk</li>
+ * </ul>
+ * Files are synced by opening them again, so writers never have to keep a
+ * handle open for the policy. The Java runtime offers no way to sync a
+ * directory, so the entry of a new file is only as durable as the file
+ * system's journal makes it. Instances are thread safe.
+ *
+ * @author fasseg
+ *
+ */
+public final class Durability implements Closeable {
+
+	/**
+	 * the levels of durability
+	 */
+	public enum Level {
+		NONE, OBJECT, GROUP
+	}
+
+	/**
+	 * the default number of objects synced in one group commit
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	/**
+	 * the default maximum time in milliseconds between two group commits
+	 */
+	public static final long DEFAULT_INTERVAL = 1000;
+
+	private static final Durability NONE = new Durability(Level.NONE, 1, 0);
+
+	private final Level level;
+
+	private final int batchSize;
+
+	private final long intervalNanos;
+
+	private final AtomicLong syncs = new AtomicLong();
+
+	private final AtomicLong commits = new AtomicLong();
+
+	private final AtomicLong nanos = new AtomicLong();
+
+	private List<File> pending = new ArrayList<File>();
+
+	private int pendingObjects;
+
+	private long lastCommit = System.nanoTime();
+
+	private long taken;
+
+	private final SortedSet<Long> inFlight = new TreeSet<Long>();
+
+	private IOException failure;
+
+	private Durability(final Level level, final int batchSize, final long interval) {
+		this.level = level;
+		this.batchSize = batchSize;
+		this.intervalNanos = interval * 1000000L;
+	}
+
+	/**
+	 * get the {@link Durability} never syncing any file
+	 *
+	 * @return the {@link Durability}
+	 */
+	public static Durability none() {
+		return NONE;
+	}
+
+	/**
+	 * create a {@link Durability} syncing every file as soon as it has been
+	 * written
+	 *
+	 * @return a new {@link Durability}
+	 */
+	public static Durability perObject() {
+		return new Durability(Level.OBJECT, 1, 0);
+	}
+
+	/**
+	 * create a {@link Durability} syncing the files of a batch of objects
+	 * together
+	 *
+	 * @param batchSize
+	 *            the number of completed objects which triggers a commit
+	 * @param interval
+	 *            the time in milliseconds after the last commit which
+	 *            triggers a commit when the next object completes
+	 * @return a new {@link Durability}
+	 */
+	public static Durability groupCommit(final int batchSize, final long interval) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("group commit batch size must be positive");
+		}
+		if (interval < 0) {
+			throw new IllegalArgumentException("group commit interval must not be negative");
+		}
+		return new Durability(Level.GROUP, batchSize, interval);
+	}
+
+	/**
+	 * create the {@link Durability} with a given name
+	 *
+	 * @param name
+	 *            "none", "object" or "group", null or empty for "none"
+	 * @param batchSize
+	 *            the number of objects synced in one group commit
+	 * @param interval
+	 *            the maximum time in milliseconds between two group commits
+	 * @return the {@link Durability}
+	 */
+	public static Durability forName(final String name, final int batchSize, final long interval) {
+		if (name == null || name.trim().length() == 0 || name.trim().equals("none")) {
+			return none();
+		} else if (name.trim().equals("object")) {
+			return perObject();
+		} else if (name.trim().equals("group")) {
+			return groupCommit(batchSize, interval);
+		}
+		throw new IllegalArgumentException("unknown durability '" + name + "'");
+	}
+
+	/**
+	 * report a file which has been written and closed
+	 *
+	 * @param file
+	 *            the {@link File} written
+	 * @throws IOException
+	 *             if the file had to be synced and could not be
+	 */
+	public void written(final File file) throws IOException {
+		if (level == Level.OBJECT) {
+			sync(Collections.singletonList(file));
+		} else if (level == Level.GROUP) {
+			synchronized (this) {
+				pending.add(file);
+			}
+		}
+	}
+
+	/**
+	 * report an object all of whose files have been written, which may
+	 * trigger a group commit
+	 *
+	 * @throws IOException
+	 *             if the files of a batch could not be synced
+	 */
+	public void completed() throws IOException {
+		if (level != Level.GROUP) {
+			return;
+		}
+		final List<File> batch;
+		final long commit;
+		synchronized (this) {
+			if (++pendingObjects < batchSize && System.nanoTime() - lastCommit < intervalNanos) {
+				return;
+			}
+			batch = takePending();
+			commit = ++taken;
+			inFlight.add(commit);
+		}
+		commit(batch, commit);
+	}
+
+	/**
+	 * sync all files written since the last commit and wait for the commits
+	 * other threads have started before, so every file reported before this
+	 * call is on disk when it returns
+	 *
+	 * @throws IOException
+	 *             if a file could not be synced, or the commit of another
+	 *             thread has failed
+	 */
+	public void flush() throws IOException {
+		if (level != Level.GROUP) {
+			return;
+		}
+		final List<File> batch;
+		final long commit;
+		synchronized (this) {
+			batch = takePending();
+			commit = ++taken;
+			inFlight.add(commit);
+		}
+		commit(batch, commit);
+		synchronized (this) {
+			while (!inFlight.isEmpty() && inFlight.first() <= commit) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting for a group commit");
+				}
+			}
+			if (failure != null) {
+				throw new IOException("a group commit has failed", failure);
+			}
+		}
+	}
+
+	/**
+	 * sync all files written since the last commit
+	 *
+	 * @throws IOException
+	 *             if a file could not be synced
+	 */
+	public void close() throws IOException {
+		flush();
+	}
+
+	/**
+	 * get the level of this {@link Durability}
+	 *
+	 * @return the {@link Level}
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * get the number of files synced
+	 *
+	 * @return the number of files
+	 */
+	public long getSyncs() {
+		return syncs.get();
+	}
+
+	/**
+	 * get the number of batches synced, one per file unless group commit is
+	 * used
+	 *
+	 * @return the number of batches
+	 */
+	public long getCommits() {
+		return commits.get();
+	}
+
+	/**
+	 * get the total time spent syncing files
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long getSyncMillis() {
+		return nanos.get() / 1000000L;
+	}
+
+	@Override
+	public String toString() {
+		return level.name().toLowerCase() + ", " + getSyncs() + " files synced in " + getCommits() + " commits, "
+				+ getSyncMillis() + " ms";
+	}
+
+	private List<File> takePending() {
+		final List<File> batch = pending;
+		pending = new ArrayList<File>();
+		pendingObjects = 0;
+		lastCommit = System.nanoTime();
+		return batch;
+	}
+
+	private void commit(final List<File> batch, final long commit) throws IOException {
+		try {
+			sync(batch);
+		} catch (IOException e) {
+			synchronized (this) {
+				// the files of the batch may be lost, so no later flush may
+				// claim them
+				if (failure == null) {
+					failure = e;
+				}
+			}
+			throw e;
+		} finally {
+			synchronized (this) {
+				inFlight.remove(commit);
+				notifyAll();
+			}
+		}
+	}
+
+	private void sync(final List<File> files) throws IOException {
+		if (files.isEmpty()) {
+			return;
+		}
+		final long start = System.nanoTime();
+		try {
+			for (File file : files) {
+				final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					raf.getFD().sync();
+					raf.close();
+				} finally {
+					IOUtils.closeQuietly(raf);
+				}
+			}
+		} finally {
+			nanos.addAndGet(System.nanoTime() - start);
+		}
+		syncs.addAndGet(files.size());
+		commits.incrementAndGet();
+	}
+}
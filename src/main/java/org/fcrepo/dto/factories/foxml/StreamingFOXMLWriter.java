@@ -0,0 +1,340 @@
+package org.fcrepo.dto.factories.foxml;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.fcrepo.dto.factories.content.XMLContent;
+
+import com.github.cwilper.fcrepo.dto.core.ContentDigest;
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.Datastream;
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+import com.github.cwilper.fcrepo.dto.core.io.ContentResolver;
+import com.github.cwilper.fcrepo.dto.core.io.ContentResolvingDTOWriter;
+import com.github.cwilper.fcrepo.dto.core.io.DateUtil;
+import com.github.cwilper.fcrepo.dto.core.io.XMLUtil;
+import com.github.cwilper.fcrepo.dto.foxml.FOXMLWriter;
+
+/**
+ * A FOXML writer producing the same documents as {@link FOXMLWriter}, but
+ * streaming embedded managed content into the output. The content is read
+ * from the {@link com.github.cwilper.fcrepo.dto.core.io.ContentResolver} and
+ * base64 encoded in fixed-size chunks, so the heap used does not depend on the
+ * size of the content. In contrast to {@link FOXMLWriter} the base64 encoding
+ * is always finished properly, so the last bytes of content with a size that
+ * is not a multiple of three are not lost.
+ * 
+ * @author fasseg
+ * 
+ */
+public class StreamingFOXMLWriter extends ContentResolvingDTOWriter {
+
+	static final String FOXML_NS = "info:fedora/fedora-system:def/foxml#";
+
+	static final int BASE64_LINE_LENGTH = 74;
+
+	private static final int CHUNK_SIZE = 57 * 1024;
+
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+	private static final XMLOutputFactory factory = XMLOutputFactory.newInstance();
+
+	private Set<String> managedDatastreamsToEmbed = new HashSet<String>();
+
+	private long inlineXMLLimit = XMLContent.DEFAULT_LIMIT;
+
+	private boolean validateInlineXML;
+
+	private OutputStream sink;
+
+	private XMLStreamWriter w;
+
+	/**
+	 * set the IDs of the managed {@link Datastream}s whose content should be
+	 * embedded as base64 encoded binary content
+	 * 
+	 * @param managedDatastreamsToEmbed
+	 *            the IDs of the {@link Datastream}s to embed
+	 */
+	public void setManagedDatastreamsToEmbed(final Set<String> managedDatastreamsToEmbed) {
+		this.managedDatastreamsToEmbed = managedDatastreamsToEmbed;
+	}
+
+	/**
+	 * set the maximum size in bytes of inline XML content streamed from it's
+	 * content location
+	 * 
+	 * @param inlineXMLLimit
+	 *            the maximum size in bytes
+	 */
+	public void setInlineXMLLimit(final long inlineXMLLimit) {
+		this.inlineXMLLimit = inlineXMLLimit;
+	}
+
+	/**
+	 * set whether inline XML content streamed from it's content location
+	 * should be checked for well-formedness while it is written
+	 * 
+	 * @param validateInlineXML
+	 *            true if the content should be validated
+	 */
+	public void setValidateInlineXML(final boolean validateInlineXML) {
+		this.validateInlineXML = validateInlineXML;
+	}
+
+	@Override
+	public void setContentResolver(final ContentResolver contentResolver) {
+		// ContentResolvingDTOWriter only releases it's default resolver here
+		// but never assigns the new one
+		super.setContentResolver(contentResolver);
+		this.contentResolver = contentResolver;
+	}
+
+	@Override
+	public void close() {
+		contentResolver.close();
+	}
+
+	public void writeObject(final FedoraObject obj, final OutputStream out) throws IOException {
+		sink = new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE);
+		try {
+			synchronized (factory) {
+				w = factory.createXMLStreamWriter(sink, "UTF-8");
+			}
+			writeObject(obj);
+			w.flush();
+			sink.flush();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			XMLUtil.closeQuietly(w);
+			w = null;
+			sink = null;
+		}
+	}
+
+	private void writeObject(final FedoraObject obj) throws IOException, XMLStreamException {
+		w.writeStartDocument("UTF-8", "1.0");
+		w.writeStartElement("digitalObject");
+		w.writeDefaultNamespace(FOXML_NS);
+		w.writeAttribute("VERSION", "1.1");
+		writeAttribute("PID", obj.pid());
+		writeObjectProperties(obj);
+		for (String id : obj.datastreams().keySet()) {
+			writeDatastream(obj.datastreams().get(id));
+		}
+		w.writeEndDocument();
+	}
+
+	private void writeObjectProperties(final FedoraObject obj) throws XMLStreamException {
+		if (obj.state() == null && obj.label() == null && obj.ownerId() == null && obj.createdDate() == null
+				&& obj.lastModifiedDate() == null) {
+			return;
+		}
+		w.writeStartElement("objectProperties");
+		if (obj.state() != null) {
+			writeProperty("info:fedora/fedora-system:def/model#state", obj.state().longName());
+		}
+		writeProperty("info:fedora/fedora-system:def/model#label", obj.label());
+		writeProperty("info:fedora/fedora-system:def/model#ownerId", obj.ownerId());
+		if (obj.createdDate() != null) {
+			writeProperty("info:fedora/fedora-system:def/model#createdDate", DateUtil.toString(obj.createdDate()));
+		}
+		if (obj.lastModifiedDate() != null) {
+			writeProperty("info:fedora/fedora-system:def/view#lastModifiedDate",
+					DateUtil.toString(obj.lastModifiedDate()));
+		}
+		w.writeEndElement();
+	}
+
+	private void writeDatastream(final Datastream ds) throws IOException, XMLStreamException {
+		w.writeStartElement("datastream");
+		writeAttribute("ID", ds.id());
+		if (ds.state() != null) {
+			writeAttribute("STATE", ds.state().shortName());
+		}
+		if (ds.controlGroup() != null) {
+			writeAttribute("CONTROL_GROUP", ds.controlGroup().shortName());
+		}
+		writeAttribute("VERSIONABLE", ds.versionable());
+		for (DatastreamVersion dsv : ds.versions()) {
+			writeDatastreamVersion(ds, dsv);
+		}
+		w.writeEndElement();
+	}
+
+	private void writeDatastreamVersion(final Datastream ds, final DatastreamVersion dsv) throws IOException,
+			XMLStreamException {
+		w.writeStartElement("datastreamVersion");
+		writeAttribute("ID", dsv.id());
+		if (!dsv.altIds().isEmpty()) {
+			final StringBuilder altIds = new StringBuilder();
+			for (URI altId : dsv.altIds()) {
+				if (altIds.length() > 0) {
+					altIds.append(' ');
+				}
+				altIds.append(altId);
+			}
+			writeAttribute("ALT_IDS", altIds);
+		}
+		writeAttribute("LABEL", dsv.label());
+		if (dsv.createdDate() != null) {
+			writeAttribute("CREATED", DateUtil.toString(dsv.createdDate()));
+		}
+		writeAttribute("MIMETYPE", dsv.mimeType());
+		writeAttribute("FORMAT_URI", dsv.formatURI());
+		writeAttribute("SIZE", dsv.size());
+		writeContentDigest(dsv.contentDigest());
+		if (ds.controlGroup() == ControlGroup.INLINE_XML) {
+			writeXMLContent(dsv);
+		} else if (isEmbedded(ds)) {
+			writeBinaryContent(dsv.contentLocation());
+		} else {
+			writeContentLocation(dsv.contentLocation());
+		}
+		w.writeEndElement();
+	}
+
+	private void writeContentLocation(final URI uri) throws XMLStreamException {
+		if (uri == null) {
+			return;
+		}
+		w.writeStartElement("contentLocation");
+		if ("internal".equals(uri.getScheme())) {
+			w.writeAttribute("TYPE", "INTERNAL_REF");
+			w.writeAttribute("REF", uri.getRawSchemeSpecificPart());
+		} else {
+			w.writeAttribute("TYPE", "URL");
+			w.writeAttribute("REF", uri.toString());
+		}
+		w.writeEndElement();
+	}
+
+	private void writeBinaryContent(final URI uri) throws IOException, XMLStreamException {
+		if (uri == null) {
+			return;
+		}
+		w.writeStartElement("binaryContent");
+		w.writeCharacters("\n");
+		w.flush();
+		writeBinaryContent(uri, sink);
+		w.writeEndElement();
+	}
+
+	/**
+	 * base64 encode the content at a {@link URI} into an {@link OutputStream}
+	 * 
+	 * @param uri
+	 *            the {@link URI} of the content
+	 * @param out
+	 *            the {@link OutputStream} to write to, which is left open
+	 * @throws IOException
+	 *             if the content could not be read or written
+	 */
+	void writeBinaryContent(final URI uri, final OutputStream out) throws IOException {
+		// the encoder is closed to write out the final partial group, the
+		// shield keeps the underlying sink open
+		final Base64OutputStream encoder = new Base64OutputStream(new CloseShieldOutputStream(out), true,
+				BASE64_LINE_LENGTH, "\n".getBytes("UTF-8"));
+		final InputStream in = contentResolver.resolveContent(baseURI, uri);
+		try {
+			final byte[] chunk = new byte[CHUNK_SIZE];
+			int len;
+			while ((len = in.read(chunk)) != -1) {
+				encoder.write(chunk, 0, len);
+			}
+			encoder.close();
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	private void writeXMLContent(final DatastreamVersion dsv) throws IOException, XMLStreamException {
+		if (dsv.inlineXML() == null && dsv.contentLocation() == null) {
+			return;
+		}
+		w.writeStartElement("xmlContent");
+		w.writeCharacters("\n");
+		w.flush();
+		if (dsv.inlineXML() != null) {
+			sink.write(dsv.inlineXML().bytes());
+		} else {
+			writeXMLContent(dsv.contentLocation(), sink);
+		}
+		w.writeEndElement();
+	}
+
+	/**
+	 * copy the inline XML content at a {@link URI} into an
+	 * {@link OutputStream}, applying the configured limit and validation
+	 * 
+	 * @param uri
+	 *            the {@link URI} of the content
+	 * @param out
+	 *            the {@link OutputStream} to write to, which is left open
+	 * @throws IOException
+	 *             if the content could not be read or written, exceeds the
+	 *             limit or is not well-formed
+	 */
+	void writeXMLContent(final URI uri, final OutputStream out) throws IOException {
+		// versions created with streamed inline XML only reference their
+		// content, which is copied without being buffered
+		final InputStream in = contentResolver.resolveContent(baseURI, uri);
+		try {
+			XMLContent.copy(XMLContent.skipDeclaration(in, uri), out, inlineXMLLimit, validateInlineXML, uri);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * check whether the content of a {@link Datastream} is embedded as base64
+	 * encoded binary content
+	 * 
+	 * @param ds
+	 *            the {@link Datastream} to check
+	 * @return true if the content is embedded
+	 */
+	boolean isEmbedded(final Datastream ds) {
+		return ds.controlGroup() == ControlGroup.MANAGED && managedDatastreamsToEmbed.contains(ds.id());
+	}
+
+	private void writeContentDigest(final ContentDigest digest) throws XMLStreamException {
+		if (digest == null) {
+			return;
+		}
+		w.writeStartElement("contentDigest");
+		writeAttribute("TYPE", digest.type());
+		writeAttribute("DIGEST", digest.hexValue());
+		w.writeEndElement();
+	}
+
+	private void writeAttribute(final String name, final Object value) throws XMLStreamException {
+		if (value != null) {
+			w.writeAttribute(name, value.toString());
+		}
+	}
+
+	private void writeProperty(final String name, final String value) throws XMLStreamException {
+		if (value == null) {
+			return;
+		}
+		w.writeStartElement("property");
+		w.writeAttribute("NAME", name);
+		w.writeAttribute("VALUE", value);
+		w.writeEndElement();
+	}
+}
@@ -0,0 +1,686 @@
+package org.fcrepo.dto.factories.foxml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fcrepo.dto.factories.content.SyntheticContentResolver;
+
+import com.github.cwilper.fcrepo.dto.core.ContentDigest;
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.Datastream;
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+
+/**
+ * A FOXML writer producing the same bytes as {@link StreamingFOXMLWriter}
+ * without going through a {@link javax.xml.stream.XMLStreamWriter}. The
+ * structure of an object, which properties, datastreams and versions it has
+ * and how their content is stored, is it's shape. For every shape a template
+ * is compiled once, made of the constant UTF-8 encoded markup and the slots
+ * for the values varying from one object to the next, like the PID, IDs,
+ * labels, dates and content locations. Writing an object of a known shape then
+ * only copies the constant byte arrays and escapes the slot values into the
+ * output. Content is embedded by the same code as in
+ * {@link StreamingFOXMLWriter}.
+ * <p>
+ * Templates are immutable and shared by all instances. Only shapes which
+ * repeat pay off, so a template is compiled when a shape is seen for the
+ * second time, and objects of shapes seen only once, of shapes beyond the
+ * cache's limit of {@link #MAX_TEMPLATE_BYTES} or with more than
+ * {@link #MAX_TEMPLATE_VERSIONS} versions are written by
+ * {@link StreamingFOXMLWriter}. Since creating a writer is expensive compared
+ * to rendering a small object, every thread can reuse a writer of it's own via
+ * {@link #forCurrentThread()}.
+ *
+ * @author fasseg
+ *
+ */
+public class TemplateFOXMLWriter extends StreamingFOXMLWriter {
+
+	/**
+	 * the maximum total size in bytes of the cached templates
+	 */
+	public static final long MAX_TEMPLATE_BYTES = 16L * 1024 * 1024;
+
+	/**
+	 * the maximum number of versions of an object rendered from a template
+	 */
+	public static final int MAX_TEMPLATE_VERSIONS = 256;
+
+	/**
+	 * the maximum number of shapes remembered while waiting for them to repeat
+	 */
+	private static final int MAX_SEEN_SHAPES = 4096;
+
+	/**
+	 * the space taken by a fragment besides it's markup
+	 */
+	private static final int FRAGMENT_OVERHEAD = 32;
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private static final ConcurrentMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+
+	private static final ConcurrentMap<String, Boolean> seenShapes = new ConcurrentHashMap<String, Boolean>();
+
+	private static final AtomicLong templateBytes = new AtomicLong();
+
+	private static final ThreadLocal<TemplateFOXMLWriter> writers = new ThreadLocal<TemplateFOXMLWriter>() {
+		@Override
+		protected TemplateFOXMLWriter initialValue() {
+			final TemplateFOXMLWriter writer = new TemplateFOXMLWriter(true);
+			writer.setContentResolver(new SyntheticContentResolver());
+			return writer;
+		}
+	};
+
+	private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+	private static final int LITERAL = 0;
+	private static final int PID = 1;
+	private static final int LABEL = 2;
+	private static final int OWNER_ID = 3;
+	private static final int CREATED_DATE = 4;
+	private static final int LAST_MODIFIED_DATE = 5;
+	private static final int DS_ID = 6;
+	private static final int DSV_ID = 7;
+	private static final int DSV_ALT_IDS = 8;
+	private static final int DSV_LABEL = 9;
+	private static final int DSV_CREATED = 10;
+	private static final int DSV_MIMETYPE = 11;
+	private static final int DSV_FORMAT_URI = 12;
+	private static final int DSV_SIZE = 13;
+	private static final int DSV_DIGEST = 14;
+	private static final int DSV_INLINE_XML = 15;
+	private static final int DSV_XML_LOCATION = 16;
+	private static final int DSV_BINARY = 17;
+	private static final int DSV_INTERNAL_REF = 18;
+	private static final int DSV_URL_REF = 19;
+
+	private static final byte[] AMP = ascii("&amp;");
+	private static final byte[] LT = ascii("&lt;");
+	private static final byte[] GT = ascii("&gt;");
+	private static final byte[] QUOT = ascii("&quot;");
+
+	private final boolean shared;
+
+	private final byte[] buf = new byte[BUFFER_SIZE];
+
+	private int pos;
+
+	private OutputStream out;
+
+	private SimpleDateFormat dayFormat;
+
+	private long day = Long.MIN_VALUE;
+
+	private byte[] dayPrefix;
+
+	/**
+	 * create a new {@link TemplateFOXMLWriter}
+	 */
+	public TemplateFOXMLWriter() {
+		this(false);
+	}
+
+	private TemplateFOXMLWriter(final boolean shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * get the calling thread's own {@link TemplateFOXMLWriter}, resolving
+	 * synthetic content. Closing it has no effect, it is reused for the
+	 * lifetime of the thread, so the settings have to be set before every
+	 * object
+	 *
+	 * @return the thread's {@link TemplateFOXMLWriter}
+	 */
+	public static TemplateFOXMLWriter forCurrentThread() {
+		return writers.get();
+	}
+
+	/**
+	 * get the number of cached templates
+	 *
+	 * @return the number of templates
+	 */
+	public static int getTemplateCount() {
+		return templates.size();
+	}
+
+	@Override
+	public void close() {
+		if (!shared) {
+			super.close();
+		}
+	}
+
+	@Override
+	public void writeObject(final FedoraObject obj, final OutputStream out) throws IOException {
+		final Template template = templateOf(obj);
+		if (template == null) {
+			super.writeObject(obj, out);
+			return;
+		}
+		this.pos = 0;
+		this.out = out;
+		try {
+			render(template, obj);
+			flushBuffer();
+			out.flush();
+		} finally {
+			this.out = null;
+		}
+	}
+
+	private Template templateOf(final FedoraObject obj) {
+		int numVersions = 0;
+		for (Datastream ds : obj.datastreams().values()) {
+			numVersions += ds.versions().size();
+			if (numVersions > MAX_TEMPLATE_VERSIONS) {
+				return null;
+			}
+		}
+		final String shape = shapeOf(obj);
+		final Template cached = templates.get(shape);
+		if (cached != null) {
+			return cached;
+		}
+		if (templateBytes.get() >= MAX_TEMPLATE_BYTES) {
+			// the cache is full, so a template would be used only once
+			return null;
+		}
+		if (seenShapes.get(shape) == null) {
+			if (seenShapes.size() < MAX_SEEN_SHAPES) {
+				seenShapes.putIfAbsent(shape, Boolean.TRUE);
+			}
+			return null;
+		}
+		// the shape repeats, so it's template is worth compiling
+		final Template template = new Compiler().compile(obj);
+		if (templateBytes.addAndGet(template.size) > MAX_TEMPLATE_BYTES) {
+			templateBytes.addAndGet(-template.size);
+			return null;
+		}
+		if (templates.putIfAbsent(shape, template) != null) {
+			templateBytes.addAndGet(-template.size);
+		}
+		seenShapes.remove(shape);
+		return template;
+	}
+
+	private String shapeOf(final FedoraObject obj) {
+		final StringBuilder shape = new StringBuilder(64);
+		shape.append(obj.state() == null ? '-' : (char) ('a' + obj.state().ordinal()));
+		flag(shape, obj.pid());
+		flag(shape, obj.label());
+		flag(shape, obj.ownerId());
+		flag(shape, obj.createdDate());
+		flag(shape, obj.lastModifiedDate());
+		for (Datastream ds : obj.datastreams().values()) {
+			shape.append('[');
+			shape.append(ds.state() == null ? '-' : (char) ('a' + ds.state().ordinal()));
+			shape.append(ds.controlGroup() == null ? '-' : (char) ('a' + ds.controlGroup().ordinal()));
+			shape.append(ds.versionable() == null ? '-' : ds.versionable() ? 't' : 'f');
+			for (DatastreamVersion dsv : ds.versions()) {
+				shape.append('(');
+				shape.append(dsv.altIds().isEmpty() ? '0' : '1');
+				flag(shape, dsv.label());
+				flag(shape, dsv.createdDate());
+				flag(shape, dsv.mimeType());
+				flag(shape, dsv.formatURI());
+				flag(shape, dsv.size());
+				if (dsv.contentDigest() != null) {
+					// the digest type is part of the constant markup
+					shape.append(dsv.contentDigest().type());
+					flag(shape, dsv.contentDigest().hexValue());
+					shape.append(':');
+				}
+				shape.append(contentKind(ds, dsv)).append(')');
+			}
+			shape.append(']');
+		}
+		return shape.toString();
+	}
+
+	private static void flag(final StringBuilder shape, final Object value) {
+		shape.append(value == null ? '0' : '1');
+	}
+
+	private int contentKind(final Datastream ds, final DatastreamVersion dsv) {
+		if (ds.controlGroup() == ControlGroup.INLINE_XML) {
+			if (dsv.inlineXML() != null) {
+				return DSV_INLINE_XML;
+			}
+			return (dsv.contentLocation() == null) ? LITERAL : DSV_XML_LOCATION;
+		}
+		if (dsv.contentLocation() == null) {
+			return LITERAL;
+		} else if (isEmbedded(ds)) {
+			return DSV_BINARY;
+		}
+		return "internal".equals(dsv.contentLocation().getScheme()) ? DSV_INTERNAL_REF : DSV_URL_REF;
+	}
+
+	private void render(final Template template, final FedoraObject obj) throws IOException {
+		final Datastream[] datastreams = obj.datastreams().values().toArray(new Datastream[obj.datastreams().size()]);
+		final DatastreamVersion[][] versions = new DatastreamVersion[datastreams.length][];
+		for (int i = 0; i < datastreams.length; i++) {
+			versions[i] = datastreams[i].versions().toArray(new DatastreamVersion[datastreams[i].versions().size()]);
+		}
+		for (Fragment fragment : template.fragments) {
+			write(fragment.literal);
+			if (fragment.slot == LITERAL) {
+				continue;
+			}
+			final DatastreamVersion dsv = (fragment.version < 0) ? null
+					: versions[fragment.datastream][fragment.version];
+			switch (fragment.slot) {
+			case PID:
+				writeEscaped(obj.pid());
+				break;
+			case LABEL:
+				writeEscaped(obj.label());
+				break;
+			case OWNER_ID:
+				writeEscaped(obj.ownerId());
+				break;
+			case CREATED_DATE:
+				writeDate(obj.createdDate());
+				break;
+			case LAST_MODIFIED_DATE:
+				writeDate(obj.lastModifiedDate());
+				break;
+			case DS_ID:
+				writeEscaped(datastreams[fragment.datastream].id());
+				break;
+			case DSV_ID:
+				writeEscaped(dsv.id());
+				break;
+			case DSV_ALT_IDS:
+				writeEscaped(joinAltIds(dsv));
+				break;
+			case DSV_LABEL:
+				writeEscaped(dsv.label());
+				break;
+			case DSV_CREATED:
+				writeDate(dsv.createdDate());
+				break;
+			case DSV_MIMETYPE:
+				writeEscaped(dsv.mimeType());
+				break;
+			case DSV_FORMAT_URI:
+				writeEscaped(dsv.formatURI().toString());
+				break;
+			case DSV_SIZE:
+				writeEscaped(dsv.size().toString());
+				break;
+			case DSV_DIGEST:
+				writeEscaped(dsv.contentDigest().hexValue());
+				break;
+			case DSV_INLINE_XML:
+				write(dsv.inlineXML().bytes());
+				break;
+			case DSV_XML_LOCATION:
+				flushBuffer();
+				writeXMLContent(dsv.contentLocation(), out);
+				break;
+			case DSV_BINARY:
+				flushBuffer();
+				writeBinaryContent(dsv.contentLocation(), out);
+				break;
+			case DSV_INTERNAL_REF:
+				writeEscaped(dsv.contentLocation().getRawSchemeSpecificPart());
+				break;
+			case DSV_URL_REF:
+				writeEscaped(dsv.contentLocation().toString());
+				break;
+			default:
+				throw new IllegalStateException("unknown slot " + fragment.slot);
+			}
+		}
+	}
+
+	private static String joinAltIds(final DatastreamVersion dsv) {
+		final StringBuilder altIds = new StringBuilder();
+		for (URI altId : dsv.altIds()) {
+			if (altIds.length() > 0) {
+				altIds.append(' ');
+			}
+			altIds.append(altId);
+		}
+		return altIds.toString();
+	}
+
+	private void write(final byte[] bytes) throws IOException {
+		if (bytes.length > buf.length - pos) {
+			flushBuffer();
+			if (bytes.length > buf.length) {
+				out.write(bytes);
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, buf, pos, bytes.length);
+		pos += bytes.length;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (pos > 0) {
+			out.write(buf, 0, pos);
+			pos = 0;
+		}
+	}
+
+	/**
+	 * write a date the same way
+	 * {@link com.github.cwilper.fcrepo.dto.core.io.DateUtil#toString(Date)}
+	 * does. Only the date is formatted by a {@link SimpleDateFormat}, once per
+	 * day, the time of day is written directly
+	 */
+	private void writeDate(final Date date) throws IOException {
+		final long time = date.getTime();
+		long millis = time % MILLIS_PER_DAY;
+		if (millis < 0) {
+			millis += MILLIS_PER_DAY;
+		}
+		final long today = time - millis;
+		if (today != day) {
+			if (dayFormat == null) {
+				dayFormat = new SimpleDateFormat("yyyy-MM-dd'T'");
+				dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+			}
+			dayPrefix = ascii(dayFormat.format(new Date(today)));
+			day = today;
+		}
+		write(dayPrefix);
+		if (buf.length - pos < 13) {
+			flushBuffer();
+		}
+		pos = digits(millis / 3600000, 2, pos);
+		buf[pos++] = ':';
+		pos = digits(millis / 60000 % 60, 2, pos);
+		buf[pos++] = ':';
+		pos = digits(millis / 1000 % 60, 2, pos);
+		buf[pos++] = '.';
+		pos = digits(millis % 1000, 3, pos);
+		buf[pos++] = 'Z';
+	}
+
+	private int digits(long value, final int count, final int offset) {
+		for (int i = offset + count - 1; i >= offset; i--) {
+			buf[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return offset + count;
+	}
+
+	/**
+	 * UTF-8 encode and escape an attribute value the same way the JDK's
+	 * {@link javax.xml.stream.XMLStreamWriter} does
+	 */
+	private void writeEscaped(final String value) throws IOException {
+		final int len = value.length();
+		for (int i = 0; i < len; i++) {
+			if (buf.length - pos < 6) {
+				flushBuffer();
+			}
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				switch (c) {
+				case '&':
+					pos = put(AMP, pos);
+					break;
+				case '<':
+					pos = put(LT, pos);
+					break;
+				case '>':
+					pos = put(GT, pos);
+					break;
+				case '"':
+					pos = put(QUOT, pos);
+					break;
+				default:
+					buf[pos++] = (byte) c;
+				}
+			} else if (c < 0x800) {
+				buf[pos++] = (byte) (0xc0 | (c >> 6));
+				buf[pos++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, value.charAt(++i));
+				buf[pos++] = (byte) (0xf0 | (cp >> 18));
+				buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+				buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+				buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				// unpaired surrogates can not be encoded
+				buf[pos++] = '?';
+			} else {
+				buf[pos++] = (byte) (0xe0 | (c >> 12));
+				buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buf[pos++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+	}
+
+	private static byte[] ascii(final String text) {
+		try {
+			return text.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private int put(final byte[] entity, final int offset) {
+		System.arraycopy(entity, 0, buf, offset, entity.length);
+		return offset + entity.length;
+	}
+
+	/**
+	 * a compiled template, the alternating constant markup and slots of one
+	 * shape
+	 */
+	private static final class Template {
+		private final Fragment[] fragments;
+
+		private final long size;
+
+		private Template(final List<Fragment> fragments) {
+			this.fragments = fragments.toArray(new Fragment[fragments.size()]);
+			long bytes = 0;
+			for (Fragment fragment : this.fragments) {
+				bytes += fragment.literal.length + FRAGMENT_OVERHEAD;
+			}
+			this.size = bytes;
+		}
+	}
+
+	/**
+	 * constant markup followed by a slot
+	 */
+	private static final class Fragment {
+		private final byte[] literal;
+
+		private final int slot;
+
+		private final int datastream;
+
+		private final int version;
+
+		private Fragment(final byte[] literal, final int slot, final int datastream, final int version) {
+			this.literal = literal;
+			this.slot = slot;
+			this.datastream = datastream;
+			this.version = version;
+		}
+	}
+
+	/**
+	 * compiles the template for the shape of an object by walking it the same
+	 * way {@link StreamingFOXMLWriter} does, emitting markup for the
+	 * structure and slots for the values
+	 */
+	private final class Compiler {
+		private final List<Fragment> fragments = new ArrayList<Fragment>();
+
+		private final StringBuilder markup = new StringBuilder();
+
+		private Template compile(final FedoraObject obj) {
+			markup.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><digitalObject xmlns=\"").append(FOXML_NS)
+					.append("\" VERSION=\"1.1\"");
+			attribute("PID", obj.pid(), PID, -1, -1);
+			markup.append('>');
+			if (obj.state() != null || obj.label() != null || obj.ownerId() != null || obj.createdDate() != null
+					|| obj.lastModifiedDate() != null) {
+				markup.append("<objectProperties>");
+				if (obj.state() != null) {
+					markup.append("<property NAME=\"info:fedora/fedora-system:def/model#state\" VALUE=\"")
+							.append(obj.state().longName()).append("\"></property>");
+				}
+				property("info:fedora/fedora-system:def/model#label", obj.label(), LABEL);
+				property("info:fedora/fedora-system:def/model#ownerId", obj.ownerId(), OWNER_ID);
+				property("info:fedora/fedora-system:def/model#createdDate", obj.createdDate(), CREATED_DATE);
+				property("info:fedora/fedora-system:def/view#lastModifiedDate", obj.lastModifiedDate(),
+						LAST_MODIFIED_DATE);
+				markup.append("</objectProperties>");
+			}
+			int i = 0;
+			for (Datastream ds : obj.datastreams().values()) {
+				datastream(ds, i++);
+			}
+			markup.append("</digitalObject>");
+			fragments.add(new Fragment(utf8(), LITERAL, -1, -1));
+			return new Template(fragments);
+		}
+
+		private void datastream(final Datastream ds, final int index) {
+			markup.append("<datastream");
+			attribute("ID", ds.id(), DS_ID, index, -1);
+			if (ds.state() != null) {
+				markup.append(" STATE=\"").append(ds.state().shortName()).append('"');
+			}
+			if (ds.controlGroup() != null) {
+				markup.append(" CONTROL_GROUP=\"").append(ds.controlGroup().shortName()).append('"');
+			}
+			if (ds.versionable() != null) {
+				markup.append(" VERSIONABLE=\"").append(ds.versionable()).append('"');
+			}
+			markup.append('>');
+			int v = 0;
+			for (DatastreamVersion dsv : ds.versions()) {
+				version(ds, dsv, index, v++);
+			}
+			markup.append("</datastream>");
+		}
+
+		private void version(final Datastream ds, final DatastreamVersion dsv, final int index, final int v) {
+			markup.append("<datastreamVersion");
+			attribute("ID", dsv.id(), DSV_ID, index, v);
+			if (!dsv.altIds().isEmpty()) {
+				attribute("ALT_IDS", "", DSV_ALT_IDS, index, v);
+			}
+			attribute("LABEL", dsv.label(), DSV_LABEL, index, v);
+			attribute("CREATED", dsv.createdDate(), DSV_CREATED, index, v);
+			attribute("MIMETYPE", dsv.mimeType(), DSV_MIMETYPE, index, v);
+			attribute("FORMAT_URI", dsv.formatURI(), DSV_FORMAT_URI, index, v);
+			attribute("SIZE", dsv.size(), DSV_SIZE, index, v);
+			markup.append('>');
+			final ContentDigest digest = dsv.contentDigest();
+			if (digest != null) {
+				markup.append("<contentDigest");
+				if (digest.type() != null) {
+					markup.append(" TYPE=\"");
+					escape(digest.type());
+					markup.append('"');
+				}
+				attribute("DIGEST", digest.hexValue(), DSV_DIGEST, index, v);
+				markup.append("></contentDigest>");
+			}
+			final int kind = contentKind(ds, dsv);
+			switch (kind) {
+			case DSV_INLINE_XML:
+			case DSV_XML_LOCATION:
+				markup.append("<xmlContent>\n");
+				slot(kind, index, v);
+				markup.append("</xmlContent>");
+				break;
+			case DSV_BINARY:
+				markup.append("<binaryContent>\n");
+				slot(kind, index, v);
+				markup.append("</binaryContent>");
+				break;
+			case DSV_INTERNAL_REF:
+			case DSV_URL_REF:
+				markup.append("<contentLocation TYPE=\"").append(kind == DSV_INTERNAL_REF ? "INTERNAL_REF" : "URL")
+						.append("\" REF=\"");
+				slot(kind, index, v);
+				markup.append("\"></contentLocation>");
+				break;
+			default:
+				break;
+			}
+			markup.append("</datastreamVersion>");
+		}
+
+		private void property(final String name, final Object value, final int slot) {
+			if (value != null) {
+				markup.append("<property NAME=\"").append(name).append("\" VALUE=\"");
+				slot(slot, -1, -1);
+				markup.append("\"></property>");
+			}
+		}
+
+		private void attribute(final String name, final Object value, final int slot, final int datastream,
+				final int version) {
+			if (value != null) {
+				markup.append(' ').append(name).append("=\"");
+				slot(slot, datastream, version);
+				markup.append('"');
+			}
+		}
+
+		private void slot(final int slot, final int datastream, final int version) {
+			fragments.add(new Fragment(utf8(), slot, datastream, version));
+			markup.setLength(0);
+		}
+
+		private void escape(final String value) {
+			for (int i = 0; i < value.length(); i++) {
+				final char c = value.charAt(i);
+				switch (c) {
+				case '&':
+					markup.append("&amp;");
+					break;
+				case '<':
+					markup.append("&lt;");
+					break;
+				case '>':
+					markup.append("&gt;");
+					break;
+				case '"':
+					markup.append("&quot;");
+					break;
+				default:
+					markup.append(c);
+				}
+			}
+		}
+
+		private byte[] utf8() {
+			try {
+				return markup.toString().getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package org.fcrepo.dto.factories.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Abstract factory class with the retry handling shared by the HTTP clients of
+ * the generator. Requests failing with a status of 408, 429 or 5xx are retried
+ * with exponentially growing delays, honouring a <code>Retry-After</code>
+ * header, and response bodies are drained so the connections can be reused
+ * through the keep-alive cache of the Java runtime.
+ *
+ * @author fasseg
+ */
+public abstract class HttpRequests {
+
+	/**
+	 * the longest delay before a retry in milliseconds
+	 */
+	public static final long MAX_BACKOFF = 30000;
+
+	private static final int MAX_SHIFT = 30;
+
+	private HttpRequests() {
+		// you no construct me from derived class.
+	}
+
+	/**
+	 * let the keep-alive cache of the Java runtime hold an idle connection
+	 * for every thread, instead of the 5 connections per host it keeps by
+	 * default. Has to be called before the first connection is made, and an
+	 * explicitly set <code>http.maxConnections</code> system property is left
+	 * as it is
+	 *
+	 * @param threads
+	 *            the number of threads sending requests concurrently
+	 */
+	public final static void poolConnections(final int threads) {
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", String.valueOf(threads));
+		}
+	}
+
+	/**
+	 * check whether a request answered with a status may succeed when it is
+	 * sent again
+	 *
+	 * @param status
+	 *            the HTTP status of the response
+	 * @return true for 408, 429 and 5xx
+	 */
+	public final static boolean isRetryable(final int status) {
+		return status == 408 || status == 429 || status >= 500;
+	}
+
+	/**
+	 * get the delay before retrying a failed request, doubling the initial
+	 * backoff with every attempt up to {@link #MAX_BACKOFF}, or the delay
+	 * asked for by the server if that is longer
+	 *
+	 * @param backoff
+	 *            the delay before the first retry in milliseconds
+	 * @param attempt
+	 *            the number of the failed attempt, starting at 0
+	 * @param retryAfter
+	 *            the delay asked for by the server as returned by
+	 *            {@link #getRetryAfter(HttpURLConnection)}, or -1
+	 * @return the delay in milliseconds
+	 */
+	public final static long getDelay(final long backoff, final int attempt, final long retryAfter) {
+		// large shifts would overflow into a negative delay
+		final long delay = (attempt < MAX_SHIFT) ? Math.min(backoff << attempt, MAX_BACKOFF) : MAX_BACKOFF;
+		return Math.max(delay, retryAfter);
+	}
+
+	/**
+	 * get the delay asked for by the <code>Retry-After</code> header of a
+	 * response, limited to {@link #MAX_BACKOFF}
+	 *
+	 * @param connection
+	 *            the {@link HttpURLConnection} which received the response
+	 * @return the delay in milliseconds, or -1 if the response does not give
+	 *         one in seconds
+	 */
+	public final static long getRetryAfter(final HttpURLConnection connection) {
+		final String retryAfter = connection.getHeaderField("Retry-After");
+		if (retryAfter != null) {
+			try {
+				return Math.min(Long.parseLong(retryAfter.trim()) * 1000L, MAX_BACKOFF);
+			} catch (NumberFormatException e) {
+				// an HTTP date, fall back to the backoff
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * wait before retrying a failed request
+	 *
+	 * @param millis
+	 *            the delay in milliseconds
+	 * @throws InterruptedIOException
+	 *             if the thread has been interrupted while waiting
+	 */
+	public final static void sleep(final long millis) throws InterruptedIOException {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting to retry");
+		}
+	}
+
+	/**
+	 * read and close the body of a response, so the connection can be reused
+	 *
+	 * @param in
+	 *            the body of the response, may be null
+	 */
+	public final static void discard(final InputStream in) {
+		if (in == null) {
+			return;
+		}
+		try {
+			final byte[] buffer = new byte[4096];
+			while (in.read(buffer) != -1) {
+				// drain
+			}
+		} catch (IOException e) {
+			// the connection is not reused then
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+}
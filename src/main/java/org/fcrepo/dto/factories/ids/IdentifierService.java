@@ -0,0 +1,59 @@
+package org.fcrepo.dto.factories.ids;
+
+/**
+ * A source of PIDs and unique identifiers for generated objects, datastreams
+ * and datastream versions. Identifier services are thread safe and meant to
+ * be shared by all threads generating a corpus, so that identifiers are
+ * unique across the whole run. Instances are created using the factory
+ * methods in {@link IdentifierServices}.
+ *
+ * @author fasseg
+ *
+ */
+public abstract class IdentifierService {
+
+	/**
+	 * get the next PID, including the namespace
+	 *
+	 * @return a new PID
+	 */
+	public abstract String nextPID();
+
+	/**
+	 * get the next identifier, used for labels and the IDs of datastreams and
+	 * datastream versions
+	 *
+	 * @return a new identifier
+	 */
+	public abstract String nextId();
+
+	/**
+	 * get the PID of the object with a given index in a reproducible corpus
+	 *
+	 * @param index
+	 *            the index of the object in the corpus
+	 * @return the PID of the object, or null if this service can not derive
+	 *         PIDs from indices
+	 */
+	public abstract String pid(long index);
+
+	/**
+	 * get the namespace of the PIDs handed out by this service
+	 *
+	 * @return the namespace
+	 */
+	public abstract String namespace();
+
+	/**
+	 * get the name of this {@link IdentifierService} which can be parsed back
+	 * via {@link IdentifierServices#forName(String, String, int)}
+	 *
+	 * @return the name
+	 */
+	public abstract String getName();
+
+	@Override
+	public String toString() {
+		return getName() + " (" + namespace() + ")";
+	}
+}
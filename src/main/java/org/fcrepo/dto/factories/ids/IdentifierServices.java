@@ -0,0 +1,306 @@
+package org.fcrepo.dto.factories.ids;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.fcrepo.dto.factories.content.ContentSources;
+import org.fcrepo.dto.factories.content.SplitMix64;
+
+/**
+ * Factory methods for the available {@link IdentifierService}s:
+ * <ul>
+ * <li><b>uuid</b>: random {@link UUID}s as generated by
+ * {@link UUID#randomUUID()}. Every call goes through a shared
+ * {@link java.security.SecureRandom}, which contends under many threads</li>
+ * <li><b>sequential</b>: PIDs of the form <code>namespace:1</code>,
+ * <code>namespace:2</code>... Numbers are handed out to the threads in blocks
+ * from a single atomic counter, so a thread touches shared state only once per
+ * block and never takes a lock</li>
+ * <li><b>time</b>: time ordered identifiers in the {@link UUID} format, made
+ * of the current time in milliseconds, a per thread counter and a random per
+ * thread node id. Identifiers sort by creation time and are generated without
+ * any shared state</li>
+ * </ul>
+ *
+ * @author fasseg
+ *
+ */
+public abstract class IdentifierServices {
+
+	/**
+	 * the namespace of generated PIDs if none is configured
+	 */
+	public static final String DEFAULT_NAMESPACE = "random";
+
+	/**
+	 * the default number of sequential identifiers allocated per thread at once
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+	private static final Pattern NAMESPACE = Pattern.compile("[A-Za-z0-9.\\-]{1,64}");
+
+	private static final IdentifierService UUIDS = new UUIDService(DEFAULT_NAMESPACE);
+
+	private IdentifierServices() {
+		// you no construct me from derived class.
+	}
+
+	/**
+	 * get an {@link IdentifierService} handing out random {@link UUID}s in the
+	 * default namespace
+	 *
+	 * @return the {@link IdentifierService}
+	 */
+	public final static IdentifierService uuid() {
+		return UUIDS;
+	}
+
+	/**
+	 * create a new {@link IdentifierService} handing out random {@link UUID}s
+	 *
+	 * @param namespace
+	 *            the namespace of the PIDs
+	 * @return a new {@link IdentifierService}
+	 */
+	public final static IdentifierService uuid(final String namespace) {
+		return new UUIDService(checkNamespace(namespace));
+	}
+
+	/**
+	 * create a new {@link IdentifierService} handing out sequential numbers,
+	 * starting at 1. Every instance has it's own sequence, so all threads
+	 * generating a corpus have to share the same instance
+	 *
+	 * @param namespace
+	 *            the namespace of the PIDs
+	 * @param blockSize
+	 *            the number of identifiers allocated by a thread at once
+	 * @return a new {@link IdentifierService}
+	 */
+	public final static IdentifierService sequential(final String namespace, final int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("block size must be at least 1");
+		}
+		return new SequentialService(checkNamespace(namespace), blockSize);
+	}
+
+	/**
+	 * create a new {@link IdentifierService} handing out time ordered
+	 * identifiers
+	 *
+	 * @param namespace
+	 *            the namespace of the PIDs
+	 * @return a new {@link IdentifierService}
+	 */
+	public final static IdentifierService timeOrdered(final String namespace) {
+		return new TimeOrderedService(checkNamespace(namespace));
+	}
+
+	/**
+	 * create the {@link IdentifierService} with a given name
+	 *
+	 * @param name
+	 *            "uuid", "sequential" or "time", null or empty for "uuid"
+	 * @param namespace
+	 *            the namespace of the PIDs, null or empty for
+	 *            {@link #DEFAULT_NAMESPACE}
+	 * @param blockSize
+	 *            the block size for sequential identifiers
+	 * @return a new {@link IdentifierService}
+	 */
+	public final static IdentifierService forName(final String name, String namespace, final int blockSize) {
+		if (namespace == null || namespace.trim().length() == 0) {
+			namespace = DEFAULT_NAMESPACE;
+		}
+		if (name == null || name.trim().length() == 0 || name.trim().equals("uuid")) {
+			return uuid(namespace.trim());
+		} else if (name.trim().equals("sequential")) {
+			return sequential(namespace.trim(), blockSize);
+		} else if (name.trim().equals("time")) {
+			return timeOrdered(namespace.trim());
+		}
+		throw new IllegalArgumentException("unknown identifier service '" + name + "'");
+	}
+
+	private static String checkNamespace(final String namespace) {
+		if (namespace == null || !NAMESPACE.matcher(namespace).matches()) {
+			throw new IllegalArgumentException("invalid PID namespace '" + namespace + "'");
+		}
+		return namespace;
+	}
+
+	private static final class UUIDService extends IdentifierService {
+		private final String namespace;
+
+		private UUIDService(final String namespace) {
+			this.namespace = namespace;
+		}
+
+		@Override
+		public String nextPID() {
+			return namespace + ":" + UUID.randomUUID();
+		}
+
+		@Override
+		public String nextId() {
+			return UUID.randomUUID().toString();
+		}
+
+		@Override
+		public String pid(final long index) {
+			return null;
+		}
+
+		@Override
+		public String namespace() {
+			return namespace;
+		}
+
+		@Override
+		public String getName() {
+			return "uuid";
+		}
+	}
+
+	private static final class SequentialService extends IdentifierService {
+		private final String namespace;
+
+		private final Sequence pids;
+
+		private final Sequence ids;
+
+		private SequentialService(final String namespace, final int blockSize) {
+			this.namespace = namespace;
+			this.pids = new Sequence(blockSize);
+			this.ids = new Sequence(blockSize);
+		}
+
+		@Override
+		public String nextPID() {
+			return namespace + ":" + pids.next();
+		}
+
+		@Override
+		public String nextId() {
+			return String.valueOf(ids.next());
+		}
+
+		@Override
+		public String pid(final long index) {
+			return namespace + ":" + (index + 1);
+		}
+
+		@Override
+		public String namespace() {
+			return namespace;
+		}
+
+		@Override
+		public String getName() {
+			return "sequential";
+		}
+	}
+
+	/**
+	 * a sequence of numbers handed out to the threads in blocks. Numbers are
+	 * unique, but only ascending within a thread
+	 */
+	private static final class Sequence {
+		private final AtomicLong nextBlock = new AtomicLong(1);
+
+		private final int blockSize;
+
+		private final ThreadLocal<long[]> blocks = new ThreadLocal<long[]>() {
+			@Override
+			protected long[] initialValue() {
+				// the next number and the end of the current block
+				return new long[2];
+			}
+		};
+
+		private Sequence(final int blockSize) {
+			this.blockSize = blockSize;
+		}
+
+		private long next() {
+			final long[] block = blocks.get();
+			if (block[0] == block[1]) {
+				block[0] = nextBlock.getAndAdd(blockSize);
+				block[1] = block[0] + blockSize;
+			}
+			return block[0]++;
+		}
+	}
+
+	private static final class TimeOrderedService extends IdentifierService {
+		private final String namespace;
+
+		private final ThreadLocal<Clock> clocks = new ThreadLocal<Clock>() {
+			@Override
+			protected Clock initialValue() {
+				return new Clock(new SplitMix64(ContentSources.nextSeed()).nextLong());
+			}
+		};
+
+		private TimeOrderedService(final String namespace) {
+			this.namespace = namespace;
+		}
+
+		@Override
+		public String nextPID() {
+			return namespace + ":" + nextId();
+		}
+
+		@Override
+		public String nextId() {
+			return clocks.get().next().toString();
+		}
+
+		@Override
+		public String pid(final long index) {
+			return null;
+		}
+
+		@Override
+		public String namespace() {
+			return namespace;
+		}
+
+		@Override
+		public String getName() {
+			return "time";
+		}
+	}
+
+	/**
+	 * a thread's source of time ordered identifiers. The upper 64 bits hold 48
+	 * bits of milliseconds and a 16 bit counter, the lower 64 bits the node id
+	 * of the thread. If the counter overflows within a millisecond or the
+	 * system clock goes backwards, the clock moves on ahead of the system
+	 * clock, so identifiers of a thread are always ascending
+	 */
+	private static final class Clock {
+		private final long node;
+
+		private long last;
+
+		private int counter;
+
+		private Clock(final long node) {
+			this.node = node;
+		}
+
+		private UUID next() {
+			final long now = System.currentTimeMillis();
+			if (now > last) {
+				last = now;
+				counter = 0;
+			} else if (++counter > 0xffff) {
+				last++;
+				counter = 0;
+			}
+			return new UUID(((last & 0xffffffffffffL) << 16) | counter, node);
+		}
+	}
+}
@@ -0,0 +1,548 @@
+package org.fcrepo.dto.factories.ingest;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.fcrepo.dto.factories.FOXMLs;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.fcrepo.dto.factories.foxml.StreamingFOXMLWriter;
+import org.fcrepo.dto.factories.http.HttpRequests;
+import org.fcrepo.dto.factories.metrics.GenerationMetrics;
+import org.fcrepo.dto.factories.metrics.LatencyHistogram;
+
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+
+/**
+ * Ingests {@link FedoraObject}s straight into a Fedora repository through the
+ * REST API instead of writing FOXML files, so generated objects are never
+ * written to and read back from the disk. Every object is serialized directly
+ * into the request body of a <code>POST /objects/{pid}</code>, with the content
+ * of managed datastreams embedded base64 encoded, since the repository can
+ * not resolve synthetic or local content locations.
+ * <p>
+ * Uploads run on a fixed number of threads, which reuse their connections
+ * through the keep-alive cache of the Java runtime. Only a bounded number of
+ * objects may wait for an upload thread, beyond that {@link #ingest(FedoraObject)}
+ * blocks, so generation slows down to the pace of the repository instead of
+ * piling up objects in memory. Requests failing to connect, timing out or
+ * answered with a status of 408, 429 or 5xx are retried as described by
+ * {@link org.fcrepo.dto.factories.http.HttpRequests}. Ingesting is not idempotent, so if a request failed after
+ * it had been sent completely, the repository is asked whether the object
+ * exists before retrying, and an object which does counts as ingested.
+ * Failures of the object itself, e.g. a missing content file, are never
+ * retried. Any other failure is reported by the next call to
+ * {@link #ingest(FedoraObject)} or {@link #close()}.
+ *
+ * @author fasseg
+ *
+ */
+public class FOXMLIngester implements Closeable {
+
+	/**
+	 * the format parameter of the ingest requests
+	 */
+	public static final String FOXML_FORMAT = "info:fedora/fedora-system:FOXML-1.1";
+
+	/**
+	 * the default connect and read timeout in milliseconds
+	 */
+	public static final int DEFAULT_TIMEOUT = 60000;
+
+	/**
+	 * the default number of retries of a failed request
+	 */
+	public static final int DEFAULT_RETRIES = 3;
+
+	/**
+	 * the default delay before the first retry in milliseconds
+	 */
+	public static final long DEFAULT_BACKOFF = 500;
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final String endpoint;
+
+	private final int threads;
+
+	private final Semaphore permits;
+
+	private final ExecutorService executor;
+
+	private final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+	private final AtomicLong ingested = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicLong retried = new AtomicLong();
+
+	private final AtomicLong stalls = new AtomicLong();
+
+	private final AtomicLong stalledNanos = new AtomicLong();
+
+	private LatencyHistogram latency = new LatencyHistogram();
+
+	private GenerationMetrics metrics;
+
+	private GenerationOptions options = new GenerationOptions();
+
+	private String authorization;
+
+	private int timeout = DEFAULT_TIMEOUT;
+
+	private int retries = DEFAULT_RETRIES;
+
+	private long backoff = DEFAULT_BACKOFF;
+
+	/**
+	 * create a new {@link FOXMLIngester}
+	 *
+	 * @param endpoint
+	 *            the base URL of the repository, e.g.
+	 *            <code>http://localhost:8080/fedora</code>
+	 * @param threads
+	 *            the number of concurrent uploads
+	 * @param queueSize
+	 *            the number of objects which may wait for an upload thread
+	 *            before {@link #ingest(FedoraObject)} blocks
+	 */
+	public FOXMLIngester(final URI endpoint, final int threads, final int queueSize) {
+		if (!"http".equals(endpoint.getScheme()) && !"https".equals(endpoint.getScheme())) {
+			throw new IllegalArgumentException("ingest endpoint must be an http(s) URL");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("number of ingest threads must be positive");
+		}
+		if (queueSize < 0) {
+			throw new IllegalArgumentException("ingest queue size must not be negative");
+		}
+		final String base = endpoint.toString();
+		this.endpoint = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+		this.threads = threads;
+		this.permits = new Semaphore(threads + queueSize);
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "ingester-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * record the bytes of FOXML uploaded and the latency of every request as
+	 * stage <code>ingest</code> in {@link GenerationMetrics}
+	 *
+	 * @param metrics
+	 *            the {@link GenerationMetrics} to record to
+	 * @return this {@link FOXMLIngester}
+	 */
+	public FOXMLIngester metrics(final GenerationMetrics metrics) {
+		this.metrics = metrics;
+		this.latency = metrics.stage("ingest");
+		return this;
+	}
+
+	/**
+	 * set the {@link GenerationOptions} controlling how the FOXML is written
+	 *
+	 * @param options
+	 *            the {@link GenerationOptions} to use
+	 * @return this {@link FOXMLIngester}
+	 */
+	public FOXMLIngester options(final GenerationOptions options) {
+		this.options = options;
+		return this;
+	}
+
+	/**
+	 * authenticate the requests with HTTP basic authentication
+	 *
+	 * @param user
+	 *            the name of the user
+	 * @param password
+	 *            the user's password
+	 * @return this {@link FOXMLIngester}
+	 */
+	public FOXMLIngester credentials(final String user, final String password) {
+		try {
+			this.authorization = "Basic "
+					+ new String(Base64.encodeBase64((user + ":" + password).getBytes("UTF-8")), "US-ASCII");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return this;
+	}
+
+	/**
+	 * set the connect and read timeout of the requests
+	 *
+	 * @param timeout
+	 *            the timeout in milliseconds
+	 * @return this {@link FOXMLIngester}
+	 */
+	public FOXMLIngester timeout(final int timeout) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout must not be negative");
+		}
+		this.timeout = timeout;
+		return this;
+	}
+
+	/**
+	 * set the number of times a failed request is retried
+	 *
+	 * @param retries
+	 *            the number of retries
+	 * @return this {@link FOXMLIngester}
+	 */
+	public FOXMLIngester retries(final int retries) {
+		if (retries < 0) {
+			throw new IllegalArgumentException("number of retries must not be negative");
+		}
+		this.retries = retries;
+		return this;
+	}
+
+	/**
+	 * set the delay before the first retry, which doubles with every further
+	 * retry
+	 *
+	 * @param backoff
+	 *            the delay in milliseconds
+	 * @return this {@link FOXMLIngester}
+	 */
+	public FOXMLIngester backoff(final long backoff) {
+		if (backoff < 0) {
+			throw new IllegalArgumentException("backoff must not be negative");
+		}
+		this.backoff = backoff;
+		return this;
+	}
+
+	/**
+	 * queue a {@link FedoraObject} for ingestion, blocking while the upload
+	 * threads are busy and the queue is full
+	 *
+	 * @param fo
+	 *            the {@link FedoraObject} to ingest, which must not be
+	 *            modified afterwards
+	 * @throws IOException
+	 *             if an earlier object failed to be ingested
+	 */
+	public void ingest(final FedoraObject fo) throws IOException {
+		checkFailure();
+		if (!permits.tryAcquire()) {
+			// the repository lags behind, hold back generation
+			final long start = System.nanoTime();
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for the repository");
+			}
+			stalls.incrementAndGet();
+			stalledNanos.addAndGet(System.nanoTime() - start);
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						post(fo);
+					} catch (IOException e) {
+						failure.compareAndSet(null, e);
+					} catch (Throwable e) {
+						failure.compareAndSet(null, new IOException("unable to ingest " + fo.pid(), e));
+					} finally {
+						permits.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			permits.release();
+			throw new IOException("ingester has been closed");
+		}
+	}
+
+	/**
+	 * get the number of objects ingested successfully
+	 *
+	 * @return the number of objects
+	 */
+	public long getIngested() {
+		return ingested.get();
+	}
+
+	/**
+	 * get the number of FOXML bytes uploaded successfully
+	 *
+	 * @return the number of bytes
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * get the number of retried requests
+	 *
+	 * @return the number of retries
+	 */
+	public long getRetries() {
+		return retried.get();
+	}
+
+	/**
+	 * get the number of times {@link #ingest(FedoraObject)} had to wait for
+	 * the repository
+	 *
+	 * @return the number of stalls
+	 */
+	public long getStalls() {
+		return stalls.get();
+	}
+
+	/**
+	 * get the time {@link #ingest(FedoraObject)} spent waiting for the
+	 * repository
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getStalledNanos() {
+		return stalledNanos.get();
+	}
+
+	/**
+	 * get the latencies of the successful requests
+	 *
+	 * @return the {@link LatencyHistogram}
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * wait until all queued objects have been ingested and stop the upload
+	 * threads
+	 *
+	 * @throws IOException
+	 *             if an object failed to be ingested
+	 */
+	public void close() throws IOException {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// keep waiting for the last uploads
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for the last uploads");
+		}
+		checkFailure();
+	}
+
+	@Override
+	public String toString() {
+		final LatencyHistogram.Snapshot snapshot = latency.snapshot();
+		return String.format("%d objects, %.2f MB on %d threads, %d retries, latency p50 %.1f ms, p99 %.1f ms, "
+				+ "stalled %d times for %.1f s", getIngested(), getBytes() / 1000000d, threads, getRetries(),
+				snapshot.getQuantile(0.5) / 1000000d, snapshot.getQuantile(0.99) / 1000000d, getStalls(),
+				getStalledNanos() / 1000000000d);
+	}
+
+	private void checkFailure() throws IOException {
+		final IOException e = failure.get();
+		if (e != null) {
+			throw e;
+		}
+	}
+
+	private void post(final FedoraObject fo) throws IOException {
+		final String object = endpoint + "/objects/" + URLEncoder.encode(fo.pid(), "UTF-8");
+		final URL url = new URL(object + "?format=" + URLEncoder.encode(FOXML_FORMAT, "UTF-8"));
+		for (int attempt = 0;; attempt++) {
+			final long start = System.nanoTime();
+			final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setConnectTimeout(timeout);
+			connection.setReadTimeout(timeout);
+			// stream the FOXML instead of buffering the whole request
+			connection.setChunkedStreamingMode(CHUNK_SIZE);
+			connection.setRequestProperty("Content-Type", "text/xml; charset=UTF-8");
+			if (authorization != null) {
+				connection.setRequestProperty("Authorization", authorization);
+			}
+			IOException error;
+			long delay = -1;
+			boolean retry = true;
+			// whether the repository may have created the object
+			boolean ambiguous = false;
+			TransportOutputStream transport = null;
+			boolean writing = false;
+			long sent = 0;
+			try {
+				transport = new TransportOutputStream(connection.getOutputStream());
+				final CountingOutputStream out = new CountingOutputStream(transport);
+				final StreamingFOXMLWriter writer = FOXMLs.createWriter(options);
+				writer.setManagedDatastreamsToEmbed(fo.datastreams().keySet());
+				writing = true;
+				try {
+					writer.writeObject(fo, out);
+				} finally {
+					writer.close();
+				}
+				writing = false;
+				out.close();
+				sent = out.getByteCount();
+				ambiguous = true;
+				final int status = connection.getResponseCode();
+				if (status >= 200 && status < 300) {
+					HttpRequests.discard(connection.getInputStream());
+					succeeded(start, sent);
+					return;
+				}
+				error = new IOException("HTTP status " + status + " ingesting " + fo.pid());
+				retry = HttpRequests.isRetryable(status);
+				delay = HttpRequests.getRetryAfter(connection);
+				// a busy repository has not processed the request
+				ambiguous = status >= 500 && status != 503;
+				// reading the error body lets the connection be reused
+				HttpRequests.discard(connection.getErrorStream());
+			} catch (IOException e) {
+				error = e;
+				// failing to write the object, e.g. to read it's content,
+				// would fail again
+				retry = !writing || transport.hasFailed();
+				connection.disconnect();
+			}
+			if (retry && ambiguous && exists(new URL(object + "?format=xml"))) {
+				// the object has been created, but the response got lost
+				succeeded(start, sent);
+				return;
+			}
+			if (!retry || attempt >= retries) {
+				throw error;
+			}
+			retried.incrementAndGet();
+			HttpRequests.sleep(HttpRequests.getDelay(backoff, attempt, delay));
+		}
+	}
+
+	private void succeeded(final long start, final long sent) {
+		latency.recordSince(start);
+		ingested.incrementAndGet();
+		bytes.addAndGet(sent);
+		if (metrics != null) {
+			metrics.foxmlWritten(sent);
+		}
+	}
+
+	/**
+	 * check whether an object exists in the repository
+	 * 
+	 * @return true if it exists, false if it does not or it's existence can
+	 *         not be determined
+	 */
+	private boolean exists(final URL url) {
+		final HttpURLConnection connection;
+		try {
+			connection = (HttpURLConnection) url.openConnection();
+		} catch (IOException e) {
+			return false;
+		}
+		connection.setConnectTimeout(timeout);
+		connection.setReadTimeout(timeout);
+		if (authorization != null) {
+			connection.setRequestProperty("Authorization", authorization);
+		}
+		try {
+			final int status = connection.getResponseCode();
+			if (status == 200) {
+				HttpRequests.discard(connection.getInputStream());
+				return true;
+			}
+			HttpRequests.discard(connection.getErrorStream());
+			return false;
+		} catch (IOException e) {
+			connection.disconnect();
+			return false;
+		}
+	}
+
+	/**
+	 * remembers whether writing to the connection failed, to tell failures
+	 * of the transport from failures of the object being written
+	 */
+	private static final class TransportOutputStream extends FilterOutputStream {
+		private volatile boolean failed;
+
+		private TransportOutputStream(final OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			try {
+				out.write(b);
+			} catch (IOException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			try {
+				out.write(b, off, len);
+			} catch (IOException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				out.close();
+			} catch (IOException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		private boolean hasFailed() {
+			return failed;
+		}
+	}
+}
@@ -0,0 +1,484 @@
+package org.fcrepo.dto.factories.journal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.URI;
+
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.dto.factories.durability.Durability;
+import org.fcrepo.dto.factories.layout.DirectoryLayout;
+
+import com.github.cwilper.fcrepo.dto.core.Datastream;
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+
+/**
+ * An append-only journal of the objects a generation run has completed, so a
+ * run which died can be resumed instead of started over. Every completed
+ * object is recorded as one line holding the key of the work item it was
+ * generated from, e.g. it's index in the corpus or the {@link URI} of it's
+ * input, it's PID, and the paths and sizes of it's FOXML and content files.
+ * Fields are percent-escaped, so paths may contain any character. Objects
+ * are only recorded after all of their files have been written.
+ * <p>
+ * Records are buffered and flushed in batches, so journalling costs next to
+ * nothing. A crash loses at most the last batch, whose objects are simply
+ * generated again. When a journal is reopened, a line torn by the crash is cut
+ * off, and {@link #cleanup(File, DirectoryLayout)} removes the files of objects which were not
+ * recorded. With a {@link Durability} other than none, the files written
+ * since the last commit are synced before a batch of records is written, and
+ * the journal itself is synced afterwards, so no record ever claims an object
+ * whose files could be lost. Keys and file names are remembered as 64 bit
+ * hashes only, so even
+ * journals of millions of objects are loaded with little memory. Instances are
+ * thread safe.
+ *
+ * @author fasseg
+ *
+ */
+public class GenerationJournal implements Closeable {
+
+	/**
+	 * the default number of records written in one batch
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private static final String HEADER = "# generation journal 2";
+
+	private static final long MAX_BATCH_NANOS = 1000000000L;
+
+	private final File file;
+
+	private final String run;
+
+	private final int batchSize;
+
+	private final long started;
+
+	private final LongSet keys = new LongSet();
+
+	private final LongSet files = new LongSet();
+
+	private final long resumed;
+
+	private final StringBuilder batch = new StringBuilder();
+
+	private Durability durability = Durability.none();
+
+	private final FileOutputStream out;
+
+	private Writer writer;
+
+	private int pending;
+
+	private long lastFlush = System.nanoTime();
+
+	private long recorded;
+
+	/**
+	 * open a {@link GenerationJournal}, loading the records of an earlier run
+	 * if the file exists
+	 *
+	 * @param file
+	 *            the journal file
+	 * @param run
+	 *            a description of the run, e.g. it's seed, which has to match
+	 *            the description of the run the journal was started by
+	 * @param batchSize
+	 *            the number of records written in one batch. A batch is also
+	 *            written once it is older than a second
+	 * @throws IOException
+	 *             if the journal could not be read or opened
+	 * @throws IllegalArgumentException
+	 *             if the journal was started by a different run
+	 */
+	public GenerationJournal(final File file, final String run, final int batchSize) throws IOException {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("journal batch size must be positive");
+		}
+		if (run.indexOf('\n') >= 0) {
+			throw new IllegalArgumentException("run description must be a single line");
+		}
+		this.file = file;
+		this.run = run;
+		this.batchSize = batchSize;
+		final boolean existing = file.exists() && file.length() > 0;
+		if (existing) {
+			truncateTornRecord();
+			this.started = load();
+			this.resumed = keys.size();
+			this.out = new FileOutputStream(file, true);
+		} else {
+			this.started = System.currentTimeMillis();
+			this.resumed = 0;
+			this.out = new FileOutputStream(file);
+		}
+		this.writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		if (!existing) {
+			writer.write(HEADER + "\t" + started + "\t" + run + "\n");
+			writer.flush();
+		}
+	}
+
+	/**
+	 * set the {@link Durability} whose pending files are synced before a
+	 * batch of records is written
+	 *
+	 * @param durability
+	 *            the {@link Durability} the objects' files are written with
+	 * @return this {@link GenerationJournal}
+	 */
+	public synchronized GenerationJournal durability(final Durability durability) {
+		if (durability == null) {
+			throw new IllegalArgumentException("durability must not be null");
+		}
+		this.durability = durability;
+		return this;
+	}
+
+	/**
+	 * get the number of objects recorded by earlier runs
+	 *
+	 * @return the number of objects, 0 if the journal is new
+	 */
+	public long getResumed() {
+		return resumed;
+	}
+
+	/**
+	 * get the number of objects recorded by this run
+	 *
+	 * @return the number of objects
+	 */
+	public synchronized long getRecorded() {
+		return recorded;
+	}
+
+	/**
+	 * check whether the object generated from a work item has been recorded
+	 *
+	 * @param key
+	 *            the key of the work item
+	 * @return true if the object has been completed
+	 */
+	public synchronized boolean isCompleted(final String key) {
+		return keys.contains(hash(key));
+	}
+
+	/**
+	 * record a completed object
+	 *
+	 * @param key
+	 *            the key of the work item the object was generated from
+	 * @param fo
+	 *            the {@link FedoraObject}
+	 * @param foxml
+	 *            the FOXML file written, or null if the object was not
+	 *            written to a file
+	 * @throws IOException
+	 *             if the batch could not be written
+	 */
+	public void record(final String key, final FedoraObject fo, final File foxml) throws IOException {
+		// gather the record before entering the lock
+		final StringBuilder line = new StringBuilder(256);
+		escape(line, key).append('\t');
+		escape(line, String.valueOf(fo.pid())).append('\t');
+		if (foxml != null) {
+			escape(line, foxml.getAbsolutePath()).append('\t').append(foxml.length());
+		} else {
+			line.append("-\t0");
+		}
+		line.append('\t');
+		boolean first = true;
+		for (Datastream ds : fo.datastreams().values()) {
+			for (DatastreamVersion dsv : ds.versions()) {
+				final URI uri = dsv.contentLocation();
+				if (uri != null && "file".equals(uri.getScheme())) {
+					final File content = new File(uri);
+					escape(line.append(first ? "" : ","), content.getAbsolutePath()).append('=')
+							.append(content.length());
+					first = false;
+				}
+			}
+		}
+		line.append('\n');
+		synchronized (this) {
+			if (writer == null) {
+				throw new IOException("journal has been closed");
+			}
+			batch.append(line);
+			keys.add(hash(key));
+			recorded++;
+			if (++pending >= batchSize || System.nanoTime() - lastFlush > MAX_BATCH_NANOS) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * write all buffered records to the journal file
+	 *
+	 * @throws IOException
+	 *             if the records could not be written
+	 */
+	public synchronized void flush() throws IOException {
+		if (writer != null && batch.length() > 0) {
+			// the files have to be on disk before the records claiming them
+			durability.flush();
+			writer.write(batch.toString());
+			writer.flush();
+			if (durability.getLevel() != Durability.Level.NONE) {
+				out.getFD().sync();
+			}
+			batch.setLength(0);
+		}
+		pending = 0;
+		lastFlush = System.nanoTime();
+	}
+
+	/**
+	 * delete the files of objects which were not completed by an earlier run.
+	 * Only files in the directory and the subdirectories created by the
+	 * {@link DirectoryLayout} which look like generated FOXML or content
+	 * files, were modified after the journal was started and are not recorded
+	 * in the journal are deleted. Files written by this run are not known to
+	 * the cleanup, so it has to be called before generation continues
+	 *
+	 * @param directory
+	 *            the directory the objects were written to
+	 * @param layout
+	 *            the {@link DirectoryLayout} the objects were written with
+	 * @return the number of files deleted
+	 * @throws IOException
+	 *             if a file could not be deleted
+	 */
+	public synchronized int cleanup(final File directory, final DirectoryLayout layout) throws IOException {
+		return cleanup(directory, layout, 0);
+	}
+
+	private int cleanup(final File directory, final DirectoryLayout layout, final int depth) throws IOException {
+		final File[] candidates = directory.listFiles();
+		if (candidates == null) {
+			return 0;
+		}
+		int deleted = 0;
+		for (File candidate : candidates) {
+			if (candidate.isDirectory()) {
+				// only the subdirectories of the layout, never unrelated data
+				// below the target directory
+				if (layout.isLayoutDirectory(candidate.getName(), depth + 1)) {
+					deleted += cleanup(candidate, layout, depth + 1);
+				}
+			} else if (candidate.isFile() && isGenerated(candidate.getName()) && !candidate.equals(file)
+					&& candidate.lastModified() >= started - 1000
+					&& !files.contains(hash(candidate.getAbsolutePath()))) {
+				if (!candidate.delete()) {
+					throw new IOException("unable to delete partial file " + candidate);
+				}
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * write all buffered records and close the journal
+	 *
+	 * @throws IOException
+	 *             if the records could not be written
+	 */
+	public synchronized void close() throws IOException {
+		if (writer != null) {
+			flush();
+			writer.close();
+			writer = null;
+		}
+	}
+
+	private static boolean isGenerated(final String name) {
+		return name.startsWith("testfoxml-") || name.startsWith("ds-") || name.endsWith(".xml")
+				|| name.endsWith(".xml.gz");
+	}
+
+	private void truncateTornRecord() throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long end = raf.length();
+			while (end > 0) {
+				raf.seek(end - 1);
+				if (raf.read() == '\n') {
+					break;
+				}
+				end--;
+			}
+			raf.setLength(end);
+		} finally {
+			IOUtils.closeQuietly(raf);
+		}
+	}
+
+	private long load() throws IOException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			final String header = reader.readLine();
+			final String[] fields = (header == null) ? new String[0] : header.split("\t", 3);
+			if (fields.length != 3 || !fields[0].equals(HEADER)) {
+				throw new IOException(file + " is not a generation journal");
+			}
+			if (!fields[2].equals(run)) {
+				throw new IllegalArgumentException("journal " + file + " was started by a different run ("
+						+ fields[2] + "), delete it to start over");
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] record = line.split("\t", -1);
+				if (record.length < 5) {
+					continue;
+				}
+				keys.add(hash(unescape(record[0])));
+				if (!record[2].equals("-")) {
+					files.add(hash(unescape(record[2])));
+				}
+				if (record[4].length() > 0) {
+					// escaped paths hold neither commas nor equal signs
+					for (String content : record[4].split(",")) {
+						final int size = content.lastIndexOf('=');
+						if (size < 0) {
+							throw new IOException("malformed record in journal " + file + ": " + line);
+						}
+						files.add(hash(unescape(content.substring(0, size))));
+					}
+				}
+			}
+			return Long.parseLong(fields[1]);
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * escape the characters separating records, fields and content files, and
+	 * the escape character itself, as <code>%xx</code>
+	 */
+	private static StringBuilder escape(final StringBuilder line, final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '%' || c == '\t' || c == '\n' || c == '\r' || c == ',' || c == '=') {
+				line.append('%').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+			} else {
+				line.append(c);
+			}
+		}
+		return line;
+	}
+
+	private static String unescape(final String value) throws IOException {
+		if (value.indexOf('%') < 0) {
+			return value;
+		}
+		final StringBuilder unescaped = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '%') {
+				if (i + 2 >= value.length()) {
+					throw new IOException("malformed escape in journal record: " + value);
+				}
+				unescaped.append((char) Integer.parseInt(value.substring(i + 1, i + 3), 16));
+				i += 2;
+			} else {
+				unescaped.append(c);
+			}
+		}
+		return unescaped.toString();
+	}
+
+	private static long hash(final String value) {
+		// 64 bit FNV-1a, collisions are practically impossible for millions
+		// of keys
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * an open addressing hash set of longs, needing 8 to 16 bytes per value
+	 * instead of the 60 or so of a boxed {@link java.util.HashSet} entry
+	 */
+	private static final class LongSet {
+		private static final long EMPTY = 0L;
+
+		private long[] table = new long[1024];
+
+		private int size;
+
+		private boolean containsEmpty;
+
+		private boolean contains(final long value) {
+			if (value == EMPTY) {
+				return containsEmpty;
+			}
+			final int mask = table.length - 1;
+			for (int i = slot(value, mask);; i = (i + 1) & mask) {
+				if (table[i] == value) {
+					return true;
+				} else if (table[i] == EMPTY) {
+					return false;
+				}
+			}
+		}
+
+		private void add(final long value) {
+			if (value == EMPTY) {
+				if (!containsEmpty) {
+					containsEmpty = true;
+					size++;
+				}
+				return;
+			}
+			if (2 * (size + 1) > table.length) {
+				final long[] old = table;
+				table = new long[old.length * 2];
+				size = containsEmpty ? 1 : 0;
+				for (long v : old) {
+					if (v != EMPTY) {
+						insert(v);
+					}
+				}
+			}
+			insert(value);
+		}
+
+		private void insert(final long value) {
+			final int mask = table.length - 1;
+			for (int i = slot(value, mask);; i = (i + 1) & mask) {
+				if (table[i] == value) {
+					return;
+				} else if (table[i] == EMPTY) {
+					table[i] = value;
+					size++;
+					return;
+				}
+			}
+		}
+
+		private int size() {
+			return size;
+		}
+
+		private static int slot(final long value, final int mask) {
+			return (int) (value ^ (value >>> 32)) * 0x9E3779B9 & mask;
+		}
+	}
+}
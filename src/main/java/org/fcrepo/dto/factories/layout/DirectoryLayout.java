@@ -0,0 +1,73 @@
+package org.fcrepo.dto.factories.layout;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A strategy for placing the generated FOXML and content files below the
+ * target directory. Layouts are shared between threads and must therefore be
+ * thread safe. Instances are created using the factory methods in
+ * {@link DirectoryLayouts}.
+ *
+ * @author fasseg
+ *
+ */
+public abstract class DirectoryLayout {
+
+	/**
+	 * get the file a generated file with a given name is written to. The
+	 * directory holding the file is created if it does not exist yet
+	 *
+	 * @param targetDirectory
+	 *            the target directory of the generation run
+	 * @param name
+	 *            the name of the file, which has to be unique within the run
+	 * @return the {@link File} to write to
+	 * @throws IOException
+	 *             if the directory of the file could not be created
+	 */
+	public abstract File file(File targetDirectory, String name) throws IOException;
+
+	/**
+	 * check whether this layout puts all files directly into the target
+	 * directory
+	 *
+	 * @return true if the files are not distributed over subdirectories
+	 */
+	public boolean isFlat() {
+		return false;
+	}
+
+	/**
+	 * get the number of directory levels this layout creates below the
+	 * target directory
+	 *
+	 * @return the number of levels, 0 if the layout is flat
+	 */
+	public int getLevels() {
+		return 0;
+	}
+
+	/**
+	 * check whether a directory below the target directory may have been
+	 * created by this layout
+	 *
+	 * @param name
+	 *            the name of the directory
+	 * @param depth
+	 *            the level of the directory, 1 for a direct subdirectory of
+	 *            the target directory
+	 * @return true if the layout creates directories of that name and level
+	 */
+	public boolean isLayoutDirectory(final String name, final int depth) {
+		return false;
+	}
+
+	/**
+	 * get the name of this layout as accepted by
+	 * {@link DirectoryLayouts#forName(String, int)}
+	 *
+	 * @return the name of the layout
+	 */
+	public abstract String getName();
+}
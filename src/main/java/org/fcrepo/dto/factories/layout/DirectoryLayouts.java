@@ -0,0 +1,158 @@
+package org.fcrepo.dto.factories.layout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.fcrepo.dto.factories.content.SplitMix64;
+
+/**
+ * Factory methods for the available {@link DirectoryLayout}s:
+ * <ul>
+ * <li><b>flat</b>: all files are written directly into the target directory.
+ * Once a directory holds millions of entries every lookup and every new file
+ * gets slower, and tools like <code>ls</code> or <code>rsync</code> struggle
+ * with it</li>
+ * <li><b>hashed</b>: files are spread over a tree of subdirectories named by
+ * the hex digits of a hash of the file name, e.g. <code>3f/a2/</code> for two
+ * levels. Every level fans out into 256 directories, so two levels keep
+ * directories small up to some hundred million files. The subdirectories a
+ * layout has created are remembered, so a new file costs no extra file system
+ * calls once it's directory exists</li>
+ * </ul>
+ *
+ * @author fasseg
+ *
+ */
+public abstract class DirectoryLayouts {
+
+	/**
+	 * the default number of directory levels of the hashed layout
+	 */
+	public static final int DEFAULT_LEVELS = 2;
+
+	private static final int MAX_LEVELS = 4;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final Pattern SHARD_DIRECTORY = Pattern.compile("[0-9a-f]{2}");
+
+	private static final DirectoryLayout FLAT = new FlatLayout();
+
+	private DirectoryLayouts() {
+		// you no construct me from derived class.
+	}
+
+	/**
+	 * get the {@link DirectoryLayout} writing all files directly into the
+	 * target directory
+	 *
+	 * @return the flat {@link DirectoryLayout}
+	 */
+	public final static DirectoryLayout flat() {
+		return FLAT;
+	}
+
+	/**
+	 * create a {@link DirectoryLayout} spreading files over a tree of
+	 * subdirectories by the hash of their names
+	 *
+	 * @param levels
+	 *            the number of directory levels, each fanning out into 256
+	 *            subdirectories
+	 * @return a new hashed {@link DirectoryLayout}
+	 */
+	public final static DirectoryLayout hashed(final int levels) {
+		if (levels < 1 || levels > MAX_LEVELS) {
+			throw new IllegalArgumentException("number of directory levels must be between 1 and " + MAX_LEVELS);
+		}
+		return new HashedLayout(levels);
+	}
+
+	/**
+	 * create the {@link DirectoryLayout} with a given name
+	 *
+	 * @param name
+	 *            "flat" or "hashed", null or empty for "flat"
+	 * @param levels
+	 *            the number of directory levels of the hashed layout
+	 * @return the {@link DirectoryLayout}
+	 */
+	public final static DirectoryLayout forName(final String name, final int levels) {
+		if (name == null || name.trim().length() == 0 || name.trim().equals("flat")) {
+			return flat();
+		} else if (name.trim().equals("hashed")) {
+			return hashed(levels);
+		}
+		throw new IllegalArgumentException("unknown directory layout '" + name + "'");
+	}
+
+	private static final class FlatLayout extends DirectoryLayout {
+		@Override
+		public File file(final File targetDirectory, final String name) {
+			return new File(targetDirectory, name);
+		}
+
+		@Override
+		public boolean isFlat() {
+			return true;
+		}
+
+		@Override
+		public String getName() {
+			return "flat";
+		}
+	}
+
+	private static final class HashedLayout extends DirectoryLayout {
+		private final int levels;
+
+		private final ConcurrentMap<String, File> directories = new ConcurrentHashMap<String, File>();
+
+		private HashedLayout(final int levels) {
+			this.levels = levels;
+		}
+
+		@Override
+		public File file(final File targetDirectory, final String name) throws IOException {
+			final long hash = SplitMix64.mix(name.hashCode());
+			final char[] path = new char[levels * 3 - 1];
+			for (int i = 0; i < levels; i++) {
+				final int b = (int) (hash >>> (56 - 8 * i)) & 0xff;
+				path[i * 3] = HEX[b >>> 4];
+				path[i * 3 + 1] = HEX[b & 0xf];
+				if (i < levels - 1) {
+					path[i * 3 + 2] = File.separatorChar;
+				}
+			}
+			final String key = targetDirectory.getPath() + File.separatorChar + new String(path);
+			File directory = directories.get(key);
+			if (directory == null) {
+				directory = new File(key);
+				// another thread may create the directory at the same time
+				if (!directory.mkdirs() && !directory.isDirectory()) {
+					throw new IOException("unable to create directory " + directory);
+				}
+				directories.putIfAbsent(key, directory);
+			}
+			return new File(directory, name);
+		}
+
+		@Override
+		public int getLevels() {
+			return levels;
+		}
+
+		@Override
+		public boolean isLayoutDirectory(final String name, final int depth) {
+			return depth >= 1 && depth <= levels && SHARD_DIRECTORY.matcher(name).matches();
+		}
+
+		@Override
+		public String getName() {
+			return "hashed";
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package org.fcrepo.dto.factories.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Collects throughput and latency metrics of a generation run: the number of
+ * objects generated, failed objects, the bytes of content and FOXML written,
+ * and a {@link LatencyHistogram} per stage. The metrics can be reported
+ * periodically while the run is in progress and written as a JSON summary
+ * once it finished. All methods are safe to be called from many threads.
+ * 
+ * @author fasseg
+ * 
+ */
+public class GenerationMetrics {
+
+	private static final double MB = 1000d * 1000d;
+
+	private final long startMillis = System.currentTimeMillis();
+
+	private final long startNanos = System.nanoTime();
+
+	private final long startGcMillis = getGcMillis();
+
+	private final long startGcCount = getGcCount();
+
+	private final AtomicLong objects = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final AtomicLong contentBytes = new AtomicLong();
+
+	private final AtomicLong foxmlBytes = new AtomicLong();
+
+	private final ConcurrentMap<String, LatencyHistogram> stages = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private final List<String> stageNames = new ArrayList<String>();
+
+	private volatile long endNanos = -1;
+
+	private ScheduledExecutorService reporter;
+
+	/**
+	 * get the {@link LatencyHistogram} of a stage, creating it if necessary
+	 * 
+	 * @param name
+	 *            the name of the stage
+	 * @return the stage's {@link LatencyHistogram}
+	 */
+	public LatencyHistogram stage(final String name) {
+		LatencyHistogram histogram = stages.get(name);
+		if (histogram == null) {
+			final LatencyHistogram created = new LatencyHistogram();
+			histogram = stages.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+				synchronized (stageNames) {
+					stageNames.add(name);
+				}
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * count a successfully generated object
+	 */
+	public void objectCompleted() {
+		objects.incrementAndGet();
+	}
+
+	/**
+	 * count an object which failed to be generated
+	 */
+	public void objectFailed() {
+		errors.incrementAndGet();
+	}
+
+	/**
+	 * count bytes of content written
+	 * 
+	 * @param bytes
+	 *            the number of bytes
+	 */
+	public void contentWritten(final long bytes) {
+		contentBytes.addAndGet(bytes);
+	}
+
+	/**
+	 * count bytes of FOXML written
+	 * 
+	 * @param bytes
+	 *            the number of bytes
+	 */
+	public void foxmlWritten(final long bytes) {
+		foxmlBytes.addAndGet(bytes);
+	}
+
+	/**
+	 * get the number of successfully generated objects
+	 * 
+	 * @return the number of objects
+	 */
+	public long getObjects() {
+		return objects.get();
+	}
+
+	/**
+	 * get the number of objects which failed to be generated
+	 * 
+	 * @return the number of errors
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * get the number of content bytes written
+	 * 
+	 * @return the number of bytes
+	 */
+	public long getContentBytes() {
+		return contentBytes.get();
+	}
+
+	/**
+	 * get the number of FOXML bytes written
+	 * 
+	 * @return the number of bytes
+	 */
+	public long getFoxmlBytes() {
+		return foxmlBytes.get();
+	}
+
+	/**
+	 * start printing a report line to a {@link PrintStream} periodically. Every
+	 * line contains the rates and latency quantiles of the last interval, so
+	 * stalls show up as drops in throughput or peaks in latency and GC time
+	 * 
+	 * @param out
+	 *            the {@link PrintStream} to print the reports to
+	 * @param intervalSeconds
+	 *            the number of seconds between two reports
+	 */
+	public synchronized void startReporting(final PrintStream out, final long intervalSeconds) {
+		if (reporter != null) {
+			throw new IllegalStateException("reporting has already been started");
+		}
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "metrics-reporter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reporter.scheduleAtFixedRate(new IntervalReport(out), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * stop the periodic reports and mark the end of the run
+	 */
+	public synchronized void stop() {
+		if (reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+		if (endNanos < 0) {
+			endNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * write a JSON summary of the whole run to a file
+	 * 
+	 * @param file
+	 *            the {@link File} to write the summary to
+	 * @throws IOException
+	 *             if the summary could not be written
+	 */
+	public void writeSummary(final File file) throws IOException {
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			writer.write(toJSON());
+			// the summary is only written to disk when the writer is closed
+			writer.close();
+		} finally {
+			IOUtils.closeQuietly(writer);
+		}
+	}
+
+	/**
+	 * create a JSON summary of the whole run
+	 * 
+	 * @return the summary as a JSON document
+	 */
+	public String toJSON() {
+		final double seconds = getElapsedSeconds();
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		final StringBuilder json = new StringBuilder("{\n");
+		json.append("  \"start\": \"").append(format.format(new Date(startMillis))).append("\",\n");
+		json.append("  \"durationSeconds\": ").append(number(seconds)).append(",\n");
+		json.append("  \"objects\": ").append(objects.get()).append(",\n");
+		json.append("  \"errors\": ").append(errors.get()).append(",\n");
+		json.append("  \"contentBytes\": ").append(contentBytes.get()).append(",\n");
+		json.append("  \"foxmlBytes\": ").append(foxmlBytes.get()).append(",\n");
+		json.append("  \"objectsPerSecond\": ").append(number(rate(objects.get(), seconds))).append(",\n");
+		json.append("  \"contentMBPerSecond\": ").append(number(rate(contentBytes.get() / MB, seconds))).append(",\n");
+		json.append("  \"foxmlMBPerSecond\": ").append(number(rate(foxmlBytes.get() / MB, seconds))).append(",\n");
+		json.append("  \"gcCount\": ").append(getGcCount() - startGcCount).append(",\n");
+		json.append("  \"gcMillis\": ").append(getGcMillis() - startGcMillis).append(",\n");
+		json.append("  \"stages\": {");
+		boolean first = true;
+		for (String name : getStageNames()) {
+			final LatencyHistogram.Snapshot s = stages.get(name).snapshot();
+			json.append(first ? "\n" : ",\n");
+			json.append("    \"").append(escape(name)).append("\": {");
+			json.append("\"count\": ").append(s.getCount());
+			json.append(", \"meanMillis\": ").append(number(s.getMean() / 1e6));
+			json.append(", \"p50Millis\": ").append(number(s.getQuantile(0.5) / 1e6));
+			json.append(", \"p90Millis\": ").append(number(s.getQuantile(0.9) / 1e6));
+			json.append(", \"p99Millis\": ").append(number(s.getQuantile(0.99) / 1e6));
+			json.append(", \"p999Millis\": ").append(number(s.getQuantile(0.999) / 1e6));
+			json.append(", \"maxMillis\": ").append(number(s.getMax() / 1e6));
+			json.append("}");
+			first = false;
+		}
+		json.append(first ? "}\n" : "\n  }\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	private double getElapsedSeconds() {
+		final long end = (endNanos < 0) ? System.nanoTime() : endNanos;
+		return (end - startNanos) / 1e9;
+	}
+
+	private String[] getStageNames() {
+		synchronized (stageNames) {
+			return stageNames.toArray(new String[stageNames.size()]);
+		}
+	}
+
+	private static double rate(final double value, final double seconds) {
+		return seconds <= 0 ? 0d : value / seconds;
+	}
+
+	private static String number(final double value) {
+		return String.format(Locale.ENGLISH, "%.3f", value);
+	}
+
+	private static String escape(final String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private static long getGcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private final class IntervalReport implements Runnable {
+		private final PrintStream out;
+		private final Map<String, LatencyHistogram.Snapshot> lastStages = new LinkedHashMap<String, LatencyHistogram.Snapshot>();
+		private long lastNanos = startNanos;
+		private long lastObjects;
+		private long lastContentBytes;
+		private long lastFoxmlBytes;
+		private long lastGcMillis = startGcMillis;
+
+		private IntervalReport(final PrintStream out) {
+			this.out = out;
+		}
+
+		public void run() {
+			final long now = System.nanoTime();
+			final double seconds = (now - lastNanos) / 1e9;
+			final long currentObjects = objects.get();
+			final long currentContentBytes = contentBytes.get();
+			final long currentFoxmlBytes = foxmlBytes.get();
+			final long currentGcMillis = getGcMillis();
+			final StringBuilder line = new StringBuilder();
+			line.append(String.format(Locale.ENGLISH, "[%6.0fs] %d objects (%.1f/s), content %.2f MB/s, "
+					+ "foxml %.2f MB/s, errors %d, gc %d ms", (now - startNanos) / 1e9, currentObjects,
+					rate(currentObjects - lastObjects, seconds),
+					rate((currentContentBytes - lastContentBytes) / MB, seconds),
+					rate((currentFoxmlBytes - lastFoxmlBytes) / MB, seconds), errors.get(),
+					currentGcMillis - lastGcMillis));
+			for (String name : getStageNames()) {
+				final LatencyHistogram.Snapshot current = stages.get(name).snapshot();
+				final LatencyHistogram.Snapshot last = lastStages.get(name);
+				final LatencyHistogram.Snapshot interval = (last == null) ? current : current.since(last);
+				line.append(String.format(Locale.ENGLISH, ", %s p50 %.2f ms p99 %.2f ms", name,
+						interval.getQuantile(0.5) / 1e6, interval.getQuantile(0.99) / 1e6));
+				lastStages.put(name, current);
+			}
+			out.println(line);
+			lastNanos = now;
+			lastObjects = currentObjects;
+			lastContentBytes = currentContentBytes;
+			lastFoxmlBytes = currentFoxmlBytes;
+			lastGcMillis = currentGcMillis;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package org.fcrepo.dto.factories.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies in nanoseconds. Values are counted in
+ * logarithmic buckets with 8 linear sub buckets per power of two, so every
+ * recorded value is accurate to within 12.5% while the histogram has a fixed
+ * size of a few kilobytes regardless of the number of values recorded. Many
+ * threads can record values concurrently.
+ * 
+ * @author fasseg
+ * 
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * record a single latency
+	 * 
+	 * @param nanos
+	 *            the latency in nanoseconds, negative values are recorded as
+	 *            zero
+	 */
+	public void record(final long nanos) {
+		final long value = Math.max(0, nanos);
+		buckets.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * record the latency from a given start time until now
+	 * 
+	 * @param startNanos
+	 *            the start time as returned by {@link System#nanoTime()}
+	 */
+	public void recordSince(final long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * take a snapshot of the values recorded so far
+	 * 
+	 * @return a new {@link Snapshot}
+	 */
+	public Snapshot snapshot() {
+		final long[] counts = new long[NUM_BUCKETS];
+		long total = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		return new Snapshot(counts, total, sum.get(), max.get());
+	}
+
+	static int index(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long upperBound(final int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		final long sub = index % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * An immutable view of the values recorded by a {@link LatencyHistogram}
+	 * at a given point in time
+	 */
+	public static final class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		private Snapshot(final long[] counts, final long count, final long sum, final long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * get the values recorded between an earlier snapshot and this one
+		 * 
+		 * @param earlier
+		 *            the earlier {@link Snapshot} of the same histogram
+		 * @return a new {@link Snapshot} of the values recorded in between
+		 */
+		public Snapshot since(final Snapshot earlier) {
+			final long[] diff = new long[NUM_BUCKETS];
+			long intervalMax = 0;
+			for (int i = 0; i < NUM_BUCKETS; i++) {
+				diff[i] = counts[i] - earlier.counts[i];
+				if (diff[i] > 0) {
+					intervalMax = Math.min(upperBound(i), max);
+				}
+			}
+			return new Snapshot(diff, count - earlier.count, sum - earlier.sum, intervalMax);
+		}
+
+		/**
+		 * get the number of recorded values
+		 * 
+		 * @return the number of values
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * get the mean of the recorded values
+		 * 
+		 * @return the mean in nanoseconds, or 0 if nothing was recorded
+		 */
+		public double getMean() {
+			return count == 0 ? 0d : (double) sum / count;
+		}
+
+		/**
+		 * get the largest recorded value
+		 * 
+		 * @return the maximum in nanoseconds
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * get the value below which a given fraction of the recorded values
+		 * fall
+		 * 
+		 * @param quantile
+		 *            the fraction of values, between 0 and 1
+		 * @return the quantile in nanoseconds, or 0 if nothing was recorded
+		 */
+		public long getQuantile(final double quantile) {
+			if (count == 0) {
+				return 0;
+			}
+			final long target = Math.max(1, (long) Math.ceil(quantile * count));
+			long seen = 0;
+			for (int i = 0; i < NUM_BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= target) {
+					return Math.min(upperBound(i), max);
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package org.fcrepo.dto.factories.workload;
+
+/**
+ * A distribution of non negative integer values, like the sizes of
+ * datastreams or the number of versions of a datastream. Values are sampled
+ * by transforming a single uniformly distributed number, so sampling is cheap,
+ * needs no state and is reproducible with a seeded source of uniform numbers.
+ * Distributions are immutable and thread safe. Instances are created using
+ * the factory methods in {@link Distributions}.
+ *
+ * @author fasseg
+ *
+ */
+public abstract class Distribution {
+
+	/**
+	 * sample a value of this distribution
+	 *
+	 * @param u
+	 *            a uniformly distributed number in [0, 1)
+	 * @return the value of the distribution at the quantile <code>u</code>
+	 */
+	public abstract long sample(double u);
+
+	/**
+	 * get the specification of this distribution as accepted by
+	 * {@link Distributions#forSpec(String)}
+	 *
+	 * @return the specification
+	 */
+	public abstract String toSpec();
+
+	@Override
+	public String toString() {
+		return toSpec();
+	}
+}
@@ -0,0 +1,403 @@
+package org.fcrepo.dto.factories.workload;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Factory methods for the available {@link Distribution}s:
+ * <ul>
+ * <li><b>fixed</b>: always the same value</li>
+ * <li><b>uniform</b>: every value between a minimum and a maximum is equally
+ * likely</li>
+ * <li><b>lognormal</b>: the logarithm of the values is normally distributed,
+ * which describes file sizes well: most values are close to the median, with
+ * a long tail of large ones</li>
+ * <li><b>pareto</b>: a power law with a minimum value, where a few values are
+ * orders of magnitude larger than the rest, like the few huge files holding
+ * most of the bytes of a repository. The tail can be cut at a maximum</li>
+ * <li><b>histogram</b>: an empirical distribution, e.g. measured on a
+ * production repository, given by buckets of values and their weights</li>
+ * </ul>
+ * All distributions sample by inverting their cumulative distribution
+ * function, which takes a few arithmetic operations, at most a logarithm and
+ * an exponential, or a binary search over the buckets of a histogram.
+ *
+ * @author fasseg
+ *
+ */
+public abstract class Distributions {
+
+	private static final double MIN_QUANTILE = 0x1.0p-53;
+
+	private static final double MAX_QUANTILE = 1d - 0x1.0p-53;
+
+	private Distributions() {
+		// you no construct me from derived class.
+	}
+
+	/**
+	 * create a {@link Distribution} which always yields the same value
+	 *
+	 * @param value
+	 *            the value
+	 * @return a new {@link Distribution}
+	 */
+	public final static Distribution fixed(final long value) {
+		checkNotNegative(value);
+		return new FixedDistribution(value);
+	}
+
+	/**
+	 * create a {@link Distribution} of uniformly distributed values
+	 *
+	 * @param min
+	 *            the smallest value
+	 * @param max
+	 *            the largest value
+	 * @return a new {@link Distribution}
+	 */
+	public final static Distribution uniform(final long min, final long max) {
+		checkNotNegative(min);
+		if (max < min) {
+			throw new IllegalArgumentException("maximum must not be less than the minimum");
+		}
+		return new UniformDistribution(min, max);
+	}
+
+	/**
+	 * create a {@link Distribution} of log-normally distributed values
+	 *
+	 * @param median
+	 *            the median of the values
+	 * @param sigma
+	 *            the standard deviation of the logarithm of the values. A
+	 *            sigma of 1 puts 68% of the values within a factor of e of
+	 *            the median
+	 * @return a new {@link Distribution}
+	 */
+	public final static Distribution lognormal(final double median, final double sigma) {
+		if (median <= 0 || sigma < 0) {
+			throw new IllegalArgumentException("median must be positive and sigma must not be negative");
+		}
+		return new LognormalDistribution(median, sigma);
+	}
+
+	/**
+	 * create a {@link Distribution} of Pareto distributed values
+	 *
+	 * @param min
+	 *            the smallest value
+	 * @param alpha
+	 *            the shape of the distribution. The smaller alpha is, the
+	 *            heavier the tail. Values less than or equal to 1 have no
+	 *            finite mean, so they should be combined with a maximum
+	 * @param max
+	 *            the largest value, where the tail is cut off, or
+	 *            {@link Long#MAX_VALUE} for an unbounded tail
+	 * @return a new {@link Distribution}
+	 */
+	public final static Distribution pareto(final long min, final double alpha, final long max) {
+		if (min < 1 || alpha <= 0) {
+			throw new IllegalArgumentException("minimum and alpha must be positive");
+		}
+		if (max < min) {
+			throw new IllegalArgumentException("maximum must not be less than the minimum");
+		}
+		return new ParetoDistribution(min, alpha, max);
+	}
+
+	/**
+	 * create a {@link Distribution} from an empirical histogram. Values are
+	 * drawn from the buckets in proportion to their weights, and uniformly
+	 * within a bucket
+	 *
+	 * @param lower
+	 *            the smallest values of the buckets
+	 * @param upper
+	 *            the largest values of the buckets
+	 * @param weights
+	 *            the weights of the buckets, e.g. the number of values
+	 *            counted in them
+	 * @return a new {@link Distribution}
+	 */
+	public final static Distribution histogram(final long[] lower, final long[] upper, final double[] weights) {
+		if (lower.length == 0 || lower.length != upper.length || lower.length != weights.length) {
+			throw new IllegalArgumentException("histogram needs the same positive number of bounds and weights");
+		}
+		final double[] cumulative = new double[weights.length];
+		double total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			checkNotNegative(lower[i]);
+			if (upper[i] < lower[i] || weights[i] < 0) {
+				throw new IllegalArgumentException("invalid histogram bucket " + lower[i] + " " + upper[i] + " "
+						+ weights[i]);
+			}
+			total += weights[i];
+			cumulative[i] = total;
+		}
+		if (total <= 0) {
+			throw new IllegalArgumentException("histogram weights must not all be zero");
+		}
+		for (int i = 0; i < cumulative.length; i++) {
+			cumulative[i] /= total;
+		}
+		return new HistogramDistribution(lower.clone(), upper.clone(), cumulative, null);
+	}
+
+	/**
+	 * load an empirical histogram from a file. Every line holds a bucket as
+	 * <code>lower upper weight</code>, or a single value as
+	 * <code>value weight</code>, separated by whitespace or commas. Empty
+	 * lines and lines starting with <code>#</code> are ignored
+	 *
+	 * @param file
+	 *            the file holding the histogram
+	 * @return a new {@link Distribution}
+	 * @throws IOException
+	 *             if the file could not be read
+	 * @see #histogram(long[], long[], double[])
+	 */
+	public final static Distribution histogram(final File file) throws IOException {
+		final List<String[]> buckets = new ArrayList<String[]>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#")) {
+					buckets.add(line.split("[\\s,]+"));
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+		final long[] lower = new long[buckets.size()];
+		final long[] upper = new long[buckets.size()];
+		final double[] weights = new double[buckets.size()];
+		for (int i = 0; i < buckets.size(); i++) {
+			final String[] bucket = buckets.get(i);
+			if (bucket.length < 2 || bucket.length > 3) {
+				throw new IllegalArgumentException("invalid histogram bucket '" + Arrays.toString(bucket) + "' in "
+						+ file);
+			}
+			lower[i] = parseValue(bucket[0]);
+			upper[i] = parseValue(bucket[bucket.length - 2]);
+			weights[i] = Double.parseDouble(bucket[bucket.length - 1]);
+		}
+		final HistogramDistribution histogram = (HistogramDistribution) histogram(lower, upper, weights);
+		return new HistogramDistribution(histogram.lower, histogram.upper, histogram.cumulative, file);
+	}
+
+	/**
+	 * create a {@link Distribution} by it's specification as used in the
+	 * generator properties, which is one of <code>fixed:value</code> or just
+	 * <code>value</code>, <code>uniform:min:max</code>,
+	 * <code>lognormal:median:sigma</code>, <code>pareto:min:alpha</code>,
+	 * <code>pareto:min:alpha:max</code> or <code>histogram:file</code>.
+	 * Values may carry a decimal suffix of <code>k</code>, <code>m</code> or
+	 * <code>g</code>
+	 *
+	 * @param spec
+	 *            the specification of the {@link Distribution}
+	 * @return a new {@link Distribution}
+	 * @throws IOException
+	 *             if the file of a histogram could not be read
+	 */
+	public final static Distribution forSpec(final String spec) throws IOException {
+		if (spec == null || spec.trim().length() == 0) {
+			throw new IllegalArgumentException("empty distribution specification");
+		}
+		final int colon = spec.indexOf(':');
+		final String name = (colon < 0) ? spec.trim() : spec.substring(0, colon).trim();
+		final String arg = (colon < 0) ? null : spec.substring(colon + 1).trim();
+		try {
+			if (arg == null) {
+				return fixed(parseValue(name));
+			} else if (name.equals("histogram")) {
+				return histogram(new File(arg));
+			}
+			final String[] args = arg.split(":");
+			if (name.equals("fixed") && args.length == 1) {
+				return fixed(parseValue(args[0]));
+			} else if (name.equals("uniform") && args.length == 2) {
+				return uniform(parseValue(args[0]), parseValue(args[1]));
+			} else if (name.equals("lognormal") && args.length == 2) {
+				return lognormal(parseValue(args[0]), Double.parseDouble(args[1].trim()));
+			} else if (name.equals("pareto") && (args.length == 2 || args.length == 3)) {
+				return pareto(parseValue(args[0]), Double.parseDouble(args[1].trim()),
+						(args.length == 3) ? parseValue(args[2]) : Long.MAX_VALUE);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("invalid number in distribution '" + spec + "'", e);
+		}
+		throw new IllegalArgumentException("unknown distribution '" + spec + "'");
+	}
+
+	private static long parseValue(final String value) {
+		final String v = value.trim().toLowerCase(Locale.ENGLISH);
+		final char suffix = (v.length() > 0) ? v.charAt(v.length() - 1) : ' ';
+		final long factor = (suffix == 'k') ? 1000L : (suffix == 'm') ? 1000000L : (suffix == 'g') ? 1000000000L
+				: 1L;
+		return Long.parseLong((factor == 1L) ? v : v.substring(0, v.length() - 1)) * factor;
+	}
+
+	private static void checkNotNegative(final long value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("values must not be negative");
+		}
+	}
+
+	private static double clamp(final double u) {
+		return (u < MIN_QUANTILE) ? MIN_QUANTILE : (u > MAX_QUANTILE) ? MAX_QUANTILE : u;
+	}
+
+	/**
+	 * the quantile function of the standard normal distribution after P. J.
+	 * Acklam, with a relative error below 1.2e-9
+	 */
+	private static double probit(final double p) {
+		if (p < 0.02425) {
+			final double q = Math.sqrt(-2 * Math.log(p));
+			return (((((-7.784894002430293e-03 * q - 3.223964580411365e-01) * q - 2.400758277161838e+00) * q
+					- 2.549732539343734e+00) * q + 4.374664141464968e+00) * q + 2.938163982698783e+00)
+					/ ((((7.784695709041462e-03 * q + 3.224671290700398e-01) * q + 2.445134137142996e+00) * q
+							+ 3.754408661907416e+00) * q + 1);
+		} else if (p > 1 - 0.02425) {
+			return -probit(1 - p);
+		}
+		final double q = p - 0.5;
+		final double r = q * q;
+		return (((((-3.969683028665376e+01 * r + 2.209460984245205e+02) * r - 2.759285104469687e+02) * r
+				+ 1.383577518672690e+02) * r - 3.066479806614716e+01) * r + 2.506628277459239e+00) * q
+				/ (((((-5.447609879822406e+01 * r + 1.615858368580409e+02) * r - 1.556989798598866e+02) * r
+						+ 6.680131188771972e+01) * r - 1.328068155288572e+01) * r + 1);
+	}
+
+	private static final class FixedDistribution extends Distribution {
+		private final long value;
+
+		private FixedDistribution(final long value) {
+			this.value = value;
+		}
+
+		@Override
+		public long sample(final double u) {
+			return value;
+		}
+
+		@Override
+		public String toSpec() {
+			return "fixed:" + value;
+		}
+	}
+
+	private static final class UniformDistribution extends Distribution {
+		private final long min;
+		private final long max;
+
+		private UniformDistribution(final long min, final long max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public long sample(final double u) {
+			return Math.min(max, min + (long) (u * ((double) (max - min) + 1d)));
+		}
+
+		@Override
+		public String toSpec() {
+			return "uniform:" + min + ":" + max;
+		}
+	}
+
+	private static final class LognormalDistribution extends Distribution {
+		private final double median;
+		private final double sigma;
+
+		private LognormalDistribution(final double median, final double sigma) {
+			this.median = median;
+			this.sigma = sigma;
+		}
+
+		@Override
+		public long sample(final double u) {
+			return Math.round(median * Math.exp(sigma * probit(clamp(u))));
+		}
+
+		@Override
+		public String toSpec() {
+			return "lognormal:" + Math.round(median) + ":" + sigma;
+		}
+	}
+
+	private static final class ParetoDistribution extends Distribution {
+		private final long min;
+		private final double alpha;
+		private final long max;
+		private final double tail;
+
+		private ParetoDistribution(final long min, final double alpha, final long max) {
+			this.min = min;
+			this.alpha = alpha;
+			this.max = max;
+			// the probability mass beyond the maximum is cut off
+			this.tail = (max == Long.MAX_VALUE) ? 0d : Math.pow((double) min / max, alpha);
+		}
+
+		@Override
+		public long sample(final double u) {
+			final double x = min / Math.pow(1d - clamp(u) * (1d - tail), 1d / alpha);
+			return (x >= max) ? max : (long) x;
+		}
+
+		@Override
+		public String toSpec() {
+			return "pareto:" + min + ":" + alpha + ((max == Long.MAX_VALUE) ? "" : ":" + max);
+		}
+	}
+
+	private static final class HistogramDistribution extends Distribution {
+		private final long[] lower;
+		private final long[] upper;
+		private final double[] cumulative;
+		private final File file;
+
+		private HistogramDistribution(final long[] lower, final long[] upper, final double[] cumulative,
+				final File file) {
+			this.lower = lower;
+			this.upper = upper;
+			this.cumulative = cumulative;
+			this.file = file;
+		}
+
+		@Override
+		public long sample(final double u) {
+			int i = Arrays.binarySearch(cumulative, u);
+			// the first bucket whose cumulative weight exceeds u
+			i = (i < 0) ? -i - 1 : i + 1;
+			while (i < cumulative.length - 1 && cumulative[i] <= u) {
+				i++;
+			}
+			i = Math.min(i, cumulative.length - 1);
+			// the position of u within the bucket picks the value
+			final double start = (i == 0) ? 0d : cumulative[i - 1];
+			final double within = (cumulative[i] > start) ? (u - start) / (cumulative[i] - start) : 0d;
+			return Math.min(upper[i], lower[i] + (long) (within * ((double) (upper[i] - lower[i]) + 1d)));
+		}
+
+		@Override
+		public String toSpec() {
+			return "histogram:" + ((file == null) ? "[" + cumulative.length + " buckets]" : file.getPath());
+		}
+	}
+}
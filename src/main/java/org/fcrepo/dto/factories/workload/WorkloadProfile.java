@@ -0,0 +1,150 @@
+package org.fcrepo.dto.factories.workload;
+
+/**
+ * Describes the shape of the objects of a corpus by the {@link Distribution}s
+ * of the number of datastreams per object, the number of versions per
+ * datastream and the size of every version's content. Every object,
+ * datastream and version draws it's own values, so a corpus can mimic the mix
+ * of a production repository instead of consisting of identical objects.
+ * Profiles are immutable, the setters return modified copies. Since heavy
+ * tailed distributions can yield arbitrarily large values, the numbers of
+ * datastreams and versions are capped at {@link #MAX_DATASTREAMS} and
+ * {@link #MAX_VERSIONS}.
+ *
+ * @author fasseg
+ *
+ */
+public final class WorkloadProfile {
+
+	/**
+	 * the maximum number of datastreams of an object
+	 */
+	public static final long MAX_DATASTREAMS = 10000;
+
+	/**
+	 * the maximum number of versions of a datastream
+	 */
+	public static final long MAX_VERSIONS = 10000;
+
+	private final Distribution datastreams;
+
+	private final Distribution versions;
+
+	private final Distribution sizes;
+
+	/**
+	 * create a new {@link WorkloadProfile} of objects with a single
+	 * datastream holding a single version of 1000 bytes
+	 */
+	public WorkloadProfile() {
+		this(Distributions.fixed(1), Distributions.fixed(1), Distributions.fixed(1000));
+	}
+
+	private WorkloadProfile(final Distribution datastreams, final Distribution versions, final Distribution sizes) {
+		if (datastreams == null || versions == null || sizes == null) {
+			throw new IllegalArgumentException("distributions must not be null");
+		}
+		this.datastreams = CappedDistribution.cap(datastreams, MAX_DATASTREAMS);
+		this.versions = CappedDistribution.cap(versions, MAX_VERSIONS);
+		this.sizes = sizes;
+	}
+
+	/**
+	 * get the {@link Distribution} of the number of datastreams per object
+	 *
+	 * @return the {@link Distribution}
+	 */
+	public Distribution datastreams() {
+		return datastreams;
+	}
+
+	/**
+	 * create a copy of this {@link WorkloadProfile} with another distribution
+	 * of the number of datastreams per object. Objects get at least one and
+	 * at most {@link #MAX_DATASTREAMS} datastreams
+	 *
+	 * @param datastreams
+	 *            the {@link Distribution} of the number of datastreams
+	 * @return a new {@link WorkloadProfile}
+	 */
+	public WorkloadProfile datastreams(final Distribution datastreams) {
+		return new WorkloadProfile(datastreams, versions, sizes);
+	}
+
+	/**
+	 * get the {@link Distribution} of the number of versions per datastream
+	 *
+	 * @return the {@link Distribution}
+	 */
+	public Distribution versions() {
+		return versions;
+	}
+
+	/**
+	 * create a copy of this {@link WorkloadProfile} with another distribution
+	 * of the number of versions per datastream. Datastreams get at least one
+	 * and at most {@link #MAX_VERSIONS} versions
+	 *
+	 * @param versions
+	 *            the {@link Distribution} of the number of versions
+	 * @return a new {@link WorkloadProfile}
+	 */
+	public WorkloadProfile versions(final Distribution versions) {
+		return new WorkloadProfile(datastreams, versions, sizes);
+	}
+
+	/**
+	 * get the {@link Distribution} of the content sizes of the versions
+	 *
+	 * @return the {@link Distribution}
+	 */
+	public Distribution sizes() {
+		return sizes;
+	}
+
+	/**
+	 * create a copy of this {@link WorkloadProfile} with another distribution
+	 * of the content sizes of the versions
+	 *
+	 * @param sizes
+	 *            the {@link Distribution} of the sizes in bytes
+	 * @return a new {@link WorkloadProfile}
+	 */
+	public WorkloadProfile sizes(final Distribution sizes) {
+		return new WorkloadProfile(datastreams, versions, sizes);
+	}
+
+	@Override
+	public String toString() {
+		return "datastreams " + datastreams + ", versions " + versions + ", sizes " + sizes;
+	}
+
+	private static final class CappedDistribution extends Distribution {
+		private final Distribution distribution;
+		private final long max;
+
+		private CappedDistribution(final Distribution distribution, final long max) {
+			this.distribution = distribution;
+			this.max = max;
+		}
+
+		private static Distribution cap(final Distribution distribution, final long max) {
+			if (distribution instanceof CappedDistribution && ((CappedDistribution) distribution).max == max) {
+				return distribution;
+			}
+			return new CappedDistribution(distribution, max);
+		}
+
+		@Override
+		public long sample(final double u) {
+			return Math.min(max, distribution.sample(u));
+		}
+
+		@Override
+		public String toSpec() {
+			// the cap is the same for every profile, so the spec stays the
+			// one the distribution was created from
+			return distribution.toSpec();
+		}
+	}
+}
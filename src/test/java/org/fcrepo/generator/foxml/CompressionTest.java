@@ -0,0 +1,72 @@
+package org.fcrepo.generator.foxml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.dto.factories.FOXMLs;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.fcrepo.dto.factories.compress.Compression;
+import org.fcrepo.dto.factories.content.ContentSources;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class CompressionTest {
+
+	@Test
+	public void testParallelBlocks() throws Exception {
+		Compression compression = Compression.forName("gzip-fast", 4096);
+		// compressible data spanning many blocks, written in odd sized chunks
+		byte[] data = new byte[100000];
+		Random random = new Random(1);
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ('a' + random.nextInt(4));
+		}
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		OutputStream out = compression.wrap(compressed);
+		for (int off = 0; off < data.length; off += 777) {
+			out.write(data, off, Math.min(777, data.length - off));
+		}
+		out.close();
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+		assertArrayEquals(data, IOUtils.toByteArray(in));
+		assertEquals(data.length, compression.getInputBytes());
+		assertEquals(compressed.size(), compression.getOutputBytes());
+		assertTrue(compression.getRatio() > 2);
+	}
+
+	@Test
+	public void testCompressedFOXML() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "compression-test-" + UUID.randomUUID());
+		dir.mkdirs();
+		try {
+			GenerationOptions options = new GenerationOptions().source(ContentSources.zero()).compression(
+					Compression.forName("gzip", Compression.DEFAULT_BLOCK_SIZE));
+			File foxml = FOXMLs.generateInlineFOXMLFromRandomData(1, 1000000, dir, options);
+			assertTrue(foxml.getName().endsWith(".xml.gz"));
+			GZIPInputStream in = new GZIPInputStream(new FileInputStream(foxml));
+			try {
+				Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+				assertEquals(1, doc.getElementsByTagName("binaryContent").getLength());
+			} finally {
+				in.close();
+			}
+			assertTrue(options.compression().getRatio() > 100);
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+}
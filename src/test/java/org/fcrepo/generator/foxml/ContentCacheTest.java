@@ -0,0 +1,91 @@
+package org.fcrepo.generator.foxml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.dto.factories.content.ContentCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentCacheTest {
+
+	private File root;
+
+	@Before
+	public void init() throws IOException {
+		root = new File(System.getProperty("java.io.tmpdir"), "cache-test-" + UUID.randomUUID());
+		root.mkdirs();
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	@Test
+	public void testHitsAndInvalidation() throws Exception {
+		for (ContentCache.Storage storage : ContentCache.Storage.values()) {
+			ContentCache cache = new ContentCache(1024 * 1024, storage);
+			File file = new File(root, "content-" + storage + ".xml");
+			FileUtils.writeStringToFile(file, "<test>first</test>", "UTF-8");
+			assertArrayEquals(FileUtils.readFileToByteArray(file), read(cache, file));
+			assertArrayEquals(FileUtils.readFileToByteArray(file), read(cache, file));
+			assertEquals(DigestUtils.md5Hex(FileUtils.readFileToByteArray(file)), cache.digest(file.toURI(), "MD5")
+					.hexValue());
+			assertEquals(1, cache.getMisses());
+			assertEquals(2, cache.getHits());
+			assertTrue(cache.get(file.toURI()).isContentCached());
+			assertEquals("application/xml", cache.get(file.toURI()).getMimeType());
+
+			// a modified file must not be served from the cache
+			FileUtils.writeStringToFile(file, "<test>second one</test>", "UTF-8");
+			file.setLastModified(file.lastModified() + 2000);
+			assertArrayEquals(FileUtils.readFileToByteArray(file), read(cache, file));
+			assertEquals(2, cache.getMisses());
+		}
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		ContentCache cache = new ContentCache(10000);
+		File[] files = new File[10];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = new File(root, "content-" + i);
+			FileUtils.writeByteArrayToFile(files[i], new byte[2000]);
+			read(cache, files[i]);
+		}
+		assertTrue(cache.getSize() <= 10000);
+		assertTrue(cache.getEvictions() > 0);
+		// least recently used entries go first
+		assertTrue(cache.getCount() < files.length);
+		assertEquals(cache.getMisses(), files.length);
+		read(cache, files[files.length - 1]);
+		assertEquals(1, cache.getHits());
+
+		// content larger than a quarter of the budget is passed through
+		File large = new File(root, "large");
+		FileUtils.writeByteArrayToFile(large, new byte[5000]);
+		assertEquals(5000, read(cache, large).length);
+		assertFalse(cache.get(large.toURI()).isContentCached());
+	}
+
+	private byte[] read(ContentCache cache, File file) throws IOException {
+		InputStream in = cache.open(file.toURI());
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package org.fcrepo.generator.foxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.dto.factories.Datastreams;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.fcrepo.dto.factories.content.ContentFetcher;
+import org.fcrepo.dto.factories.http.HttpRequests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.Datastream;
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ContentFetcherTest {
+
+	private static final int LATENCY = 200;
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final AtomicInteger maxActive = new AtomicInteger();
+
+	private final AtomicInteger flakyCalls = new AtomicInteger();
+
+	private HttpServer server;
+
+	private ExecutorService serverThreads;
+
+	@Before
+	public void startStub() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.createContext("/slow/", new HttpHandler() {
+			public void handle(final HttpExchange exchange) throws IOException {
+				final int current = active.incrementAndGet();
+				synchronized (maxActive) {
+					maxActive.set(Math.max(maxActive.get(), current));
+				}
+				try {
+					Thread.sleep(LATENCY);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					active.decrementAndGet();
+				}
+				respond(exchange, 200, exchange.getRequestURI().getPath());
+			}
+		});
+		server.createContext("/flaky", new HttpHandler() {
+			public void handle(final HttpExchange exchange) throws IOException {
+				if (flakyCalls.incrementAndGet() <= 2) {
+					respond(exchange, 503, "try again");
+				} else {
+					respond(exchange, 200, "finally");
+				}
+			}
+		});
+		server.createContext("/missing", new HttpHandler() {
+			public void handle(final HttpExchange exchange) throws IOException {
+				respond(exchange, 404, "not found");
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void stopStub() {
+		server.stop(0);
+		serverThreads.shutdownNow();
+	}
+
+	@Test
+	public void testConcurrentFetch() throws Exception {
+		final List<URI> uris = new ArrayList<URI>();
+		for (int i = 0; i < 40; i++) {
+			uris.add(stub("/slow/" + i));
+		}
+		final ContentFetcher fetcher = new ContentFetcher(20);
+		try {
+			final GenerationOptions options = new GenerationOptions().fetcher(fetcher).digest("MD5");
+			final long start = System.currentTimeMillis();
+			final List<Datastream> streams = Datastreams.generateDatastreamsFromURIs(uris, ControlGroup.MANAGED,
+					options);
+			final long elapsed = System.currentTimeMillis() - start;
+			// one at a time would take 40 round trips
+			assertTrue("took " + elapsed + " ms", elapsed < 20 * LATENCY);
+			assertTrue(maxActive.get() > 1);
+			assertEquals(uris.size(), streams.size());
+			for (int i = 0; i < uris.size(); i++) {
+				assertEquals(uris.get(i), streams.get(i).versions().first().contentLocation());
+				assertNotNull(streams.get(i).versions().first().contentDigest());
+			}
+			assertEquals(40, fetcher.getRequests());
+
+			// the versions of one datastream are fetched once each and keep
+			// the order of their URIs, newest last
+			final Datastream versioned = Datastreams.generateDatastreamFromURIs(uris.subList(0, 10),
+					ControlGroup.MANAGED, options);
+			assertEquals(10, versioned.versions().size());
+			assertEquals(50, fetcher.getRequests());
+			final List<URI> locations = new ArrayList<URI>();
+			for (DatastreamVersion version : versioned.versions()) {
+				locations.add(0, version.contentLocation());
+			}
+			assertEquals(uris.subList(0, 10), locations);
+		} finally {
+			fetcher.shutdown();
+		}
+	}
+
+	@Test
+	public void testRetryDelays() throws Exception {
+		assertEquals(500, HttpRequests.getDelay(500, 0, -1));
+		assertEquals(4000, HttpRequests.getDelay(500, 3, -1));
+		assertEquals(7000, HttpRequests.getDelay(500, 0, 7000));
+		// the delay does not overflow with many retries
+		for (int attempt = 0; attempt < 100; attempt++) {
+			long delay = HttpRequests.getDelay(500, attempt, -1);
+			assertTrue(delay >= 500 && delay <= HttpRequests.MAX_BACKOFF);
+		}
+	}
+
+	@Test
+	public void testRetries() throws Exception {
+		final ContentFetcher fetcher = new ContentFetcher(2, 5000, 3, 10);
+		final InputStream in = fetcher.open(stub("/flaky"));
+		try {
+			assertEquals("finally", IOUtils.toString(in, "UTF-8"));
+		} finally {
+			in.close();
+		}
+		assertEquals(2, fetcher.getRetries());
+		try {
+			fetcher.open(stub("/missing"));
+			fail("a missing resource must not be retried");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("404"));
+		}
+		assertEquals(2, fetcher.getRetries());
+		assertEquals(1, fetcher.getFailures());
+	}
+
+	private URI stub(final String path) {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+	}
+
+	private static void respond(final HttpExchange exchange, final int status, final String body)
+			throws IOException {
+		final byte[] data = body.getBytes("UTF-8");
+		exchange.sendResponseHeaders(status, data.length);
+		final OutputStream out = exchange.getResponseBody();
+		out.write(data);
+		out.close();
+	}
+}
@@ -0,0 +1,190 @@
+package org.fcrepo.generator.foxml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.dto.factories.Datastreams;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.fcrepo.dto.factories.ObjectRandom;
+import org.fcrepo.dto.factories.content.ContentDigests;
+import org.fcrepo.dto.factories.content.ContentGenerator;
+import org.fcrepo.dto.factories.content.ContentSource;
+import org.fcrepo.dto.factories.content.ContentSources;
+import org.fcrepo.dto.factories.content.ContentWriters;
+import org.fcrepo.dto.factories.content.SyntheticContent;
+import org.junit.Test;
+
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
+
+public class ContentSourcesTest {
+
+	@Test
+	public void testRandomIsDeterministicAcrossChunkSizes() throws Exception {
+		byte[] whole = new byte[1001];
+		ContentSources.random().open(42).nextBytes(whole, 0, whole.length);
+		byte[] chunked = new byte[1001];
+		ContentGenerator gen = ContentSources.random().open(42);
+		int pos = 0;
+		int chunk = 1;
+		while (pos < chunked.length) {
+			int len = Math.min(chunk, chunked.length - pos);
+			gen.nextBytes(chunked, pos, len);
+			pos += len;
+			chunk = chunk * 2 + 1;
+		}
+		assertArrayEquals(whole, chunked);
+		byte[] other = new byte[1001];
+		ContentSources.random().open(43).nextBytes(other, 0, other.length);
+		assertFalse(Arrays.equals(whole, other));
+	}
+
+	@Test
+	public void testRandomDirectBufferMatchesArray() throws Exception {
+		byte[] expected = new byte[999];
+		ContentSources.random().open(7).nextBytes(expected, 0, expected.length);
+		ByteBuffer direct = ByteBuffer.allocateDirect(999);
+		ContentGenerator gen = ContentSources.random().open(7);
+		direct.limit(3);
+		gen.nextBytes(direct);
+		direct.limit(999);
+		gen.nextBytes(direct);
+		direct.flip();
+		byte[] actual = new byte[999];
+		direct.get(actual);
+		assertArrayEquals(expected, actual);
+	}
+
+	@Test
+	public void testPatternAndZero() throws Exception {
+		byte[] buf = new byte[7];
+		ContentSources.pattern("abc").open(0).nextBytes(buf, 0, buf.length);
+		assertEquals("abcabca", new String(buf, "UTF-8"));
+		ContentSources.zero().open(0).nextBytes(buf, 0, buf.length);
+		assertArrayEquals(new byte[7], buf);
+	}
+
+	@Test
+	public void testCompressibleEntropy() throws Exception {
+		int size = 1024 * 1024;
+		assertTrue(compressedSize(ContentSources.compressible(0.1d), size) < size / 5);
+		assertTrue(compressedSize(ContentSources.compressible(1d), size) > size * 0.95);
+	}
+
+	@Test
+	public void testSpecRoundTrip() throws Exception {
+		for (String spec : new String[] { "random", "zero", "pattern:foo", "compressible:0.25" }) {
+			assertEquals(spec, ContentSources.forSpec(spec).toSpec());
+		}
+	}
+
+	@Test
+	public void testSyntheticURIRoundTrip() throws Exception {
+		ContentSource source = ContentSources.compressible(0.5d);
+		URI uri = SyntheticContent.createURI(-42L, 10000L, source);
+		assertEquals("synthetic", uri.getScheme());
+		assertEquals(-42L, SyntheticContent.getSeed(uri));
+		assertEquals(10000L, SyntheticContent.getSize(uri));
+		assertEquals(source.toSpec(), SyntheticContent.getSource(uri).toSpec());
+		byte[] expected = new byte[10000];
+		source.open(-42L).nextBytes(expected, 0, expected.length);
+		assertArrayEquals(expected, IOUtils.toByteArray(SyntheticContent.openStream(uri)));
+		SyntheticContent.registerURLStreamHandler();
+		assertArrayEquals(expected, IOUtils.toByteArray(uri.toURL().openStream()));
+	}
+
+	@Test
+	public void testChannelWriterMatchesStreamWriter() throws Exception {
+		File streamFile = File.createTempFile("content-stream", ".bin");
+		File channelFile = File.createTempFile("content-channel", ".bin");
+		try {
+			long size = 3 * 1024 * 1024 + 17;
+			ContentWriters.stream(4096).write(streamFile, ContentSources.random().open(5), size);
+			ContentWriters.channel(64 * 1024, 4, true).write(channelFile, ContentSources.random().open(5), size);
+			assertEquals(size, channelFile.length());
+			assertTrue(FileUtils.contentEquals(streamFile, channelFile));
+			// overwriting a longer file leaves no stale bytes behind
+			ContentWriters.stream(4096).write(streamFile, ContentSources.random().open(5), 1000);
+			ContentWriters.channel(64 * 1024, 4, false).write(channelFile, ContentSources.random().open(5), 1000);
+			assertEquals(1000, channelFile.length());
+			assertTrue(FileUtils.contentEquals(streamFile, channelFile));
+		} finally {
+			streamFile.delete();
+			channelFile.delete();
+		}
+	}
+
+	@Test
+	public void testMappedAndSparseWriters() throws Exception {
+		File streamFile = File.createTempFile("content-stream", ".bin");
+		File mappedFile = File.createTempFile("content-mapped", ".bin");
+		File dir = new File(System.getProperty("java.io.tmpdir"), "sparse-test-" + System.nanoTime());
+		dir.mkdirs();
+		try {
+			long size = 3 * 1024 * 1024 + 17;
+			ContentWriters.stream(4096).write(streamFile, ContentSources.random().open(5), size);
+			ContentWriters.mapped(1024 * 1024).write(mappedFile, ContentSources.random().open(5), size);
+			assertTrue(FileUtils.contentEquals(streamFile, mappedFile));
+			// the digest describes the zero bytes actually in the file
+			GenerationOptions options = new GenerationOptions().writer(ContentWriters.sparse()).digest("MD5");
+			DatastreamVersion version = Datastreams.generateDatastreamVersionFromRandomData(size, dir, options,
+					ObjectRandom.unseeded());
+			assertEquals(size, new File(version.contentLocation()).length());
+			assertEquals(ContentDigests.digest(version.contentLocation(), "MD5").hexValue(), version
+					.contentDigest().hexValue());
+		} finally {
+			streamFile.delete();
+			mappedFile.delete();
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testSparseWriterOverwritesContent() throws Exception {
+		File file = File.createTempFile("content-sparse", ".bin");
+		try {
+			ContentWriters.stream(4096).write(file, ContentSources.random().open(5), 10000);
+			// the file reads as zero bytes, as announced by the zero digest
+			ContentWriters.sparse().write(file, ContentSources.random().open(5), 1000);
+			assertArrayEquals(new byte[1000], FileUtils.readFileToByteArray(file));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSparseWriterPastTwoGiB() throws Exception {
+		File sparseFile = File.createTempFile("content-sparse", ".bin");
+		// sizes past 2 GiB do not fit into an int, and a file system without
+		// sparse files would have to allocate all of it
+		long large = 2L * 1024 * 1024 * 1024 + 17;
+		assumeTrue(sparseFile.getParentFile().getUsableSpace() > 2 * large);
+		try {
+			ContentWriters.sparse().write(sparseFile, ContentSources.random().open(5), large);
+			assertEquals(large, sparseFile.length());
+		} finally {
+			sparseFile.delete();
+		}
+	}
+
+	private long compressedSize(ContentSource source, int size) throws Exception {
+		byte[] data = new byte[size];
+		source.open(1).nextBytes(data, 0, size);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		GZIPOutputStream gz = new GZIPOutputStream(bos);
+		gz.write(data);
+		gz.close();
+		return bos.size();
+	}
+}
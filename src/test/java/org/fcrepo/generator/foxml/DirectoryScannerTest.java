@@ -0,0 +1,73 @@
+package org.fcrepo.generator.foxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.fcrepo.dto.factories.cli.DirectoryScanner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectoryScannerTest {
+
+	private File root;
+
+	private Set<File> images = new HashSet<File>();
+
+	private Set<File> all = new HashSet<File>();
+
+	@Before
+	public void init() throws IOException {
+		root = new File(System.getProperty("java.io.tmpdir"), "scanner-test-" + UUID.randomUUID());
+		for (int i = 0; i < 20; i++) {
+			File dir = new File(root, "a" + (i % 4) + "/b" + i);
+			dir.mkdirs();
+			for (String name : new String[] { "image.jpg", "image.JP2", "text.txt", "noextension" }) {
+				File file = new File(dir, i + name);
+				FileUtils.touch(file);
+				all.add(file);
+				if (!name.endsWith("txt") && !name.equals("noextension")) {
+					images.add(file);
+				}
+			}
+		}
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	@Test
+	public void testFilterByExtension() throws Exception {
+		assertEquals(images, scan(Arrays.asList("jpg", " .jp2")));
+	}
+
+	@Test
+	public void testAcceptAll() throws Exception {
+		assertEquals(all, scan(Collections.<String> emptySet()));
+		assertEquals(all, scan(Arrays.asList("*")));
+	}
+
+	private Set<File> scan(Collection<String> extensions) {
+		// a queue smaller than the number of files makes the walkers block
+		DirectoryScanner scanner = new DirectoryScanner(root, extensions, 3, 2);
+		Set<File> found = new HashSet<File>();
+		while (scanner.hasNext()) {
+			found.add(scanner.next());
+		}
+		assertFalse(scanner.hasNext());
+		assertEquals(0, scanner.getSkippedDirectories());
+		return found;
+	}
+}
@@ -0,0 +1,230 @@
+package org.fcrepo.generator.foxml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.dto.factories.FedoraObjects;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.fcrepo.dto.factories.archive.ArchiveWriter;
+import org.fcrepo.dto.factories.archive.ArchiveWriters;
+import org.fcrepo.dto.factories.archive.FOXMLArchive;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+
+public class FOXMLArchiveTest {
+
+	private static final Pattern CONTENT_REF = Pattern.compile("REF=\"(content/[^\"]+)\"");
+
+	private File dir;
+
+	@Before
+	public void init() throws IOException {
+		dir = new File(System.getProperty("java.io.tmpdir"), "foxml-archive-test-" + UUID.randomUUID());
+		dir.mkdir();
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void testTarArchive() throws Exception {
+		FOXMLArchive archive = new FOXMLArchive(dir, "tar", 10000);
+		for (int i = 0; i < 3; i++) {
+			archive.add(FedoraObjects.generateFedoraObjectFromRandomData(2, 4000, dir, ControlGroup.MANAGED,
+					new GenerationOptions().synthetic(true)), false);
+		}
+		archive.close();
+		// every object holds 8000 bytes of content, so each one starts a new
+		// archive
+		assertEquals(3, archive.getNumArchives());
+		for (int i = 0; i < 3; i++) {
+			assertContentReferences(readTar(new File(dir, String.format("foxml-%05d.tar", i))), 2, 4000);
+		}
+	}
+
+	@Test
+	public void testZipArchive() throws Exception {
+		FOXMLArchive archive = new FOXMLArchive(dir, "zip", 1000000);
+		for (int i = 0; i < 3; i++) {
+			archive.add(FedoraObjects.generateFedoraObjectFromRandomData(1, 1234, dir, ControlGroup.EXTERNAL,
+					new GenerationOptions().synthetic(true)), false);
+		}
+		archive.close();
+		assertEquals(1, archive.getNumArchives());
+		Map<String, byte[]> entries = readZip(new File(dir, "foxml-00000.zip"));
+		assertEquals(6, entries.size());
+		assertContentReferences(entries, 3, 1234);
+	}
+
+	@Test
+	public void testSeededArchivesAreReproducible() throws Exception {
+		byte[][] archives = new byte[2][];
+		long created = 0;
+		for (int i = 0; i < 2; i++) {
+			File target = new File(dir, "run-" + i);
+			target.mkdir();
+			FOXMLArchive archive = new FOXMLArchive(target, "tar", 1000000);
+			GenerationOptions options = new GenerationOptions().seed(11L).synthetic(true);
+			FedoraObject fo = FedoraObjects.generateFedoraObjectFromRandomData(2, 100, target,
+					ControlGroup.MANAGED, options, options.random(0));
+			created = fo.createdDate().getTime() / 1000;
+			archive.add(fo, false);
+			archive.close();
+			archives[i] = FileUtils.readFileToByteArray(new File(target, "foxml-00000.tar"));
+		}
+		assertArrayEquals(archives[0], archives[1]);
+		// the entries carry the object's creation date
+		assertEquals(created, Long.parseLong(new String(archives[0], 136, 11, "US-ASCII"), 8));
+		// the archived versions keep their size
+		Map<String, byte[]> entries = readTar(new File(dir, "run-0/foxml-00000.tar"));
+		for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+			if (entry.getKey().startsWith("foxml/")) {
+				assertTrue(new String(entry.getValue(), "UTF-8").contains("SIZE=\"100\""));
+			}
+		}
+	}
+
+	@Test
+	public void testOversizedObjectStartsNoArchive() throws Exception {
+		FOXMLArchive archive = new FOXMLArchive(dir, "zip", 1000000);
+		try {
+			archive.add(FedoraObjects.generateFedoraObjectFromRandomData(1, 5L * 1024 * 1024 * 1024, dir,
+					ControlGroup.EXTERNAL, new GenerationOptions().synthetic(true)), false);
+			fail("an object larger than a zip archive must be rejected");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(0, archive.getNumArchives());
+		assertEquals(0, dir.list().length);
+		archive.add(FedoraObjects.generateFedoraObjectFromRandomData(1, 1234, dir, ControlGroup.EXTERNAL,
+				new GenerationOptions().synthetic(true)), false);
+		archive.close();
+		assertEquals(2, readZip(new File(dir, "foxml-00000.zip")).size());
+	}
+
+	@Test
+	public void testLongTarNames() throws Exception {
+		File file = new File(dir, "long.tar");
+		ArchiveWriter writer = ArchiveWriters.tar(new FileOutputStream(file));
+		String name = "foxml/" + repeat("ab/", 40) + repeat("x", 90) + ".xml";
+		writer.putEntry(name, 3, 0, new ByteArrayInputStream(new byte[3]));
+		try {
+			writer.putEntry("foxml/" + repeat("x", 101), 3, 0, new ByteArrayInputStream(new byte[3]));
+			fail("a name which can not be split must be rejected");
+		} catch (IOException e) {
+			// expected
+		}
+		writer.close();
+		assertEquals(Collections.singleton(name), readTar(file).keySet());
+	}
+
+	@Test
+	public void testZipLimits() throws Exception {
+		ArchiveWriter writer = ArchiveWriters.zip(new ByteArrayOutputStream());
+		assertTrue(writer.fits(2, 1000));
+		// zip archives without ZIP64 hold no more than 65535 entries and 4 GiB
+		assertFalse(writer.fits(65536, 0));
+		assertFalse(writer.fits(1, 0xffffffffL));
+		try {
+			writer.putEntry("content/huge", 5L * 1024 * 1024 * 1024, 0, new ByteArrayInputStream(new byte[0]));
+			fail("an entry larger than 4 GiB must be rejected");
+		} catch (IOException e) {
+			// expected
+		}
+		writer.close();
+	}
+
+	private void assertContentReferences(Map<String, byte[]> entries, int numContents, int size) throws Exception {
+		int foxmls = 0;
+		int contents = 0;
+		for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+			if (entry.getKey().startsWith("foxml/")) {
+				foxmls++;
+				Matcher m = CONTENT_REF.matcher(new String(entry.getValue(), "UTF-8"));
+				while (m.find()) {
+					assertTrue(entries.containsKey(m.group(1)));
+					assertEquals(size, entries.get(m.group(1)).length);
+					contents++;
+				}
+			}
+		}
+		assertTrue(foxmls > 0);
+		assertEquals(numContents, contents);
+	}
+
+	private static String repeat(String value, int count) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			builder.append(value);
+		}
+		return builder.toString();
+	}
+
+	private Map<String, byte[]> readTar(File file) throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			byte[] header = new byte[512];
+			while (true) {
+				in.readFully(header);
+				if (header[0] == 0) {
+					break;
+				}
+				String name = new String(header, 0, 100, "UTF-8").trim();
+				String prefix = new String(header, 345, 155, "UTF-8").trim();
+				if (prefix.length() > 0) {
+					name = prefix + "/" + name;
+				}
+				long size = Long.parseLong(new String(header, 124, 11, "US-ASCII"), 8);
+				byte[] data = new byte[(int) size];
+				in.readFully(data);
+				in.readFully(new byte[(int) ((512 - size % 512) % 512)]);
+				entries.put(name, data);
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return entries;
+	}
+
+	private Map<String, byte[]> readZip(File file) throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		ZipInputStream in = new ZipInputStream(new FileInputStream(file));
+		try {
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				entries.put(entry.getName(), IOUtils.toByteArray(in));
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return entries;
+	}
+}
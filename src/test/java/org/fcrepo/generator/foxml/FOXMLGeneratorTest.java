@@ -1,8 +1,10 @@
 package org.fcrepo.generator.foxml;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -11,25 +13,44 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.dto.factories.Corpus;
 import org.fcrepo.dto.factories.Datastreams;
 import org.fcrepo.dto.factories.FOXMLs;
 import org.fcrepo.dto.factories.FedoraObjects;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.fcrepo.dto.factories.cli.Shard;
+import org.fcrepo.dto.factories.content.ContentWriters;
+import org.fcrepo.dto.factories.content.SyntheticContent;
+import org.fcrepo.dto.factories.durability.Durability;
+import org.fcrepo.dto.factories.foxml.StreamingFOXMLWriter;
+import org.fcrepo.dto.factories.foxml.TemplateFOXMLWriter;
+import org.fcrepo.dto.factories.layout.DirectoryLayouts;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
 import org.w3c.dom.bootstrap.DOMImplementationRegistry;
 import org.w3c.dom.ls.DOMImplementationLS;
 import org.w3c.dom.ls.LSOutput;
 import org.w3c.dom.ls.LSSerializer;
 
+import com.github.cwilper.fcrepo.dto.core.ContentDigest;
 import com.github.cwilper.fcrepo.dto.core.ControlGroup;
 import com.github.cwilper.fcrepo.dto.core.Datastream;
 import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
@@ -74,6 +95,260 @@ public class FOXMLGeneratorTest {
 		assertTrue(f.length() > 0);
 	}
 
+	@Test
+	public void testGenerateInlineFOXMLFromRandomData() throws Exception {
+		File f = FOXMLs.generateInlineFOXMLFromRandomData(2, 1000L, TEMP_DIR, new GenerationOptions());
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(f);
+		NodeList contents = doc.getElementsByTagName("binaryContent");
+		assertEquals(2, contents.getLength());
+		for (int i = 0; i < contents.getLength(); i++) {
+			byte[] decoded = Base64.decodeBase64(contents.item(i).getTextContent().trim().getBytes("UTF-8"));
+			assertEquals(1000, decoded.length);
+		}
+	}
+
+	@Test
+	public void testSeededGeneration() throws Exception {
+		GenerationOptions options = new GenerationOptions().seed(42L);
+		String first = toFOXML(FedoraObjects.generateFedoraObjectFromRandomData(3, 1000, TEMP_DIR,
+				ControlGroup.MANAGED, options, options.random(7)));
+		File contentFile = new File(TEMP_DIR, first.replaceAll("(?s).*REF=\"file:[^\"]*/(ds-[^\"]+)\".*", "$1"));
+		String md5 = DigestUtils.md5Hex(FileUtils.readFileToByteArray(contentFile));
+		// materializing synthetic content later on yields the same object
+		// and overwrites the content with identical bytes
+		FedoraObject synthetic = FedoraObjects.generateFedoraObjectFromRandomData(3, 1000, TEMP_DIR,
+				ControlGroup.MANAGED, options.copy().synthetic(true), options.random(7));
+		FedoraObjects.materializeContent(synthetic, TEMP_DIR, options);
+		assertEquals(first, toFOXML(synthetic));
+		assertEquals(md5, DigestUtils.md5Hex(FileUtils.readFileToByteArray(contentFile)));
+		assertFalse(first.equals(toFOXML(FedoraObjects.generateFedoraObjectFromRandomData(3, 1000, TEMP_DIR,
+				ControlGroup.MANAGED, options, options.random(8)))));
+
+		// the shards of a corpus are disjoint and complete
+		Set<Long> indices = new HashSet<Long>();
+		for (int i = 0; i < 3; i++) {
+			Shard shard = Shard.parse(i + "/3");
+			Corpus slice = new Corpus(10).slice(shard.getIndex(), shard.getCount());
+			Iterator<Long> it = slice.indices();
+			int count = 0;
+			while (it.hasNext()) {
+				assertTrue(indices.add(it.next()));
+				count++;
+			}
+			assertEquals(slice.size(), count);
+		}
+		assertEquals(10, indices.size());
+	}
+
+	@Test
+	public void testLazyCorpus() throws Exception {
+		Corpus corpus = new Corpus(10).contentSize(100).directory(TEMP_DIR)
+				.options(new GenerationOptions().seed(5L).synthetic(true));
+		List<String> pids = new ArrayList<String>();
+		for (FedoraObject fo : corpus.objects()) {
+			pids.add(fo.pid());
+		}
+		assertEquals(10, pids.size());
+
+		// the slices are disjoint and yield the same objects as the corpus
+		Set<String> sliced = new HashSet<String>();
+		long size = 0;
+		for (Corpus slice : corpus.split(3)) {
+			size += slice.size();
+			for (FedoraObject fo : slice.objects()) {
+				assertTrue(sliced.add(fo.pid()));
+			}
+		}
+		assertEquals(10, size);
+		assertEquals(new HashSet<String>(pids), sliced);
+		// slicing a slice picks every other of the objects 1, 4 and 7
+		Iterator<FedoraObject> nested = corpus.slice(1, 3).slice(0, 2).objects().iterator();
+		assertEquals(pids.get(1), nested.next().pid());
+		assertEquals(pids.get(7), nested.next().pid());
+		assertFalse(nested.hasNext());
+
+		int files = 0;
+		for (File f : corpus.slice(0, 5).inline(true).files()) {
+			assertTrue(f.length() > 0);
+			files++;
+		}
+		assertEquals(2, files);
+	}
+
+	@Test
+	public void testHashedLayout() throws Exception {
+		File root = new File(TEMP_DIR, "hashed");
+		GenerationOptions options = new GenerationOptions().layout(DirectoryLayouts.hashed(2));
+		Set<File> directories = new HashSet<File>();
+		for (int i = 0; i < 20; i++) {
+			FedoraObject fo = FedoraObjects.generateFedoraObjectFromRandomData(1, 100, root, ControlGroup.MANAGED,
+					options);
+			File foxml = FOXMLs.writeFOXML(fo, root, options);
+			// named after the PID, two levels of hex directories below root
+			assertEquals(fo.pid().replace(':', '_') + ".xml", foxml.getName());
+			assertTrue(foxml.getParentFile().getName().matches("[0-9a-f]{2}"));
+			assertEquals(root, foxml.getParentFile().getParentFile().getParentFile());
+			directories.add(foxml.getParentFile());
+			File content = new File(fo.datastreams().values().iterator().next().versions().first()
+					.contentLocation());
+			assertEquals(100, content.length());
+			assertEquals(root, content.getParentFile().getParentFile().getParentFile());
+		}
+		assertTrue(directories.size() > 1);
+		// the same name always ends up in the same directory
+		assertEquals(DirectoryLayouts.hashed(2).file(root, "test.xml"), options.layout().file(root, "test.xml"));
+	}
+
+	@Test
+	public void testDurability() throws Exception {
+		Durability group = Durability.groupCommit(3, 60000);
+		GenerationOptions options = new GenerationOptions().durability(group);
+		for (int i = 0; i < 7; i++) {
+			FOXMLs.writeFOXML(FedoraObjects.generateFedoraObjectFromRandomData(1, 100, TEMP_DIR,
+					ControlGroup.MANAGED, options), TEMP_DIR, options);
+		}
+		// two batches of three objects with a content file and a FOXML each
+		assertEquals(2, group.getCommits());
+		assertEquals(12, group.getSyncs());
+		group.close();
+		assertEquals(3, group.getCommits());
+		assertEquals(14, group.getSyncs());
+
+		Durability object = Durability.perObject();
+		options.durability(object);
+		FOXMLs.writeFOXML(FedoraObjects.generateFedoraObjectFromRandomData(2, 100, TEMP_DIR,
+				ControlGroup.MANAGED, options), TEMP_DIR, options);
+		assertEquals(3, object.getCommits());
+		assertEquals(0, Durability.none().getSyncs());
+	}
+
+	@Test
+	public void testGroupCommitFlushWaitsForOtherThreads() throws Exception {
+		final Durability group = Durability.groupCommit(2, 60000);
+		final File file = new File(TEMP_DIR, "durability.bin");
+		FileUtils.writeStringToFile(file, "durable");
+		final AtomicLong reported = new AtomicLong();
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final List<Thread> writers = new ArrayList<Thread>();
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		for (int t = 0; t < 4; t++) {
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (running.get()) {
+							group.written(file);
+							reported.incrementAndGet();
+							group.completed();
+						}
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			};
+			writer.start();
+			writers.add(writer);
+		}
+		try {
+			for (int i = 0; i < 200; i++) {
+				// every file reported before a flush is synced when it returns,
+				// even if another thread's commit is still syncing it
+				long before = reported.get();
+				group.flush();
+				assertTrue(group.getSyncs() >= before);
+			}
+		} finally {
+			running.set(false);
+			for (Thread writer : writers) {
+				writer.join();
+			}
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+		group.close();
+		assertEquals(reported.get(), group.getSyncs());
+	}
+
+	private String toFOXML(FedoraObject fo) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new StreamingFOXMLWriter().writeObject(fo, out);
+		return out.toString("UTF-8");
+	}
+
+	@Test
+	public void testStreamingWriterMatchesFOXMLWriter() throws Exception {
+		FedoraObject fo = FedoraObjects.generateFedoraObjectFromRandomData(2, 100, TEMP_DIR);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		new FOXMLWriter().writeObject(fo, expected);
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		new StreamingFOXMLWriter().writeObject(fo, actual);
+		assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+	}
+
+	@Test
+	public void testTemplateWriterMatchesStreamingWriter() throws Exception {
+		GenerationOptions options = new GenerationOptions().digest("MD5");
+		FedoraObject fo = FedoraObjects.generateFedoraObjectFromRandomData(3, 100, TEMP_DIR, ControlGroup.MANAGED,
+				options);
+		assertSameFOXML(fo, false);
+		// a second object of the same shape is rendered from the cached template
+		assertSameFOXML(FedoraObjects.generateFedoraObjectFromRandomData(3, 100, TEMP_DIR, ControlGroup.MANAGED,
+				options), false);
+		assertSameFOXML(FedoraObjects.generateFedoraObjectFromRandomData(2, 1000, TEMP_DIR, ControlGroup.MANAGED,
+				options.copy().synthetic(true)), true);
+
+		File xml = new File(this.getClass().getClassLoader().getResource("logback.xml").toURI());
+		assertSameFOXML(FedoraObjects.generateFedoraObjectFromURI(xml.toURI(), ControlGroup.INLINE_XML), false);
+		// streamed XML is only known to the streaming writers
+		assertSameFOXML(FedoraObjects.generateFedoraObjectFromURI(xml.toURI(), ControlGroup.INLINE_XML,
+				new GenerationOptions().streamInlineXML(true)), false, false);
+
+		// values are escaped like the XML stream writer does
+		fo = FedoraObjects.generateFedoraObjectFromURI(xml.toURI(), ControlGroup.EXTERNAL);
+		fo.label("<\"quoted\" & 'escaped'> \u00e4\u20ac\ud83d\ude00\t");
+		DatastreamVersion v = fo.datastreams().get(fo.datastreams().firstKey()).versions().first();
+		v.altIds().add(URI.create("info:alt/1"));
+		v.altIds().add(URI.create("info:alt/2"));
+		v.contentLocation(URI.create("internal:test:1+DS+DS.0"));
+		v.size(42L);
+		assertSameFOXML(fo, false);
+
+		// a missing PID or digest value yields a shape of it's own
+		for (int i = 0; i < 2; i++) {
+			fo = FedoraObjects.generateFedoraObjectFromURI(xml.toURI(), ControlGroup.EXTERNAL);
+			v = fo.datastreams().get(fo.datastreams().firstKey()).versions().first();
+			v.contentDigest(new ContentDigest().type("MD5").hexValue(i == 0 ? null : "abc"));
+			fo.pid(i == 0 ? null : "test:template");
+			assertSameFOXML(fo, false);
+		}
+	}
+
+	private void assertSameFOXML(FedoraObject fo, boolean embed) throws IOException {
+		// the FOXMLWriter can not embed content
+		assertSameFOXML(fo, embed, !embed);
+	}
+
+	private void assertSameFOXML(FedoraObject fo, boolean embed, boolean checkReference) throws IOException {
+		Set<String> embedded = embed ? fo.datastreams().keySet() : new HashSet<String>();
+		StreamingFOXMLWriter expectedWriter = FOXMLs.createWriter(new GenerationOptions());
+		expectedWriter.setManagedDatastreamsToEmbed(embedded);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expectedWriter.writeObject(fo, expected);
+		if (checkReference) {
+			ByteArrayOutputStream reference = new ByteArrayOutputStream();
+			new FOXMLWriter().writeObject(fo, reference);
+			assertEquals(reference.toString("UTF-8"), expected.toString("UTF-8"));
+		}
+		StreamingFOXMLWriter actualWriter = FOXMLs.createWriter(new GenerationOptions().templates(true));
+		assertTrue(actualWriter instanceof TemplateFOXMLWriter);
+		actualWriter.setManagedDatastreamsToEmbed(embedded);
+		// the template of a shape is compiled once the shape repeats
+		for (int i = 0; i < 3; i++) {
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			actualWriter.writeObject(fo, actual);
+			assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+		}
+	}
+
 	@Test
 	public void testGenerateFedoraObjectFromRandomData() throws Exception {
 		FedoraObject fo = FedoraObjects.generateFedoraObjectFromRandomData(3, 8198, TEMP_DIR);
@@ -89,6 +364,36 @@ public class FOXMLGeneratorTest {
 		}
 	}
 
+	@Test
+	public void testContentDigests() throws Exception {
+		FedoraObject fo = FedoraObjects.generateFedoraObjectFromRandomData(2, 10000, TEMP_DIR, ControlGroup.MANAGED,
+				new GenerationOptions().digest("sha256"));
+		for (DatastreamVersion v : fo.datastreams().get(fo.datastreams().firstKey()).versions()) {
+			assertEquals("SHA-256", v.contentDigest().type());
+			assertEquals(DigestUtils.sha256Hex(FileUtils.readFileToByteArray(new File(v.contentLocation()))),
+					v.contentDigest().hexValue());
+		}
+		FedoraObject synthetic = FedoraObjects.generateFedoraObjectFromRandomData(1, 10000, TEMP_DIR,
+				ControlGroup.MANAGED, new GenerationOptions().synthetic(true));
+		DatastreamVersion v = synthetic.datastreams().get(synthetic.datastreams().firstKey()).versions().first();
+		String expected = Datastreams.digestContent(v.copy(), "MD5").contentDigest().hexValue();
+		Datastreams.materializeContent(v, TEMP_DIR, ContentWriters.stream(), "MD5");
+		assertEquals(expected, v.contentDigest().hexValue());
+		assertEquals(expected, DigestUtils.md5Hex(FileUtils.readFileToByteArray(new File(v.contentLocation()))));
+	}
+
+	@Test
+	public void testGenerateFedoraObjectFromSyntheticData() throws Exception {
+		int numFiles = TEMP_DIR.list().length;
+		FedoraObject fo = FedoraObjects.generateFedoraObjectFromRandomData(2, 8198, TEMP_DIR, ControlGroup.MANAGED,
+				new GenerationOptions().synthetic(true));
+		assertEquals(numFiles, TEMP_DIR.list().length);
+		for (DatastreamVersion v : fo.datastreams().get(fo.datastreams().firstKey()).versions()) {
+			assertTrue(SyntheticContent.isSynthetic(v.contentLocation()));
+			assertEquals(8198, IOUtils.toByteArray(SyntheticContent.openStream(v.contentLocation())).length);
+		}
+	}
+
 	@Test
 	public void testGenerateDatastreamsFromFiles() throws Exception {
 		List<URI> files = new ArrayList<URI>();
@@ -136,6 +441,62 @@ public class FOXMLGeneratorTest {
 		System.out.println(prettyPrint(in));
 	}
 
+	@Test
+	public void testStreamedInlineXML() throws Exception {
+		File xml = new File(TEMP_DIR, "inline.xml");
+		FileUtils.writeStringToFile(xml, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<test><child>value</child></test>\n",
+				"UTF-8");
+		GenerationOptions options = new GenerationOptions().streamInlineXML(true).validateInlineXML(true);
+		FedoraObject object = FedoraObjects.generateFedoraObjectFromURI(xml.toURI(), ControlGroup.INLINE_XML, options);
+		File foxml = FOXMLs.writeFOXML(object, TEMP_DIR, options);
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(foxml);
+		assertEquals("value", doc.getElementsByTagName("child").item(0).getTextContent());
+
+		// the size limit applies to both eager and streamed inline XML
+		try {
+			FedoraObjects.generateFedoraObjectFromURI(xml.toURI(), ControlGroup.INLINE_XML,
+					new GenerationOptions().inlineXMLLimit(16));
+			fail("inline XML exceeding the limit has been accepted");
+		} catch (IOException e) {
+			// expected
+		}
+
+		// a comment in the prolog is embedded as well
+		FileUtils.writeStringToFile(xml, "<?xml version='1.0' encoding='us-ascii'?>\n<!-- note -->\n<test/>",
+				"UTF-8");
+		object = FedoraObjects.generateFedoraObjectFromURI(xml.toURI(), ControlGroup.INLINE_XML, options);
+		foxml = FOXMLs.writeFOXML(object, TEMP_DIR, options);
+		assertEquals(1, DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(foxml)
+				.getElementsByTagName("test").getLength());
+
+		// broken XML is detected while it is streamed, and content which can
+		// not be embedded as it is is rejected. No partial FOXML is left behind
+		File target = new File(TEMP_DIR, "rejected");
+		target.mkdir();
+		String[] rejected = new String[] { "<test><child>value</test>",
+				"<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><test>\u00e4</test>",
+				"<?xml version=\"1.0\"?>\n<!DOCTYPE test [<!ENTITY e \"x\">]><test>&e;</test>" };
+		for (String content : rejected) {
+			FileUtils.writeStringToFile(xml, content, "ISO-8859-1");
+			object = FedoraObjects.generateFedoraObjectFromURI(xml.toURI(), ControlGroup.INLINE_XML, options);
+			try {
+				FOXMLs.writeFOXML(object, target, options);
+				fail("inline XML has been accepted: " + content);
+			} catch (IOException e) {
+				// expected
+			}
+			assertEquals(0, target.list().length);
+		}
+		FileUtils.writeByteArrayToFile(xml, "<test/>".getBytes("UTF-16"));
+		object = FedoraObjects.generateFedoraObjectFromURI(xml.toURI(), ControlGroup.INLINE_XML, options);
+		try {
+			FOXMLs.writeFOXML(object, target, options);
+			fail("UTF-16 inline XML has been accepted");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("UTF-8"));
+		}
+	}
+
 	private String prettyPrint(InputStream in) throws Exception {
 		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
 		DOMImplementationRegistry registry = DOMImplementationRegistry.newInstance();
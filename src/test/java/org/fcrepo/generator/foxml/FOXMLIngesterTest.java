@@ -0,0 +1,201 @@
+package org.fcrepo.generator.foxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.fcrepo.dto.factories.Corpus;
+import org.fcrepo.dto.factories.FedoraObjects;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.fcrepo.dto.factories.ingest.FOXMLIngester;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class FOXMLIngesterTest {
+
+	private final Set<String> ingested = Collections.synchronizedSet(new HashSet<String>());
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final AtomicInteger maxActive = new AtomicInteger();
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private static final int LATENCY = 100;
+
+	private HttpServer server;
+
+	private ExecutorService serverThreads;
+
+	@Before
+	public void startStub() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.createContext("/fedora/objects/", new HttpHandler() {
+			public void handle(final HttpExchange exchange) throws IOException {
+				final int current = active.incrementAndGet();
+				synchronized (maxActive) {
+					maxActive.set(Math.max(maxActive.get(), current));
+				}
+				try {
+					final String path = exchange.getRequestURI().getRawPath();
+					final String pid = URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), "UTF-8");
+					if (requests.incrementAndGet() == 1) {
+						// the first request hits an overloaded server
+						exchange.getRequestBody().close();
+						respond(exchange, 503, "busy");
+						return;
+					}
+					final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
+							exchange.getRequestBody());
+					if (!pid.equals(doc.getDocumentElement().getAttribute("PID"))
+							|| doc.getElementsByTagName("binaryContent").getLength() != 1) {
+						respond(exchange, 400, "unexpected FOXML");
+						return;
+					}
+					Thread.sleep(LATENCY);
+					ingested.add(pid);
+					respond(exchange, 201, pid);
+				} catch (Exception e) {
+					respond(exchange, 500, e.toString());
+				} finally {
+					active.decrementAndGet();
+				}
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void stopStub() {
+		server.stop(0);
+		serverThreads.shutdownNow();
+	}
+
+	@Test
+	public void testIngestWithBackpressure() throws Exception {
+		Corpus corpus = new Corpus(12).contentSize(10000).options(new GenerationOptions().synthetic(true));
+		FOXMLIngester ingester = new FOXMLIngester(endpoint(), 3, 1).backoff(10);
+		Set<String> pids = new HashSet<String>();
+		for (FedoraObject fo : corpus.objects()) {
+			pids.add(fo.pid());
+			ingester.ingest(fo);
+		}
+		ingester.close();
+		assertEquals(pids, ingested);
+		assertEquals(12, ingester.getIngested());
+		assertEquals(1, ingester.getRetries());
+		assertEquals(12, ingester.getLatency().snapshot().getCount());
+		assertTrue(maxActive.get() <= 3);
+		// generating is much faster than the stub, so the generator has to
+		// wait
+		assertTrue(ingester.getStalls() > 0);
+	}
+
+	@Test
+	public void testFailureIsReported() throws Exception {
+		FOXMLIngester ingester = new FOXMLIngester(URI.create(endpoint() + "/nowhere"), 2, 0).retries(0);
+		server.createContext("/fedora/nowhere/", new HttpHandler() {
+			public void handle(final HttpExchange exchange) throws IOException {
+				exchange.getRequestBody().close();
+				respond(exchange, 401, "unauthorized");
+			}
+		});
+		ingester.ingest(new Corpus(1).options(new GenerationOptions().synthetic(true)).object(0));
+		try {
+			ingester.close();
+			fail("a rejected object must be reported");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("401"));
+		}
+		assertEquals(0, ingester.getIngested());
+	}
+
+	@Test
+	public void testLostResponseIsNotIngestedTwice() throws Exception {
+		final Set<String> created = Collections.synchronizedSet(new HashSet<String>());
+		server.createContext("/fedora/lossy/objects/", new HttpHandler() {
+			public void handle(final HttpExchange exchange) throws IOException {
+				final String path = exchange.getRequestURI().getRawPath();
+				final String pid = URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), "UTF-8");
+				if (exchange.getRequestMethod().equals("GET")) {
+					respond(exchange, created.contains(pid) ? 200 : 404, pid);
+					return;
+				}
+				exchange.getRequestBody().close();
+				if (!created.add(pid)) {
+					respond(exchange, 500, "object " + pid + " already exists");
+				} else {
+					// the object is created, but the request fails anyway
+					respond(exchange, 500, "lost");
+				}
+			}
+		});
+		FOXMLIngester ingester = new FOXMLIngester(URI.create(endpoint() + "/lossy"), 2, 0).backoff(10);
+		ingester.ingest(new Corpus(1).options(new GenerationOptions().synthetic(true)).object(0));
+		ingester.close();
+		assertEquals(1, ingester.getIngested());
+		assertEquals(0, ingester.getRetries());
+		assertEquals(1, created.size());
+	}
+
+	@Test
+	public void testLocalFailureIsNotRetried() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "ingest-test-" + UUID.randomUUID());
+		dir.mkdirs();
+		try {
+			FedoraObject fo = FedoraObjects.generateFedoraObjectFromRandomData(1, 100, dir);
+			FileUtils.cleanDirectory(dir);
+			FOXMLIngester ingester = new FOXMLIngester(endpoint(), 2, 0).backoff(10);
+			ingester.ingest(fo);
+			try {
+				ingester.close();
+				fail("a missing content file must be reported");
+			} catch (IOException e) {
+				// expected
+			}
+			assertEquals(0, ingester.getRetries());
+			assertEquals(0, ingester.getIngested());
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	private URI endpoint() {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/fedora");
+	}
+
+	private static void respond(final HttpExchange exchange, final int status, final String body)
+			throws IOException {
+		final byte[] data = body.getBytes("UTF-8");
+		exchange.sendResponseHeaders(status, data.length);
+		final OutputStream out = exchange.getResponseBody();
+		out.write(data);
+		out.close();
+	}
+}
@@ -0,0 +1,96 @@
+package org.fcrepo.generator.foxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.fcrepo.dto.factories.Corpus;
+import org.fcrepo.dto.factories.FOXMLs;
+import org.fcrepo.dto.factories.FedoraObjects;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.fcrepo.dto.factories.journal.GenerationJournal;
+import org.fcrepo.dto.factories.layout.DirectoryLayouts;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+
+public class GenerationJournalTest {
+
+	private File root;
+
+	@Before
+	public void init() throws IOException {
+		// separators and escapes of the journal's records are valid in paths
+		root = new File(System.getProperty("java.io.tmpdir"), "journal-test,=%2c-" + UUID.randomUUID());
+		root.mkdirs();
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	@Test
+	public void testResumeAfterCrash() throws Exception {
+		final File file = new File(root, "generation.journal");
+		final Corpus corpus = new Corpus(3).contentSize(100).options(
+				new GenerationOptions().synthetic(true).seed(42L));
+		final GenerationOptions options = new GenerationOptions();
+		GenerationJournal journal = new GenerationJournal(file, "seed=42", 1000);
+		final List<File> completed = new ArrayList<File>();
+		for (long index = 0; index < 2; index++) {
+			final FedoraObject fo = FedoraObjects.materializeContent(corpus.object(index), root, options);
+			final File foxml = FOXMLs.writeFOXML(fo, root, options);
+			journal.record(String.valueOf(index), fo, foxml);
+			completed.add(foxml);
+		}
+		assertEquals(2, journal.getRecorded());
+		journal.close();
+		// the crash hits while the last object is being written
+		final FedoraObject partial = FedoraObjects.materializeContent(corpus.object(2), root, options);
+		FOXMLs.writeFOXML(partial, root, options);
+		FileUtils.writeStringToFile(file, FileUtils.readFileToString(file, "UTF-8") + "2\tpartial", "UTF-8");
+		// unrelated data below the target directory, and a stray file in a
+		// shard directory of a hashed layout
+		final File input = new File(root, "input/data.xml");
+		FileUtils.writeStringToFile(input, "<input/>", "UTF-8");
+		final File stray = new File(root, "ab/ds-stray");
+		FileUtils.writeStringToFile(stray, "stray", "UTF-8");
+		final int filesBefore = root.listFiles().length;
+
+		try {
+			new GenerationJournal(file, "seed=43", 1000);
+			fail("a journal must only be resumed by the same run");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		journal = new GenerationJournal(file, "seed=42", 1000);
+		assertEquals(2, journal.getResumed());
+		assertTrue(journal.isCompleted("0"));
+		assertTrue(journal.isCompleted("1"));
+		assertFalse(journal.isCompleted("2"));
+		// the FOXML file and the content file of the partial object
+		assertEquals(2, journal.cleanup(root, DirectoryLayouts.flat()));
+		assertEquals(filesBefore - 2, root.listFiles().length);
+		assertTrue(stray.exists());
+		assertEquals(1, journal.cleanup(root, DirectoryLayouts.hashed(1)));
+		assertFalse(stray.exists());
+		assertTrue(input.exists());
+		for (File foxml : completed) {
+			assertTrue(foxml.exists());
+		}
+		assertTrue(file.exists());
+		journal.close();
+		assertFalse(FileUtils.readFileToString(file, "UTF-8").contains("partial"));
+	}
+}
@@ -0,0 +1,53 @@
+package org.fcrepo.generator.foxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.fcrepo.dto.factories.metrics.GenerationMetrics;
+import org.fcrepo.dto.factories.metrics.LatencyHistogram;
+import org.junit.Test;
+
+public class GenerationMetricsTest {
+
+	@Test
+	public void testHistogramQuantiles() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000000L);
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500500000d, snapshot.getMean(), 1d);
+		assertEquals(1000000000L, snapshot.getMax());
+		assertWithin(500000000L, snapshot.getQuantile(0.5));
+		assertWithin(990000000L, snapshot.getQuantile(0.99));
+		assertEquals(1000000000L, snapshot.getQuantile(1d));
+
+		histogram.record(5);
+		LatencyHistogram.Snapshot interval = histogram.snapshot().since(snapshot);
+		assertEquals(1, interval.getCount());
+		assertEquals(5, interval.getQuantile(0.5));
+	}
+
+	@Test
+	public void testSummary() throws Exception {
+		GenerationMetrics metrics = new GenerationMetrics();
+		metrics.stage("build").record(2000000L);
+		metrics.stage("serialize").record(3000000L);
+		metrics.objectCompleted();
+		metrics.objectFailed();
+		metrics.contentWritten(1000);
+		metrics.foxmlWritten(2000);
+		metrics.stop();
+		String json = metrics.toJSON();
+		assertTrue(json.contains("\"objects\": 1,"));
+		assertTrue(json.contains("\"errors\": 1,"));
+		assertTrue(json.contains("\"contentBytes\": 1000,"));
+		assertTrue(json.contains("\"foxmlBytes\": 2000,"));
+		assertTrue(json.indexOf("\"build\": {\"count\": 1") < json.indexOf("\"serialize\": {\"count\": 1"));
+	}
+
+	private void assertWithin(long expected, long actual) {
+		assertTrue("expected " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 8);
+	}
+}
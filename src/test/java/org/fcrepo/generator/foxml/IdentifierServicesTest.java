@@ -0,0 +1,83 @@
+package org.fcrepo.generator.foxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.fcrepo.dto.factories.ObjectRandom;
+import org.fcrepo.dto.factories.ids.IdentifierService;
+import org.fcrepo.dto.factories.ids.IdentifierServices;
+import org.junit.Test;
+
+public class IdentifierServicesTest {
+
+	@Test
+	public void testSequentialBlocks() throws Exception {
+		final IdentifierService ids = IdentifierServices.sequential("test", 16);
+		assertEquals("test:1", ids.nextPID());
+		assertEquals("test:2", ids.nextPID());
+		assertEquals("1", ids.nextId());
+		assertEquals("test:6", ids.pid(5));
+		// seeded corpora number the PIDs by index
+		assertEquals("test:43", ObjectRandom.seeded(1, 42, ids).nextPID());
+
+		// 8 threads with blocks of 16 must not hand out any PID twice
+		final Set<String> pids = drawConcurrently(ids, 8, 1000);
+		assertEquals(8 * 1000, pids.size());
+	}
+
+	@Test
+	public void testTimeOrdered() throws Exception {
+		final IdentifierService ids = IdentifierServices.forName("time", "demo", 0);
+		assertEquals("demo", ids.namespace());
+		assertNull(ids.pid(0));
+		String last = ids.nextId();
+		for (int i = 0; i < 100000; i++) {
+			final String next = ids.nextId();
+			assertTrue(next.compareTo(last) > 0);
+			last = next;
+		}
+		assertTrue(ids.nextPID().startsWith("demo:"));
+		assertEquals(8 * 10000, drawConcurrently(ids, 8, 10000).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidNamespace() {
+		IdentifierServices.forName("sequential", "no:colons", 10);
+	}
+
+	private Set<String> drawConcurrently(final IdentifierService ids, final int threads, final int count)
+			throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(new Callable<List<String>>() {
+					public List<String> call() {
+						final List<String> pids = new ArrayList<String>(count);
+						for (int j = 0; j < count; j++) {
+							pids.add(ids.nextPID());
+						}
+						return pids;
+					}
+				}));
+			}
+			final Set<String> pids = new HashSet<String>();
+			for (Future<List<String>> future : futures) {
+				pids.addAll(future.get());
+			}
+			return pids;
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
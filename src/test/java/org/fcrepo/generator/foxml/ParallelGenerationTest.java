@@ -0,0 +1,170 @@
+package org.fcrepo.generator.foxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fcrepo.dto.factories.cli.GenerationPipeline;
+import org.fcrepo.dto.factories.cli.ParallelGenerator;
+import org.junit.Test;
+
+public class ParallelGenerationTest {
+
+	@Test
+	public void testParallelGeneratorCountsTasks() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int i = 0; i < 1000; i++) {
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					return calls.incrementAndGet();
+				}
+			});
+		}
+		ParallelGenerator generator = new ParallelGenerator(4);
+		assertEquals(1000, generator.run(tasks.iterator()));
+		assertEquals(1000, calls.get());
+		// every run counts it's own tasks
+		assertEquals(10, generator.run(tasks.subList(0, 10).iterator()));
+		assertEquals(10, generator.getCompleted());
+		assertEquals(1010, calls.get());
+	}
+
+	@Test
+	public void testParallelGeneratorStopsOnFirstError() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		Callable<Object> failing = new Callable<Object>() {
+			public Object call() throws IOException {
+				if (calls.incrementAndGet() == 10) {
+					throw new IOException("expected");
+				}
+				return null;
+			}
+		};
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int i = 0; i < 100000; i++) {
+			tasks.add(failing);
+		}
+		try {
+			new ParallelGenerator(4).run(tasks.iterator());
+			fail("expected an IOException");
+		} catch (IOException e) {
+			assertEquals("expected", e.getMessage());
+		}
+		assertTrue(calls.get() < 100000);
+
+		// an error ends the run as well instead of just the worker
+		tasks = new ArrayList<Callable<Object>>();
+		for (int i = 0; i < 100; i++) {
+			final int index = i;
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					if (index == 10) {
+						throw new AssertionError("expected");
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			new ParallelGenerator(4).run(tasks.iterator());
+			fail("expected an AssertionError");
+		} catch (AssertionError e) {
+			assertEquals("expected", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testPipelinePassesItemsThroughAllStages() throws Exception {
+		final AtomicInteger sum = new AtomicInteger();
+		GenerationPipeline pipeline = new GenerationPipeline(2)
+				.stage("double", 3, new GenerationPipeline.Stage<Integer, Integer>() {
+					public Integer process(Integer item) {
+						return item * 2;
+					}
+				})
+				.stage("sum", 2, new GenerationPipeline.Stage<Integer, Integer>() {
+					public Integer process(Integer item) {
+						return sum.addAndGet(item);
+					}
+				});
+		assertEquals(100, pipeline.run(range(100)));
+		assertEquals(9900, sum.get());
+		// every run counts it's own items
+		assertEquals(10, pipeline.run(range(10)));
+		assertEquals(10, pipeline.getCompleted());
+	}
+
+	@Test(timeout = 10000)
+	public void testPipelineStopsOnError() throws Exception {
+		GenerationPipeline pipeline = new GenerationPipeline(2)
+				.stage("build", 2, new GenerationPipeline.Stage<Integer, Integer>() {
+					public Integer process(Integer item) {
+						if (item == 50) {
+							throw new AssertionError("expected");
+						}
+						return item;
+					}
+				})
+				.stage("write", 1, new GenerationPipeline.Stage<Integer, Integer>() {
+					public Integer process(Integer item) {
+						return item;
+					}
+				});
+		try {
+			pipeline.run(range(Integer.MAX_VALUE));
+			fail("expected an AssertionError");
+		} catch (AssertionError e) {
+			assertEquals("expected", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testPipelineStopsOnFirstError() throws Exception {
+		GenerationPipeline pipeline = new GenerationPipeline(2)
+				.stage("build", 1, new GenerationPipeline.Stage<Integer, Integer>() {
+					public Integer process(Integer item) {
+						return item;
+					}
+				})
+				.stage("fail", 2, new GenerationPipeline.Stage<Integer, Integer>() {
+					public Integer process(Integer item) throws IOException {
+						if (item == 50) {
+							throw new IOException("expected");
+						}
+						return item;
+					}
+				});
+		try {
+			pipeline.run(range(Integer.MAX_VALUE));
+			fail("expected an IOException");
+		} catch (IOException e) {
+			assertEquals("expected", e.getMessage());
+		}
+	}
+
+	private Iterator<Integer> range(final int n) {
+		return new Iterator<Integer>() {
+			private int i = 0;
+
+			public boolean hasNext() {
+				return i < n;
+			}
+
+			public Integer next() {
+				return i++;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
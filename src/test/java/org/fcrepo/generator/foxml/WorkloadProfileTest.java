@@ -0,0 +1,133 @@
+package org.fcrepo.generator.foxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.fcrepo.dto.factories.Corpus;
+import org.fcrepo.dto.factories.FedoraObjects;
+import org.fcrepo.dto.factories.GenerationOptions;
+import org.fcrepo.dto.factories.content.SplitMix64;
+import org.fcrepo.dto.factories.workload.Distribution;
+import org.fcrepo.dto.factories.workload.Distributions;
+import org.fcrepo.dto.factories.workload.WorkloadProfile;
+import org.junit.Test;
+
+import com.github.cwilper.fcrepo.dto.core.Datastream;
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+
+public class WorkloadProfileTest {
+
+	private static final int SAMPLES = 100000;
+
+	@Test
+	public void testDistributions() throws Exception {
+		assertEquals(42, median(Distributions.forSpec("42")));
+		long[] uniform = sample(Distributions.forSpec("uniform:10:20"));
+		assertEquals(10, uniform[0]);
+		assertEquals(20, uniform[SAMPLES - 1]);
+		// the median of a lognormal distribution is it's parameter
+		long lognormal = median(Distributions.forSpec("lognormal:1m:1.5"));
+		assertTrue(String.valueOf(lognormal), Math.abs(lognormal - 1000000) < 30000);
+		long[] pareto = sample(Distributions.forSpec("pareto:1k:1.2:1g"));
+		assertEquals(1000, pareto[0]);
+		assertTrue(pareto[SAMPLES - 1] <= 1000000000L);
+		// the median of a Pareto distribution is min * 2^(1/alpha)
+		assertTrue(Math.abs(pareto[SAMPLES / 2] - 1000 * Math.pow(2, 1 / 1.2)) < 30);
+
+		File file = File.createTempFile("histogram", ".txt");
+		try {
+			FileUtils.writeStringToFile(file, "# size weight\n100 1\n1000 2000 2\n\n5k 1\n", "UTF-8");
+			long[] histogram = sample(Distributions.forSpec("histogram:" + file.getAbsolutePath()));
+			int small = 0, middle = 0, large = 0;
+			for (long value : histogram) {
+				if (value == 100) {
+					small++;
+				} else if (value >= 1000 && value <= 2000) {
+					middle++;
+				} else if (value == 5000) {
+					large++;
+				}
+			}
+			assertEquals(SAMPLES, small + middle + large);
+			assertTrue(Math.abs(middle - SAMPLES / 2) < SAMPLES / 50);
+			assertTrue(Math.abs(small - large) < SAMPLES / 50);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testProfiledCorpus() throws Exception {
+		WorkloadProfile profile = new WorkloadProfile().datastreams(Distributions.uniform(1, 4))
+				.versions(Distributions.uniform(1, 3)).sizes(Distributions.lognormal(1000, 1));
+		Corpus corpus = new Corpus(50).profile(profile).options(new GenerationOptions().seed(3L).synthetic(true));
+		Set<Integer> datastreams = new HashSet<Integer>();
+		Set<Integer> versions = new HashSet<Integer>();
+		List<Long> sizes = new ArrayList<Long>();
+		for (FedoraObject fo : corpus.objects()) {
+			datastreams.add(fo.datastreams().size());
+			for (Datastream ds : fo.datastreams().values()) {
+				versions.add(ds.versions().size());
+			}
+			sizes.add(FedoraObjects.contentSize(fo));
+		}
+		assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3, 4)), datastreams);
+		assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)), versions);
+		// a seeded corpus yields the same shapes again
+		int i = 0;
+		for (FedoraObject fo : corpus.objects()) {
+			assertEquals(sizes.get(i++).longValue(), FedoraObjects.contentSize(fo));
+		}
+		// sampling a fixed shape yields the objects generated before there
+		// were profiles
+		GenerationOptions options = new GenerationOptions().seed(3L).synthetic(true);
+		assertKnownObject(new Corpus(50).options(options).profile(new WorkloadProfile().versions(
+				Distributions.forSpec("fixed:2")).sizes(Distributions.forSpec("500"))).object(7));
+		assertKnownObject(new Corpus(50).options(options).versions(2).contentSize(500).object(7));
+	}
+
+	@Test
+	public void testProfileLimitsCounts() throws Exception {
+		// an uncapped tail must not ask for billions of datastreams or
+		// versions
+		WorkloadProfile profile = new WorkloadProfile().datastreams(Distributions.forSpec("pareto:1:0.1"))
+				.versions(Distributions.lognormal(1e12, 3));
+		assertEquals(WorkloadProfile.MAX_DATASTREAMS, profile.datastreams().sample(0.999999));
+		assertEquals(WorkloadProfile.MAX_VERSIONS, profile.versions().sample(0.999999));
+		assertEquals("pareto:1:0.1", profile.datastreams().toSpec());
+	}
+
+	private static void assertKnownObject(final FedoraObject fo) throws Exception {
+		FedoraObjects.digestContent(fo, "MD5");
+		assertEquals("random:e2c11063-db18-47bf-9b13-b6c85d8b7a77", fo.pid());
+		Datastream ds = fo.datastreams().get("random datastream 47189b95-c5f4-42d5-bb53-3d9e4177dd01");
+		List<String> digests = new ArrayList<String>();
+		for (DatastreamVersion v : ds.versions()) {
+			digests.add(v.contentDigest().hexValue());
+		}
+		assertEquals(Arrays.asList("e310e1137cb4d29054de503078a85150", "90f1555fd1e5889ee45bf1c7eeccb418"), digests);
+	}
+
+	private static long median(final Distribution distribution) {
+		return sample(distribution)[SAMPLES / 2];
+	}
+
+	private static long[] sample(final Distribution distribution) {
+		SplitMix64 random = new SplitMix64(1);
+		long[] values = new long[SAMPLES];
+		for (int i = 0; i < SAMPLES; i++) {
+			values[i] = distribution.sample(random.nextDouble());
+		}
+		Arrays.sort(values);
+		return values;
+	}
+}